@@ -9,6 +9,7 @@
  * -SplitMerge:
  * --Split Compress:     java DnaHuffman splitcompress <in_file> <out_prefix>
  * --Merge Decompress:   java DnaHuffman mergedecompress <in_prefix> <out_file>
+ *   (the parts are decoded in parallel, one per core, each straight into its place in the output)
  *
  * COMPRESSED FILE OUTPUT FORMAT:
  * -The first byte of the compressed file ("InfoByte") tells us the tree topology:
@@ -22,9 +23,13 @@
  * If there is only 1 unique symbol, the resulting compressed file will only contain the first 9 bytes ("InfoByte" + "numChars")
  */
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class DnaHuffman {
     /* MAIN METHOD */
@@ -48,13 +53,19 @@ public class DnaHuffman {
     
     /* SPLIT COMPRESS (only supports strings less than ~1 GB in size)*/
     public static void splitcompress(String INFILE, String OUTPREFIX) {
-        // read number of characters
+        // read number of characters (and check them)
         int numChars = 0;
         try {
-            InputStream in = new BufferedInputStream(new FileInputStream(new File(INFILE)));
-            int b;
-            while((b = in.read()) != -1) {
-                ++numChars;
+            InputStream in = new FileInputStream(new File(INFILE));
+            byte[] block = new byte[1 << 16];
+            int n;
+            while((n = in.readNBytes(block,0,block.length)) > 0) {
+                int bad = countSymbols(block,n,null);
+                if(bad != -1) {
+                    System.err.println("ERROR: Invalid character: '" + (char)(block[bad] & 0xFF) + "'!");
+                    System.exit(-1);
+                }
+                numChars += n;
             }
             in.close();
         }
@@ -1325,188 +1336,303 @@ public class DnaHuffman {
         return out;
     }
     
-    /* MERGE DECOMPRESS */
+    /* MERGE DECOMPRESS (decodes the parts in parallel, each into its place in the output) */
     public static void mergedecompress(String INPREFIX, String OUTFILE) {
         try {
-            // set up files
-            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(OUTFILE))));
-            File dir = new File(".");
+            // find the parts (the prefix followed by the part number, see splitcompress), in order
+            File prefix = new File(INPREFIX);
+            File dir = (prefix.getParentFile() == null) ? new File(".") : prefix.getParentFile();
+            final String NAME = prefix.getName();
             File[] foundFiles = dir.listFiles(new FilenameFilter() {
                 public boolean accept(File dir, String name) {
-                    return name.startsWith(INPREFIX);
+                    if(name.length() == NAME.length() || !name.startsWith(NAME)) {
+                        return false;
+                    }
+                    for(int i = NAME.length(); i < name.length(); ++i) {
+                        if(!Character.isDigit(name.charAt(i))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            });
+            if(foundFiles == null || foundFiles.length == 0) {
+                System.err.println("ERROR: No files found with prefix \"" + INPREFIX + "\"!");
+                System.exit(-1);
+            }
+            Arrays.sort(foundFiles, new Comparator<File>() {
+                public int compare(File a, File b) {
+                    return Long.compare(Long.parseLong(a.getName().substring(NAME.length())),Long.parseLong(b.getName().substring(NAME.length())));
                 }
             });
             
-            // decompress each file
-            for(File f : foundFiles) {
-                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
-                byte infoByte = in.readByte();
-                int numUnique = (int)(infoByte >>> 6) & 3;
-                
-                // if 1 unique symbol, just read length and print that symbol length times
-                if(numUnique == 1) {
-                    char symbol = 'Z';
-                    switch((int)(infoByte >>> 4) & 3) { // the symbol
-                        case 0: symbol = 'A'; break;
-                        case 1: symbol = 'C'; break;
-                        case 2: symbol = 'G'; break;
-                        case 3: symbol = 'T'; break;
-                        default: System.exit(-1);
-                    }
-                    long numChars = in.readLong();
-                    for(long i = 0; i < numChars; ++i) {
-                        out.writeByte((byte)symbol);
-                    }
-                    in.close();
-                    continue;
+            // read the header of each part to find where its symbols start in the output
+            long[] offset = new long[foundFiles.length+1];
+            for(int p = 0; p < foundFiles.length; ++p) {
+                InputStream in = new FileInputStream(foundFiles[p]);
+                byte[] header = in.readNBytes(9); // infoByte, then numChars
+                in.close();
+                long numChars = (header.length == 9) ? ByteBuffer.wrap(header,1,8).getLong() : -1;
+                if(numChars < 0) {
+                    System.err.println("ERROR: Invalid number of symbols in \"" + foundFiles[p] + "\"!");
+                    System.exit(-1);
                 }
-                
-                // build Huffman Tree
-                HuffNode root = new HuffNode('\0');
-                if((int)infoByte == 0) { // all 4 symbols, topology 1, so balanced
-                    root.l = new HuffNode('\0');
-                    root.r = new HuffNode('\0');
-                    root.r.r = new HuffNode('A'); // 00 = A
-                    root.r.l = new HuffNode('C'); // 01 = C
-                    root.l.r = new HuffNode('G'); // 10 = G
-                    root.l.l = new HuffNode('T'); // 11 = T
-                }
-                else if(numUnique == 2) { // 2 unique symbols
-                    switch((int)(infoByte >>> 4) & 3) { // the larger symbol
-                        case 0: root.l = new HuffNode('A'); break;
-                        case 1: root.l = new HuffNode('C'); break;
-                        case 2: root.l = new HuffNode('G'); break;
-                        case 3: root.l = new HuffNode('T'); break;
-                        default: System.exit(-1);
-                    }
-                    switch((int)(infoByte >>> 2) & 3) { // the smaller symbol
-                        case 0: root.r = new HuffNode('A'); break;
-                        case 1: root.r = new HuffNode('C'); break;
-                        case 2: root.r = new HuffNode('G'); break;
-                        case 3: root.r = new HuffNode('T'); break;
-                        default: System.exit(-1);
-                    }
+                offset[p+1] = offset[p] + numChars;
+            }
+            
+            // decode the parts concurrently, each written at its offset of the (pre-sized) output
+            RandomAccessFile raf = new RandomAccessFile(OUTFILE,"rw");
+            raf.setLength(offset[foundFiles.length]);
+            final FileChannel out = raf.getChannel();
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(foundFiles.length,Runtime.getRuntime().availableProcessors()));
+            ArrayList<Future<Void>> parts = new ArrayList<>();
+            for(int p = 0; p < foundFiles.length; ++p) {
+                final File f = foundFiles[p];
+                final long start = offset[p];
+                parts.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        decodePart(f,out,start);
+                        return null;
+                    }
+                }));
+            }
+            try {
+                for(Future<Void> part : parts) {
+                    part.get();
                 }
-                else if(numUnique == 3) { // 3 unique symbols
-                    root.r = new HuffNode('\0');
-                    switch((int)(infoByte >>> 4) & 3) { // the largest symbol
-                        case 0: root.l = new HuffNode('A'); break;
-                        case 1: root.l = new HuffNode('C'); break;
-                        case 2: root.l = new HuffNode('G'); break;
-                        case 3: root.l = new HuffNode('T'); break;
-                        default: System.exit(-1);
-                    }
-                    switch((int)(infoByte >>> 2) & 3) { // the middle symbol
-                        case 0: root.r.l = new HuffNode('A'); break;
-                        case 1: root.r.l = new HuffNode('C'); break;
-                        case 2: root.r.l = new HuffNode('G'); break;
-                        case 3: root.r.l = new HuffNode('T'); break;
-                        default: System.exit(-1);
-                    }
-                    switch((int)infoByte & 3) { // the smallest symbol
-                        case 0: root.r.r = new HuffNode('A'); break;
-                        case 1: root.r.r = new HuffNode('C'); break;
-                        case 2: root.r.r = new HuffNode('G'); break;
-                        case 3: root.r.r = new HuffNode('T'); break;
-                        default: System.exit(-1);
-                    }
+            }
+            finally {
+                pool.shutdown();
+            }
+            out.close();
+            raf.close();
+            System.exit(0);
+        }
+        catch(ExecutionException e) {
+            e.getCause().printStackTrace();
+            System.exit(-1);
+        }
+        catch(Exception e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+    
+    /* Decode one part of a split compression into the output, starting at position start */
+    public static void decodePart(File f, FileChannel out, long start) throws IOException {
+        byte[] data = Files.readAllBytes(f.toPath());
+        if(data.length < 9) {
+            throw new EOFException("\"" + f + "\" is truncated");
+        }
+        byte infoByte = data[0];
+        int numUnique = (int)(infoByte >>> 6) & 3;
+        long numChars = ByteBuffer.wrap(data,1,8).getLong();
+        ByteBuffer buf = ByteBuffer.allocate((int)Math.min(numChars,1 << 20)); // decoded symbols not yet written
+        long pos = start;
+        
+        // if 1 unique symbol, just write that symbol numChars times
+        if(numUnique == 1) {
+            char symbol = 'Z';
+            switch((int)(infoByte >>> 4) & 3) { // the symbol
+                case 0: symbol = 'A'; break;
+                case 1: symbol = 'C'; break;
+                case 2: symbol = 'G'; break;
+                case 3: symbol = 'T'; break;
+                default: System.exit(-1);
+            }
+            Arrays.fill(buf.array(),(byte)symbol);
+            for(long done = 0; done < numChars; done += buf.limit()) {
+                buf.clear();
+                buf.limit((int)Math.min(buf.capacity(),numChars-done));
+                while(buf.hasRemaining()) {
+                    pos += out.write(buf,pos);
                 }
-                else { // 4 unique symbols, unbalanced topology
-                    char l1 = 'Z';
-                    char l2 = 'Z';
-                    char l3 = 'Z';
-                    boolean[] used = new boolean[4];
-                    switch((int)(infoByte >>> 4) & 3) { // extract l1
-                        case 0: l1 = 'A'; used[0] = true; break;
-                        case 1: l1 = 'C'; used[1] = true; break;
-                        case 2: l1 = 'G'; used[2] = true; break;
-                        case 3: l1 = 'T'; used[3] = true; break;
-                        default: System.exit(-1);
+            }
+            return;
+        }
+        
+        // build Huffman Tree
+        HuffNode root = new HuffNode('\0');
+        if((int)infoByte == 0) { // all 4 symbols, topology 1, so balanced
+            root.l = new HuffNode('\0');
+            root.r = new HuffNode('\0');
+            root.r.r = new HuffNode('A'); // 00 = A
+            root.r.l = new HuffNode('C'); // 01 = C
+            root.l.r = new HuffNode('G'); // 10 = G
+            root.l.l = new HuffNode('T'); // 11 = T
+        }
+        else if(numUnique == 2) { // 2 unique symbols
+            switch((int)(infoByte >>> 4) & 3) { // the larger symbol
+                case 0: root.l = new HuffNode('A'); break;
+                case 1: root.l = new HuffNode('C'); break;
+                case 2: root.l = new HuffNode('G'); break;
+                case 3: root.l = new HuffNode('T'); break;
+                default: System.exit(-1);
+            }
+            switch((int)(infoByte >>> 2) & 3) { // the smaller symbol
+                case 0: root.r = new HuffNode('A'); break;
+                case 1: root.r = new HuffNode('C'); break;
+                case 2: root.r = new HuffNode('G'); break;
+                case 3: root.r = new HuffNode('T'); break;
+                default: System.exit(-1);
+            }
+        }
+        else if(numUnique == 3) { // 3 unique symbols
+            root.r = new HuffNode('\0');
+            switch((int)(infoByte >>> 4) & 3) { // the largest symbol
+                case 0: root.l = new HuffNode('A'); break;
+                case 1: root.l = new HuffNode('C'); break;
+                case 2: root.l = new HuffNode('G'); break;
+                case 3: root.l = new HuffNode('T'); break;
+                default: System.exit(-1);
+            }
+            switch((int)(infoByte >>> 2) & 3) { // the middle symbol
+                case 0: root.r.l = new HuffNode('A'); break;
+                case 1: root.r.l = new HuffNode('C'); break;
+                case 2: root.r.l = new HuffNode('G'); break;
+                case 3: root.r.l = new HuffNode('T'); break;
+                default: System.exit(-1);
+            }
+            switch((int)infoByte & 3) { // the smallest symbol
+                case 0: root.r.r = new HuffNode('A'); break;
+                case 1: root.r.r = new HuffNode('C'); break;
+                case 2: root.r.r = new HuffNode('G'); break;
+                case 3: root.r.r = new HuffNode('T'); break;
+                default: System.exit(-1);
+            }
+        }
+        else { // 4 unique symbols, unbalanced topology
+            char l1 = 'Z';
+            char l2 = 'Z';
+            char l3 = 'Z';
+            boolean[] used = new boolean[4];
+            switch((int)(infoByte >>> 4) & 3) { // extract l1
+                case 0: l1 = 'A'; used[0] = true; break;
+                case 1: l1 = 'C'; used[1] = true; break;
+                case 2: l1 = 'G'; used[2] = true; break;
+                case 3: l1 = 'T'; used[3] = true; break;
+                default: System.exit(-1);
+            }
+            switch((int)(infoByte >>> 2) & 3) { // extract l2
+                case 0: l2 = 'A'; used[0] = true; break;
+                case 1: l2 = 'C'; used[1] = true; break;
+                case 2: l2 = 'G'; used[2] = true; break;
+                case 3: l2 = 'T'; used[3] = true; break;
+                default: System.exit(-1);
+            }
+            switch((int)infoByte & 3) { // extract l3
+                case 0: l3 = 'A'; used[0] = true; break;
+                case 1: l3 = 'C'; used[1] = true; break;
+                case 2: l3 = 'G'; used[2] = true; break;
+                case 3: l3 = 'T'; used[3] = true; break;
+                default: System.exit(-1);
+            }
+            root.l = new HuffNode(l1); // length-1 symbol
+            root.r = new HuffNode('\0');
+            root.r.l = new HuffNode(l2); // length-2 symbol
+            root.r.r = new HuffNode('\0');
+            root.r.r.l = new HuffNode(l3); // length-3 symbol
+            for(int i = 0; i < 4; ++i) {
+                if(!used[i]) {
+                    switch(i) {
+                        case 0: root.r.r.r = new HuffNode('A'); break;
+                        case 1: root.r.r.r = new HuffNode('C'); break;
+                        case 2: root.r.r.r = new HuffNode('G'); break;
+                        case 3: root.r.r.r = new HuffNode('T'); break;
                     }
-                    switch((int)(infoByte >>> 2) & 3) { // extract l2
-                        case 0: l2 = 'A'; used[0] = true; break;
-                        case 1: l2 = 'C'; used[1] = true; break;
-                        case 2: l2 = 'G'; used[2] = true; break;
-                        case 3: l2 = 'T'; used[3] = true; break;
-                        default: System.exit(-1);
+                }
+            }
+        }
+        
+        // decode the rest of the file
+        long printed = 0L;
+        HuffNode c = root;
+        int next = 9;
+        while(printed < numChars) {
+            if(next == data.length) {
+                throw new EOFException("\"" + f + "\" is truncated");
+            }
+            byte b = data[next++];
+            for(int i = 7; i >= 0 && printed < numChars; --i) {
+                int bit = (b >>> i) & 1;
+                if(bit == 0) {
+                    if(c.r != null) {
+                        c = c.r;
+                        if(c.l == null && c.r == null) {
+                            buf.put((byte)(c.symbol));
+                            ++printed;
+                            c = root;
+                        }
                     }
-                    switch((int)infoByte & 3) { // extract l3
-                        case 0: l3 = 'A'; used[0] = true; break;
-                        case 1: l3 = 'C'; used[1] = true; break;
-                        case 2: l3 = 'G'; used[2] = true; break;
-                        case 3: l3 = 'T'; used[3] = true; break;
-                        default: System.exit(-1);
+                    else {
+                        c = root.r;
                     }
-                    root.l = new HuffNode(l1); // length-1 symbol
-                    root.r = new HuffNode('\0');
-                    root.r.l = new HuffNode(l2); // length-2 symbol
-                    root.r.r = new HuffNode('\0');
-                    root.r.r.l = new HuffNode(l3); // length-3 symbol
-                    for(int i = 0; i < 4; ++i) {
-                        if(!used[i]) {
-                            switch(i) {
-                                case 0: root.r.r.r = new HuffNode('A'); break;
-                                case 1: root.r.r.r = new HuffNode('C'); break;
-                                case 2: root.r.r.r = new HuffNode('G'); break;
-                                case 3: root.r.r.r = new HuffNode('T'); break;
-                            }
+                }
+                else {
+                    if(c.l != null) {
+                        c = c.l;
+                        if(c.l == null && c.r == null) {
+                            buf.put((byte)(c.symbol));
+                            ++printed;
+                            c = root;
                         }
                     }
+                    else {
+                        c = root.l;
+                    }
                 }
-                
-                // read rest of file and decode
-                long numChars = in.readLong();
-                long printed = 0L;
-                HuffNode c = root;
-                boolean done = false;
-                while(!done) {
-                    byte buf = in.readByte();
-                    for(int i = 7; i >= 0; --i) {
-                        int bit = (buf >>> i) & 1;
-                        if(bit == 0) {
-                            if(c.r != null) {
-                                c = c.r;
-                                if(c.l == null && c.r == null) {
-                                    out.writeByte((byte)(c.symbol));
-                                    if(++printed == numChars) {
-                                        in.close();
-                                        done = true;
-                                        break;
-                                    }
-                                    c = root;
-                                }
-                            }
-                            else {
-                                c = root.r;
-                            }
-                        }
-                        else {
-                            if(c.l != null) {
-                                c = c.l;
-                                if(c.l == null && c.r == null) {
-                                    out.writeByte((byte)(c.symbol));
-                                    if(++printed == numChars) {
-                                        in.close();
-                                        done = true;
-                                        break;
-                                    }
-                                    c = root;
-                                }
-                            }
-                            else {
-                                c = root.l;
-                            }
-                        }
+                if(!buf.hasRemaining() || printed == numChars) { // write the decoded symbols at their place
+                    buf.flip();
+                    while(buf.hasRemaining()) {
+                        pos += out.write(buf,pos);
                     }
+                    buf.clear();
                 }
             }
-            out.close();
-            System.exit(0);
         }
-        catch(Exception e) {
-            e.printStackTrace();
-            System.exit(-1);
+    }
+    
+    /* Count the A, C, G, and T in the first n bytes of a block, 8 bytes at a time: XOR with a nucleotide repeated 8 times
+     * zeroes the bytes equal to it, and ~(((x & 0x7F..) + 0x7F..) | x | 0x7F..) sets the high bit of exactly the zero
+     * bytes. Returns the offset of the first byte that isn't a nucleotide (counts then only has the bytes before it), or
+     * -1 if there is none. counts can be null to only check the block. */
+    public static int countSymbols(byte[] block, int n, long[] counts) {
+        final long LOW7 = 0x7F7F7F7F7F7F7F7FL, HIGH = 0x8080808080808080L;
+        final long[] pattern = {'A' * 0x0101010101010101L, 'C' * 0x0101010101010101L, 'G' * 0x0101010101010101L, 'T' * 0x0101010101010101L};
+        ByteBuffer words = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+        long[] z = new long[4];
+        int i = 0;
+        for(; i+8 <= n; i += 8) {
+            long w = words.getLong(i);
+            long valid = 0;
+            for(int s = 0; s < 4; ++s) {
+                long x = w ^ pattern[s];
+                z[s] = ~(((x & LOW7) + LOW7) | x | LOW7);
+                valid |= z[s];
+            }
+            if(valid != HIGH) { // finish a byte at a time from this word
+                break;
+            }
+            if(counts != null) {
+                for(int s = 0; s < 4; ++s) {
+                    counts[s] += Long.bitCount(z[s]);
+                }
+            }
+        }
+        for(; i < n; ++i) {
+            int s;
+            switch((char)(block[i] & 0xFF)) {
+                case 'A': s = 0; break;
+                case 'C': s = 1; break;
+                case 'G': s = 2; break;
+                case 'T': s = 3; break;
+                default: return i;
+            }
+            if(counts != null) {
+                ++counts[s];
+            }
         }
+        return -1;
     }
     
     /* HUFFMAN COMPRESS */
@@ -1519,19 +1645,22 @@ public class DnaHuffman {
         leaves[2] = new HuffNode('G');
         leaves[3] = new HuffNode('T');
         try {
-            InputStream in = new BufferedInputStream(new FileInputStream(new File(INFILE)));
-            int b;
-            while((b = in.read()) != -1) {
-                switch((char)b) {
-                    case 'A': ++leaves[0].count; break;
-                    case 'C': ++leaves[1].count; break;
-                    case 'G': ++leaves[2].count; break;
-                    case 'T': ++leaves[3].count; break;
-                    default: System.err.println("ERROR: Invalid character: '" + (char)b + "'!"); System.exit(-1);
-                }
-                ++numChars;
+            InputStream in = new FileInputStream(new File(INFILE));
+            byte[] block = new byte[1 << 16];
+            long[] counts = new long[4];
+            int n;
+            while((n = in.readNBytes(block,0,block.length)) > 0) {
+                int bad = countSymbols(block,n,counts);
+                if(bad != -1) {
+                    System.err.println("ERROR: Invalid character: '" + (char)(block[bad] & 0xFF) + "'!");
+                    System.exit(-1);
+                }
+                numChars += n;
             }
             in.close();
+            for(int i = 0; i < 4; ++i) {
+                leaves[i].count = counts[i];
+            }
         }
         catch(FileNotFoundException e) {
             System.err.println("ERROR: File \"" + INFILE + "\" not found!");
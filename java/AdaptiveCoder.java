@@ -0,0 +1,350 @@
+/* AUTHOR: Niema Moshiri
+ * One-Pass Adaptive Huffman Coding (FGK), for Streams
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file|-> --adaptive[=RESET] [--symbols=ACGTN]
+ * -Decompress: java HuffSplit decompress <huffsplit_file|-> (adaptive files are detected automatically)
+ *
+ * The split modes need the whole message before they can write anything (the DP looks at every symbol to place the
+ * first cut). This mode is the adaptive Huffman coder of Project Files/vitter.cpp instead: encoder and decoder both
+ * start from the same tree and update it after every symbol (Faller-Gallager-Knuth), so it reads the input once, never
+ * looks ahead, and uses a constant amount of memory (a tree of at most 2*256-1 nodes), whatever the length of the input.
+ * With "-" as the input file, it compresses standard input to standard output as it arrives, and "decompress -" decodes
+ * standard input to standard output the same way.
+ *
+ * Unlike vitter.cpp (which searches and renumbers the whole tree on every update), the nodes are stored in an array in
+ * order of their FGK number (index 0 is the root, and weights never increase with the index), so finding the leader of a
+ * block is a short scan and an update is O(depth). vitter.cpp also grows the tree from a "not yet transmitted" leaf,
+ * which takes a leaf of its own for the whole stream (a quarter of a bit per symbol on uniform DNA). Here the symbol set
+ * is bounded and declared up front (--symbols, default HuffSplit.SYMBOLS), and the tree starts with every symbol at
+ * weight 1, so there is no escape code (symbols outside the set are an error). Every RESET symbols (default
+ * DEFAULT_RESET, 0 for never), both sides start over from that tree, so the code follows changes in composition instead
+ * of averaging over the whole stream.
+ *
+ * COMPRESSED FILE OUTPUT FORMAT (adaptive):
+ * -1 byte: ADAPTIVE_MARKER (250, never a valid topology)
+ * -4 bytes: an int telling us the reset interval (0 for never)
+ * -1 byte: the number of symbols in the set minus 1, then 1 byte per symbol
+ * -The codes of the symbols (most significant bit first, zero-padded to a whole byte)
+ * -1 byte: the number of bits of the last byte of codes that are codes (1-8, or 0 if there are no codes)
+ */
+import java.io.*;
+import java.util.*;
+
+public class AdaptiveCoder {
+    // instance variables
+    public static final int ADAPTIVE_MARKER = 250;        // first byte of an adaptive HuffSplit file
+    public static final int DEFAULT_RESET = 1 << 16;      // symbols between model resets
+    private final byte[] symbols;                         // the symbol set
+    private final int[] weight;
+    private final int[] parent;
+    private final int[] child;                            // left child of an internal node (the right child is child+1), or -1 for a leaf
+    private final int[] symbol;                           // index in symbols of a leaf
+    private final int[] leaf;                             // node of each symbol
+    private final int[] index = new int[256];             // index of each byte in symbols (-1 if it isn't in the set)
+    private final int[] path;                             // scratch for the bits of a code (leaf to root)
+    private final int reset;
+    private long seen;                                    // symbols since the last reset
+    
+    /* Constructor
+     * INPUT:  The symbol set (2 to 256 distinct bytes) and the reset interval (0 for never)
+     */
+    public AdaptiveCoder( byte[] symbols, int reset ) {
+        this.symbols = symbols.clone();
+        this.reset = reset;
+        int k = symbols.length;
+        if(k < 2 || k > 256) {
+            throw new IllegalArgumentException("The symbol set must have 2 to 256 symbols");
+        }
+        weight = new int[2*k-1];
+        parent = new int[2*k-1];
+        child = new int[2*k-1];
+        symbol = new int[2*k-1];
+        leaf = new int[k];
+        path = new int[2*k];
+        Arrays.fill(index,-1);
+        for(int s = 0; s < k; ++s) {
+            if(index[symbols[s] & 0xFF] != -1) {
+                throw new IllegalArgumentException("Duplicate symbol: " + (char)(symbols[s] & 0xFF));
+            }
+            index[symbols[s] & 0xFF] = s;
+        }
+        clear();
+    }
+    
+    /* Start over from the initial tree: every symbol at weight 1, in heap order (the children of node p are 2p+1 and
+     * 2p+2), which keeps the weights non-increasing with the index
+     */
+    private void clear() {
+        int k = leaf.length;
+        for(int v = 2*k-2; v >= 0; --v) {
+            parent[v] = (v-1) >> 1; // -1 for the root
+            if(v >= k-1) {
+                child[v] = -1;
+                symbol[v] = v-(k-1);
+                leaf[v-(k-1)] = v;
+                weight[v] = 1;
+            }
+            else {
+                child[v] = 2*v+1;
+                weight[v] = weight[2*v+1] + weight[2*v+2];
+            }
+        }
+        seen = 0;
+    }
+    
+    /* Write the code of a node (its path from the root)
+     */
+    private void writePath( int node, BitWriter out ) throws IOException {
+        int depth = 0;
+        for(; node != 0; node = parent[node]) {
+            path[depth++] = node - child[parent[node]]; // 0 for the left child, 1 for the right
+        }
+        while(depth > 0) {
+            out.write(path[--depth]);
+        }
+    }
+    
+    /* Swap the subtrees at two positions of the node array (weights are equal, parents stay with the positions)
+     */
+    private void swap( int i, int j ) {
+        int t = symbol[i]; symbol[i] = symbol[j]; symbol[j] = t;
+        t = child[i]; child[i] = child[j]; child[j] = t;
+        relink(i);
+        relink(j);
+    }
+    
+    /* Point the leaf table (or the children) back at a node that moved
+     */
+    private void relink( int k ) {
+        if(child[k] == -1) {
+            leaf[symbol[k]] = k;
+        }
+        else {
+            parent[child[k]] = k;
+            parent[child[k]+1] = k;
+        }
+    }
+    
+    /* Add a symbol to the model, or count another occurrence of it (FGK update)
+     * INPUT:  The symbol
+     */
+    private void update( int s ) {
+        int i = leaf[s];
+        while(i != -1) {
+            // move to the front of the block (the lowest-numbered node of the same weight), but never above the parent
+            int j = i;
+            while(j > 0 && weight[j-1] == weight[i]) {
+                --j;
+            }
+            if(i != 0 && j <= parent[i]) {
+                j = parent[i] + 1;
+            }
+            if(j != i) {
+                swap(i,j);
+                i = j;
+            }
+            ++weight[i];
+            i = parent[i];
+        }
+        if(reset != 0 && ++seen == reset) {
+            clear();
+        }
+    }
+    
+    /* Encode a symbol (and update the model)
+     * INPUT:  The symbol (a byte), its position in the stream (for the error), and the stream of codes
+     * OUTPUT: The code; an InvalidSymbolException is thrown if the symbol isn't in the set
+     */
+    public void encode( int c, long pos, BitWriter out ) throws IOException {
+        int s = index[c];
+        if(s == -1) {
+            throw new InvalidSymbolException(pos,(char)c);
+        }
+        writePath(leaf[s],out);
+        update(s);
+    }
+    
+    /* Decode a symbol (and update the model)
+     * INPUT:  The stream of codes (with codes left, see BitReader.hasMore)
+     * OUTPUT: The symbol (a byte)
+     */
+    public int decode( BitReader in ) throws IOException {
+        int node = 0;
+        while(child[node] != -1) {
+            node = child[node] + in.read();
+        }
+        int s = symbol[node];
+        update(s);
+        return symbols[s] & 0xFF;
+    }
+    
+    /* Most-significant-bit-first bit writer (ends with the trailer byte)
+     */
+    public static final class BitWriter {
+        private final OutputStream out;
+        private int buf;
+        private int nbits;
+        private boolean any;   // whether any bits were written
+        public BitWriter( OutputStream out ) {
+            this.out = out;
+        }
+        public void write( int bit ) throws IOException {
+            buf = (buf << 1) | bit;
+            any = true;
+            if(++nbits == 8) {
+                out.write(buf);
+                buf = 0;
+                nbits = 0;
+            }
+        }
+        public void finish() throws IOException {
+            if(nbits > 0) {
+                out.write(buf << (8-nbits));
+            }
+            out.write((nbits > 0) ? nbits : any ? 8 : 0);
+            out.flush();
+        }
+    }
+    
+    /* Most-significant-bit-first bit reader (looks 2 bytes ahead to recognize the trailer byte)
+     */
+    public static final class BitReader {
+        private final InputStream in;
+        private int cur;       // byte being read
+        private int pos;       // next bit of cur (0 is the most significant)
+        private int left;      // unread code bits of cur
+        private int next;      // the next 2 bytes (-1 past the end)
+        private int after;
+        public BitReader( InputStream in ) throws IOException {
+            this.in = in;
+            next = in.read();
+            after = in.read();
+            if(next == -1) {
+                throw new EOFException("Adaptive stream ended before its trailer");
+            }
+        }
+        private boolean load() throws IOException {
+            if(after == -1) { // next is the trailer
+                if(next > 8) {
+                    throw new CorruptStreamException("Invalid trailer: " + next);
+                }
+                return false;
+            }
+            cur = next;
+            next = after;
+            after = in.read();
+            pos = 0;
+            left = (after == -1) ? next : 8; // the last byte of codes may be padded
+            return true;
+        }
+        public boolean hasMore() throws IOException {
+            while(left == 0) {
+                if(!load()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        public int read() throws IOException {
+            if(!hasMore()) {
+                throw new CorruptStreamException("Adaptive stream ended inside a code");
+            }
+            --left;
+            return (cur >>> (7 - pos++)) & 1;
+        }
+    }
+    
+    /* Compress a stream in one pass
+     * INPUT:  The stream to compress, the stream to write to, the symbol set, and the reset interval (0 for never)
+     * OUTPUT: The adaptive HuffSplit stream (written as the input arrives); an InvalidSymbolException is thrown if the
+     *         stream has a symbol outside the set
+     */
+    public static void compress( InputStream in, OutputStream out, byte[] symbols, int reset ) throws IOException {
+        AdaptiveCoder model = new AdaptiveCoder(symbols,reset);
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeByte(ADAPTIVE_MARKER);
+        header.writeInt(reset);
+        header.writeByte(symbols.length-1);
+        header.write(symbols);
+        BitWriter bits = new BitWriter(out);
+        byte[] chunk = new byte[1 << 16];
+        long pos = 0;
+        int n;
+        while((n = in.read(chunk)) > 0) {
+            for(int i = 0; i < n; ++i, ++pos) {
+                model.encode(chunk[i] & 0xFF,pos,bits);
+            }
+        }
+        bits.finish();
+    }
+    
+    /* Compress a file (or standard input, "-") in one pass
+     * INPUT:  The input file, the output file (or standard output, "-"), the symbol set, and the reset interval (0 for never)
+     * OUTPUT: The compressed file (deleted again if compression fails, since it is written as the input arrives)
+     */
+    public static void compress( String INFILE, String OUTFILE, byte[] symbols, int reset ) {
+        try(InputStream in = INFILE.equals("-") ? System.in : new BufferedInputStream(new FileInputStream(INFILE),1 << 16);
+            OutputStream out = new BufferedOutputStream(OUTFILE.equals("-") ? System.out : new FileOutputStream(OUTFILE),1 << 16)) {
+            compress(in,out,symbols,reset);
+        } catch(InvalidSymbolException e) {
+            discard(OUTFILE);
+            System.err.println("ERROR: Invalid symbol: " + e.symbol + " (not in the symbol set)"); System.exit(-1);
+        } catch(FileNotFoundException e) { // nothing was written yet
+            System.err.println("ERROR: File \"" + INFILE + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            discard(OUTFILE);
+            System.err.println("ERROR: IOException while writing \"" + OUTFILE + "\"!"); System.exit(-1);
+        }
+    }
+    
+    /* Delete a partially written output file (standard output, "-", can't be taken back)
+     */
+    private static void discard( String OUTFILE ) {
+        if(!OUTFILE.equals("-")) {
+            new File(OUTFILE).delete();
+        }
+    }
+    
+    /* Decompress an adaptive stream (ADAPTIVE_MARKER has already been read)
+     * INPUT:  The stream (header, codes, and trailer) and the stream to write the message to
+     * OUTPUT: The uncompressed message (a CorruptStreamException is thrown if the input is malformed, or an EOFException if
+     *         it is truncated)
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out ) throws IOException {
+        decompress(in,out,DecodeGuard.unbounded());
+    }
+    
+    /* Decompress an adaptive HuffSplit stream, counting the output against a guard (see DecodeGuard.java; every symbol
+     * takes at least 1 bit, so the input bounds the rest)
+     * INPUT:  The stream (header, codes, and trailer), the stream to write the message to, and the guard
+     * OUTPUT: The uncompressed message
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out, DecodeGuard guard ) throws IOException {
+        int reset = in.readInt();
+        if(reset < 0) {
+            throw new CorruptStreamException("Invalid reset interval: " + reset);
+        }
+        byte[] symbols = new byte[(in.readByte() & 0xFF) + 1];
+        in.readFully(symbols);
+        AdaptiveCoder model;
+        try {
+            model = new AdaptiveCoder(symbols,reset);
+        } catch(IllegalArgumentException e) {
+            throw new CorruptStreamException(e.getMessage());
+        }
+        BitReader bits = new BitReader(in);
+        byte[] buf = CodecWorkspace.get().decodeBuffer(1 << 16);
+        int n = 0;
+        while(bits.hasMore()) {
+            buf[n++] = (byte)model.decode(bits);
+            if(n == buf.length) {
+                guard.written(n);
+                out.write(buf,0,n);
+                n = 0;
+            }
+        }
+        guard.written(n);
+        out.write(buf,0,n);
+    }
+}
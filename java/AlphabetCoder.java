@@ -0,0 +1,505 @@
+/* AUTHOR: Niema Moshiri
+ * Split Huffman Coding over a General Alphabet (Protein, IUPAC, ...)
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> --general
+ * -Decompress: java HuffSplit decompress <huffsplit_file> (general-alphabet files are detected automatically)
+ *
+ * The DNA engine (HuffSplit.java) enumerates all 165 Huffman trees over {A,C,G,T,N}, which is impossible for ~20-25
+ * amino acids (or the 16 IUPAC nucleotide codes). Here the alphabet is whatever bytes occur in the input (up to 256), a
+ * segment's code is a canonical Huffman code (so its header only needs the code length of each symbol), and the cut DP
+ * runs over a bounded set of candidate codes instead of every possible tree:
+ * -the code of the whole message (covers every symbol, so every message has a path)
+ * -the codes of windows of WINDOW symbols, clustered greedily: a window reuses an earlier candidate if that costs at
+ *  most TOLERANCE more than its own code, else its code becomes a new candidate (up to MAX_WINDOW_CODES)
+ * -a single-symbol code (0 bits per symbol) for each symbol with a run of at least MIN_RUN (e.g. runs of X or N)
+ * The DP itself is the DNA one (HuffSplit.forwardDP) with candidates in place of topologies: a candidate either stays in
+ * itself or switches from the cheapest candidate of the previous column (paying the header and padding), so the
+ * backtrack matrix stores one bit per candidate per symbol plus the cheapest candidate, as in CompactDP.java.
+ *
+ * The DNA engine stays the default (and is smaller on DNA: 1 header byte instead of 3); this is for other alphabets.
+ *
+ * COMPRESSED FILE OUTPUT FORMAT (general alphabet):
+ * -1 byte: GENERAL_MARKER (251, never a valid topology)
+ * -1 byte: the size of the alphabet minus 1, then 1 byte per symbol of the alphabet (in increasing order)
+ * -Then, per segment: the code length of each symbol of the alphabet (4 bits each, high nibble first, zero-padded to a
+ *  whole byte; 0 if the symbol doesn't occur in the segment), 4 bytes (an int telling us how many symbols are in the
+ *  segment), and the canonical codes of its symbols (most significant bit first, zero-padded to a whole byte)
+ *
+ * If only 1 symbol of the alphabet has a nonzero code length, the segment is a run of that symbol and has no code bits.
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class AlphabetCoder {
+    // instance variables
+    public static final int GENERAL_MARKER = 251;         // first byte of a general-alphabet HuffSplit file
+    public static final int MAX_LEN = 15;                 // longest code (code lengths are stored in 4 bits)
+    public static final int WINDOW = 1 << 14;             // symbols per window of the candidate codes (longest)
+    public static final int MIN_WINDOW = 1 << 8;          // symbols per window of the candidate codes (shortest)
+    public static final int MAX_WINDOW_CODES = 64;        // most candidate codes taken from windows
+    public static final double TOLERANCE = 0.02;          // extra cost at which a window gets its own candidate code
+    public static final int MIN_RUN = 32;                 // shortest run that gets a single-symbol candidate code
+    public static final int BLOCK_SHIFT = CodecWorkspace.BLOCK_SHIFT;
+    public static final int ROWS = 1 << BLOCK_SHIFT;
+    private final byte[] alphabet;                        // the symbols, in increasing order
+    private final int[] index = new int[256];             // index of each byte in alphabet (-1 if absent)
+    private final ArrayList<int[]> codes = new ArrayList<int[]>(); // code length of each symbol, per candidate
+    private int[][] bits;                                 // bits[sym][cand]: code bits of sym (-1 if cand can't code it)
+    private int headerBits;                               // bits of a segment header
+    
+    /* Constructor: find the alphabet and the candidate codes of a message
+     * INPUT:  The message (L symbols starting at off)
+     */
+    public AlphabetCoder( byte[] msg, int off, int L ) {
+        long[] total = new long[256];
+        for(int i = off; i < off+L; ++i) {
+            ++total[msg[i] & 0xFF];
+        }
+        int n = 0;
+        for(int b = 0; b < 256; ++b) {
+            if(total[b] != 0) {
+                ++n;
+            }
+        }
+        alphabet = new byte[n];
+        Arrays.fill(index,-1);
+        n = 0;
+        for(int b = 0; b < 256; ++b) {
+            if(total[b] != 0) {
+                index[b] = n;
+                alphabet[n++] = (byte)b;
+            }
+        }
+        headerBits = 8*((n+1)/2 + 4);
+        
+        // the code of the whole message
+        long[] counts = new long[n];
+        for(int s = 0; s < n; ++s) {
+            counts[s] = total[alphabet[s] & 0xFF];
+        }
+        codes.add(codeLengths(counts));
+        
+        // the (clustered) codes of the windows, longest windows first
+        for(int w = WINDOW; w >= MIN_WINDOW; w >>>= 2) {
+            for(int start = 0; start < L; start += w) {
+                Arrays.fill(counts,0);
+                for(int i = start; i < Math.min(L,start+w); ++i) {
+                    ++counts[index[msg[off+i] & 0xFF]];
+                }
+                int[] own = codeLengths(counts);
+                long ownBits = cost(own,counts);
+                long best = Long.MAX_VALUE;
+                for(int[] code : codes) {
+                    best = Math.min(best,cost(code,counts));
+                }
+                if(best > ownBits * (1 + TOLERANCE) + headerBits && codes.size() <= MAX_WINDOW_CODES) {
+                    codes.add(own);
+                }
+            }
+        }
+        
+        // single-symbol codes for long runs
+        boolean[] run = new boolean[n];
+        for(int i = 0, len = 0; i < L; ++i) {
+            len = (i > 0 && msg[off+i] == msg[off+i-1]) ? len+1 : 1;
+            if(len == MIN_RUN) {
+                run[index[msg[off+i] & 0xFF]] = true;
+            }
+        }
+        for(int s = 0; s < n; ++s) {
+            if(run[s]) {
+                int[] code = new int[n];
+                code[s] = 1;
+                codes.add(code);
+            }
+        }
+        
+        // remove duplicates (e.g. a window that only holds one run), and tabulate the code bits
+        LinkedHashMap<String,int[]> unique = new LinkedHashMap<String,int[]>();
+        for(int[] code : codes) {
+            unique.putIfAbsent(Arrays.toString(code),code);
+        }
+        codes.clear();
+        codes.addAll(unique.values());
+        bits = new int[n][codes.size()];
+        for(int t = 0; t < codes.size(); ++t) {
+            int[] code = codes.get(t);
+            boolean single = isRun(code);
+            for(int s = 0; s < n; ++s) {
+                bits[s][t] = (code[s] == 0) ? -1 : single ? 0 : code[s];
+            }
+        }
+    }
+    
+    /* Whether a code is a single-symbol code (only 1 symbol has a nonzero length)
+     */
+    static boolean isRun( int[] code ) {
+        int nonzero = 0;
+        for(int len : code) {
+            if(len != 0) {
+                ++nonzero;
+            }
+        }
+        return nonzero == 1;
+    }
+    
+    /* Cost of coding symbol counts with a code
+     * INPUT:  The code length of each symbol and the counts
+     * OUTPUT: The number of code bits, or Long.MAX_VALUE if the code can't code a symbol that occurs
+     */
+    static long cost( int[] code, long[] counts ) {
+        boolean single = isRun(code);
+        long bits = 0;
+        for(int s = 0; s < code.length; ++s) {
+            if(counts[s] != 0) {
+                if(code[s] == 0) {
+                    return Long.MAX_VALUE;
+                }
+                bits += single ? 0 : counts[s] * code[s];
+            }
+        }
+        return bits;
+    }
+    
+    /* Build a length-limited Huffman code
+     * INPUT:  The number of times each symbol occurs
+     * OUTPUT: The code length of each symbol (0 for symbols that don't occur, 1 if only one symbol occurs, at most MAX_LEN)
+     */
+    static int[] codeLengths( long[] counts ) {
+        int n = counts.length;
+        long[] w = counts.clone();
+        while(true) {
+            // Huffman's algorithm over the occurring symbols (nodes n... are internal, parent[] links them to the root)
+            PriorityQueue<long[]> pq = new PriorityQueue<long[]>((a,b) -> (a[0] != b[0]) ? Long.compare(a[0],b[0]) : Long.compare(a[1],b[1]));
+            for(int s = 0; s < n; ++s) {
+                if(w[s] != 0) {
+                    pq.add(new long[]{w[s],s});
+                }
+            }
+            int[] len = new int[n];
+            if(pq.size() == 1) {
+                len[(int)pq.peek()[1]] = 1;
+                return len;
+            }
+            int[] parent = new int[2*n];
+            int next = n;
+            while(pq.size() > 1) {
+                long[] a = pq.poll();
+                long[] b = pq.poll();
+                parent[(int)a[1]] = next;
+                parent[(int)b[1]] = next;
+                pq.add(new long[]{a[0]+b[0],next++});
+            }
+            int root = next-1;
+            int longest = 0;
+            for(int s = 0; s < n; ++s) {
+                if(w[s] != 0) {
+                    for(int v = s; v != root; v = parent[v]) {
+                        ++len[s];
+                    }
+                    longest = Math.max(longest,len[s]);
+                }
+            }
+            if(longest <= MAX_LEN) {
+                return len;
+            }
+            for(int s = 0; s < n; ++s) { // flatten the counts until the tree is shallow enough
+                if(w[s] != 0) {
+                    w[s] = (w[s] + 1) / 2;
+                }
+            }
+        }
+    }
+    
+    /* Assign the canonical codes of a code-length vector
+     * INPUT:  The code length of each symbol
+     * OUTPUT: The code of each symbol (shorter codes first, then by symbol; undefined for length 0)
+     */
+    static int[] canonical( int[] code ) {
+        int[] count = new int[MAX_LEN+1];
+        for(int len : code) {
+            ++count[len];
+        }
+        count[0] = 0;
+        int[] next = new int[MAX_LEN+2];
+        for(int len = 1; len <= MAX_LEN; ++len) {
+            next[len+1] = (next[len] + count[len]) << 1;
+        }
+        int[] c = new int[code.length];
+        for(int s = 0; s < code.length; ++s) {
+            if(code[s] != 0) {
+                c[s] = next[code[s]]++;
+            }
+        }
+        return c;
+    }
+    
+    /* Number of candidate codes
+     */
+    public int numCandidates() {
+        return codes.size();
+    }
+    
+    /* Compress the message
+     * INPUT:  The message (L symbols starting at off; the one given to the constructor) and the stream to write to
+     * OUTPUT: The general-alphabet HuffSplit stream
+     */
+    public void compress( byte[] msg, int off, int L, DataOutputStream out ) throws IOException {
+        final int C = codes.size();
+        final int R = (C+7)/8 + 2; // backtrack row: one "switched" bit per candidate, then the cheapest candidate (2 bytes)
+        
+        // forward DP (as CompactDP.step, with long costs and candidate codes)
+        HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","forward_dp");
+        ArrayList<byte[]> blocks = new ArrayList<byte[]>();
+        long[] prev = new long[C];
+        long[] cur = new long[C];
+        int best = -1;
+        for(int i = 0; i < L; ++i) {
+            if((i & (ROWS-1)) == 0) {
+                blocks.add(new byte[Math.min(ROWS,L-i)*R]);
+            }
+            byte[] block = blocks.get(i >>> BLOCK_SHIFT);
+            int row = (i & (ROWS-1)) * R;
+            int[] b = bits[index[msg[off+i] & 0xFF]];
+            long diffBase = headerBits;
+            if(i > 0) {
+                diffBase += (prev[best] + 7) / 8 * 8;
+            }
+            int bestT = -1;
+            for(int t = 0; t < C; ++t) {
+                if(b[t] == -1) {
+                    cur[t] = -1;
+                    continue;
+                }
+                long sameC = (i == 0 || prev[t] == -1) ? -1 : prev[t] + b[t];
+                long diffC = diffBase + b[t];
+                if(t != best && (sameC == -1 || diffC < sameC)) {
+                    cur[t] = diffC;
+                    block[row + (t >>> 3)] |= (byte)(1 << (t & 7));
+                }
+                else {
+                    cur[t] = sameC;
+                }
+                if(bestT == -1 || cur[bestT] > cur[t]) {
+                    bestT = t;
+                }
+            }
+            block[row + R-2] = (byte)(bestT >>> 8);
+            block[row + R-1] = (byte)bestT;
+            best = bestT;
+            long[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        phase.commit();
+        
+        // backtrack (segment starts and candidates, last segment first)
+        phase = HuffSplitEvents.phase("compress","backtrack");
+        int[] segStart = new int[64];
+        int[] segCode = new int[64];
+        int numSegs = 0;
+        int t = best;
+        for(int i = L-1; i >= 0; --i) {
+            byte[] block = blocks.get(i >>> BLOCK_SHIFT);
+            int row = (i & (ROWS-1)) * R;
+            if(i == 0 || (block[row + (t >>> 3)] & (1 << (t & 7))) != 0) {
+                if(numSegs == segStart.length) {
+                    segStart = Arrays.copyOf(segStart,2*numSegs);
+                    segCode = Arrays.copyOf(segCode,2*numSegs);
+                }
+                segStart[numSegs] = i;
+                segCode[numSegs++] = t;
+                if(i > 0) {
+                    byte[] pb = blocks.get((i-1) >>> BLOCK_SHIFT);
+                    int prow = ((i-1) & (ROWS-1)) * R;
+                    t = ((pb[prow + R-2] & 0xFF) << 8) | (pb[prow + R-1] & 0xFF);
+                }
+            }
+        }
+        blocks = null;
+        phase.commit();
+        
+        // encode
+        phase = HuffSplitEvents.phase("compress","encode");
+        final int n = alphabet.length;
+        out.writeByte(GENERAL_MARKER);
+        out.writeByte(n-1);
+        out.write(alphabet);
+        int[][] canon = new int[C][];
+        for(int seg = numSegs-1; seg >= 0; --seg) {
+            int start = segStart[seg];
+            int end = (seg > 0) ? segStart[seg-1] : L;
+            int[] code = codes.get(segCode[seg]);
+            for(int s = 0; s < n; s += 2) {
+                out.writeByte((code[s] << 4) | ((s+1 < n) ? code[s+1] : 0));
+            }
+            out.writeInt(end-start);
+            if(isRun(code)) { // if only 1 unique symbol, the header is enough
+                continue;
+            }
+            if(canon[segCode[seg]] == null) {
+                canon[segCode[seg]] = canonical(code);
+            }
+            int[] c = canon[segCode[seg]];
+            long buf = 0;
+            int nbits = 0;
+            for(int i = start; i < end; ++i) {
+                int s = index[msg[off+i] & 0xFF];
+                buf = (buf << code[s]) | c[s];
+                nbits += code[s];
+                while(nbits >= 8) {
+                    nbits -= 8;
+                    out.writeByte((int)(buf >>> nbits));
+                }
+                buf &= (1L << nbits) - 1;
+            }
+            if(nbits > 0) {
+                out.writeByte((int)(buf << (8-nbits)));
+            }
+        }
+        phase.commit();
+    }
+    
+    /* Estimate the peak memory compress needs for an input of a given length
+     * INPUT:  The length of the input (in symbols)
+     * OUTPUT: The estimated number of bytes (message, and the backtrack matrix with the most candidates an alphabet of
+     *         up to 256 symbols can have)
+     */
+    public static long estimateMemory( long L ) {
+        return L * (1 + (1 + MAX_WINDOW_CODES + 256 + 7)/8 + 2);
+    }
+    
+    /* Compress a file over its own alphabet
+     * INPUT:  The input file and the output file
+     * OUTPUT: The compressed file
+     */
+    public static void compress( String INFILE, String OUTFILE ) {
+        byte[] in = null;
+        try {
+            in = Files.readAllBytes(Paths.get(INFILE));
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while reading \"" + INFILE + "\"!"); System.exit(-1);
+        }
+        if(in.length == 0) {
+            System.err.println("ERROR: Empty file!"); System.exit(-1);
+        }
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(OUTFILE),1 << 16))) {
+            new AlphabetCoder(in,0,in.length).compress(in,0,in.length,out);
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while writing \"" + OUTFILE + "\"!"); System.exit(-1);
+        }
+    }
+    
+    /* Decompress the segments of a general-alphabet stream (GENERAL_MARKER has already been read)
+     * INPUT:  The stream (alphabet and segments) and the stream to write the message to
+     * OUTPUT: The uncompressed message (a CorruptStreamException is thrown if the input is malformed, or an EOFException if
+     *         it is truncated)
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out ) throws IOException {
+        decompress(in,out,DecodeGuard.unbounded());
+    }
+    
+    /* Decompress a general-alphabet HuffSplit stream, checking every segment length before decoding it (see
+     * DecodeGuard.java)
+     * INPUT:  The stream (alphabet and segments), the stream to write the message to, and the guard
+     * OUTPUT: The uncompressed message
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out, DecodeGuard guard ) throws IOException {
+        final int n = (in.readByte() & 0xFF) + 1;
+        byte[] alphabet = new byte[n];
+        in.readFully(alphabet);
+        int[] code = new int[n];
+        int[] count = new int[MAX_LEN+1];
+        int[] limit = new int[MAX_LEN+1];     // limit[len]: first left-aligned (MAX_LEN-bit) code longer than len
+        int[] first = new int[MAX_LEN+1];     // first canonical code of each length
+        int[] offset = new int[MAX_LEN+1];    // index in sorted of the first symbol of each length
+        byte[] sorted = new byte[n];          // the symbols in canonical order
+        byte[] header = new byte[(n+1)/2];
+        while(true) {
+            try {
+                header[0] = in.readByte();
+            } catch(EOFException e) {
+                break;
+            }
+            in.readFully(header,1,header.length-1);
+            int symbols = 0;
+            int run = -1;
+            for(int s = 0; s < n; ++s) {
+                code[s] = (header[s/2] >>> ((s % 2 == 0) ? 4 : 0)) & 0xF;
+                if(code[s] != 0) {
+                    ++symbols;
+                    run = s;
+                }
+            }
+            if(symbols == 0 || (n % 2 == 1 && (header[n/2] & 0xF) != 0)) {
+                throw new CorruptStreamException("Invalid code-length header");
+            }
+            int numChars = in.readInt();
+            guard.segment(numChars,(symbols == 1) ? 0 : 1,in);
+            HuffSplitEvents.Span event = HuffSplitEvents.segmentDecoded();
+            if(symbols == 1) { // run of 1 symbol: no code bits, so it is written a chunk at a time
+                byte[] chunk = CodecWorkspace.get().decodeBuffer(DecodeGuard.RUN_CHUNK);
+                Arrays.fill(chunk,0,Math.min(numChars,DecodeGuard.RUN_CHUNK),alphabet[run]);
+                for(int left = numChars; left > 0; left -= DecodeGuard.RUN_CHUNK) {
+                    out.write(chunk,0,Math.min(left,DecodeGuard.RUN_CHUNK));
+                }
+            }
+            else {
+                byte[] dest = CodecWorkspace.get().decodeBuffer(numChars);
+                // canonical decoding tables (the lengths must describe a complete prefix code)
+                Arrays.fill(count,0);
+                for(int s = 0; s < n; ++s) {
+                    ++count[code[s]];
+                }
+                long kraft = 0;
+                int code0 = 0;
+                int idx = 0;
+                for(int len = 1; len <= MAX_LEN; ++len) {
+                    kraft += (long)count[len] << (MAX_LEN-len);
+                    first[len] = code0;
+                    offset[len] = idx;
+                    idx += count[len];
+                    code0 = (code0 + count[len]) << 1;
+                    limit[len] = (int)kraft;
+                }
+                if(kraft != (1L << MAX_LEN)) {
+                    throw new CorruptStreamException("Code lengths don't form a complete prefix code");
+                }
+                idx = 0;
+                for(int len = 1; len <= MAX_LEN; ++len) {
+                    for(int s = 0; s < n; ++s) {
+                        if(code[s] == len) {
+                            sorted[idx++] = alphabet[s];
+                        }
+                    }
+                }
+                
+                // peek MAX_LEN bits, and find the length of the code they start with (refilling only as needed, so we
+                // never read past the segment's last byte)
+                long buf = 0;
+                int nbits = 0;
+                for(int printed = 0; printed < numChars; ++printed) {
+                    while(true) {
+                        int window = (int)((nbits >= MAX_LEN) ? (buf >>> (nbits-MAX_LEN)) : (buf << (MAX_LEN-nbits))) & ((1 << MAX_LEN) - 1);
+                        int len = 1;
+                        while(window >= limit[len]) {
+                            ++len;
+                        }
+                        if(len <= nbits) {
+                            dest[printed] = sorted[offset[len] + (window >>> (MAX_LEN-len)) - first[len]];
+                            nbits -= len;
+                            buf &= (1L << nbits) - 1;
+                            break;
+                        }
+                        buf = (buf << 8) | (in.readByte() & 0xFF);
+                        nbits += 8;
+                    }
+                }
+                out.write(dest,0,numChars);
+            }
+            event.commit(symbols,numChars);
+        }
+    }
+}
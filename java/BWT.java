@@ -0,0 +1,110 @@
+/* AUTHOR: Niema Moshiri
+ * Burrows-Wheeler Transform Pre-Transform Stage
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> --bwt
+ * -Decompress: java HuffSplit decompress <huffsplit_file> (BWT files are detected automatically)
+ *
+ * The BWT groups symbols that precede similar contexts, which gives long runs and skewed local composition for the
+ * split Huffman DP to exploit. The transform is computed from the suffix array of the message plus a sentinel (see
+ * SuffixArray.java), and the sentinel is dropped from the output, so we need to store the row it was in ("primary").
+ *
+ * COMPRESSED FILE OUTPUT FORMAT (BWT):
+ * -1 byte: BWT_MARKER (255, never a valid topology)
+ * -4 bytes: an int telling us the primary index
+ * -The remaining bytes are regular HuffSplit segments of the transformed message
+ */
+import java.util.*;
+
+public class BWT {
+    // instance variables
+    public static final int BWT_MARKER = 255; // first byte of a BWT HuffSplit file
+    public int primary;                       // row of the (dropped) sentinel
+    public byte[] data;                       // transformed message (without the sentinel)
+    
+    /* Constructor
+     */
+    public BWT( byte[] d, int p ) {
+        data = d;
+        primary = p;
+    }
+    
+    /* Compute the BWT of a message
+     * INPUT:  A DNA string
+     * OUTPUT: Its BWT (without the sentinel) and the primary index
+     */
+    public static BWT transform( String in ) throws InvalidSymbolException {
+        final int L = in.length();
+        int[] T = new int[L+1];
+        for(int i = 0; i < L; ++i) {
+            int c = HuffSplit.symbolIndex(in.charAt(i));
+            if(c == -1) {
+                throw new InvalidSymbolException(i,in.charAt(i));
+            }
+            T[i] = c + 1;
+        }
+        T[L] = 0;
+        int[] SA = SuffixArray.build(T,HuffSplit.SYMBOLS.length+1);
+        byte[] data = new byte[L];
+        int primary = -1;
+        for(int i = 0, j = 0; i <= L; ++i) {
+            if(SA[i] == 0) {
+                primary = i;
+            }
+            else {
+                data[j++] = (byte)in.charAt(SA[i]-1);
+            }
+        }
+        return new BWT(data,primary);
+    }
+    
+    /* Invert the BWT
+     * INPUT:  The transformed message (without the sentinel) and the primary index
+     * OUTPUT: The original message (a CorruptStreamException is thrown if the input isn't a valid BWT)
+     */
+    public static byte[] inverse( byte[] data, int primary ) throws CorruptStreamException {
+        final int L = data.length;
+        if(primary < 0 || primary > L) {
+            throw new CorruptStreamException("Invalid BWT primary index: " + primary);
+        }
+        
+        // C[c] is the number of symbols smaller than SYMBOLS[c] (in the order used by transform, which puts the sentinel
+        // first, so everything starts at 1)
+        int[] code = new int[L];
+        int[] C = new int[HuffSplit.SYMBOLS.length];
+        for(int i = 0; i < L; ++i) {
+            code[i] = HuffSplit.symbolIndex((char)data[i]);
+            if(code[i] == -1) {
+                throw new CorruptStreamException("Invalid symbol in BWT: " + (char)data[i]);
+            }
+            ++C[code[i]];
+        }
+        for(int c = 0, sum = 1; c < C.length; ++c) {
+            int count = C[c];
+            C[c] = sum;
+            sum += count;
+        }
+        
+        // LF[i] for each row of the full BWT (row primary holds the sentinel, whose LF is row 0)
+        int[] LF = new int[L+1];
+        int[] seen = new int[C.length];
+        for(int i = 0; i <= L; ++i) {
+            if(i == primary) {
+                LF[i] = 0;
+            }
+            else {
+                int c = code[(i < primary) ? i : i-1];
+                LF[i] = C[c] + seen[c]++;
+            }
+        }
+        
+        // walk backwards from row 0 (the suffix consisting of just the sentinel)
+        byte[] out = new byte[L];
+        int row = 0;
+        for(int k = L-1; k >= 0; --k) {
+            out[k] = data[(row < primary) ? row : row-1];
+            row = LF[row];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,204 @@
+/* AUTHOR: Niema Moshiri
+ * Batch Compression of Many Files in One JVM
+ *
+ * USAGE:
+ * -Batch:      java HuffSplit compress-batch <dir|list_file> [num_threads] [memory_budget_MB]
+ *
+ * If the first argument is a directory, every regular file in it (except HuffSplit outputs and temporary files left by a
+ * crashed run, see isOutput) is compressed; otherwise it is read as a list of input files (one per line). Each input
+ * file is compressed to <in_file>.hsf, exactly as if "java HuffSplit compress <in_file>" had been run, but the JVM
+ * startup and topology setup are only paid once.
+ *
+ * Each file gets the fastest of the full, compact, and spill engines that fits in a global budget (default: 80% of the
+ * maximum heap; see EnginePlanner.java), so a file too big for the in-memory DP falls back to spilling instead of
+ * running out of memory. Jobs run on a shared work-stealing pool, and each one reserves its engine's estimated memory
+ * from the budget before it starts. Jobs are admitted largest first, but a job that doesn't fit in the remaining budget
+ * doesn't block smaller jobs behind it, so big chromosomes never starve small contigs. A pool thread releases its
+ * workspace (see CodecWorkspace.java) when its job ends, so nothing outlives its reservation.
+ *
+ * A job writes to a temporary file next to its output and only renames it to <in_file>.hsf once it succeeds. A file
+ * that fails (e.g. it isn't DNA) is reported and skipped, and the batch goes on; the batch exits with an error at the
+ * end if any file failed.
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchCompressor {
+    // instance variables
+    public static final double DEFAULT_BUDGET = 0.8; // default fraction of the maximum heap for concurrent DP matrices
+    public static final String[] ENGINES = {"full","compact","spill"}; // engines that can run in a shared JVM, fastest first
+    
+    /* Compress every file of a directory or list
+     * INPUT:  The directory or list file, the number of threads, and the memory budget in bytes (-1 for the default)
+     * OUTPUT: <in_file>.hsf for every input file, and the aggregate throughput on standard output
+     */
+    public static void run( String SOURCE, int THREADS, long BUDGET ) {
+        if(THREADS < 1) {
+            System.err.println("ERROR: Number of threads must be positive"); System.exit(-1);
+        }
+        if(BUDGET < 0) {
+            BUDGET = (long)(DEFAULT_BUDGET * Runtime.getRuntime().maxMemory());
+        }
+        final long budget = BUDGET;
+        ArrayList<File> files = listInputs(SOURCE);
+        files.sort((x,y) -> Long.compare(y.length(),x.length())); // largest first
+        
+        // admit jobs while they fit in the budget (and there is a free thread)
+        ExecutorService pool = Executors.newWorkStealingPool(THREADS);
+        final Object lock = new Object();
+        final long[] used = {0};      // reserved bytes
+        final int[] running = {0};    // admitted jobs that haven't finished
+        final long[] totalIn = {0};
+        final long[] totalOut = {0};
+        final ArrayList<String> failed = new ArrayList<String>();
+        
+        // plan each file (files that no engine fits fail right away)
+        final HashMap<File,String> engine = new HashMap<File,String>();
+        LinkedList<File> pending = new LinkedList<File>();
+        for(File f : files) {
+            long disk = f.getAbsoluteFile().getParentFile().getUsableSpace();
+            String e = EnginePlanner.choose(ENGINES,f.length(),false,false,budget,disk);
+            if(e == null) {
+                System.err.println("FAILED: \"" + f + "\": no engine fits it in " + (budget >> 20) + " MB");
+                failed.add(f.getPath());
+            }
+            else {
+                engine.put(f,e);
+                pending.add(f);
+            }
+        }
+        long t0 = System.nanoTime();
+        try {
+            synchronized(lock) {
+                while(!pending.isEmpty() || running[0] > 0) {
+                    File next = null;
+                    if(running[0] < THREADS) {
+                        for(File f : pending) {
+                            if(used[0] + EnginePlanner.estimate(engine.get(f),f.length(),false) <= budget) {
+                                next = f;
+                                break;
+                            }
+                        }
+                    }
+                    if(next == null) {
+                        lock.wait();
+                        continue;
+                    }
+                    pending.remove(next);
+                    final File f = next;
+                    final String e = engine.get(f);
+                    final long need = EnginePlanner.estimate(e,f.length(),false);
+                    used[0] += need;
+                    ++running[0];
+                    pool.execute(() -> {
+                        long outLen = 0;
+                        String error = null;
+                        File out = new File(f.getPath() + ".hsf");
+                        File tmp = null;
+                        try {
+                            long s = System.nanoTime();
+                            tmp = File.createTempFile(f.getName() + ".",".tmp",out.getAbsoluteFile().getParentFile());
+                            compress(f,tmp,e);
+                            Files.move(tmp.toPath(),out.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+                            outLen = out.length();
+                            System.out.println(f + "\t" + f.length() + "\t" + outLen + "\t" + String.format("%.3f",(System.nanoTime()-s)/1e9) + " s\t" + e);
+                        } catch(IOException | RuntimeException x) { // report it and go on with the other files
+                            error = (x instanceof InvalidSymbolException) ? "Invalid symbol: " + ((InvalidSymbolException)x).symbol : x.toString();
+                            System.err.println("FAILED: \"" + f + "\": " + error);
+                            if(tmp != null) {
+                                tmp.delete();
+                            }
+                        } finally { // always release the reservation, or the admission loop would wait forever
+                            CodecWorkspace.release();
+                            synchronized(lock) {
+                                used[0] -= need;
+                                --running[0];
+                                if(error == null) {
+                                    totalIn[0] += f.length();
+                                    totalOut[0] += outLen;
+                                }
+                                else {
+                                    failed.add(f.getPath());
+                                }
+                                lock.notifyAll();
+                            }
+                        }
+                    });
+                }
+            }
+        } catch(InterruptedException e) {
+            System.err.println("ERROR: Interrupted while compressing batch!"); System.exit(-1);
+        }
+        pool.shutdown();
+        double secs = (System.nanoTime()-t0)/1e9;
+        System.out.println("Files: " + files.size());
+        System.out.println("Failed: " + failed.size());
+        System.out.println("Input: " + totalIn[0] + " bytes");
+        System.out.println("Output: " + totalOut[0] + " bytes");
+        System.out.println("Time: " + String.format("%.3f",secs) + " s");
+        System.out.println("Throughput: " + String.format("%.3f",totalIn[0]/1e6/secs) + " MB/s");
+        if(!failed.isEmpty()) {
+            System.err.println("ERROR: " + failed.size() + " of " + files.size() + " files failed: " + String.join(", ",failed)); System.exit(-1);
+        }
+    }
+    
+    /* Compress one file of the batch (errors are thrown, never exit the JVM)
+     * INPUT:  The input file, the file to write the HuffSplit stream to, and the engine (full, compact, or spill)
+     */
+    static void compress( File in, File out, String engine ) throws IOException {
+        if(engine.equals("spill")) {
+            CompactDP.spill(in.getPath(),out.getPath(),null);
+            return;
+        }
+        byte[] msg = Files.readAllBytes(in.toPath());
+        if(msg.length == 0) {
+            throw new HuffSplitException("Empty file!");
+        }
+        try(DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)))) {
+            HuffSplit.compress(msg,0,msg.length,dos,false,false,null,engine.equals("compact"));
+        }
+    }
+    
+    /* Is a file in an input directory an output of HuffSplit (.hsf and its sidecars, archives) or a temporary file left
+     * by a crashed run (a job's <name>.*.tmp or a spill file), rather than an input?
+     */
+    static boolean isOutput( String name ) {
+        return name.contains(".hsf") || name.endsWith(".tmp") || name.endsWith(".spill") || name.endsWith(FastaArchive.EXT) || name.endsWith(FastaArchive.INDEX_EXT);
+    }
+    
+    /* List the input files of a directory or list file
+     */
+    public static ArrayList<File> listInputs( String SOURCE ) {
+        ArrayList<File> files = new ArrayList<File>();
+        File src = new File(SOURCE);
+        if(src.isDirectory()) {
+            File[] found = src.listFiles();
+            Arrays.sort(found);
+            for(File f : found) {
+                String name = f.getName();
+                if(f.isFile() && !isOutput(name)) {
+                    files.add(f);
+                }
+            }
+        }
+        else {
+            try {
+                for(String line : Files.readAllLines(src.toPath())) {
+                    line = line.trim();
+                    if(line.length() != 0) {
+                        File f = new File(line);
+                        if(!f.isFile()) {
+                            System.err.println("ERROR: File \"" + line + "\" not found!"); System.exit(-1);
+                        }
+                        files.add(f);
+                    }
+                }
+            } catch(IOException e) {
+                System.err.println("ERROR: IOException while reading \"" + SOURCE + "\"!"); System.exit(-1);
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,151 @@
+/* AUTHOR: Niema Moshiri
+ * Reusable Per-Thread Buffers for Compression and Decompression
+ *
+ * compress and decompress take their DP cost columns, backtrack matrix, segment list, and decode buffer from the calling
+ * thread's workspace instead of allocating them per call, so repeated calls on a thread allocate nothing per base once
+ * the buffers have grown to fit (see core/src/test/java/AllocationCheck.java). Buffers grow during a call, and trim
+ * (run at the end of compress and of every HuffSplitCodec call) shrinks them back: backtrack blocks beyond
+ * RETAIN_BLOCKS are given back, and so are the decode, payload, and output buffers once they are larger than
+ * RETAIN_BUFFER, so one huge message doesn't pin its memory to a thread forever. A thread that is done with the codec
+ * can call release to drop its workspace altogether, as the pools that run unrelated jobs (BatchCompressor,
+ * HuffSplitServer, FastaArchive) do after each job, so an idle thread holds nothing. RETAIN_BLOCKS is 2 (~21 MB, enough
+ * for messages of up to 2^17 symbols), or the huffsplit.retainBlocks system property, and RETAIN_BUFFER is 4 MB (both
+ * are read once, when the class is loaded).
+ *
+ * The backtrack matrix is stored in blocks of 2^BLOCK_SHIFT rows (one byte per topology per row), since a single array
+ * couldn't hold more than ~13M rows.
+ *
+ * A workspace must only be used by its own thread (HuffSplitCodec and the CLI never hand one to another thread).
+ */
+import java.io.*;
+import java.util.Arrays;
+
+public final class CodecWorkspace {
+    // instance variables
+    public static final int BLOCK_SHIFT = 16;                 // log2 of the number of backtrack rows per block
+    public static final int BLOCK_MASK = (1 << BLOCK_SHIFT) - 1;
+    public static final int RETAIN_BLOCKS = Integer.getInteger("huffsplit.retainBlocks",2); // blocks kept between calls
+    public static final int RETAIN_BUFFER = 1 << 22;          // largest decode, payload, or output buffer kept by trim
+    private static final ThreadLocal<CodecWorkspace> LOCAL = ThreadLocal.withInitial(CodecWorkspace::new);
+    public final int[][] costs = new int[2][HuffSplit.NUMTOPS]; // the last two DP cost columns
+    public byte[][] backtrack = new byte[0][];                // backtrack blocks (row i is block i >>> BLOCK_SHIFT)
+    public int[] segStart = new int[64];                      // start of each segment (in reverse order)
+    public int[] segTop = new int[64];                        // topology of each segment (in reverse order)
+    public int numSegs;
+    private byte[] decoded = new byte[1 << 12];               // buffer for decoding a segment
+    private byte[] payload = new byte[1 << 12];               // buffer for a segment's coded bytes (see RansCoder)
+    private Sink sink = new Sink();                           // output buffer of HuffSplitCodec
+    
+    /* Return the calling thread's workspace
+     */
+    public static CodecWorkspace get() {
+        return LOCAL.get();
+    }
+    
+    /* Drop the calling thread's workspace (the next get makes a new, empty one)
+     */
+    public static void release() {
+        LOCAL.remove();
+    }
+    
+    /* Make sure the backtrack matrix has room for L rows
+     */
+    public void ensureBacktrack( int L ) {
+        int blocks = ((L-1) >>> BLOCK_SHIFT) + 1;
+        if(backtrack.length < blocks) {
+            byte[][] grown = new byte[blocks][];
+            System.arraycopy(backtrack,0,grown,0,backtrack.length);
+            backtrack = grown;
+        }
+        for(int b = 0; b < blocks; ++b) {
+            int rows = Math.min(1 << BLOCK_SHIFT,L - (b << BLOCK_SHIFT));
+            if(backtrack[b] == null || backtrack[b].length < rows * HuffSplit.NUMTOPS) { // small messages get small blocks
+                rows = Math.min(1 << BLOCK_SHIFT,Integer.highestOneBit(rows-1) << 1);
+                backtrack[b] = new byte[Math.max(rows,64) * HuffSplit.NUMTOPS];
+            }
+        }
+    }
+    
+    /* Give back the backtrack blocks beyond RETAIN_BLOCKS, and the buffers larger than RETAIN_BUFFER (a caller that still
+     * holds the output buffer keeps its contents; the workspace just starts a new one)
+     */
+    public void trim() {
+        for(int b = RETAIN_BLOCKS; b < backtrack.length; ++b) {
+            backtrack[b] = null;
+        }
+        if(decoded.length > RETAIN_BUFFER) {
+            decoded = new byte[1 << 12];
+        }
+        if(payload.length > RETAIN_BUFFER) {
+            payload = new byte[1 << 12];
+        }
+        if(sink.size() > RETAIN_BUFFER) { // its capacity is less than twice the largest message written to it since
+            sink = new Sink();            // the last trim
+        }
+    }
+    
+    /* Add a segment to the (reversed) segment list
+     */
+    public void addSegment( int start, int top ) {
+        if(numSegs == segStart.length) {
+            segStart = Arrays.copyOf(segStart,2*numSegs);
+            segTop = Arrays.copyOf(segTop,2*numSegs);
+        }
+        segStart[numSegs] = start;
+        segTop[numSegs] = top;
+        ++numSegs;
+    }
+    
+    /* Return a buffer with room for n decoded symbols
+     */
+    public byte[] decodeBuffer( int n ) {
+        if(decoded.length < n) {
+            decoded = new byte[Math.max(n,2*decoded.length)];
+        }
+        return decoded;
+    }
+    
+    /* Return a buffer with room for n coded bytes
+     */
+    public byte[] payloadBuffer( int n ) {
+        if(payload.length < n) {
+            payload = new byte[Math.max(n,2*payload.length)];
+        }
+        return payload;
+    }
+    
+    /* Return the (emptied) output buffer
+     */
+    public Sink sink() {
+        sink.reset();
+        return sink;
+    }
+    
+    /* A DataOutputStream over a reusable in-memory buffer
+     */
+    public static final class Sink extends DataOutputStream {
+        public Sink() {
+            super(new ByteArrayOutputStream(1 << 16));
+        }
+        
+        /* Empty the buffer (keeping its capacity) and restart size() at 0
+         */
+        public void reset() {
+            ((ByteArrayOutputStream)out).reset();
+            written = 0;
+        }
+        
+        /* Copy the contents of the buffer
+         */
+        public byte[] toByteArray() {
+            return ((ByteArrayOutputStream)out).toByteArray();
+        }
+        
+        /* Write the contents of the buffer to a stream (without a copy)
+         */
+        public void writeTo( OutputStream dest ) throws IOException {
+            flush();
+            ((ByteArrayOutputStream)out).writeTo(dest);
+        }
+    }
+}
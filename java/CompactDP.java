@@ -0,0 +1,301 @@
+/* AUTHOR: Niema Moshiri
+ * Compact (and Spilling) Backtrack Matrix for the Optimal-Cut DP
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> --engine=compact
+ * -Compress:   java HuffSplit compress <in_file> --engine=spill
+ *
+ * Gives exactly the same output as the full-matrix DP (HuffSplit.forwardDP and findSegments) in ~1/7 of the memory. In
+ * every column of the DP, a topology either stays in itself or switches from the cheapest topology of the previous
+ * column, so a backtrack row only needs one "switched" bit per topology plus the cheapest topology of the column:
+ * ROW = 22 bytes per symbol instead of NUMTOPS = 165.
+ *
+ * The rows are stored in blocks of 2^BLOCK_SHIFT. The compact engine keeps the blocks (and the message) in memory. The
+ * spill engine streams the message from its file, writes each block to a temporary file next to the output as soon as
+ * it is full, reads the blocks back in reverse order to find the segments, and then streams the message again to encode
+ * them, so it needs a few MB of heap no matter how long the message is (plus ROW bytes per symbol of disk).
+ */
+import java.io.*;
+import java.util.*;
+
+public class CompactDP implements Closeable {
+    // instance variables
+    public static final int ROW = 22;            // bytes per backtrack row: 165 switched bits and the cheapest topology
+    public static final int BEST = 21;           // offset of the cheapest topology in a row
+    public static final int BLOCK_SHIFT = CodecWorkspace.BLOCK_SHIFT;
+    public static final int ROWS = 1 << BLOCK_SHIFT;
+    private final int[][] C = new int[2][HuffSplit.NUMTOPS];
+    private final byte[] first = new byte[HuffSplit.NUMTOPS]; // throwaway backtrack row for dpFirst
+    private final ArrayList<byte[]> blocks = new ArrayList<byte[]>(); // full blocks (compact engine only)
+    private final RandomAccessFile spill;        // full blocks (spill engine only)
+    private final File spillFile;
+    private byte[] block = new byte[ROWS*ROW];   // block being filled
+    private byte[] lastBest = new byte[64];      // cheapest topology of the last row of each full block
+    private int numBlocks = 0;
+    private int best = -1;                       // cheapest topology of the last column
+    private long pos = 0;                        // number of symbols so far
+    
+    /* Constructor
+     * INPUT:  The directory to spill the backtrack blocks to (or null to keep them in memory)
+     */
+    public CompactDP( File spillDir ) throws IOException {
+        if(spillDir == null) {
+            spill = null;
+            spillFile = null;
+        }
+        else {
+            spillFile = File.createTempFile("huffsplit",".spill",spillDir); // deleted by close (not deleteOnExit, which
+            try {                                                            // would keep every name until the JVM exits)
+                spill = new RandomAccessFile(spillFile,"rw");
+            } catch(IOException e) {
+                spillFile.delete();
+                throw e;
+            }
+        }
+    }
+    
+    /* Run the forward DP over the next len symbols of the message
+     * INPUT:  The symbols (starting at off); an InvalidSymbolException is thrown if they aren't DNA
+     */
+    public void feed( byte[] msg, int off, int len ) throws IOException {
+        int bad = SymbolScan.scan(msg,off,len,null);
+        if(bad != -1) {
+            throw new InvalidSymbolException(pos+bad,(char)(msg[off+bad] & 0xFF));
+        }
+        for(int k = off; k < off+len; ++k, ++pos) {
+            int c = SymbolScan.INDEX[msg[k] & 0xFF];
+            int r = (int)(pos & (ROWS-1));
+            if(pos == 0) {
+                best = HuffSplit.dpFirst(c,C[0],first,0);
+                block[BEST] = (byte)best;
+            }
+            else {
+                best = step(C[(int)(pos-1) & 1],best,c,C[(int)pos & 1],block,r*ROW);
+            }
+            if(r == ROWS-1) {
+                flush(ROWS);
+            }
+        }
+    }
+    
+    /* Store the block being filled (its first rows rows)
+     */
+    private void flush( int rows ) throws IOException {
+        if(numBlocks == lastBest.length) {
+            lastBest = Arrays.copyOf(lastBest,2*numBlocks);
+        }
+        lastBest[numBlocks] = block[(rows-1)*ROW + BEST];
+        if(spill == null) {
+            blocks.add(block);
+            block = new byte[ROWS*ROW];
+        }
+        else {
+            spill.seek((long)numBlocks * ROWS * ROW);
+            spill.write(block,0,rows*ROW);
+        }
+        ++numBlocks;
+    }
+    
+    /* One column of the DP (the same as HuffSplit.dpStep, but recording switches as bits)
+     * INPUT:  The previous cost column and its cheapest topology, the symbol, the cost column to fill, and the row to fill
+     * OUTPUT: The cheapest topology of this column
+     */
+    static int step( int[] prev, int prevBest, int c, int[] cur, byte[] row, int off ) {
+        Arrays.fill(row,off,off+BEST,(byte)0);
+        int bestT = -1;
+        int diffBase = prev[prevBest];
+        if(diffBase%8 != 0) {
+            diffBase += (8-(diffBase%8));
+        }
+        diffBase += 72;
+        for(int top = 0; top < HuffSplit.NUMTOPS; ++top) {
+            int bits = Topologies.length(top,c);
+            if(bits != -1) {
+                if(prevBest == top) {
+                    cur[top] = prev[top] + bits;
+                }
+                else {
+                    int sameC = (prev[top] == -1) ? -1 : prev[top] + bits;
+                    int diffC = diffBase + bits;
+                    if(sameC == -1 || diffC < sameC) {
+                        cur[top] = diffC;
+                        row[off + (top >>> 3)] |= (byte)(1 << (top & 7));
+                    }
+                    else {
+                        cur[top] = sameC;
+                    }
+                }
+                if(bestT == -1 || cur[bestT] > cur[top]) {
+                    bestT = top;
+                }
+            }
+            else {
+                cur[top] = -1;
+            }
+        }
+        row[off+BEST] = (byte)bestT;
+        return bestT;
+    }
+    
+    /* Finish the forward DP
+     * OUTPUT: The topology the optimal path ends in
+     */
+    public int finish() throws IOException {
+        int r = (int)(pos & (ROWS-1));
+        if(r != 0) {
+            flush(r);
+        }
+        return HuffSplit.dpLast(C[(int)(pos-1) & 1]);
+    }
+    
+    /* Reconstruct the segments of the optimal path (after finish)
+     * INPUT:  The topology the path ends in and the workspace to put the segment list in
+     * OUTPUT: The workspace's segment list (last segment first), as HuffSplit.findSegments
+     */
+    public void findSegments( int top, CodecWorkspace ws ) throws IOException {
+        ws.numSegs = 0;
+        byte[] buf = (spill == null) ? null : new byte[ROWS*ROW];
+        for(int b = numBlocks-1; b >= 0; --b) {
+            int rows = (int)Math.min(ROWS,pos - ((long)b << BLOCK_SHIFT));
+            byte[] rowsOf = (spill == null) ? blocks.get(b) : buf;
+            if(spill != null) {
+                spill.seek((long)b * ROWS * ROW);
+                spill.readFully(buf,0,rows*ROW);
+            }
+            for(int r = rows-1; r >= ((b == 0) ? 1 : 0); --r) {
+                if((rowsOf[r*ROW + (top >>> 3)] & (1 << (top & 7))) != 0) { // switched from the previous column's cheapest
+                    ws.addSegment((b << BLOCK_SHIFT) + r,top);
+                    top = ((r > 0) ? rowsOf[(r-1)*ROW + BEST] : lastBest[b-1]) & 0xFF;
+                }
+            }
+        }
+        ws.addSegment(0,top);
+    }
+    
+    /* Delete the spill file (if any); the engine must be used in a try-with-resources block (or closed in a finally)
+     */
+    public void close() throws IOException {
+        if(spill != null) {
+            try {
+                spill.close();
+            } finally {
+                spillFile.delete();
+            }
+        }
+    }
+    
+    /* Encode the segments of a message streamed from a file (the same as HuffSplit.encodeSegments)
+     * INPUT:  The message stream, the workspace (after findSegments), the stream to write to, and the index to fill (or null)
+     * OUTPUT: The HuffSplit segments
+     */
+    public static void encodeSegments( InputStream in, CodecWorkspace ws, long L, DataOutputStream out, HuffSplitIndex index ) throws IOException {
+        byte[] chunk = new byte[1 << 16];
+        long offset = 0; // bytes written so far (out.size() saturates at 2 GB)
+        for(int seg = ws.numSegs-1; seg >= 0; --seg) {
+            int start = ws.segStart[seg];
+            int end = (seg > 0) ? ws.segStart[seg-1] : (int)L;
+            int top = ws.segTop[seg];
+            int s = ws.numSegs-1-seg;
+            if(index != null) {
+                index.set(s,top,end-start,offset);
+            }
+            out.writeByte(top);       // infobyte (topology)
+            out.writeInt(end-start);  // numChars
+            offset += 5;
+            
+            // encode substring (buf holds the nbits pending bits in its low bits)
+            int buf = 0;
+            int nbits = 0;
+            for(int done = start; done < end;) {
+                int n = in.readNBytes(chunk,0,Math.min(chunk.length,end-done));
+                if(n == 0) {
+                    throw new EOFException("Input ended early");
+                }
+                for(int i = 0; i < n; ++i) {
+                    int c = HuffSplit.symbolIndex((char)(chunk[i] & 0xFF));
+                    if(index != null) {
+                        ++index.counts[s][c];
+                    }
+                    if(top < 5) { // if only 1 unique symbol, only need first 5 bytes
+                        continue;
+                    }
+                    buf = (buf << Topologies.length(top,c)) | Topologies.code(top,c);
+                    nbits += Topologies.length(top,c);
+                    if(nbits >= 8) {
+                        nbits -= 8;
+                        out.writeByte(buf >>> nbits);
+                        buf &= (1 << nbits) - 1;
+                        ++offset;
+                    }
+                }
+                done += n;
+            }
+            
+            // clear buffer
+            if(nbits > 0) {
+                out.writeByte(buf << (8-nbits));
+                ++offset;
+            }
+        }
+    }
+    
+    /* Compress a file with the spill engine
+     * INPUT:  The input file, the output file, and the index file to write (or null for no index)
+     * OUTPUT: The compressed file (identical to HuffSplit.compress)
+     */
+    public static void compressSpill( String INFILE, String OUTFILE, String INDEXFILE ) {
+        try {
+            spill(INFILE,OUTFILE,INDEXFILE);
+        } catch(InvalidSymbolException e) {
+            System.err.println("ERROR: Invalid symbol: " + e.symbol); System.exit(-1);
+        } catch(FileNotFoundException e) {
+            System.err.println("ERROR: File \"" + INFILE + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: " + e.getMessage()); System.exit(-1);
+        }
+    }
+    
+    /* Compress a file with the spill engine (without exiting on errors, e.g. for BatchCompressor)
+     * INPUT:  The input file, the output file, and the index file to write (or null for no index)
+     * OUTPUT: The compressed file; an InvalidSymbolException is thrown if the input isn't DNA
+     */
+    public static void spill( String INFILE, String OUTFILE, String INDEXFILE ) throws IOException {
+        long L = new File(INFILE).length();
+        if(L > Integer.MAX_VALUE) {
+            throw new HuffSplitException("\"" + INFILE + "\" is longer than " + Integer.MAX_VALUE + " symbols");
+        }
+        CodecWorkspace ws = CodecWorkspace.get();
+        File dir = new File(OUTFILE).getAbsoluteFile().getParentFile();
+        try(CompactDP dp = new CompactDP(dir)) {
+            // forward DP and backtrack
+            HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","forward_dp");
+            try(InputStream in = new FileInputStream(INFILE)) {
+                byte[] chunk = new byte[1 << 16];
+                int n;
+                while((n = in.read(chunk)) > 0) {
+                    dp.feed(chunk,0,n);
+                }
+            }
+            if(dp.pos == 0) {
+                throw new HuffSplitException("Empty file!");
+            }
+            int last = dp.finish();
+            phase.commit();
+            phase = HuffSplitEvents.phase("compress","backtrack");
+            dp.findSegments(last,ws);
+            phase.commit();
+            
+            // encode file
+            phase = HuffSplitEvents.phase("compress","encode");
+            HuffSplitIndex index = (INDEXFILE != null) ? new HuffSplitIndex(ws.numSegs) : null;
+            try(InputStream in = new BufferedInputStream(new FileInputStream(INFILE),1 << 16);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(OUTFILE),1 << 16))) {
+                encodeSegments(in,ws,dp.pos,out,index);
+            }
+            phase.commit();
+            if(index != null) {
+                index.write(INDEXFILE,OUTFILE);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+/* AUTHOR: Niema Moshiri
+ * Exception: the HuffSplit stream to decompress is malformed or truncated
+ */
+public class CorruptStreamException extends HuffSplitException {
+    // instance variables
+    private static final long serialVersionUID = 1L;
+    
+    /* Constructors
+     */
+    public CorruptStreamException( String message ) {
+        super(message);
+    }
+    public CorruptStreamException( String message, Throwable cause ) {
+        super(message,cause);
+    }
+}
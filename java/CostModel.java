@@ -0,0 +1,282 @@
+/* AUTHOR: Niema Moshiri
+ * Tunable Cost Model of the Optimal-Cut DP (Segment Penalty and Minimum Segment Length)
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> [--penalty=BITS] [--min-segment=N]
+ *
+ * The default DP charges every segment HEADER_BITS (its InfoByte + numChars, as the DP always has) plus the padding of
+ * the segment before it, which only minimizes the output size. Every segment also costs the decoder a header read and
+ * a switch of code tables, so on noisy input the smallest output can be thousands of tiny segments that decode slowly.
+ * The cost model adds PENALTY bits to every segment and only allows segments of at least MIN_SEGMENT symbols (except
+ * when the whole message is shorter), which trades a little ratio for fewer, longer segments. After compressing,
+ * compress reports the segments, the ratio, and the measured decode speed on standard error, so the two can be tuned per
+ * archive. The speed is that of the fastest in-memory decode of the segments of the first SAMPLE_SYMBOLS symbols (before
+ * any inverse BWT), so the report takes about the same time however large the output is. The output is a normal HuffSplit file (decompress needs no
+ * options); with the defaults (0 and 1), it is identical to that of the default DP.
+ *
+ * The DP stays exact. A path is "mature" at symbol i if its last segment has at least MIN_SEGMENT symbols, and a new
+ * segment of topology t that becomes mature at i started at i-MIN_SEGMENT+1, so its cost is that of the cheapest mature
+ * path at i-MIN_SEGMENT (padded), the header and penalty, and the cost of t over the MIN_SEGMENT symbols. The cost of
+ * every topology over the last MIN_SEGMENT-1 symbols is kept up to date as the window slides, so each column is still
+ * O(NUMTOPS), and a backtrack row is still a "switched" bit per topology plus the cheapest topology (as in CompactDP.java):
+ * a set bit at row i means the segment started at i-MIN_SEGMENT+1.
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class CostModel {
+    // instance variables
+    public static final int HEADER_BITS = 72;    // cost of a segment header in the default DP
+    private static final int MISSING = 1 << 24;  // cost of a symbol a topology can't code (more than any window)
+    private static final int[][] LENGTH = new int[HuffSplit.SYMBOLS.length][HuffSplit.NUMTOPS]; // code lengths (or MISSING)
+    public static final int DECODE_RUNS = 3;     // minimum decode passes timed by report (the fastest is reported)
+    public static final long DECODE_NANOS = 200_000_000L; // minimum total time of the decode passes
+    public static final int SAMPLE_SYMBOLS = 1 << 22; // symbols decoded per pass
+    public final int penalty;                    // extra bits charged per segment
+    public final int minSegment;                 // minimum number of symbols per segment
+    
+    static {
+        for(int c = 0; c < HuffSplit.SYMBOLS.length; ++c) {
+            for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+                int bits = Topologies.length(t,c);
+                LENGTH[c][t] = (bits == -1) ? MISSING : bits;
+            }
+        }
+    }
+    
+    /* Constructor
+     * INPUT:  The extra bits charged per segment (at least 0) and the minimum segment length (at least 1)
+     */
+    public CostModel( int penalty, int minSegment ) {
+        if(penalty < 0 || minSegment < 1) {
+            throw new IllegalArgumentException("Invalid cost model: penalty " + penalty + ", min segment " + minSegment);
+        }
+        this.penalty = penalty;
+        this.minSegment = minSegment;
+    }
+    
+    /* Parse the --penalty and --min-segment options of compress
+     * INPUT:  The arguments
+     * OUTPUT: The cost model, or null if neither option was given
+     */
+    public static CostModel fromArgs( String[] args ) {
+        String p = HuffSplit.optionValue(args,"--penalty");
+        String m = HuffSplit.optionValue(args,"--min-segment");
+        if(p == null && m == null) {
+            return null;
+        }
+        int penalty = -1, minSegment = -1;
+        try {
+            penalty = (p == null) ? 0 : Integer.parseInt(p);
+            minSegment = (m == null) ? 1 : Integer.parseInt(m);
+        } catch(NumberFormatException e) {
+            // reported below
+        }
+        if(penalty < 0 || penalty > (1 << 24)) {
+            System.err.println("ERROR: Invalid segment penalty (bits): " + p); System.exit(-1);
+        }
+        if(minSegment < 1) {
+            System.err.println("ERROR: Invalid minimum segment length: " + m); System.exit(-1);
+        }
+        return new CostModel(penalty,minSegment);
+    }
+    
+    /* Find the optimal segments of a message under this cost model
+     * INPUT:  The message (L symbols starting at off) and the workspace to put the segment list in
+     * OUTPUT: The workspace's segment list (last segment first), as HuffSplit.findSegments (an InvalidSymbolException is
+     *         thrown if the message isn't DNA)
+     */
+    public void findSegments( byte[] msg, int off, int L, CodecWorkspace ws ) throws InvalidSymbolException {
+        DP dp = new DP(Math.min(minSegment,L));
+        HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","forward_dp");
+        int last = dp.forward(msg,off,L);
+        phase.commit();
+        phase = HuffSplitEvents.phase("compress","backtrack");
+        dp.backtrack(last,L,ws);
+        phase.commit();
+    }
+    
+    /* Report the segments, ratio, and decode speed of a compressed file on standard error
+     * INPUT:  The compressed file, the length of the message, and the number of segments
+     */
+    public void report( String OUTFILE, long L, int segments ) throws IOException {
+        // find (and then load) the bytes that hold the first SAMPLE_SYMBOLS symbols, rather than the whole output
+        byte[] buf = new byte[(int)Math.min(L,SAMPLE_SYMBOLS)];
+        long sampled;
+        byte[] hsf;
+        CountingStream counter = new CountingStream(new BufferedInputStream(new FileInputStream(OUTFILE),1 << 16));
+        try {
+            sampled = decodeSample(new DataInputStream(counter),buf);
+        } finally {
+            counter.close();
+        }
+        try(InputStream in = new FileInputStream(OUTFILE)) {
+            hsf = in.readNBytes((int)counter.count);
+        }
+        long fastest = Long.MAX_VALUE, total = 0;
+        for(int r = 0; r < DECODE_RUNS || total < DECODE_NANOS; ++r) {
+            long t0 = System.nanoTime();
+            decodeSample(new DataInputStream(new ByteArrayInputStream(hsf)),buf);
+            long t = System.nanoTime()-t0;
+            fastest = Math.min(fastest,t);
+            total += t;
+        }
+        System.err.println(String.format("Cost model (penalty %d bits, min segment %d): %d segments (mean %.1f symbols), %.4f bits/base, decode %.1fM bases/s",
+                                         penalty,minSegment,segments,(double)L/segments,8.0*new File(OUTFILE).length()/L,sampled*1e3/Math.max(fastest,1)));
+    }
+    
+    /* Decode the segments of the first SAMPLE_SYMBOLS symbols of a HuffSplit stream (the last one only partly)
+     * INPUT:  The stream and a buffer with room for SAMPLE_SYMBOLS symbols (or the whole message, if shorter)
+     * OUTPUT: The number of symbols decoded (the stream is left right after the last byte they needed)
+     */
+    private static long decodeSample( DataInputStream in, byte[] buf ) throws IOException {
+        long decoded = 0;
+        boolean first = true;
+        int top;
+        while(decoded < buf.length && (top = in.read()) != -1) {
+            if(first && top == BWT.BWT_MARKER) {
+                in.readInt(); // the primary index
+            }
+            else {
+                int n = (int)Math.min(in.readInt(),buf.length-decoded);
+                HuffSplit.decodeSegment(in,top,n,buf);
+                decoded += n;
+            }
+            first = false;
+        }
+        return decoded;
+    }
+    
+    /* The DP over one message (backtrack rows as in CompactDP, kept in memory)
+     */
+    private class DP {
+        // instance variables
+        private final int m;                     // minimum segment length (at most the message length)
+        private final int H = HEADER_BITS + penalty;
+        private final int[][] C = new int[2][HuffSplit.NUMTOPS];
+        private final long[] window = new long[HuffSplit.NUMTOPS]; // cost of each topology over the last m-1 symbols
+        private final int[] ringCost;            // cheapest mature cost of each of the last m symbols (-1 if none)
+        private final byte[] ringBest;           // its topology
+        private final byte[] ringSym;            // the symbols themselves
+        private final ArrayList<byte[]> blocks = new ArrayList<byte[]>();
+        
+        /* Constructor
+         * INPUT:  The minimum segment length
+         */
+        DP( int m ) {
+            this.m = m;
+            ringCost = new int[m];
+            ringBest = new byte[m];
+            ringSym = new byte[m];
+        }
+        
+        /* Forward pass of the DP
+         * INPUT:  The message (L symbols starting at off)
+         * OUTPUT: The topology the optimal path ends in
+         */
+        int forward( byte[] msg, int off, int L ) throws InvalidSymbolException {
+            final int ROW = CompactDP.ROW;
+            final int MASK = CompactDP.ROWS-1;
+            byte[] block = null;
+            for(int i = 0; i < L; ++i) {
+                int c = HuffSplit.symbolIndex((char)(msg[off+i] & 0xFF));
+                if(c == -1) {
+                    throw new InvalidSymbolException(i,(char)(msg[off+i] & 0xFF));
+                }
+                if((i & MASK) == 0) {
+                    block = new byte[CompactDP.ROWS*ROW];
+                    blocks.add(block);
+                }
+                
+                // slide the window to symbols i-m+1...i-1
+                if(m > 1 && i > 0) {
+                    int[] in = LENGTH[ringSym[(i-1) % m]];
+                    if(i >= m) {
+                        int[] out = LENGTH[ringSym[i % m]]; // symbol i-m
+                        for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+                            window[t] += in[t] - out[t];
+                        }
+                    }
+                    else {
+                        for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+                            window[t] += in[t];
+                        }
+                    }
+                }
+                
+                // a new segment that becomes mature here continues the cheapest mature path of symbol i-m
+                int base = -1, from = -1;
+                if(i == m-1) {
+                    base = H;
+                }
+                else if(i >= m && ringCost[i % m] != -1) {
+                    base = ringCost[i % m];
+                    if(base%8 != 0) {
+                        base += (8-(base%8));
+                    }
+                    base += H;
+                    from = ringBest[i % m] & 0xFF;
+                }
+                int bestT = step(C[(i+1)&1],base,from,c,C[i&1],block,(i & MASK)*ROW,i > 0);
+                ringCost[i % m] = (bestT == -1) ? -1 : C[i&1][bestT];
+                ringBest[i % m] = (byte)bestT;
+                ringSym[i % m] = (byte)c;
+            }
+            return HuffSplit.dpLast(C[(L-1)&1]);
+        }
+        
+        /* One column of the DP (for m == 1, the same as CompactDP.step)
+         * INPUT:  The previous cost column, the cost of starting a segment that becomes mature here (-1 if none) and the
+         *         topology it switches from, the symbol, the cost column and row to fill, and whether there is a previous column
+         * OUTPUT: The cheapest topology of this column (-1 if none)
+         */
+        private int step( int[] prev, int base, int from, int c, int[] cur, byte[] row, int off, boolean hasPrev ) {
+            int bestT = -1;
+            int[] len = LENGTH[c];
+            for(int top = 0; top < HuffSplit.NUMTOPS; ++top) {
+                int bits = len[top];
+                if(bits == MISSING) {
+                    cur[top] = -1;
+                    continue;
+                }
+                int sameC = (hasPrev && prev[top] != -1) ? prev[top] + bits : -1;
+                int diffC = (base == -1 || top == from || window[top] >= MISSING) ? -1 : base + (int)window[top] + bits;
+                if(diffC != -1 && (sameC == -1 || diffC < sameC)) {
+                    cur[top] = diffC;
+                    row[off + (top >>> 3)] |= (byte)(1 << (top & 7));
+                }
+                else {
+                    cur[top] = sameC;
+                }
+                if(cur[top] != -1 && (bestT == -1 || cur[bestT] > cur[top])) {
+                    bestT = top;
+                }
+            }
+            row[off+CompactDP.BEST] = (byte)bestT;
+            return bestT;
+        }
+        
+        /* Reconstruct the segments of the optimal path
+         * INPUT:  The topology the path ends in, the length of the message, and the workspace to put the segment list in
+         */
+        void backtrack( int top, int L, CodecWorkspace ws ) {
+            final int ROW = CompactDP.ROW;
+            final int MASK = CompactDP.ROWS-1;
+            ws.numSegs = 0;
+            int i = L-1;
+            while(true) {
+                while((blocks.get(i >>> CompactDP.BLOCK_SHIFT)[(i & MASK)*ROW + (top >>> 3)] & (1 << (top & 7))) == 0) {
+                    --i;
+                }
+                int start = i-m+1;
+                ws.addSegment(start,top);
+                if(start == 0) {
+                    return;
+                }
+                i = start-1;
+                top = blocks.get(i >>> CompactDP.BLOCK_SHIFT)[(i & MASK)*ROW + CompactDP.BEST] & 0xFF;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/* AUTHOR: Niema Moshiri
+ * Bounds on Segment Lengths While Decoding Untrusted Input
+ *
+ * The decoders size their buffers and loops by the numChars of each segment header, so a flipped header byte could
+ * make them allocate or write up to 2^31 bytes. A guard checks every segment length before anything is allocated:
+ * -When the whole HuffSplit stream is in memory (HuffSplitCodec's byte[] and ByteBuffer methods), what is left of it is
+ *  known, and every symbol of a segment whose code has at least 2 symbols takes at least 1 bit, so numChars can't be
+ *  more than 8 per byte left
+ * -Runs of one symbol (and rANS segments) take no bits per symbol, so the total output is also capped (HuffSplitCodec
+ *  caps it at what its in-memory output buffer can hold, and BWT streams at a fifth of that)
+ * A segment that breaks either bound throws a CorruptStreamException. Streams (the CLI, and the codec's stream methods)
+ * write their output as they go, so they use an unbounded guard.
+ */
+import java.io.*;
+
+public final class DecodeGuard {
+    // instance variables
+    public static final long MAX_ARRAY = Integer.MAX_VALUE - 8; // largest byte[] the JVM reliably allocates
+    public static final int RUN_CHUNK = 1 << 16;                 // symbols written at a time for runs of one symbol
+    public static final int BWT_FACTOR = 5;  // the inverse BWT needs ~5 times the memory per symbol of a plain decode
+    private final boolean inMemory;          // whether in.available() is exactly what is left of the stream
+    private long maxOutput;                  // cap on the total number of decoded symbols
+    private long output = 0;                 // decoded symbols so far
+    
+    /* Constructor
+     * INPUT:  Whether the stream is read from memory (so the rest of it is known), and the cap on the output
+     */
+    public DecodeGuard( boolean inMemory, long maxOutput ) {
+        this.inMemory = inMemory;
+        this.maxOutput = maxOutput;
+    }
+    
+    /* A guard that only rejects negative lengths (for trusted or streaming input)
+     */
+    public static DecodeGuard unbounded() {
+        return new DecodeGuard(false,Long.MAX_VALUE);
+    }
+    
+    /* Tighten the cap for a BWT stream (its segments are buffered, and then inverted with two int arrays)
+     */
+    public void bwt() {
+        maxOutput /= BWT_FACTOR;
+    }
+    
+    /* Check the length of a segment before decoding it
+     * INPUT:  Its number of symbols, the minimum number of bits per symbol (1 if every symbol has a code, 0 if symbols
+     *         can take no bits), and the stream, positioned right after the segment's header
+     * OUTPUT: Nothing; a CorruptStreamException is thrown if the length is impossible
+     */
+    public void segment( long numChars, int minBits, DataInputStream in ) throws IOException {
+        if(numChars < 0) {
+            throw new CorruptStreamException("Invalid segment length: " + numChars);
+        }
+        if(inMemory && minBits > 0 && numChars*minBits > 8L*in.available()) {
+            throw new CorruptStreamException("Invalid segment length: " + numChars + " symbols, but only " + in.available() + " bytes left");
+        }
+        written(numChars);
+    }
+    
+    /* Count decoded symbols against the output cap
+     * INPUT:  The number of symbols about to be written
+     * OUTPUT: Nothing; a CorruptStreamException is thrown if the output would be larger than the cap
+     */
+    public void written( long n ) throws CorruptStreamException {
+        output += n;
+        if(output > maxOutput) {
+            throw new CorruptStreamException("Decoded output would be larger than " + maxOutput + " bytes");
+        }
+    }
+}
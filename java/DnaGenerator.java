@@ -0,0 +1,223 @@
+/* AUTHOR: Niema Moshiri
+ * Synthetic DNA Workload Generator
+ *
+ * USAGE:
+ * -Generate:   java HuffSplit generate <out_file|-> <length> [--seed=N] [--regimes=K] [--segments=DIST:MEAN]
+ *                                      [--homopolymers=RATE:MEAN] [--gaps=RATE:MEAN] [--markov=ORDER]
+ *
+ * Replaces Project Files/randomDNA.py, whose i.i.d. strings never make the cut optimizer switch topologies. The message
+ * is a sequence of regimes: each regime has its own source over a random subset of A, C, G, and T, either i.i.d. with a
+ * random skewed composition (the default) or a Markov chain of the given order with random skewed transitions. Regime
+ * lengths are drawn from DIST ("geometric", "uniform" on [1,2*MEAN), "lognormal", or "fixed") with the given mean, and
+ * the next regime is drawn from a pool of K regimes. On top of that, at any position a homopolymer run (a random symbol
+ * repeated a geometric number of times) starts with probability homopolymer RATE, and a block of N (an assembly gap)
+ * with probability gap RATE.
+ *
+ * The same seed and settings always give the same message, no matter how it is split across fill calls, and the output
+ * is generated in chunks, so multi-GB messages never have to fit in memory.
+ *
+ * The public fields are the settings (the defaults are shown below); they must be set before the first symbol is drawn.
+ */
+import java.io.*;
+import java.util.*;
+
+public class DnaGenerator {
+    // instance variables
+    public static final int MAX_ORDER = 8;  // highest supported Markov order (4^8 contexts per regime)
+    public int regimes = 8;                 // number of distinct regimes
+    public String segmentDist = "geometric"; // distribution of regime lengths
+    public double segmentMean = 10000;      // mean regime length
+    public double homopolymerRate = 0;      // probability of starting a homopolymer run at each position
+    public double homopolymerMean = 20;     // mean homopolymer run length
+    public double gapRate = 0;              // probability of starting an N block at each position
+    public double gapMean = 1000;           // mean N block length
+    public int markovOrder = 0;             // 0 for i.i.d. regimes, otherwise the order of each regime's Markov chain
+    private final SplittableRandom rng;
+    private double[][] model;               // model[r][ctx*4 + s] is the cumulative probability of symbol s in context ctx
+    private int regime = -1;                // current regime
+    private long regimeLeft = 0;            // symbols left in the current regime
+    private long runLeft = 0;               // symbols left in the current homopolymer run or N block
+    private byte runSym;                    // symbol of the current run
+    private int ctx = 0;                    // last markovOrder symbols (2 bits each)
+    private static final byte[] ACGT = {'A','C','G','T'};
+    
+    /* Constructor
+     */
+    public DnaGenerator( long seed ) {
+        rng = new SplittableRandom(seed);
+    }
+    
+    /* Draw the regime models (called on the first fill)
+     */
+    private void init() {
+        if(regimes < 1 || markovOrder < 0 || markovOrder > MAX_ORDER || segmentMean < 1 || homopolymerMean < 1 || gapMean < 1) {
+            throw new IllegalArgumentException("Invalid generator settings");
+        }
+        int contexts = 1 << (2*markovOrder);
+        model = new double[regimes][contexts*4];
+        for(int r = 0; r < regimes; ++r) {
+            // each regime uses a random non-empty subset of ACGT with a random skew
+            int subset = 1 + rng.nextInt(15);
+            double skew = 0.5 + 2.5*rng.nextDouble(); // higher is more skewed
+            for(int c = 0; c < contexts; ++c) {
+                double sum = 0;
+                for(int s = 0; s < 4; ++s) {
+                    double w = ((subset >>> s) & 1) == 0 ? 0 : Math.pow(-Math.log(1-rng.nextDouble()),skew); // Dirichlet-like
+                    sum += w;
+                    model[r][c*4+s] = sum;
+                }
+                for(int s = 0; s < 4; ++s) {
+                    model[r][c*4+s] /= sum;
+                }
+            }
+        }
+    }
+    
+    /* Draw a length from a distribution
+     * INPUT:  The distribution ("geometric", "uniform", "lognormal", or "fixed") and its mean
+     * OUTPUT: A length of at least 1
+     */
+    private long length( String dist, double mean ) {
+        switch(dist) {
+            case "geometric": return (mean <= 1) ? 1 : 1 + (long)(Math.log(1-rng.nextDouble()) / Math.log(1-1/mean));
+            case "uniform":   return 1 + (long)(rng.nextDouble() * (2*mean-1));
+            case "lognormal": return Math.max(1,Math.round(Math.exp(Math.log(mean) - 0.5 + gaussian())));
+            case "fixed":     return Math.max(1,Math.round(mean));
+            default: throw new IllegalArgumentException("Unknown length distribution: " + dist);
+        }
+    }
+    
+    /* Standard normal deviate (SplittableRandom doesn't have one)
+     */
+    private double gaussian() {
+        return Math.sqrt(-2*Math.log(1-rng.nextDouble())) * Math.cos(2*Math.PI*rng.nextDouble());
+    }
+    
+    /* Generate the next len symbols
+     * INPUT:  The buffer to fill, where to start, and how many symbols
+     */
+    public void fill( byte[] buf, int off, int len ) {
+        if(model == null) {
+            init();
+        }
+        final int ctxMask = (1 << (2*markovOrder)) - 1;
+        for(int i = off; i < off+len; ++i) {
+            if(runLeft > 0) {
+                --runLeft;
+                buf[i] = runSym;
+                if(runSym != 'N') {
+                    ctx = ((ctx << 2) | HuffSplit.symbolIndex((char)runSym)) & ctxMask;
+                }
+                continue;
+            }
+            if(regimeLeft == 0) {
+                int next = rng.nextInt(regimes);
+                if(regimes > 1 && next == regime) { // always switch to a different regime
+                    next = (next + 1 + rng.nextInt(regimes-1)) % regimes;
+                }
+                regime = next;
+                regimeLeft = length(segmentDist,segmentMean);
+            }
+            --regimeLeft;
+            double u = rng.nextDouble();
+            if(u < gapRate) {
+                runSym = 'N';
+                runLeft = length("geometric",gapMean);
+                --i; // the run starts at this position
+                continue;
+            }
+            if(u < gapRate + homopolymerRate) {
+                runSym = ACGT[rng.nextInt(4)];
+                runLeft = length("geometric",homopolymerMean);
+                --i;
+                continue;
+            }
+            double[] m = model[regime];
+            double v = rng.nextDouble();
+            int base = ctx*4;
+            int s = 0;
+            while(s < 3 && v >= m[base+s]) {
+                ++s;
+            }
+            buf[i] = ACGT[s];
+            ctx = ((ctx << 2) | s) & ctxMask;
+        }
+    }
+    
+    /* Generate the next n symbols as a new array
+     */
+    public byte[] generate( int n ) {
+        byte[] buf = new byte[n];
+        fill(buf,0,n);
+        return buf;
+    }
+    
+    /* Write the next n symbols to a stream, one chunk at a time
+     */
+    public void write( OutputStream out, long n ) throws IOException {
+        byte[] buf = new byte[1 << 20];
+        while(n > 0) {
+            int len = (int)Math.min(n,buf.length);
+            fill(buf,0,len);
+            out.write(buf,0,len);
+            n -= len;
+        }
+    }
+    
+    /* Run the "generate" command (see file header for usage)
+     */
+    public static void run( String[] args ) {
+        if(args.length < 3) {
+            System.err.println("ERROR: Incorrect number of arguments");
+            System.err.println("See file header for usage information");
+            System.exit(-1);
+        }
+        long n = 0;
+        DnaGenerator gen = null;
+        try {
+            n = Long.parseLong(args[2]);
+            String seed = HuffSplit.optionValue(args,"--seed");
+            gen = new DnaGenerator((seed == null) ? 42 : Long.parseLong(seed));
+            String v;
+            if((v = HuffSplit.optionValue(args,"--regimes")) != null) {
+                gen.regimes = Integer.parseInt(v);
+            }
+            if((v = HuffSplit.optionValue(args,"--segments")) != null) {
+                String[] parts = v.split(":");
+                gen.segmentDist = parts[0];
+                if(parts.length > 1) {
+                    gen.segmentMean = Double.parseDouble(parts[1]);
+                }
+            }
+            if((v = HuffSplit.optionValue(args,"--homopolymers")) != null) {
+                String[] parts = v.split(":");
+                gen.homopolymerRate = Double.parseDouble(parts[0]);
+                if(parts.length > 1) {
+                    gen.homopolymerMean = Double.parseDouble(parts[1]);
+                }
+            }
+            if((v = HuffSplit.optionValue(args,"--gaps")) != null) {
+                String[] parts = v.split(":");
+                gen.gapRate = Double.parseDouble(parts[0]);
+                if(parts.length > 1) {
+                    gen.gapMean = Double.parseDouble(parts[1]);
+                }
+            }
+            if((v = HuffSplit.optionValue(args,"--markov")) != null) {
+                gen.markovOrder = Integer.parseInt(v);
+            }
+        } catch(NumberFormatException e) {
+            System.err.println("ERROR: Invalid number: " + e.getMessage()); System.exit(-1);
+        }
+        try {
+            OutputStream out = args[1].equals("-") ? System.out : new FileOutputStream(args[1]);
+            out = new BufferedOutputStream(out,1 << 16);
+            gen.write(out,n);
+            out.close();
+        } catch(IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage()); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while writing \"" + args[1] + "\"!"); System.exit(-1);
+        }
+    }
+}
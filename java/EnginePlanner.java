@@ -0,0 +1,211 @@
+/* AUTHOR: Niema Moshiri
+ * Memory-Budget-Aware Choice of the Compression Engine
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> [--memory=MB] [--engine=full|compact|event|pipeline|spill]
+ *
+ * compress estimates the peak heap each engine would need for the input, and runs the fastest one that fits in the
+ * budget (default: DEFAULT_BUDGET of the maximum heap, or --memory), so a job never runs out of memory halfway through.
+ * The choice is logged to standard error. All engines give exactly the same output:
+ * -full:     backtrack matrix of NUMTOPS bytes per symbol (HuffSplit.forwardDP), ~166 bytes per symbol
+ * -compact:  backtrack matrix of CompactDP.ROW bits-packed bytes per symbol, ~24 bytes per symbol
+ * -event:    compact backtrack rows, but one row per run of a symbol that the DP jumps over (EventDP), ~30 bytes per
+ *            symbol at most; much faster on long runs (e.g. N gaps), but it never needs less than compact, so it is
+ *            never planned
+ * -pipeline: windowed DP that only keeps the not-yet-final part of the path (PipelinedCompressor), a few dozen MB for
+ *            typical DNA; the window isn't bounded, though (on periodic input, or any with exact ties between paths, the
+ *            path may not settle until the end, and the window grows to the whole message), so it is never planned
+ *            either: its estimate assumes the path settles within PIPELINE_WINDOW blocks
+ * -spill:    compact backtrack matrix spilled to a temporary file next to the output (CompactDP), a few MB of heap plus
+ *            CompactDP.ROW bytes per symbol of free disk
+ * The planner only picks from AUTO (full, compact, and spill, whose estimates are upper bounds); event and pipeline only
+ * run when asked for with --engine.
+ * --engine skips the planning (the estimate is still logged). --bwt needs the whole message in memory, so it only runs
+ * on the full and compact engines (as do --order1 and --rans, see Order1Coder.java and RansCoder.java), and --pipeline
+ * is the same as --engine=pipeline. --general (see AlphabetCoder.java) has its own DP and --adaptive (see
+ * AdaptiveCoder.java) has none, so they skip the planning. A tuned cost model (--penalty or --min-segment, see
+ * CostModel.java) keeps compact backtrack rows in memory whichever of the full and compact engines is picked.
+ */
+import java.io.*;
+
+public class EnginePlanner {
+    // instance variables
+    public static final String[] ENGINES = {"full","compact","event","pipeline","spill"}; // valid values of --engine
+    public static final String[] AUTO = {"full","compact","spill"}; // engines the planner picks from (fastest first)
+    public static final double DEFAULT_BUDGET = 0.8;  // default fraction of the maximum heap
+    public static final int PIPELINE_WINDOW = 8;      // unsettled blocks assumed by the pipeline estimate
+    
+    /* Estimate the peak heap of an engine
+     * INPUT:  The engine, the length of the input (in symbols), and whether it is BWT-transformed first
+     * OUTPUT: The estimated number of bytes, or -1 if the engine can't compress this input
+     */
+    public static long estimate( String engine, long L, boolean bwt ) {
+        return estimate(engine,L,bwt,false);
+    }
+    
+    /* Estimate the peak heap of an engine
+     * INPUT:  The engine, the length of the input (in symbols), whether it is BWT-transformed first, and whether it is
+     *         coded with order-1 (or rANS) segments
+     * OUTPUT: The estimated number of bytes, or -1 if the engine can't compress this input
+     */
+    public static long estimate( String engine, long L, boolean bwt, boolean order1 ) {
+        if(order1 && !(engine.equals("full") || engine.equals("compact"))) {
+            return -1;
+        }
+        long bwtPeak = bwt ? 15*L : 0; // message, its string and int copies, the suffix array, and the output
+        switch(engine) {
+            case "full":
+                return (L > Integer.MAX_VALUE) ? -1 : Math.max(bwtPeak,HuffSplit.estimateMemory(L) + (bwt ? L : 0));
+            case "compact":
+                return (L > Integer.MAX_VALUE) ? -1 : Math.max(bwtPeak,L * (1 + CompactDP.ROW + 1) + (bwt ? L : 0));
+            case "event":
+                return (bwt || L > Integer.MAX_VALUE) ? -1 : L * (1 + 1 + CompactDP.ROW + 4) + L/EventDP.SAMPLE * 20; // message, symbols, rows, row starts, counts
+            case "pipeline":
+                return bwt ? -1 : (long)PipelinedCompressor.BLOCK * (PIPELINE_WINDOW*(HuffSplit.NUMTOPS + 1) + 3*PipelinedCompressor.QUEUE*2); // window rows, queues
+            case "spill":
+                return (bwt || L > Integer.MAX_VALUE) ? -1 : 2L*CompactDP.ROWS*CompactDP.ROW + L/8 + (1 << 20); // blocks, segment list, buffers
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+    
+    /* Pick the fastest engine of AUTO that fits
+     * INPUT:  The length of the input, whether it is BWT-transformed first, whether it is coded with order-1 (or rANS)
+     *         segments, the budget (bytes), and the free disk space for spilling (bytes)
+     * OUTPUT: The engine, or null if none fits
+     */
+    public static String choose( long L, boolean bwt, boolean order1, long budget, long disk ) {
+        return choose(AUTO,L,bwt,order1,budget,disk);
+    }
+    
+    /* Pick the fastest of some engines that fits
+     * INPUT:  The engines (fastest first), and the rest as above
+     * OUTPUT: The engine, or null if none fits
+     */
+    public static String choose( String[] engines, long L, boolean bwt, boolean order1, long budget, long disk ) {
+        for(String engine : engines) {
+            long need = estimate(engine,L,bwt,order1);
+            if(need != -1 && need <= budget && (!engine.equals("spill") || L*CompactDP.ROW <= disk)) {
+                return engine;
+            }
+        }
+        return null;
+    }
+    
+    /* Run the "compress" command (see HuffSplit.java and the file header for usage)
+     */
+    public static void compress( String[] args ) {
+        final String IN = args[1];
+        final String OUT = IN + ".hsf";
+        final String INDEXFILE = HuffSplit.hasOption(args,"--index") ? IN + ".hsf.hsi" : null;
+        final boolean BWT = HuffSplit.hasOption(args,"--bwt");
+        final boolean ORDER1 = HuffSplit.hasOption(args,"--order1");
+        final boolean RANS = HuffSplit.hasOption(args,"--rans");
+        final boolean GENERAL = HuffSplit.hasOption(args,"--general");
+        final String RESET = HuffSplit.hasOption(args,"--adaptive") ? "" : HuffSplit.optionValue(args,"--adaptive");
+        final boolean ADAPTIVE = RESET != null;
+        if((ORDER1 ? 1 : 0) + (RANS ? 1 : 0) + (GENERAL ? 1 : 0) + (ADAPTIVE ? 1 : 0) > 1) {
+            System.err.println("ERROR: Only one of --order1, --rans, --general, and --adaptive can be used"); System.exit(-1);
+        }
+        final String CODER = ORDER1 ? "--order1" : RANS ? "--rans" : GENERAL ? "--general" : ADAPTIVE ? "--adaptive" : null; // coders with their own format
+        if(CODER != null && (BWT || INDEXFILE != null || HuffSplit.hasOption(args,"--stats") || HuffSplit.optionValue(args,"--stats") != null)) {
+            System.err.println("ERROR: " + CODER + " can't be used with --bwt, --index, or --stats"); System.exit(-1);
+        }
+        final CostModel MODEL = CostModel.fromArgs(args);
+        if(MODEL != null && CODER != null) {
+            System.err.println("ERROR: --penalty and --min-segment can't be used with " + CODER); System.exit(-1);
+        }
+        if(ADAPTIVE) { // one pass in constant memory, so there is nothing to plan
+            int reset = AdaptiveCoder.DEFAULT_RESET;
+            try {
+                reset = RESET.isEmpty() ? reset : Integer.parseInt(RESET);
+            } catch(NumberFormatException e) {
+                reset = -1;
+            }
+            if(reset < 0) {
+                System.err.println("ERROR: Invalid reset interval: " + RESET); System.exit(-1);
+            }
+            String symbols = HuffSplit.optionValue(args,"--symbols");
+            if(symbols == null) {
+                symbols = new String(HuffSplit.SYMBOLS);
+            }
+            byte[] set = symbols.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+            if(set.length < 2 || set.length > 256 || symbols.chars().distinct().count() != set.length) {
+                System.err.println("ERROR: The symbol set must have 2 to 256 distinct symbols: " + symbols); System.exit(-1);
+            }
+            AdaptiveCoder.compress(IN,IN.equals("-") ? "-" : OUT,set,reset);
+            return;
+        }
+        File f = new File(IN);
+        if(!f.isFile()) {
+            System.err.println("ERROR: File \"" + IN + "\" not found!"); System.exit(-1);
+        }
+        long L = f.length();
+        long budget = (long)(DEFAULT_BUDGET * Runtime.getRuntime().maxMemory());
+        String mb = HuffSplit.optionValue(args,"--memory");
+        if(mb != null) {
+            try {
+                budget = Long.parseLong(mb) << 20;
+            } catch(NumberFormatException e) {
+                System.err.println("ERROR: Invalid memory budget: " + mb); System.exit(-1);
+            }
+        }
+        String engine = HuffSplit.optionValue(args,"--engine");
+        if(HuffSplit.hasOption(args,"--pipeline")) {
+            if(engine != null && !engine.equals("pipeline")) {
+                System.err.println("ERROR: --pipeline can't be used with --engine=" + engine); System.exit(-1);
+            }
+            engine = "pipeline";
+        }
+        RunStats stats = RunStats.fromArgs(args);
+        if(GENERAL) {
+            long need = AlphabetCoder.estimateMemory(L);
+            if(need > budget) {
+                System.err.println("ERROR: \"" + IN + "\" doesn't fit in " + (budget >> 20) + " MB with --general (raise -Xmx or --memory)"); System.exit(-1);
+            }
+            System.err.println("Engine: general (needs ~" + (need >> 20) + " MB of the " + (budget >> 20) + " MB budget)");
+            AlphabetCoder.compress(IN,OUT);
+            return;
+        }
+        
+        // plan (or check the requested engine)
+        if(engine == null) {
+            long disk = new File(OUT).getAbsoluteFile().getParentFile().getUsableSpace();
+            engine = choose(L,BWT,CODER != null,budget,disk);
+            if(engine == null) {
+                System.err.println("ERROR: No engine fits \"" + IN + "\" in " + (budget >> 20) + " MB" + (BWT ? " with --bwt" : "") + " (raise -Xmx or --memory)"); System.exit(-1);
+            }
+        }
+        else if(java.util.Arrays.asList(ENGINES).indexOf(engine) == -1) {
+            System.err.println("ERROR: Unknown engine: " + engine); System.exit(-1);
+        }
+        long need = estimate(engine,L,BWT,CODER != null);
+        if(need == -1) {
+            System.err.println("ERROR: The " + engine + " engine can't compress \"" + IN + "\"" + (BWT ? " with --bwt (the BWT needs the whole message)" : CODER != null ? " with " + CODER + " (it needs the whole message)" : "")); System.exit(-1);
+        }
+        if(stats != null && !(engine.equals("full") || engine.equals("compact"))) {
+            System.err.println("ERROR: --stats is only supported by the full and compact engines (not " + engine + ")"); System.exit(-1);
+        }
+        if(MODEL != null && !(engine.equals("full") || engine.equals("compact"))) {
+            System.err.println("ERROR: --penalty and --min-segment are only supported by the full and compact engines (not " + engine + ")"); System.exit(-1);
+        }
+        System.err.println("Engine: " + engine + " (needs ~" + (need >> 20) + " MB of the " + (budget >> 20) + " MB budget)");
+        
+        // compress
+        if(ORDER1) {
+            Order1Coder.compress(IN,OUT,engine.equals("compact"));
+            return;
+        }
+        if(RANS) {
+            RansCoder.compress(IN,OUT,engine.equals("compact"));
+            return;
+        }
+        switch(engine) {
+            case "full":     HuffSplit.compress(IN,OUT,INDEXFILE,BWT,stats,false,MODEL); break;
+            case "compact":  HuffSplit.compress(IN,OUT,INDEXFILE,BWT,stats,true,MODEL); break;
+            case "event":    EventDP.compress(IN,OUT,INDEXFILE); break;
+            case "pipeline": PipelinedCompressor.compress(IN,OUT,INDEXFILE); break;
+            case "spill":    CompactDP.compressSpill(IN,OUT,INDEXFILE); break;
+        }
+    }
+}
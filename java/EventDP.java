@@ -0,0 +1,256 @@
+/* AUTHOR: Niema Moshiri
+ * Event-Driven Optimal-Cut DP (Jumps over Runs with Prefix Symbol Counts)
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> --engine=event [--index]
+ *
+ * Gives exactly the same output as the full-matrix DP (HuffSplit.forwardDP and findSegments), but only visits the
+ * positions where something can happen. A first pass validates the message and builds prefix symbol counts (sampled every
+ * SAMPLE symbols, so they take ~20/SAMPLE bytes per symbol), which give the number of each symbol in any range in O(1)
+ * plus a scan of less than SAMPLE symbols.
+ *
+ * In a run of one symbol s (e.g. an assembly gap of N, or a homopolymer), the single-symbol topology of s costs 0 bits
+ * per symbol, so once it is the cheapest topology of the column, the cost of the optimal path (and thus the cost of
+ * switching) stops growing. From then on, as soon as every other topology costs more than a switch, every other
+ * topology switches (from s) at every symbol of the run and nothing else changes, so all the backtrack rows of the rest
+ * of the run are the same. The DP then jumps straight to the end of the run (found by galloping over the prefix counts)
+ * and stores one backtrack row (in the format of CompactDP.java) for all of it, and the backtrack skips the whole run in
+ * O(1). Everywhere else, the DP takes a normal step (CompactDP.step) per symbol: outside of zero-cost runs, the padding
+ * of the cheapest path grows by a byte every few symbols, and every topology crosses the switch threshold there.
+ *
+ * So the cost of the DP is O(NUMTOPS) per symbol outside of runs, plus O(NUMTOPS + log(run length)) per run instead of
+ * O(NUMTOPS) per symbol of it. Memory is the compact backtrack rows of the visited positions (plus the first position of
+ * each row) and the message.
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class EventDP {
+    // instance variables
+    public static final int SAMPLE = 64;         // symbols between prefix count samples
+    public static final int MIN_RUN = 8;         // shortest rest of a run worth a jump
+    private static final int ROW = CompactDP.ROW;
+    private static final int MASK = CompactDP.ROWS-1;
+    private static final byte[][] RUN_ROW = new byte[HuffSplit.SYMBOLS.length][ROW]; // backtrack row inside a run of each symbol
+    private final byte[] sym;                    // sym[i] is the index (in SYMBOLS) of symbol i
+    private final int[][] F;                     // F[s][k] is the number of symbol s in sym[0...k*SAMPLE-1]
+    private final int L;
+    private int[] prev = new int[HuffSplit.NUMTOPS], cur = new int[HuffSplit.NUMTOPS];
+    private final ArrayList<byte[]> blocks = new ArrayList<byte[]>(); // backtrack rows, in blocks of CompactDP.ROWS
+    private int[] rowStart = new int[1 << 10];  // first position of each row (a row lasts until the next one starts)
+    private int rows = 0;
+    private long jumped = 0;                     // positions covered by jumps
+    
+    static {
+        for(int c = 0; c < HuffSplit.SYMBOLS.length; ++c) {
+            for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+                if(t != c && Topologies.length(t,c) != -1) {
+                    RUN_ROW[c][t >>> 3] |= (byte)(1 << (t & 7));
+                }
+            }
+            RUN_ROW[c][CompactDP.BEST] = (byte)c;
+        }
+    }
+    
+    /* Constructor: validate the message and build its prefix counts
+     * INPUT:  The message (L symbols starting at off); an InvalidSymbolException is thrown if it isn't DNA
+     */
+    public EventDP( byte[] msg, int off, int L ) throws InvalidSymbolException {
+        this.L = L;
+        sym = new byte[L];
+        F = new int[HuffSplit.SYMBOLS.length][L/SAMPLE + 1];
+        int[] count = new int[HuffSplit.SYMBOLS.length];
+        for(int i = 0; i < L; i += SAMPLE) { // one sample block at a time (see SymbolScan.java)
+            int n = Math.min(SAMPLE,L-i);
+            int bad = SymbolScan.scan(msg,off+i,n,count);
+            if(bad != -1) {
+                throw new InvalidSymbolException(i+bad,(char)(msg[off+i+bad] & 0xFF));
+            }
+            if(n == SAMPLE) {
+                for(int s = 0; s < count.length; ++s) {
+                    F[s][(i+n)/SAMPLE] = count[s];
+                }
+            }
+        }
+        for(int i = 0; i < L; ++i) {
+            sym[i] = SymbolScan.INDEX[msg[off+i] & 0xFF];
+        }
+    }
+    
+    /* Find the end of a run (by galloping over the prefix counts)
+     * INPUT:  A position i of the run and its symbol c
+     * OUTPUT: The first position after i that isn't c (or L)
+     */
+    int runEnd( int i, int c ) {
+        int x = i;
+        while(x < L && x % SAMPLE != 0) { // finish the sample block of i
+            if(sym[x] != c) {
+                return x;
+            }
+            ++x;
+        }
+        int k = x / SAMPLE, K = L / SAMPLE;     // blocks k...hi-1 are all c if F[c][hi]-F[c][k] == (hi-k)*SAMPLE
+        int lo = k, step = 1;
+        while(lo+step <= K && F[c][lo+step] - F[c][k] == (lo+step-k)*SAMPLE) {
+            lo += step;
+            step <<= 1;
+        }
+        int hi = Math.min(K,lo+step);           // lo passes, and hi fails (or is K)
+        while(lo < hi) {
+            int mid = (lo+hi+1) >>> 1;
+            if(F[c][mid] - F[c][k] == (mid-k)*SAMPLE) {
+                lo = mid;
+            }
+            else {
+                hi = mid-1;
+            }
+        }
+        x = lo * SAMPLE;
+        while(x < L && sym[x] == c) {
+            ++x;
+        }
+        return x;
+    }
+    
+    /* Start a new backtrack row
+     * INPUT:  Its first position
+     * OUTPUT: The offset of the row in the last block
+     */
+    private int newRow( int start ) {
+        if((rows & MASK) == 0) {
+            blocks.add(new byte[CompactDP.ROWS*ROW]);
+        }
+        if(rows == rowStart.length) {
+            rowStart = Arrays.copyOf(rowStart,2*rows);
+        }
+        rowStart[rows] = start;
+        return (rows++ & MASK)*ROW;
+    }
+    
+    /* Forward pass of the DP
+     * OUTPUT: The topology the optimal path ends in
+     */
+    public int forward() {
+        int best = HuffSplit.dpFirst(sym[0],prev,new byte[HuffSplit.NUMTOPS],0);
+        blocks.add(new byte[CompactDP.ROWS*ROW]);
+        blocks.get(0)[CompactDP.BEST] = (byte)best;
+        rowStart[rows++] = 0;
+        for(int i = 1; i < L;) {
+            int c = sym[i];
+            if(best == c && allSwitch(c)) { // in a run, behind its own single-symbol topology
+                int x = runEnd(i,c);
+                if(x - i >= MIN_RUN) {
+                    int off = newRow(i);
+                    System.arraycopy(RUN_ROW[c],0,blocks.get(blocks.size()-1),off,ROW);
+                    int switchC = switchCost(prev[best]);
+                    for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+                        int bits = Topologies.length(t,c);
+                        prev[t] = (bits == -1) ? -1 : (t == c) ? prev[t] : switchC + bits;
+                    }
+                    jumped += x - i;
+                    i = x;
+                    continue;
+                }
+            }
+            int off = newRow(i);
+            best = CompactDP.step(prev,best,c,cur,blocks.get(blocks.size()-1),off);
+            int[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+            ++i;
+        }
+        return HuffSplit.dpLast(prev);
+    }
+    
+    /* The cost of switching after a path (its padding and the next header)
+     * INPUT:  The cost of the path
+     * OUTPUT: The cost of the new segment's start
+     */
+    private static int switchCost( int cost ) {
+        if(cost%8 != 0) {
+            cost += (8-(cost%8));
+        }
+        return cost + 72;
+    }
+    
+    /* Check whether every topology but the single-symbol one of c costs more than a switch (so it switches at every
+     * further symbol of a run of c)
+     * INPUT:  The symbol (whose single-symbol topology is the cheapest of the column)
+     * OUTPUT: true if so, otherwise false
+     */
+    private boolean allSwitch( int c ) {
+        int switchC = switchCost(prev[c]);
+        for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+            if(t != c && prev[t] != -1 && prev[t] <= switchC) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /* Reconstruct the segments of the optimal path (after forward)
+     * INPUT:  The topology the path ends in and the workspace to put the segment list in
+     * OUTPUT: The workspace's segment list (last segment first), as HuffSplit.findSegments
+     */
+    public void findSegments( int top, CodecWorkspace ws ) {
+        ws.numSegs = 0;
+        int r = rows-1;
+        for(int i = L-1; i > 0;) {
+            while(rowStart[r] > i) {
+                --r;
+            }
+            byte[] block = blocks.get(r >>> CompactDP.BLOCK_SHIFT);
+            int off = (r & MASK)*ROW;
+            if((block[off + (top >>> 3)] & (1 << (top & 7))) != 0) { // switched from the previous column's cheapest
+                ws.addSegment(i,top);
+                int q = (rowStart[r] <= i-1) ? r : r-1;
+                top = blocks.get(q >>> CompactDP.BLOCK_SHIFT)[(q & MASK)*ROW + CompactDP.BEST] & 0xFF;
+                --i;
+            }
+            else { // stayed in top for the rest of the row
+                i = rowStart[r]-1;
+            }
+        }
+        ws.addSegment(0,top);
+    }
+    
+    /* Compress a file with the event engine
+     * INPUT:  The input file, the output file, and the index file to write (or null for no index)
+     * OUTPUT: The compressed file (identical to HuffSplit.compress)
+     */
+    public static void compress( String INFILE, String OUTFILE, String INDEXFILE ) {
+        try {
+            HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","read");
+            byte[] msg = Files.readAllBytes(Paths.get(INFILE));
+            if(msg.length == 0) {
+                System.err.println("ERROR: Empty file!"); System.exit(-1);
+            }
+            phase.commit();
+            CodecWorkspace ws = CodecWorkspace.get();
+            phase = HuffSplitEvents.phase("compress","forward_dp");
+            EventDP dp = new EventDP(msg,0,msg.length);
+            int last = dp.forward();
+            phase.commit();
+            phase = HuffSplitEvents.phase("compress","backtrack");
+            dp.findSegments(last,ws);
+            phase.commit();
+            phase = HuffSplitEvents.phase("compress","encode");
+            HuffSplitIndex index = (INDEXFILE != null) ? new HuffSplitIndex(ws.numSegs) : null;
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(OUTFILE),1 << 16))) {
+                HuffSplit.encodeSegments(msg,0,msg.length,ws,out,index);
+            }
+            phase.commit();
+            if(index != null) {
+                index.write(INDEXFILE,OUTFILE);
+            }
+            System.err.println("Event DP: " + dp.rows + " backtrack rows for " + msg.length + " symbols (" + dp.jumped + " in jumps)");
+        } catch(InvalidSymbolException e) {
+            System.err.println("ERROR: Invalid symbol: " + e.symbol); System.exit(-1);
+        } catch(NoSuchFileException e) {
+            System.err.println("ERROR: File \"" + INFILE + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: " + e.getMessage()); System.exit(-1);
+        }
+    }
+}
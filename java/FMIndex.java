@@ -0,0 +1,311 @@
+/* AUTHOR: Niema Moshiri
+ * FM-Index over HuffSplit Files
+ *
+ * USAGE:
+ * -Build:      java HuffSplit fmindex <huffsplit_file>
+ * -Count:      java HuffSplit count <huffsplit_file> <pattern> [pattern ...]
+ * -Locate:     java HuffSplit locate <huffsplit_file> <pattern> [pattern ...]
+ *
+ * The HuffSplit file is decoded segment by segment straight into the suffix array text (nothing is written to disk),
+ * the suffix array is built with SA-IS (see SuffixArray.java), and only the BWT, the symbol counts, and a sample of
+ * the suffix array (every SAMPLE-th text position) are kept. Rank is answered from checkpoints every RANK_STEP rows
+ * plus a scan of at most RANK_STEP-1 BWT symbols, so counting a pattern of length m takes O(m * RANK_STEP) time and
+ * locating each occurrence takes at most SAMPLE more LF steps.
+ *
+ * FM-INDEX FILE OUTPUT FORMAT (<huffsplit_file>.fmi):
+ * -4 bytes: MAGIC ("FMI1")
+ * -16 bytes: the size and modification time of the HuffSplit file when the index was built (see HuffSplitIndex.java;
+ *            the FM-index is rebuilt if they don't match the file anymore)
+ * -4 bytes: an int n telling us the length of the text (the message plus the sentinel)
+ * -4 bytes: an int telling us the suffix array sample rate
+ * -n bytes: the BWT (0 = sentinel, 1 = A, 2 = C, 3 = G, 4 = T, 5 = N)
+ * -8 bytes per 64 rows: the bit vector of sampled rows (bit i of long i/64 is set if row i is sampled)
+ * -4 bytes per sample: the sampled suffix array values (in order of row)
+ * The rank checkpoints are rebuilt when the file is loaded.
+ */
+import java.io.*;
+import java.util.*;
+import java.util.stream.*;
+
+public class FMIndex {
+    // instance variables
+    public static final int MAGIC = 0x464D4931; // "FMI1"
+    public static final int SIGMA = 6;      // sentinel + SYMBOLS
+    public static final int SAMPLE = 32;    // suffix array sample rate (in text positions)
+    public static final int RANK_STEP = 64; // rank checkpoint spacing (in rows)
+    public int n;                           // length of the text (including the sentinel)
+    public int sampleRate;                  // suffix array sample rate of this index
+    public byte[] bwt;                      // the Burrows-Wheeler transform of the text
+    public int[] C;                         // C[c] is the number of text symbols smaller than c
+    public int[] occ;                       // occ[(i/RANK_STEP)*SIGMA + c] is the number of c in bwt[0,i) for i a multiple of RANK_STEP
+    public long[] sampled;                  // bit i is set if row i of the suffix array is sampled
+    public int[] sampledRank;               // sampledRank[w] is the number of sampled rows before word w of sampled
+    public int[] samples;                   // the sampled suffix array values (in order of row)
+    
+    /* Build the FM-index of a HuffSplit file (streaming it into the text)
+     * INPUT:  The HuffSplit file
+     * OUTPUT: The FM-index of its message
+     */
+    public static FMIndex build( String HSFFILE ) {
+        int[] T = readText(HSFFILE);
+        int[] SA = SuffixArray.build(T,SIGMA);
+        FMIndex fm = new FMIndex();
+        fm.n = T.length;
+        fm.sampleRate = SAMPLE;
+        
+        // BWT and samples (independent per row, so done in parallel)
+        fm.bwt = new byte[fm.n];
+        fm.sampled = new long[(fm.n + 63) >>> 6];
+        IntStream.range(0,fm.sampled.length).parallel().forEach(w -> {
+            long bits = 0;
+            for(int i = w << 6; i < Math.min(fm.n,(w+1) << 6); ++i) {
+                fm.bwt[i] = (byte)((SA[i] == 0) ? 0 : T[SA[i]-1]);
+                if(SA[i] % SAMPLE == 0) {
+                    bits |= 1L << (i & 63);
+                }
+            }
+            fm.sampled[w] = bits;
+        });
+        fm.buildRank();
+        fm.samples = new int[fm.sampledRank[fm.sampled.length]];
+        IntStream.range(0,fm.sampled.length).parallel().forEach(w -> {
+            int r = fm.sampledRank[w];
+            for(int i = w << 6; i < Math.min(fm.n,(w+1) << 6); ++i) {
+                if(SA[i] % SAMPLE == 0) {
+                    fm.samples[r++] = SA[i];
+                }
+            }
+        });
+        return fm;
+    }
+    
+    /* Decode a HuffSplit file into the suffix array text (1 = A, 2 = C, 3 = G, 4 = T, 5 = N, and a final sentinel 0)
+     */
+    public static int[] readText( String HSFFILE ) {
+        int[] T = new int[1 << 16];
+        int len = 0;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(HSFFILE))));
+            byte[] buf = new byte[0];
+            boolean first = true;
+            while(true) {
+                int top;
+                try {
+                    top = (in.readByte() & 0xFF);
+                } catch(EOFException e) {
+                    break;
+                }
+                if(top >= HuffSplit.NUMTOPS) { // only files of topology segments are supported
+                    System.err.println("ERROR: " + HuffSplitIndex.notTopology(HSFFILE,top,first)); System.exit(-1);
+                }
+                first = false;
+                int numChars = in.readInt();
+                if((long)len + numChars + 1 > Integer.MAX_VALUE - 8) {
+                    System.err.println("ERROR: Message is too long for an FM-index"); System.exit(-1);
+                }
+                if(T.length < len + numChars + 1) {
+                    T = Arrays.copyOf(T,Math.max(len + numChars + 1,(int)Math.min(Integer.MAX_VALUE - 8,2L*T.length)));
+                }
+                if(top < 5) {
+                    Arrays.fill(T,len,len+numChars,top+1);
+                }
+                else {
+                    if(buf.length < numChars) {
+                        buf = new byte[numChars];
+                    }
+                    HuffSplit.decodeSegment(in,top,numChars,buf);
+                    for(int i = 0; i < numChars; ++i) {
+                        T[len+i] = HuffSplit.symbolIndex((char)buf[i]) + 1;
+                    }
+                }
+                len += numChars;
+            }
+            in.close();
+        } catch(FileNotFoundException e) {
+            System.err.println("ERROR: File \"" + HSFFILE + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while reading \"" + HSFFILE + "\"!"); System.exit(-1);
+        }
+        T = Arrays.copyOf(T,len+1);
+        T[len] = 0;
+        return T;
+    }
+    
+    /* Build C, the rank checkpoints, and the sampled-row ranks from bwt and sampled
+     */
+    public void buildRank() {
+        int blocks = n / RANK_STEP + 1;
+        occ = new int[(blocks + 1) * SIGMA];
+        IntStream.range(0,blocks).parallel().forEach(b -> { // per-block counts (stored one block ahead)
+            for(int i = b*RANK_STEP; i < Math.min(n,(b+1)*RANK_STEP); ++i) {
+                ++occ[(b+1)*SIGMA + bwt[i]];
+            }
+        });
+        for(int b = 1; b <= blocks; ++b) { // prefix sums
+            for(int c = 0; c < SIGMA; ++c) {
+                occ[b*SIGMA + c] += occ[(b-1)*SIGMA + c];
+            }
+        }
+        C = new int[SIGMA+1];
+        for(int c = 0; c < SIGMA; ++c) {
+            C[c+1] = C[c] + occ[blocks*SIGMA + c];
+        }
+        sampledRank = new int[sampled.length + 1];
+        for(int w = 0; w < sampled.length; ++w) {
+            sampledRank[w+1] = sampledRank[w] + Long.bitCount(sampled[w]);
+        }
+    }
+    
+    /* Return the number of c in bwt[0,i)
+     */
+    public int rank( int c, int i ) {
+        int b = i / RANK_STEP;
+        int r = occ[b*SIGMA + c];
+        for(int j = b*RANK_STEP; j < i; ++j) {
+            if(bwt[j] == c) {
+                ++r;
+            }
+        }
+        return r;
+    }
+    
+    /* Return the rows [lo,hi) of the suffix array whose suffixes start with the pattern
+     */
+    public int[] range( String pattern ) {
+        int lo = 0;
+        int hi = n;
+        for(int i = pattern.length()-1; i >= 0 && lo < hi; --i) {
+            int c = HuffSplit.symbolIndex(pattern.charAt(i)) + 1;
+            if(c == 0) {
+                return new int[]{0,0};
+            }
+            lo = C[c] + rank(c,lo);
+            hi = C[c] + rank(c,hi);
+        }
+        return new int[]{lo,hi};
+    }
+    
+    /* Return the number of occurrences of the pattern
+     */
+    public int count( String pattern ) {
+        int[] r = range(pattern);
+        return Math.max(0,r[1]-r[0]);
+    }
+    
+    /* Return the sorted positions of the occurrences of the pattern
+     */
+    public int[] locate( String pattern ) {
+        int[] r = range(pattern);
+        int[] pos = new int[Math.max(0,r[1]-r[0])];
+        for(int k = 0; k < pos.length; ++k) {
+            int i = r[0] + k;
+            int steps = 0;
+            while((sampled[i >>> 6] & (1L << (i & 63))) == 0) {
+                int c = bwt[i];
+                i = C[c] + rank(c,i);
+                ++steps;
+            }
+            pos[k] = samples[sampledRank[i >>> 6] + Long.bitCount(sampled[i >>> 6] & ((1L << (i & 63)) - 1))] + steps;
+        }
+        Arrays.sort(pos);
+        return pos;
+    }
+    
+    /* Write the FM-index to a file (see file header for format)
+     * INPUT:  The FM-index file, and the HuffSplit file it indexes
+     */
+    public void write( String OUTFILE, String HSFFILE ) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(OUTFILE))));
+            out.writeInt(MAGIC);
+            HuffSplitIndex.writeStamp(out,HSFFILE);
+            out.writeInt(n);
+            out.writeInt(sampleRate);
+            out.write(bwt);
+            for(long w : sampled) {
+                out.writeLong(w);
+            }
+            for(int s : samples) {
+                out.writeInt(s);
+            }
+            out.close();
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while writing \"" + OUTFILE + "\"!"); System.exit(-1);
+        }
+    }
+    
+    /* Read an FM-index file (see file header for format)
+     */
+    public static FMIndex read( String INFILE ) {
+        FMIndex fm = new FMIndex();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(INFILE))));
+            if(in.readInt() != MAGIC) {
+                System.err.println("ERROR: \"" + INFILE + "\" isn't an FM-index (or is from an older version; run \"fmindex\" to rebuild it)"); System.exit(-1);
+            }
+            in.readLong(); // stamp (checked by HuffSplitIndex.isCurrent)
+            in.readLong();
+            fm.n = in.readInt();
+            fm.sampleRate = in.readInt();
+            fm.bwt = new byte[fm.n];
+            in.readFully(fm.bwt);
+            
+            fm.sampled = new long[(fm.n + 63) >>> 6];
+            for(int w = 0; w < fm.sampled.length; ++w) {
+                fm.sampled[w] = in.readLong();
+            }
+            fm.buildRank();
+            fm.samples = new int[fm.sampledRank[fm.sampled.length]];
+            for(int i = 0; i < fm.samples.length; ++i) {
+                fm.samples[i] = in.readInt();
+            }
+            in.close();
+        } catch(FileNotFoundException e) {
+            System.err.println("ERROR: File \"" + INFILE + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while reading \"" + INFILE + "\"!"); System.exit(-1);
+        }
+        return fm;
+    }
+    
+    /* Load the FM-index of a HuffSplit file (from <huffsplit_file>.fmi if it is up to date, otherwise by building it)
+     */
+    public static FMIndex load( String HSFFILE ) {
+        if(HuffSplitIndex.usable(HSFFILE + ".fmi",MAGIC,"FM-index",HSFFILE)) {
+            return read(HSFFILE + ".fmi");
+        }
+        System.err.println("WARNING: No up-to-date FM-index found for \"" + HSFFILE + "\", so building it (run \"fmindex\" to save one)");
+        return build(HSFFILE);
+    }
+    
+    /* Print the number of occurrences (and optionally the positions) of each pattern
+     * INPUT:  The HuffSplit file, the patterns, and whether to print positions
+     * OUTPUT: "pattern<TAB>count" lines (followed by one "position" line per occurrence if LOCATE)
+     */
+    public static void query( String HSFFILE, String[] PATTERNS, boolean LOCATE ) {
+        if(PATTERNS.length == 0) {
+            System.err.println("ERROR: No pattern given"); System.exit(-1);
+        }
+        FMIndex fm = load(HSFFILE);
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out),1 << 16),false);
+        for(String p : PATTERNS) {
+            long t0 = System.nanoTime();
+            if(LOCATE) {
+                int[] pos = fm.locate(p);
+                long t1 = System.nanoTime();
+                out.println(p + "\t" + pos.length);
+                for(int x : pos) {
+                    out.println(x);
+                }
+                System.err.println("Locate \"" + p + "\": " + (t1-t0)/1000 + " us");
+            }
+            else {
+                int c = fm.count(p);
+                long t1 = System.nanoTime();
+                out.println(p + "\t" + c);
+                System.err.println("Count \"" + p + "\": " + (t1-t0)/1000 + " us");
+            }
+        }
+        out.flush();
+    }
+}
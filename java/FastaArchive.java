@@ -0,0 +1,403 @@
+/* AUTHOR: Niema Moshiri
+ * Multi-Record FASTA Archive
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress-fasta <fasta_file> [num_threads] [memory_budget_MB]
+ * -Fetch:      java HuffSplit fetch <archive_file> [record ...]
+ *
+ * compress-fasta compresses every record of a FASTA file (in parallel) into one archive, <fasta_file>.hsfa, plus its
+ * index, <fasta_file>.hsfa.hfai. fetch prints the given records (or all of them) as FASTA on standard output, and only
+ * reads the bytes of the requested records.
+ *
+ * Each record gets the faster of the compact and spill engines that fits in a global budget (default: 80% of the
+ * maximum heap; see EnginePlanner.java), and reserves its estimated memory from the budget until it has been written to
+ * the archive. The parser waits while the next record doesn't fit (writing finished records in the meantime), so
+ * parsed records never pile up ahead of the pool. Both files are written to temporary names next to the FASTA file,
+ * and only replace the old archive and index once every record has succeeded.
+ *
+ * Record names are the first word of the header line (as in samtools faidx), and the whole header line is kept byte
+ * for byte, so fetch prints it as it was. Sequences are upper-cased, so soft-masking isn't kept, and symbols other than
+ * A, C, G, T, and N are rejected. Lines are re-wrapped to the record's original line length.
+ *
+ * ARCHIVE FILE OUTPUT FORMAT (<fasta_file>.hsfa):
+ * -The HuffSplit segments of each record, one record after the other (records are never BWT-transformed)
+ *
+ * INDEX FILE OUTPUT FORMAT (<fasta_file>.hsfa.hfai):
+ * -One tab-separated line per record, in the order of the FASTA file: name, length (in symbols), byte offset of the
+ *  record in the archive, number of bytes of the record in the archive, number of symbols per line, and the header line
+ *  (without the '>', byte for byte; it is the last field, so it may have tabs itself). Indexes without the header line
+ *  (older archives) can still be read, and their records are printed with just their names.
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class FastaArchive {
+    // instance variables
+    public static final String EXT = ".hsfa";        // extension of the archive
+    public static final String INDEX_EXT = ".hfai";  // extension of the archive's index
+    public static final double DEFAULT_BUDGET = 0.8; // default fraction of the maximum heap for the records in flight
+    public static final String[] ENGINES = {"compact","spill"}; // engines a record can get, fastest first
+    
+    /* A record of the archive (a line of the index)
+     */
+    static class Record {
+        public String name;
+        public String header;  // the header line (without the '>')
+        public long length;    // number of symbols
+        public long offset;    // byte offset in the archive
+        public long bytes;     // number of bytes in the archive
+        public int lineBases;  // number of symbols per line
+    }
+    
+    /* Compress every record of a FASTA file
+     * INPUT:  The FASTA file, the number of threads, and the memory budget in bytes (-1 for the default)
+     * OUTPUT: <fasta_file>.hsfa and <fasta_file>.hsfa.hfai
+     */
+    public static void compress( String FASTA, int THREADS, long BUDGET ) {
+        if(THREADS < 1) {
+            System.err.println("ERROR: Number of threads must be positive"); System.exit(-1);
+        }
+        if(BUDGET < 0) {
+            BUDGET = (long)(DEFAULT_BUDGET * Runtime.getRuntime().maxMemory());
+        }
+        long t0 = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            ArrayList<Record> records = archive(FASTA,pool,THREADS,BUDGET);
+            long total = 0, off = 0;
+            for(Record rec : records) {
+                total += rec.length;
+                off += rec.bytes;
+            }
+            System.out.println("Records: " + records.size());
+            System.out.println("Input: " + total + " symbols");
+            System.out.println("Output: " + off + " bytes");
+            System.out.println("Time: " + String.format("%.3f",(System.nanoTime()-t0)/1e9) + " s");
+        } catch(FileNotFoundException e) {
+            System.err.println("ERROR: File \"" + FASTA + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: " + e.getMessage()); System.exit(-1);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /* A record handed to the pool: its compressed bytes, and the memory reserved for it until they are written
+     */
+    static class Job {
+        public final Record rec;
+        public final long need;      // bytes reserved from the budget
+        public Future<byte[]> result;
+        public boolean done;         // the compression has ended (guarded by the InFlight's lock)
+        public Job( Record r, long n ) {
+            rec = r;
+            need = n;
+        }
+    }
+    
+    /* The records between the parser and the archive: a parsed record is only handed to the pool once its memory fits
+     * in the budget (and a thread is free), and records are written to the archive in order as they finish, so at most
+     * one parsed record waits outside the budget
+     */
+    static class InFlight {
+        private final ExecutorService pool;
+        private final int threads;
+        private final long budget;
+        private final File dir;        // where records spill to
+        private final OutputStream out;
+        private final ArrayDeque<Job> pending = new ArrayDeque<Job>(); // unwritten records, in order
+        private long used = 0;         // reserved bytes (guarded by this)
+        private int running = 0;       // records on the pool that haven't ended (guarded by this)
+        public long offset = 0;        // bytes written to the archive
+        public InFlight( ExecutorService p, int t, long b, File d, OutputStream o ) {
+            pool = p;
+            threads = t;
+            budget = b;
+            dir = d;
+            out = o;
+        }
+        
+        /* Hand a parsed record to the pool (picking its engine), writing finished records while it waits for room
+         * INPUT:  The record, and its symbols (the first n of seq)
+         */
+        public void submit( Record rec, byte[] seq, int n ) throws IOException {
+            rec.length = n;
+            if(n == 0) {
+                Job job = new Job(rec,0);
+                job.result = CompletableFuture.completedFuture(new byte[0]);
+                job.done = true;
+                pending.add(job);
+                return;
+            }
+            String engine = EnginePlanner.choose(ENGINES,n,false,false,budget,dir.getUsableSpace());
+            long need = (engine == null) ? -1 : need(engine,n);
+            if(need == -1 || need > budget) {
+                throw new HuffSplitException("No engine fits record \"" + rec.name + "\" (" + n + " symbols) in " + (budget >> 20) + " MB (raise -Xmx or the memory budget)");
+            }
+            Job job = new Job(rec,need);
+            try {
+                while(true) {
+                    synchronized(this) {
+                        if(running < threads && used + need <= budget) {
+                            used += need;
+                            ++running;
+                            break;
+                        }
+                        if(pending.isEmpty() || !pending.peek().done) { // nothing to write, so wait for a record to end
+                            wait();
+                            continue;
+                        }
+                    }
+                    writeNext(); // releases the written record's memory
+                }
+            } catch(InterruptedException e) {
+                throw new HuffSplitException("Interrupted while compressing record \"" + rec.name + "\"",e);
+            }
+            job.result = pool.submit(() -> {
+                try {
+                    return compressRecord(seq,n,engine,dir);
+                } finally { // a pool thread keeps no buffers between records
+                    CodecWorkspace.release();
+                    synchronized(this) {
+                        job.done = true;
+                        --running;
+                        notifyAll();
+                    }
+                }
+            });
+            pending.add(job);
+        }
+        
+        /* Write every record that hasn't been written yet (waiting for them to finish)
+         */
+        public void finish() throws IOException {
+            while(!pending.isEmpty()) {
+                writeNext();
+            }
+            out.flush();
+        }
+        
+        /* Write the next record to the archive once it has been compressed, and release its memory
+         */
+        private void writeNext() throws IOException {
+            Job job = pending.poll();
+            try {
+                byte[] data = job.result.get();
+                job.rec.offset = offset;
+                job.rec.bytes = data.length;
+                out.write(data);
+                offset += data.length;
+            } catch(ExecutionException e) { // the record failed on the pool
+                throw new HuffSplitException("Compression of record \"" + job.rec.name + "\" failed: " + e.getCause(),e.getCause());
+            } catch(InterruptedException e) {
+                throw new HuffSplitException("Interrupted while compressing record \"" + job.rec.name + "\"",e);
+            }
+            synchronized(this) {
+                used -= job.need;
+                notifyAll();
+            }
+        }
+    }
+    
+    /* Compress every record of a FASTA file (errors are thrown, never exit the JVM)
+     * INPUT:  The FASTA file, the pool to compress the records on (and its number of threads), and the memory budget
+     * OUTPUT: The records (written to <fasta_file>.hsfa and <fasta_file>.hsfa.hfai)
+     */
+    static ArrayList<Record> archive( String FASTA, ExecutorService pool, int THREADS, long budget ) throws IOException {
+        ArrayList<Record> records = new ArrayList<Record>();
+        HashSet<String> names = new HashSet<String>();
+        File dir = new File(FASTA + EXT).getAbsoluteFile().getParentFile();
+        String prefix = new File(FASTA).getName() + EXT;
+        File tmp = File.createTempFile(prefix + ".",".tmp",dir); // the archive and index only replace the old ones
+        File tmpIndex = null;                                    // once every record has succeeded
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(FASTA),StandardCharsets.ISO_8859_1));
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            // parse the records, handing each one to the pool as soon as it has been read (and fits)
+            InFlight flight = new InFlight(pool,THREADS,budget,dir,out);
+            Record rec = null;
+            byte[] seq = null;
+            int n = 0;
+            String line;
+            while((line = in.readLine()) != null) {
+                if(line.startsWith(">")) {
+                    if(rec != null) {
+                        flight.submit(rec,seq,n);
+                    }
+                    rec = new Record();
+                    rec.header = line.substring(1);
+                    rec.name = rec.header.trim().split("\\s+",2)[0];
+                    if(rec.name.length() == 0 || !names.add(rec.name)) {
+                        throw new HuffSplitException("Missing or duplicate record name: \"" + line + "\"");
+                    }
+                    records.add(rec);
+                    seq = new byte[1 << 16];
+                    n = 0;
+                }
+                else {
+                    line = line.trim();
+                    if(line.length() == 0) {
+                        continue;
+                    }
+                    if(rec == null) {
+                        throw new HuffSplitException("\"" + FASTA + "\" has sequence before its first header line");
+                    }
+                    if(rec.lineBases == 0) {
+                        rec.lineBases = line.length();
+                    }
+                    if(n + line.length() > seq.length) {
+                        seq = Arrays.copyOf(seq,Math.max(2*seq.length,n + line.length()));
+                    }
+                    for(int i = 0; i < line.length(); ++i) { // clearing bit 5 upper-cases a-z and makes no other byte a symbol
+                        seq[n+i] = (byte)(line.charAt(i) & 0xDF);
+                    }
+                    int bad = SymbolScan.scan(seq,n,line.length(),null);
+                    if(bad != -1) {
+                        throw new HuffSplitException("Invalid symbol in record \"" + rec.name + "\": " + line.charAt(bad));
+                    }
+                    n += line.length();
+                }
+            }
+            if(rec != null) {
+                flight.submit(rec,seq,n);
+            }
+            if(records.isEmpty()) {
+                throw new HuffSplitException("No records in \"" + FASTA + "\"");
+            }
+            
+            // write the rest of the records in order as they finish
+            flight.finish();
+            tmpIndex = File.createTempFile(prefix + INDEX_EXT + ".",".tmp",dir);
+            writeIndex(records,tmpIndex.getPath());
+            
+            // replace the old archive and index (the old index goes first, so it is never next to the new archive)
+            Files.deleteIfExists(Paths.get(FASTA + EXT + INDEX_EXT));
+            Files.move(tmp.toPath(),Paths.get(FASTA + EXT),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpIndex.toPath(),Paths.get(FASTA + EXT + INDEX_EXT),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        } finally { // no-ops once they have been moved
+            tmp.delete();
+            if(tmpIndex != null) {
+                tmpIndex.delete();
+            }
+        }
+        return records;
+    }
+    
+    /* Memory reserved for a record while it is compressed and until it is written
+     * INPUT:  The engine (compact or spill) and the length of the record
+     * OUTPUT: The engine's estimate, plus the record and its output for the spill engine (which otherwise streams both)
+     */
+    static long need( String engine, long L ) {
+        long need = EnginePlanner.estimate(engine,L,false);
+        return (need == -1 || !engine.equals("spill")) ? need : need + L + L/4;
+    }
+    
+    /* Compress a record (on the pool)
+     * INPUT:  The record's symbols (the first n of seq), its engine (compact or spill), and the directory to spill to
+     * OUTPUT: The record's HuffSplit segments
+     */
+    static byte[] compressRecord( byte[] seq, int n, String engine, File dir ) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(n / 4 + 16);
+        DataOutputStream out = new DataOutputStream(buf);
+        if(engine.equals("spill")) {
+            CodecWorkspace ws = CodecWorkspace.get();
+            try(CompactDP dp = new CompactDP(dir)) {
+                dp.feed(seq,0,n);
+                dp.findSegments(dp.finish(),ws);
+                CompactDP.encodeSegments(new ByteArrayInputStream(seq,0,n),ws,n,out,null);
+            }
+        }
+        else {
+            HuffSplit.compress(seq,0,n,out,false,false,null,true);
+        }
+        out.flush();
+        return buf.toByteArray();
+    }
+    
+    /* Write the index of an archive (see file header for format)
+     */
+    static void writeIndex( ArrayList<Record> records, String OUTFILE ) throws IOException {
+        try(PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(OUTFILE),StandardCharsets.ISO_8859_1)))) {
+            for(Record rec : records) {
+                out.println(rec.name + "\t" + rec.length + "\t" + rec.offset + "\t" + rec.bytes + "\t" + rec.lineBases + "\t" + rec.header);
+            }
+            if(out.checkError()) {
+                throw new IOException("IOException while writing \"" + OUTFILE + "\"!");
+            }
+        }
+    }
+    
+    /* Read the index of an archive (see file header for format)
+     */
+    static LinkedHashMap<String,Record> readIndex( String INFILE ) {
+        LinkedHashMap<String,Record> records = new LinkedHashMap<String,Record>();
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(INFILE),StandardCharsets.ISO_8859_1))) {
+            String line;
+            while((line = in.readLine()) != null) {
+                String[] parts = line.split("\t",6);
+                if(parts.length != 5 && parts.length != 6) {
+                    System.err.println("ERROR: Malformed index line: \"" + line + "\""); System.exit(-1);
+                }
+                Record rec = new Record();
+                rec.name = parts[0];
+                rec.length = Long.parseLong(parts[1]);
+                rec.offset = Long.parseLong(parts[2]);
+                rec.bytes = Long.parseLong(parts[3]);
+                rec.lineBases = Integer.parseInt(parts[4]);
+                rec.header = (parts.length == 6) ? parts[5] : rec.name;
+                records.put(rec.name,rec);
+            }
+        } catch(FileNotFoundException e) {
+            System.err.println("ERROR: File \"" + INFILE + "\" not found!"); System.exit(-1);
+        } catch(IOException | NumberFormatException e) {
+            System.err.println("ERROR: Could not read index \"" + INFILE + "\"!"); System.exit(-1);
+        }
+        return records;
+    }
+    
+    /* Print records of an archive as FASTA
+     * INPUT:  The archive and the names of the records (all records if there are none)
+     * OUTPUT: The records as FASTA on standard output
+     */
+    public static void fetch( String ARCHIVE, String[] NAMES ) {
+        LinkedHashMap<String,Record> index = readIndex(ARCHIVE + INDEX_EXT);
+        ArrayList<Record> wanted = new ArrayList<Record>();
+        if(NAMES.length == 0) {
+            wanted.addAll(index.values());
+        }
+        for(String name : NAMES) {
+            Record rec = index.get(name);
+            if(rec == null) {
+                System.err.println("ERROR: Record \"" + name + "\" not found in \"" + ARCHIVE + "\""); System.exit(-1);
+            }
+            wanted.add(rec);
+        }
+        try(RandomAccessFile hsfa = new RandomAccessFile(ARCHIVE,"r")) {
+            OutputStream out = new BufferedOutputStream(System.out,1 << 16);
+            for(Record rec : wanted) {
+                byte[] data = new byte[(int)rec.bytes];
+                hsfa.seek(rec.offset);
+                hsfa.readFully(data);
+                ByteArrayOutputStream buf = new ByteArrayOutputStream((int)rec.length);
+                HuffSplit.decompress(new DataInputStream(new ByteArrayInputStream(data)),new DataOutputStream(buf));
+                if(buf.size() != rec.length) {
+                    throw new IOException("Record \"" + rec.name + "\" has " + buf.size() + " symbols, but the index says " + rec.length);
+                }
+                byte[] seq = buf.toByteArray();
+                out.write(('>' + rec.header + '\n').getBytes(StandardCharsets.ISO_8859_1));
+                int width = (rec.lineBases > 0) ? rec.lineBases : seq.length;
+                for(int i = 0; i < seq.length; i += width) {
+                    out.write(seq,i,Math.min(width,seq.length-i));
+                    out.write('\n');
+                }
+            }
+            out.flush();
+        } catch(FileNotFoundException e) {
+            System.err.println("ERROR: File \"" + ARCHIVE + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: " + e.getMessage()); System.exit(-1);
+        }
+    }
+}
@@ -3,7 +3,38 @@
  *
  * USAGE:
  * -Compress:   java HuffSplit compress <in_file>
- * -Decompress: java HuffSplit decompress <huffsplit_file>
+ * -Decompress: java HuffSplit decompress <huffsplit_file|->
+ * -Index:      java HuffSplit index <huffsplit_file>
+ * -Stats:      java HuffSplit stats <huffsplit_file> [start-end]
+ * -K-mers:     java HuffSplit kmers <huffsplit_file> <k> [num_threads]
+ * -Search:     java HuffSplit search <huffsplit_file> <pattern> [pattern ...]
+ * -FM-Index:   java HuffSplit fmindex <huffsplit_file>
+ * -Count:      java HuffSplit count <huffsplit_file> <pattern> [pattern ...]
+ * -Locate:     java HuffSplit locate <huffsplit_file> <pattern> [pattern ...]
+ * -Batch:      java HuffSplit compress-batch <dir|list_file> [num_threads] [memory_budget_MB]
+ * -Serve:      java HuffSplit serve <port> [num_dp_threads]
+ * -FASTA:      java HuffSplit compress-fasta <fasta_file> [num_threads] [memory_budget_MB]
+ * -Fetch:      java HuffSplit fetch <archive_file> [record ...]
+ * -Generate:   java HuffSplit generate <out_file|-> <length> [--seed=N] [--regimes=K] [--segments=DIST:MEAN] ...
+ *              (synthetic test data; see DnaGenerator.java)
+ *
+ * Passing "--index" after the input file of "compress" also writes the segment index (see HuffSplitIndex.java)
+ * Passing "--bwt" after the input file of "compress" applies the Burrows-Wheeler transform first (see BWT.java)
+ * Passing "--pipeline" after the input file of "compress" overlaps reading, the DP, and encoding (see PipelinedCompressor.java)
+ * Passing "--order1" after the input file of "compress" codes each symbol with a topology chosen for the symbol before it
+ * (see Order1Coder.java)
+ * Passing "--rans" after the input file of "compress" codes segments with interleaved rANS instead of a Huffman
+ * topology wherever that is smaller (see RansCoder.java)
+ * Passing "--general" after the input file of "compress" compresses any alphabet (e.g. protein or IUPAC codes) with
+ * canonical Huffman codes instead of the 165 DNA topologies (see AlphabetCoder.java)
+ * Passing "--adaptive[=RESET]" (and optionally "--symbols=SET") after the input file of "compress" compresses in one pass
+ * with an adaptive Huffman code, for streams ("-" compresses standard input to standard output; see AdaptiveCoder.java)
+ * Passing "--penalty=BITS" and/or "--min-segment=N" after the input file of "compress" charges every segment extra bits
+ * and/or requires segments of at least N symbols, for fewer segments that decode faster (see CostModel.java)
+ * Passing "--memory=MB" or "--engine=NAME" after the input file of "compress" sets the memory budget or the engine (see
+ * EnginePlanner.java)
+ * Passing "--stats" (or "--stats=json") after the input file of "compress" or "decompress" reports per-phase timing and
+ * segment counters (see RunStats.java)
  *
  * COMPRESSED FILE OUTPUT FORMAT:
  * -The first byte of the compressed file ("InfoByte") tells us the tree topology (out of the 165 possible topologies)
@@ -12,41 +43,96 @@
  *
  * If there is only 1 unique symbol, the resulting compressed file will only contain the first 9 bytes ("InfoByte" + "numChars")
  *
- * NOTE: Because of the DP algorithm to find optimal cuts, the message MUST be able to fit comfortably into RAM!!!
+ * NOTE: The full DP to find optimal cuts needs ~166 bytes of RAM per symbol, so "compress" picks a leaner engine (down to
+ * one that spills to disk) when the message doesn't fit in the memory budget (see EnginePlanner.java)
  */
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.nio.file.Files;
 import java.util.*;
 
 public class HuffSplit {
     // instance variables
-    public static final int NUMTOPS = 165;          // number of possible topologies
-    @SuppressWarnings("unchecked")
-    public static HashMap<Character,String>[] TOPS = new HashMap[NUMTOPS]; // topologies
+    public static final int NUMTOPS = 165;          // number of possible topologies (codes are in Topologies.java)
+    public static final char[] SYMBOLS = {'A','C','G','T','N'}; // symbol order used by the index and stats
     
     /* Main Method
      */
     public static void main( String[] args ) {
         // parse arguments
-        if(args.length != 2) {
+        if(args.length < 2) {
             System.err.println("ERROR: Incorrect number of arguments");
             System.err.println("See file header for usage information");
             System.exit(-1);
         }
         final String IN = args[1];
         
-        // get tree topologies
-        for(int i = 0; i < NUMTOPS; ++i) {
-            TOPS[i] = getCode(i);
-        }
-        
         // run relevant function
         switch(args[0]) {
-            case "compress": compress(IN,IN+".hsf"); break;
-            case "decompress": decompress(IN,IN.substring(0,IN.lastIndexOf('.'))); break;
-            default: System.err.println("ERROR: First argument must be \"compress\" or \"decompress\"!"); System.err.println("See file header for usage information"); System.exit(-1);
+            case "compress": EnginePlanner.compress(args); break;
+            case "decompress": decompress(IN,decompressedName(IN),RunStats.fromArgs(args)); break;
+            case "index": HuffSplitIndex.build(IN).write(IN+".hsi",IN); break;
+            case "stats": HuffSplitIndex.stats(IN,(args.length > 2) ? args[2] : null); break;
+            case "kmers": KmerCounter.count(IN,intArg(args,2,-1),intArg(args,3,Runtime.getRuntime().availableProcessors())); break;
+            case "search": PatternSearch.search(IN,Arrays.copyOfRange(args,2,args.length)); break;
+            case "fmindex": FMIndex.build(IN).write(IN+".fmi",IN); break;
+            case "count": FMIndex.query(IN,Arrays.copyOfRange(args,2,args.length),false); break;
+            case "locate": FMIndex.query(IN,Arrays.copyOfRange(args,2,args.length),true); break;
+            case "compress-batch": BatchCompressor.run(IN,intArg(args,2,Runtime.getRuntime().availableProcessors()),(args.length > 3) ? intArg(args,3,0)*(1L << 20) : -1); break;
+            case "serve": HuffSplitServer.serve(intArg(args,1,-1),intArg(args,2,Runtime.getRuntime().availableProcessors())); break;
+            case "compress-fasta": FastaArchive.compress(IN,intArg(args,2,Runtime.getRuntime().availableProcessors()),(args.length > 3) ? intArg(args,3,0)*(1L << 20) : -1); break;
+            case "fetch": FastaArchive.fetch(IN,Arrays.copyOfRange(args,2,args.length)); break;
+            case "generate": DnaGenerator.run(args); break;
+            default: System.err.println("ERROR: First argument must be \"compress\", \"decompress\", \"index\", \"stats\", \"kmers\", \"search\", \"fmindex\", \"count\", \"locate\", \"compress-batch\", \"serve\", \"compress-fasta\", \"fetch\", or \"generate\"!"); System.err.println("See file header for usage information"); System.exit(-1);
+        }
+    }
+    
+    /* Check whether an option was given after the input file
+     * INPUT:  The arguments and the option (e.g. "--index")
+     * OUTPUT: true if the option is one of args[2...], otherwise false
+     */
+    public static boolean hasOption( String[] args, String opt ) {
+        for(int i = 2; i < args.length; ++i) {
+            if(args[i].equals(opt)) {
+                return true;
+            }
         }
+        return false;
+    }
+    
+    /* Find the value of an option given after the input file
+     * INPUT:  The arguments and the option (e.g. "--seed")
+     * OUTPUT: The value of the first "--seed=VALUE" in args[2...], or null if there is none
+     */
+    public static String optionValue( String[] args, String opt ) {
+        for(int i = 2; i < args.length; ++i) {
+            if(args[i].startsWith(opt + "=")) {
+                return args[i].substring(opt.length()+1);
+            }
+        }
+        return null;
+    }
+    
+    /* Parse an optional integer command-line argument
+     * INPUT:  The arguments, the position of the argument, and its default value (-1 means it is required)
+     * OUTPUT: The value of the argument
+     */
+    public static int intArg( String[] args, int i, int def ) {
+        if(i >= args.length) {
+            if(def == -1) {
+                System.err.println("ERROR: Incorrect number of arguments");
+                System.err.println("See file header for usage information");
+                System.exit(-1);
+            }
+            return def;
+        }
+        try {
+            return Integer.parseInt(args[i]);
+        } catch(NumberFormatException e) {
+            System.err.println("ERROR: Invalid integer argument: " + args[i]); System.exit(-1);
+        }
+        return def;
     }
     
     /* Compress the input file using my split Huffman algorithm
@@ -54,10 +140,50 @@ public class HuffSplit {
      * OUTPUT: The compressed results of my split Huffman algorithm
      */
     public static void compress( String INFILE, String OUTFILE ) {
+        compress(INFILE,OUTFILE,null,false);
+    }
+    
+    /* Compress the input file using my split Huffman algorithm, optionally writing the segment index
+     * INPUT:  A DNA string to compress, the index file to write (or null for no index), and whether to BWT it first
+     * OUTPUT: The compressed results of my split Huffman algorithm
+     */
+    public static void compress( String INFILE, String OUTFILE, String INDEXFILE, boolean USEBWT ) {
+        compress(INFILE,OUTFILE,INDEXFILE,USEBWT,null);
+    }
+    
+    /* Compress the input file using my split Huffman algorithm, optionally reporting per-phase stats
+     * INPUT:  A DNA string to compress, the index file to write (or null for no index), whether to BWT it first, and
+     *         the stats to fill and report (or null)
+     * OUTPUT: The compressed results of my split Huffman algorithm
+     */
+    public static void compress( String INFILE, String OUTFILE, String INDEXFILE, boolean USEBWT, RunStats STATS ) {
+        compress(INFILE,OUTFILE,INDEXFILE,USEBWT,STATS,false);
+    }
+    
+    /* Compress the input file using my split Huffman algorithm, with the full or the compact backtrack matrix
+     * INPUT:  A DNA string to compress, the index file to write (or null for no index), whether to BWT it first, the
+     *         stats to fill and report (or null), and whether to use the compact backtrack matrix (see CompactDP.java)
+     * OUTPUT: The compressed results of my split Huffman algorithm
+     */
+    public static void compress( String INFILE, String OUTFILE, String INDEXFILE, boolean USEBWT, RunStats STATS, boolean COMPACT ) {
+        compress(INFILE,OUTFILE,INDEXFILE,USEBWT,STATS,COMPACT,null);
+    }
+    
+    /* Compress the input file using my split Huffman algorithm, optionally with a tuned cost model
+     * INPUT:  A DNA string to compress, the index file to write (or null for no index), whether to BWT it first, the
+     *         stats to fill and report (or null), whether to use the compact backtrack matrix, and the cost model (or
+     *         null for the default DP; see CostModel.java)
+     * OUTPUT: The compressed results of my split Huffman algorithm (and, with a cost model, its report)
+     */
+    public static void compress( String INFILE, String OUTFILE, String INDEXFILE, boolean USEBWT, RunStats STATS, boolean COMPACT, CostModel MODEL ) {
         // read input file
-        String in = null;
+        byte[] in = null;
+        if(STATS != null) {
+            STATS.begin(RunStats.READ);
+        }
+        HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","read");
         try {
-            in = new String(Files.readAllBytes(Paths.get(INFILE)));
+            in = Files.readAllBytes(Paths.get(INFILE));
         } catch(FileNotFoundException e) {
             System.err.println("ERROR: File \"" + INFILE + "\" not found!"); System.exit(-1);
         } catch(IOException e) {
@@ -66,138 +192,411 @@ public class HuffSplit {
         if(in == null) {
             System.err.println("ERROR: Something went wrong while reading \"" + INFILE + "\"!"); System.exit(-1);
         }
-        if(in.length() == 0) {
+        if(in.length == 0) {
             System.err.println("ERROR: Empty file!"); System.exit(-1);
         }
-        if(in.charAt(0) != 'A' && in.charAt(0) != 'C' && in.charAt(0) != 'G' && in.charAt(0) != 'T' && in.charAt(0) != 'N') {
-            System.err.println("ERROR: Invalid symbol: " + in.charAt(0)); System.exit(-1);
+        int bad = SymbolScan.scan(in,0,in.length,null); // before any output exists
+        if(bad != -1) {
+            System.err.println("ERROR: Invalid symbol: " + (char)(in[bad] & 0xFF)); System.exit(-1);
         }
-        final int L = in.length();
+        phase.commit();
         
-        // get optimal cuts
-        int[][] C = new int[2][NUMTOPS];
-        byte[][] backtrack = new byte[L][NUMTOPS];
-        int[] bestT = {-1,-1};
-        int[] bestC = {-1,-1};
-        for(int t = 0; t < NUMTOPS; ++t) {
-            if(TOPS[t].containsKey(in.charAt(0))) {
-                C[0][t] = 72 + TOPS[t].get(in.charAt(0)).length();
-                backtrack[0][t] = (byte)t;
-                if(bestC[0] == -1 || bestC[0] > C[0][t]) {
-                    bestC[0] = C[0][t];
-                    bestT[0] = t;
-                }
+        // compress (into memory first when timing, so encoding and writing are timed separately)
+        HuffSplitIndex index = null;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(OUTFILE))));
+            if(STATS == null) {
+                index = compress(in,0,in.length,out,INDEXFILE != null,USEBWT,null,COMPACT,MODEL);
             }
             else {
-                C[0][t] = -1;
-                backtrack[0][t] = (byte)-1;
+                CodecWorkspace.Sink sink = CodecWorkspace.get().sink();
+                index = compress(in,0,in.length,sink,INDEXFILE != null,USEBWT,STATS,COMPACT,MODEL);
+                STATS.begin(RunStats.WRITE);
+                sink.writeTo(out);
             }
+            out.close();
+        } catch(InvalidSymbolException e) {
+            System.err.println("ERROR: Invalid symbol: " + e.symbol); System.exit(-1);
+        } catch(Exception e) {
+            e.printStackTrace();
+            System.exit(-1);
         }
-        for(int i = 1; i < L; ++i) {
-            int i1 = i%2;
-            int i0 = (i-1)%2;
-            char c = in.charAt(i);
-            if(c != 'A' && c != 'C' && c != 'G' && c != 'T' && c != 'N') {
-                System.err.println("ERROR: Invalid symbol: " + c); System.exit(-1);
-            }
-            for(int top = 0; top < NUMTOPS; ++top) {
-                if(TOPS[top].containsKey(c)) {
-                    int bits = TOPS[top].get(c).length();
-                    if(bestT[i0] == top) {
-                        C[i1][top] = C[i0][top] + bits;
-                        backtrack[i][top] = (byte)top;
-                    }
-                    else {
-                        int sameC = -1;
-                        if(C[i0][top] != -1) {
-                            sameC = C[i0][top] + bits;
-                        }
-                        int diffC = C[i0][bestT[i0]];
-                        if(diffC%8 != 0) {
-                            diffC += (8-(diffC%8));
-                        }
-                        diffC += (72+bits);
-                        if(sameC == -1 || diffC < sameC) {
-                            C[i1][top] = diffC;
-                            backtrack[i][top] = (byte)bestT[i0];
-                        }
-                        else {
-                            C[i1][top] = sameC;
-                            backtrack[i][top] = (byte)top;
-                        }
-                    }
-                    if(bestC[i1] == -1 || bestC[i1] > C[i1][top]) {
-                        bestC[i1] = C[i1][top];
-                        bestT[i1] = top;
-                    }
+        if(index != null) {
+            index.write(INDEXFILE,OUTFILE);
+        }
+        if(STATS != null) {
+            STATS.report();
+        }
+        
+        // benchmark the model last, so its decode runs aren't counted in any phase (or in the total and peak heap)
+        if(MODEL != null) {
+            try {
+                MODEL.report(OUTFILE,in.length,CodecWorkspace.get().numSegs);
+            } catch(Exception e) {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+        }
+    }
+    
+    /* Compress a DNA string using my split Huffman algorithm
+     * INPUT:  A DNA string to compress, the stream to write to, whether to build the segment index, and whether to BWT it first
+     * OUTPUT: The segment index (or null if INDEX is false); an InvalidSymbolException is thrown if the string isn't DNA
+     */
+    public static HuffSplitIndex compress( String in, DataOutputStream out, boolean INDEX, boolean USEBWT ) throws IOException {
+        byte[] msg = in.getBytes(StandardCharsets.ISO_8859_1);
+        return compress(msg,0,msg.length,out,INDEX,USEBWT);
+    }
+    
+    /* Compress a DNA message using my split Huffman algorithm (all buffers come from the thread's CodecWorkspace)
+     * INPUT:  The message (L symbols, one byte each, starting at off), the stream to write to, whether to build the
+     *         segment index, and whether to BWT it first
+     * OUTPUT: The segment index (or null if INDEX is false); an InvalidSymbolException is thrown if the message isn't DNA
+     */
+    public static HuffSplitIndex compress( byte[] msg, int off, int L, DataOutputStream out, boolean INDEX, boolean USEBWT ) throws IOException {
+        return compress(msg,off,L,out,INDEX,USEBWT,null);
+    }
+    
+    /* Compress a DNA message using my split Huffman algorithm, timing each phase
+     * INPUT:  The message (L symbols, one byte each, starting at off), the stream to write to, whether to build the
+     *         segment index, whether to BWT it first, and the stats to fill (or null)
+     * OUTPUT: The segment index (or null if INDEX is false); an InvalidSymbolException is thrown if the message isn't DNA
+     */
+    public static HuffSplitIndex compress( byte[] msg, int off, int L, DataOutputStream out, boolean INDEX, boolean USEBWT, RunStats stats ) throws IOException {
+        return compress(msg,off,L,out,INDEX,USEBWT,stats,false);
+    }
+    
+    /* Compress a DNA message using my split Huffman algorithm, with the full or the compact backtrack matrix
+     * INPUT:  The message (L symbols, one byte each, starting at off), the stream to write to, whether to build the
+     *         segment index, whether to BWT it first, the stats to fill (or null), and whether to use the compact
+     *         backtrack matrix (see CompactDP.java)
+     * OUTPUT: The segment index (or null if INDEX is false); an InvalidSymbolException is thrown if the message isn't DNA
+     */
+    public static HuffSplitIndex compress( byte[] msg, int off, int L, DataOutputStream out, boolean INDEX, boolean USEBWT, RunStats stats, boolean COMPACT ) throws IOException {
+        return compress(msg,off,L,out,INDEX,USEBWT,stats,COMPACT,null);
+    }
+    
+    /* Compress a DNA message using my split Huffman algorithm, optionally with a tuned cost model
+     * INPUT:  The message (L symbols, one byte each, starting at off), the stream to write to, whether to build the
+     *         segment index, whether to BWT it first, the stats to fill (or null), whether to use the compact backtrack
+     *         matrix, and the cost model (or null for the default DP; see CostModel.java)
+     * OUTPUT: The segment index (or null if INDEX is false); an InvalidSymbolException is thrown if the message isn't DNA
+     */
+    public static HuffSplitIndex compress( byte[] msg, int off, int L, DataOutputStream out, boolean INDEX, boolean USEBWT, RunStats stats, boolean COMPACT, CostModel model ) throws IOException {
+        if(L == 0) {
+            throw new HuffSplitException("Empty input");
+        }
+        SymbolScan.validate(msg,off,L);
+        BWT bwt = null;
+        if(USEBWT) {
+            if(INDEX) {
+                throw new IllegalArgumentException("The segment index can't be used with BWT (segments would index the transformed message)");
+            }
+            if(stats != null) {
+                stats.begin(RunStats.BWT);
+            }
+            HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","bwt");
+            bwt = BWT.transform(new String(msg,off,L,StandardCharsets.ISO_8859_1));
+            phase.commit();
+            msg = bwt.data;
+            off = 0;
+        }
+        CodecWorkspace ws = CodecWorkspace.get();
+        try {
+            // get optimal cuts
+            if(stats != null) {
+                stats.begin(RunStats.FORWARD_DP);
+            }
+            if(model != null) {
+                model.findSegments(msg,off,L,ws); // timed as forward_dp (it includes the backtrack)
+            }
+            else {
+                HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","forward_dp");
+                CompactDP compact = null;
+                int last;
+                if(COMPACT) {
+                    compact = new CompactDP(null);
+                    compact.feed(msg,off,L);
+                    last = compact.finish();
+                }
+                else {
+                    last = forwardDP(msg,off,L,ws);
+                }
+                phase.commit();
+                if(stats != null) {
+                    stats.begin(RunStats.BACKTRACK);
+                }
+                phase = HuffSplitEvents.phase("compress","backtrack");
+                if(COMPACT) {
+                    compact.findSegments(last,ws);
                 }
                 else {
-                    C[i1][top] = -1;
-                    backtrack[i][top] = (byte)-1;
+                    findSegments(L,last,ws);
                 }
+                phase.commit();
             }
-            bestC[i0] = -1;
-            bestT[i0] = -1;
-        }
-        
-        // reconstruct topology path from backtrack
-        int[] path = new int[L]; // path[i] is the topology we are in at character i of the input
-        int LAST = (L-1)%2;
-        for(int t = 0; t < NUMTOPS; ++t) {
-            if(C[LAST][t] != -1 && (C[LAST][path[L-1]] == -1 || C[LAST][t] < C[LAST][path[L-1]])) {
-                path[L-1] = t;
+            
+            // encode file
+            if(stats != null) {
+                stats.begin(RunStats.ENCODE);
+            }
+            HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","encode");
+            HuffSplitIndex index = INDEX ? new HuffSplitIndex(ws.numSegs) : null;
+            if(bwt != null) {
+                out.writeByte(BWT.BWT_MARKER);
+                out.writeInt(bwt.primary);
+            }
+            encodeSegments(msg,off,L,ws,out,index);
+            phase.commit();
+            if(stats != null) {
+                stats.end();
+                stats.segments(msg,off,L,ws); // not timed
+                if(bwt != null) {
+                    stats.headerBits += 40;
+                }
             }
+            return index;
+        } finally {
+            ws.trim();
         }
-        for(int i = L-2; i >= 0; --i) {
-            path[i] = (int)(backtrack[i+1][path[i+1]] & 0xFF);
+    }
+    
+    /* Forward pass of the DP over a message, filling the workspace's backtrack matrix
+     * INPUT:  The message (L symbols starting at off) and the workspace
+     * OUTPUT: The topology the optimal path ends in (an InvalidSymbolException is thrown if the message isn't DNA)
+     */
+    public static int forwardDP( byte[] msg, int off, int L, CodecWorkspace ws ) throws InvalidSymbolException {
+        final int S = CodecWorkspace.BLOCK_SHIFT;
+        final int M = CodecWorkspace.BLOCK_MASK;
+        int[][] C = ws.costs;
+        ws.ensureBacktrack(L);
+        byte[][] backtrack = ws.backtrack; // row i is backtrack[i >>> S], starting at (i & M)*NUMTOPS
+        final int c0 = symbolIndex((char)(msg[off] & 0xFF));
+        if(c0 == -1) {
+            throw new InvalidSymbolException(0,(char)(msg[off] & 0xFF));
         }
-        C = null; // don't need anymore, so save memory
-        ArrayList<Integer> cuts = new ArrayList<Integer>();
-        cuts.add(0);
+        int bestT = dpFirst(c0,C[0],backtrack[0],0);
+        HuffSplitEvents.Span progress = HuffSplitEvents.progress(null,0,C[0],bestT);
         for(int i = 1; i < L; ++i) {
-            if(path[i] != path[i-1]) {
-                cuts.add(i);
+            int c = symbolIndex((char)(msg[off+i] & 0xFF));
+            if(c == -1) {
+                throw new InvalidSymbolException(i,(char)(msg[off+i] & 0xFF));
+            }
+            bestT = dpStep(C[(i-1)&1],bestT,c,C[i&1],backtrack[i >>> S],(i & M)*NUMTOPS);
+            if((i & (HuffSplitEvents.PROGRESS_INTERVAL-1)) == 0) {
+                progress = HuffSplitEvents.progress(progress,i,C[i&1],bestT);
             }
         }
-        cuts.add(L);
-        
-        // encode file
-        try {
-            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(OUTFILE))));
-            for(int cut = 1; cut < cuts.size(); ++cut) {
-                int start = cuts.get(cut-1);
-                int end = cuts.get(cut);
-                out.writeByte(path[start]); // infobyte (topology)
-                out.writeInt(end-start);    // numChars
-                
-                // if only 1 unique symbol, only need first 5 bytes
-                if(path[start] < 5) {
-                    continue;
+        HuffSplitEvents.progress(progress,L,C[(L-1)&1],bestT);
+        return dpLast(C[(L-1)&1]);
+    }
+    
+    /* Reconstruct the segments of the optimal path from the backtrack matrix
+     * INPUT:  The length of the message, the topology the path ends in, and the workspace (after forwardDP)
+     * OUTPUT: The workspace's segment list (last segment first)
+     */
+    public static void findSegments( int L, int top, CodecWorkspace ws ) {
+        final int S = CodecWorkspace.BLOCK_SHIFT;
+        final int M = CodecWorkspace.BLOCK_MASK;
+        byte[][] backtrack = ws.backtrack;
+        ws.numSegs = 0;
+        for(int i = L-1; i > 0; --i) {
+            int prev = backtrack[i >>> S][(i & M)*NUMTOPS + top] & 0xFF; // topology of symbol i-1
+            if(prev != top) {
+                ws.addSegment(i,top);
+                top = prev;
+            }
+        }
+        ws.addSegment(0,top);
+    }
+    
+    /* Find the cuts of the optimal (order-0) path, for coders that choose their segments among them
+     * INPUT:  The message (L symbols starting at off), the workspace, and whether to use the compact backtrack matrix
+     *         (see CompactDP.java)
+     * OUTPUT: The start of every segment in order, followed by L (an InvalidSymbolException is thrown if the message isn't DNA)
+     */
+    public static int[] optimalCuts( byte[] msg, int off, int L, CodecWorkspace ws, boolean COMPACT ) throws IOException {
+        HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","forward_dp");
+        CompactDP compact = null;
+        int last;
+        if(COMPACT) {
+            compact = new CompactDP(null);
+            compact.feed(msg,off,L);
+            last = compact.finish();
+        }
+        else {
+            last = forwardDP(msg,off,L,ws);
+        }
+        phase.commit();
+        phase = HuffSplitEvents.phase("compress","backtrack");
+        if(COMPACT) {
+            compact.findSegments(last,ws);
+        }
+        else {
+            findSegments(L,last,ws);
+        }
+        int K = ws.numSegs;
+        int[] cut = new int[K+1];
+        for(int k = 0; k < K; ++k) {
+            cut[k] = ws.segStart[K-1-k];
+        }
+        cut[K] = L;
+        phase.commit();
+        return cut;
+    }
+    
+    /* Encode the segments of a message
+     * INPUT:  The message (L symbols starting at off), the workspace (after findSegments), the stream to write to, and
+     *         the index to fill (or null)
+     * OUTPUT: The HuffSplit segments
+     */
+    public static void encodeSegments( byte[] msg, int off, int L, CodecWorkspace ws, DataOutputStream out, HuffSplitIndex index ) throws IOException {
+        for(int seg = ws.numSegs-1; seg >= 0; --seg) {
+            int start = ws.segStart[seg];
+            int end = (seg > 0) ? ws.segStart[seg-1] : L;
+            int top = ws.segTop[seg];
+            HuffSplitEvents.Span event = HuffSplitEvents.segmentEncoded();
+            int before = out.size();
+            if(index != null) {
+                int s = ws.numSegs-1-seg;
+                index.set(s,top,end-start,out.size());
+                SymbolScan.scan(msg,off+start,end-start,index.counts[s]);
+            }
+            out.writeByte(top);       // infobyte (topology)
+            out.writeInt(end-start);  // numChars
+            
+            // if only 1 unique symbol, only need first 5 bytes
+            if(top < 5) {
+                event.commit(top,end-start,5);
+                continue;
+            }
+            
+            // encode substring (buf holds the nbits pending bits in its low bits)
+            int buf = 0;
+            int nbits = 0;
+            for(int i = start; i < end; ++i) {
+                int s = symbolIndex((char)(msg[off+i] & 0xFF));
+                buf = (buf << Topologies.length(top,s)) | Topologies.code(top,s);
+                nbits += Topologies.length(top,s);
+                if(nbits >= 8) {
+                    nbits -= 8;
+                    out.writeByte(buf >>> nbits);
+                    buf &= (1 << nbits) - 1;
                 }
-                
-                // encode substring
-                String buf = "";
-                for(int i = start; i < end; ++i) {
-                    buf += TOPS[path[start]].get(in.charAt(i));
-                    if(buf.length() >= 8) {
-                        out.writeByte(Integer.parseInt(buf.substring(0,8),2));
-                        buf = buf.substring(8);
-                    }
+            }
+            
+            // clear buffer
+            if(nbits > 0) {
+                out.writeByte(buf << (8-nbits));
+            }
+            event.commit(top,end-start,out.size()-before);
+        }
+    }
+    
+    /* First column of the DP: the cost of starting the message in each topology
+     * INPUT:  The first symbol (its index in SYMBOLS), the cost column to fill, and the backtrack row (at offset off) to fill
+     * OUTPUT: The cheapest topology (cur[t] and the backtrack are -1 for topologies that don't contain the symbol)
+     */
+    public static int dpFirst( int c, int[] cur, byte[] bt, int off ) {
+        int bestT = -1;
+        for(int t = 0; t < NUMTOPS; ++t) {
+            int bits = Topologies.length(t,c);
+            if(bits != -1) {
+                cur[t] = 72 + bits;
+                bt[off+t] = (byte)t;
+                if(bestT == -1 || cur[bestT] > cur[t]) {
+                    bestT = t;
+                }
+            }
+            else {
+                cur[t] = -1;
+                bt[off+t] = (byte)-1;
+            }
+        }
+        return bestT;
+    }
+    
+    /* One column of the DP: either stay in the same topology, or pay for a new segment header (and the previous
+     * segment's padding) to switch from the cheapest topology of the previous symbol
+     * INPUT:  The previous cost column and its cheapest topology, the symbol, the cost column to fill, and the backtrack row
+     * OUTPUT: The cheapest topology of this column
+     */
+    public static int dpStep( int[] prev, int prevBest, int c, int[] cur, byte[] bt, int off ) {
+        int bestT = -1;
+        int diffBase = prev[prevBest];
+        if(diffBase%8 != 0) {
+            diffBase += (8-(diffBase%8));
+        }
+        diffBase += 72;
+        for(int top = 0; top < NUMTOPS; ++top) {
+            int bits = Topologies.length(top,c);
+            if(bits != -1) {
+                if(prevBest == top) {
+                    cur[top] = prev[top] + bits;
+                    bt[off+top] = (byte)top;
                 }
-                
-                // clear buffer
-                if(buf.length() > 0) {
-                    while(buf.length() < 8) {
-                        buf += "0";
+                else {
+                    int sameC = -1;
+                    if(prev[top] != -1) {
+                        sameC = prev[top] + bits;
+                    }
+                    int diffC = diffBase + bits;
+                    if(sameC == -1 || diffC < sameC) {
+                        cur[top] = diffC;
+                        bt[off+top] = (byte)prevBest;
+                    }
+                    else {
+                        cur[top] = sameC;
+                        bt[off+top] = (byte)top;
                     }
-                    out.writeByte(Integer.parseInt(buf,2));
+                }
+                if(bestT == -1 || cur[bestT] > cur[top]) {
+                    bestT = top;
                 }
             }
-            out.close();
-        } catch(Exception e) {
-            e.printStackTrace();
-            System.exit(-1);
+            else {
+                cur[top] = -1;
+                bt[off+top] = (byte)-1;
+            }
+        }
+        return bestT;
+    }
+    
+    /* Pick the topology the optimal path ends in
+     * INPUT:  The cost column of the last symbol
+     * OUTPUT: The cheapest topology (the first one, if there are ties)
+     */
+    public static int dpLast( int[] cur ) {
+        int bestT = -1;
+        for(int t = 0; t < NUMTOPS; ++t) {
+            if(cur[t] != -1 && (bestT == -1 || cur[t] < cur[bestT])) {
+                bestT = t;
+            }
         }
+        return bestT;
+    }
+    
+    /* Estimate the peak memory compress needs for an input of a given length
+     * INPUT:  The length of the input (in symbols)
+     * OUTPUT: The estimated number of bytes (backtrack matrix, path, and the input itself)
+     */
+    public static long estimateMemory( long L ) {
+        return L * (NUMTOPS + 4 + 2);
+    }
+    
+    /* Return the file "decompress" writes for a compressed file (the name without its extension, or "-" for "-")
+     * INPUT:  The compressed file (or "-" for standard input)
+     * OUTPUT: The output file (or "-" for standard output)
+     */
+    public static String decompressedName( String INFILE ) {
+        if(INFILE.equals("-")) {
+            return "-";
+        }
+        int dot = INFILE.lastIndexOf('.');
+        if(dot <= INFILE.lastIndexOf(File.separatorChar) + 1) {
+            System.err.println("ERROR: Compressed file \"" + INFILE + "\" has no extension (e.g. \".hsf\") to remove for the output file"); System.exit(-1);
+        }
+        return INFILE.substring(0,dot);
     }
     
     /* Decompress the input files (regular Huffman decompression on each)
@@ -205,77 +604,40 @@ public class HuffSplit {
      * OUTPUT: The uncompressed file
      */
     public static void decompress( String INFILE, String OUTFILE ) {
+        decompress(INFILE,OUTFILE,null);
+    }
+    
+    /* Decompress the input files, optionally reporting per-phase stats
+     * INPUT:  The file to decompress (or "-" for standard input), the file to write (or "-" for standard output), and
+     *         the stats to fill and report (or null)
+     * OUTPUT: The uncompressed file
+     */
+    public static void decompress( String INFILE, String OUTFILE, RunStats STATS ) {
         DataInputStream in = null;
         DataOutputStream out = null;
         try {
-            // set up files
-            in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(INFILE))));
-            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(OUTFILE))));
+            // set up files (when timing, the input is read and the output is built in memory first)
+            InputStream src = INFILE.equals("-") ? System.in : new FileInputStream(new File(INFILE));
+            if(STATS == null) {
+                in = new DataInputStream(new BufferedInputStream(src,1 << 16));
+            }
+            else {
+                STATS.begin(RunStats.READ);
+                in = new DataInputStream(new ByteArrayInputStream(src.readAllBytes()));
+                src.close();
+            }
+            out = new DataOutputStream(new BufferedOutputStream(OUTFILE.equals("-") ? System.out : new FileOutputStream(new File(OUTFILE)),1 << 16));
             
             // decompress file
-            while(true) {
-                int top = (in.readByte() & 0xFF);
-                int numChars = in.readInt();
-                if(top < 5) {
-                    char symbol = 'Z';
-                    switch(top) {
-                        case 0: symbol = 'A'; break;
-                        case 1: symbol = 'C'; break;
-                        case 2: symbol = 'G'; break;
-                        case 3: symbol = 'T'; break;
-                        case 4: symbol = 'N'; break;
-                        default: System.err.println("ERROR: Unrecognized topology: " + top); System.exit(-1);
-                    }
-                    for(int i = 0; i < numChars; ++i) {
-                        out.writeByte((byte)symbol);
-                        continue;
-                    }
-                }
-                else {
-                    Node root = buildTree(top);
-                    Node c = root;
-                    int printed = 0;
-                    while(printed < numChars) {
-                        byte buf = in.readByte();
-                        for(int i = 7; i >= 0; --i) {
-                            int bit = (buf >>> i) & 1;
-                            if(bit == 0) {
-                                if(c.c0 != null) {
-                                    c = c.c0;
-                                    if(c.c1 == null && c.c0 == null) {
-                                        out.writeByte((byte)(c.symbol));
-                                        if(++printed == numChars) {
-                                            break;
-                                        }
-                                        c = root;
-                                    }
-                                }
-                                else {
-                                    System.err.println("ERROR: Invalid c0");
-                                    System.exit(-1);
-                                }
-                            }
-                            else {
-                                if(c.c1 != null) {
-                                    c = c.c1;
-                                    if(c.c1 == null && c.c0 == null) {
-                                        out.writeByte((byte)(c.symbol));
-                                        if(++printed == numChars) {
-                                            break;
-                                        }
-                                        c = root;
-                                    }
-                                }
-                                else {
-                                    System.err.println("ERROR: Invalid c1");
-                                    System.exit(-1);
-                                }
-                            }
-                        }
-                    }
-                }
+            if(STATS == null) {
+                decompress(in,out);
+            }
+            else {
+                CodecWorkspace.Sink sink = CodecWorkspace.get().sink();
+                decompress(in,sink,STATS);
+                STATS.begin(RunStats.WRITE);
+                sink.writeTo(out);
             }
-        } catch(EOFException e) {
         } catch(FileNotFoundException e) {
             System.err.println("ERROR: One of the files was not found!"); e.printStackTrace(); System.exit(-1);
         } catch(IOException e) {
@@ -289,405 +651,155 @@ public class HuffSplit {
         } catch(IOException e) {
             System.err.println("ERROR: IO Exception when closing input or output file!"); e.printStackTrace(); System.exit(-1);
         }
+        if(STATS != null) {
+            STATS.report();
+        }
     }
     
-    /* Given an integer, return the corresponding tree (see Topologies.pptx)
-     * INPUT:  An integer (between 0 and 164, inclusive)
-     * OUTPUT: The root node of the corresponding tree
+    /* Decompress a HuffSplit stream
+     * INPUT:  The stream of segments (ending at a segment boundary) and the stream to write the message to
+     * OUTPUT: The uncompressed message (a CorruptStreamException is thrown if the input is malformed, or an EOFException if
+     *         it is truncated)
      */
-    public static Node buildTree( int topology ) {
-        HashMap<Character,String> code = getCode(topology);
-        Node root = new Node((char)0);
-        if(topology < 5) {
-            return root;
-        }
-        else if(topology < 15) {
-            for(Character c : code.keySet()) {
-                if(code.get(c).equals("1")) {
-                    root.c1 = new Node(c);
-                }
-                else {
-                    root.c0 = new Node(c);
-                }
-            }
+    public static void decompress( DataInputStream in, DataOutputStream out ) throws IOException {
+        decompress(in,out,null);
+    }
+    
+    /* Decompress a HuffSplit stream, timing each phase
+     * INPUT:  The stream of segments, the stream to write the message to, and the stats to fill (or null)
+     * OUTPUT: The uncompressed message
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out, RunStats stats ) throws IOException {
+        decompress(in,out,stats,DecodeGuard.unbounded());
+    }
+    
+    /* Decompress a HuffSplit stream, checking every segment length before decoding it (see DecodeGuard.java)
+     * INPUT:  The stream of segments, the stream to write the message to, the stats to fill (or null), and the guard
+     * OUTPUT: The uncompressed message (a CorruptStreamException is thrown if the input is malformed)
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out, RunStats stats, DecodeGuard guard ) throws IOException {
+        if(stats != null) {
+            stats.begin(RunStats.DECODE);
         }
-        else if(topology < 45) {
-            Node nodeA = null;
-            Node nodeB = null;
-            Node nodeC = null;
-            for(Character c : code.keySet()) {
-                if(code.get(c).equals("1")) {
-                    nodeA = new Node(c);
-                }
-                else if(code.get(c).equals("01")) {
-                    nodeB = new Node(c);
-                }
-                else {
-                    nodeC = new Node(c);
-                }
+        HuffSplitEvents.Span phase = HuffSplitEvents.phase("decompress","decode");
+        DataOutputStream dest = out;              // where decoded segments go (out, or bwtBuf for BWT files)
+        ByteArrayOutputStream bwtBuf = null;
+        int primary = -1;
+        boolean first = true;
+        while(true) {
+            int top;
+            try {
+                top = (in.readByte() & 0xFF);
+            } catch(EOFException e) {
+                break;
             }
-            root.c1 = nodeA;
-            root.c0 = new Node((char)0);
-            root.c0.c1 = nodeB;
-            root.c0.c0 = nodeC;
-        }
-        else if(topology < 50) {
-            Node nodeA = null;
-            Node nodeB = null;
-            Node nodeC = null;
-            Node nodeD = null;
-            for(Character c : code.keySet()) {
-                if(code.get(c).equals("11")) {
-                    nodeA = new Node(c);
-                }
-                else if(code.get(c).equals("10")) {
-                    nodeB = new Node(c);
-                }
-                else if(code.get(c).equals("01")) {
-                    nodeC = new Node(c);
-                }
-                else {
-                    nodeD = new Node(c);
-                }
+            if(first && top == BWT.BWT_MARKER) {
+                guard.bwt();
+                primary = in.readInt();
+                bwtBuf = new ByteArrayOutputStream();
+                dest = new DataOutputStream(bwtBuf);
+                first = false;
+                if(stats != null) {
+                    stats.headerBits += 40;
+                }
+                continue;
             }
-            root.c1 = new Node((char)0);
-            root.c0 = new Node((char)0);
-            root.c1.c1 = nodeA;
-            root.c1.c0 = nodeB;
-            root.c0.c1 = nodeC;
-            root.c0.c0 = nodeD;
-        }
-        else if(topology < 90) {
-            Node nodeA = null;
-            Node nodeB = null;
-            Node nodeC = null;
-            Node nodeD = null;
-            for(Character c : code.keySet()) {
-                if(code.get(c).equals("1")) {
-                    nodeA = new Node(c);
-                }
-                else if(code.get(c).equals("01")) {
-                    nodeB = new Node(c);
-                }
-                else if(code.get(c).equals("001")) {
-                    nodeC = new Node(c);
-                }
-                else {
-                    nodeD = new Node(c);
-                }
+            if(first && top == Order1Coder.ORDER1_MARKER) {
+                Order1Coder.decompress(in,dest,guard);
+                break;
             }
-            root.c1 = nodeA;
-            root.c0 = new Node((char)0);
-            root.c0.c1 = nodeB;
-            root.c0.c0 = new Node((char)0);
-            root.c0.c0.c1 = nodeC;
-            root.c0.c0.c0 = nodeD;
-        }
-        else if(topology < 150) {
-            Node nodeA = null;
-            Node nodeB = null;
-            Node nodeC = null;
-            Node nodeD = null;
-            Node nodeE = null;
-            for(Character c : code.keySet()) {
-                if(code.get(c).equals("1")) {
-                    nodeA = new Node(c);
-                }
-                else if(code.get(c).equals("01")) {
-                    nodeB = new Node(c);
-                }
-                else if(code.get(c).equals("001")) {
-                    nodeC = new Node(c);
-                }
-                else if(code.get(c).equals("0001")) {
-                    nodeD = new Node(c);
-                }
-                else {
-                    nodeE = new Node(c);
-                }
+            if(first && top == RansCoder.RANS_MARKER) {
+                RansCoder.decompress(in,dest,guard);
+                break;
             }
-            root.c1 = nodeA;
-            root.c0 = new Node((char)0);
-            root.c0.c1 = nodeB;
-            root.c0.c0 = new Node((char)0);
-            root.c0.c0.c1 = nodeC;
-            root.c0.c0.c0 = new Node((char)0);
-            root.c0.c0.c0.c1 = nodeD;
-            root.c0.c0.c0.c0 = nodeE;
-        }
-        else if(topology < 160) {
-            Node nodeA = null;
-            Node nodeB = null;
-            Node nodeC = null;
-            Node nodeD = null;
-            Node nodeE = null;
-            for(Character c : code.keySet()) {
-                if(code.get(c).equals("11")) {
-                    nodeA = new Node(c);
-                }
-                else if(code.get(c).equals("10")) {
-                    nodeB = new Node(c);
-                }
-                else if(code.get(c).equals("01")) {
-                    nodeC = new Node(c);
-                }
-                else if(code.get(c).equals("001")) {
-                    nodeD = new Node(c);
-                }
-                else {
-                    nodeE = new Node(c);
-                }
+            if(first && top == AlphabetCoder.GENERAL_MARKER) {
+                AlphabetCoder.decompress(in,dest,guard);
+                break;
             }
-            root.c1 = new Node((char)0);
-            root.c1.c1 = nodeA;
-            root.c1.c0 = nodeB;
-            root.c0 = new Node((char)0);
-            root.c0.c1 = nodeC;
-            root.c0.c0 = new Node((char)0);
-            root.c0.c0.c1 = nodeD;
-            root.c0.c0.c0 = nodeE;
-        }
-        else if(topology < 165) {
-            Node nodeA = null;
-            Node nodeB = null;
-            Node nodeC = null;
-            Node nodeD = null;
-            Node nodeE = null;
-            for(Character c : code.keySet()) {
-                if(code.get(c).equals("1")) {
-                    nodeA = new Node(c);
-                }
-                else if(code.get(c).equals("011")) {
-                    nodeB = new Node(c);
-                }
-                else if(code.get(c).equals("010")) {
-                    nodeC = new Node(c);
-                }
-                else if(code.get(c).equals("001")) {
-                    nodeD = new Node(c);
+            if(first && top == AdaptiveCoder.ADAPTIVE_MARKER) {
+                AdaptiveCoder.decompress(in,dest,guard);
+                break;
+            }
+            first = false;
+            if(top >= NUMTOPS) {
+                throw new CorruptStreamException("Unrecognized topology: " + top);
+            }
+            HuffSplitEvents.Span event = HuffSplitEvents.segmentDecoded();
+            int numChars = in.readInt();
+            guard.segment(numChars,(top < 5) ? 0 : 1,in);
+            if(top < 5) { // a run of one symbol, written a chunk at a time
+                byte[] run = CodecWorkspace.get().decodeBuffer(DecodeGuard.RUN_CHUNK);
+                Arrays.fill(run,0,Math.min(numChars,DecodeGuard.RUN_CHUNK),(byte)SYMBOLS[top]);
+                for(int left = numChars; left > 0; left -= DecodeGuard.RUN_CHUNK) {
+                    dest.write(run,0,Math.min(left,DecodeGuard.RUN_CHUNK));
+                }
+                if(stats != null) {
+                    stats.segment(top,numChars,0);
                 }
-                else {
-                    nodeE = new Node(c);
+            }
+            else {
+                byte[] buf = CodecWorkspace.get().decodeBuffer(numChars);
+                decodeSegment(in,top,numChars,buf);
+                dest.write(buf,0,numChars);
+                if(stats != null) {
+                    stats.segment(top,numChars,RunStats.codeBits(top,buf,0,numChars));
                 }
             }
-            root.c1 = nodeA;
-            root.c0 = new Node((char)0);
-            root.c0.c1 = new Node((char)0);
-            root.c0.c1.c1 = nodeB;
-            root.c0.c1.c0 = nodeC;
-            root.c0.c0 = new Node((char)0);
-            root.c0.c0.c1 = nodeD;
-            root.c0.c0.c0 = nodeE;
+            event.commit(top,numChars);
         }
-        else {
-            System.err.println("ERROR: Trying to get tree for topology > 164!");
-            System.exit(-1);
+        phase.commit();
+        if(bwtBuf != null) {
+            dest.flush();
+            if(primary < 0 || primary > bwtBuf.size()) {
+                throw new CorruptStreamException("Invalid BWT primary index: " + primary);
+            }
+            if(stats != null) {
+                stats.begin(RunStats.INVERSE_BWT);
+            }
+            phase = HuffSplitEvents.phase("decompress","inverse_bwt");
+            out.write(BWT.inverse(bwtBuf.toByteArray(),primary));
+            phase.commit();
         }
-        return root;
     }
     
-    /* Given an integer, return the corresponding topology (see Topologies.pptx)
-     * INPUT:  An integer (between 0 and 164, inclusive)
-     * OUTPUT: A HashMap containing the code of the corresponding topology
+    /* Decode a single segment (the InfoByte and numChars have already been read)
+     * INPUT:  The stream positioned at the segment's data, its topology, its length, and the buffer to fill
+     * OUTPUT: The first numChars bytes of dest hold the decoded symbols
      */
-    public static HashMap<Character,String> getCode( int topology ) {
-        HashMap<Character,String> code = new HashMap<Character,String>();
-        switch(topology) {
-            // 1 Unique Character
-            case 0:   code.put('A',""); break;
-            case 1:   code.put('C',""); break;
-            case 2:   code.put('G',""); break;
-            case 3:   code.put('T',""); break;
-            case 4:   code.put('N',""); break;
-            
-            // 2 Unique Characters
-            case 5:   code.put('A',"1"); code.put('C',"0"); break;
-            case 6:   code.put('A',"1"); code.put('G',"0"); break;
-            case 7:   code.put('A',"1"); code.put('T',"0"); break;
-            case 8:   code.put('A',"1"); code.put('N',"0"); break;
-            case 9:   code.put('C',"1"); code.put('G',"0"); break;
-            case 10:  code.put('C',"1"); code.put('T',"0"); break;
-            case 11:  code.put('C',"1"); code.put('N',"0"); break;
-            case 12:  code.put('G',"1"); code.put('T',"0"); break;
-            case 13:  code.put('G',"1"); code.put('N',"0"); break;
-            case 14:  code.put('T',"1"); code.put('N',"0"); break;
-            
-            // 3 Unique Characters
-            case 15:  code.put('A',"1"); code.put('C',"01"); code.put('G',"00"); break;
-            case 16:  code.put('A',"1"); code.put('C',"01"); code.put('T',"00"); break;
-            case 17:  code.put('A',"1"); code.put('C',"01"); code.put('N',"00"); break;
-            case 18:  code.put('A',"1"); code.put('G',"01"); code.put('T',"00"); break;
-            case 19:  code.put('A',"1"); code.put('G',"01"); code.put('N',"00"); break;
-            case 20:  code.put('A',"1"); code.put('T',"01"); code.put('N',"00"); break;
-            case 21:  code.put('C',"1"); code.put('A',"01"); code.put('G',"00"); break;
-            case 22:  code.put('C',"1"); code.put('A',"01"); code.put('T',"00"); break;
-            case 23:  code.put('C',"1"); code.put('A',"01"); code.put('N',"00"); break;
-            case 24:  code.put('C',"1"); code.put('G',"01"); code.put('T',"00"); break;
-            case 25:  code.put('C',"1"); code.put('G',"01"); code.put('N',"00"); break;
-            case 26:  code.put('C',"1"); code.put('T',"01"); code.put('N',"00"); break;
-            case 27:  code.put('G',"1"); code.put('A',"01"); code.put('C',"00"); break;
-            case 28:  code.put('G',"1"); code.put('A',"01"); code.put('T',"00"); break;
-            case 29:  code.put('G',"1"); code.put('A',"01"); code.put('N',"00"); break;
-            case 30:  code.put('G',"1"); code.put('C',"01"); code.put('T',"00"); break;
-            case 31:  code.put('G',"1"); code.put('C',"01"); code.put('N',"00"); break;
-            case 32:  code.put('G',"1"); code.put('T',"01"); code.put('N',"00"); break;
-            case 33:  code.put('T',"1"); code.put('A',"01"); code.put('C',"00"); break;
-            case 34:  code.put('T',"1"); code.put('A',"01"); code.put('G',"00"); break;
-            case 35:  code.put('T',"1"); code.put('A',"01"); code.put('N',"00"); break;
-            case 36:  code.put('T',"1"); code.put('C',"01"); code.put('G',"00"); break;
-            case 37:  code.put('T',"1"); code.put('C',"01"); code.put('N',"00"); break;
-            case 38:  code.put('T',"1"); code.put('G',"01"); code.put('N',"00"); break;
-            case 39:  code.put('N',"1"); code.put('A',"01"); code.put('C',"00"); break;
-            case 40:  code.put('N',"1"); code.put('A',"01"); code.put('G',"00"); break;
-            case 41:  code.put('N',"1"); code.put('A',"01"); code.put('T',"00"); break;
-            case 42:  code.put('N',"1"); code.put('C',"01"); code.put('G',"00"); break;
-            case 43:  code.put('N',"1"); code.put('C',"01"); code.put('T',"00"); break;
-            case 44:  code.put('N',"1"); code.put('G',"01"); code.put('T',"00"); break;
-            
-            // 4 Unique Characters (Balanced)
-            case 45:  code.put('A',"11"); code.put('C',"10"); code.put('G',"01"); code.put('T',"00"); break;
-            case 46:  code.put('A',"11"); code.put('C',"10"); code.put('G',"01"); code.put('N',"00"); break;
-            case 47:  code.put('A',"11"); code.put('C',"10"); code.put('T',"01"); code.put('N',"00"); break;
-            case 48:  code.put('A',"11"); code.put('G',"10"); code.put('T',"01"); code.put('N',"00"); break;
-            case 49:  code.put('C',"11"); code.put('G',"10"); code.put('T',"01"); code.put('N',"00"); break;
-            
-            // 4 Unique Characters (Unbalanced)
-            case 50:  code.put('A',"1"); code.put('C',"01"); code.put('G',"001"); code.put('T',"000"); break;
-            case 51:  code.put('A',"1"); code.put('C',"01"); code.put('G',"001"); code.put('N',"000"); break;
-            case 52:  code.put('A',"1"); code.put('G',"01"); code.put('C',"001"); code.put('T',"000"); break;
-            case 53:  code.put('A',"1"); code.put('G',"01"); code.put('C',"001"); code.put('N',"000"); break;
-            case 54:  code.put('A',"1"); code.put('T',"01"); code.put('C',"001"); code.put('G',"000"); break;
-            case 55:  code.put('A',"1"); code.put('T',"01"); code.put('C',"001"); code.put('N',"000"); break;
-            case 56:  code.put('A',"1"); code.put('N',"01"); code.put('C',"001"); code.put('G',"000"); break;
-            case 57:  code.put('A',"1"); code.put('N',"01"); code.put('C',"001"); code.put('T',"000"); break;
-            case 58:  code.put('C',"1"); code.put('A',"01"); code.put('G',"001"); code.put('T',"000"); break;
-            case 59:  code.put('C',"1"); code.put('A',"01"); code.put('G',"001"); code.put('N',"000"); break;
-            case 60:  code.put('C',"1"); code.put('G',"01"); code.put('A',"001"); code.put('T',"000"); break;
-            case 61:  code.put('C',"1"); code.put('G',"01"); code.put('A',"001"); code.put('N',"000"); break;
-            case 62:  code.put('C',"1"); code.put('T',"01"); code.put('A',"001"); code.put('G',"000"); break;
-            case 63:  code.put('C',"1"); code.put('T',"01"); code.put('A',"001"); code.put('N',"000"); break;
-            case 64:  code.put('C',"1"); code.put('N',"01"); code.put('A',"001"); code.put('G',"000"); break;
-            case 65:  code.put('C',"1"); code.put('N',"01"); code.put('A',"001"); code.put('T',"000"); break;
-            case 66:  code.put('G',"1"); code.put('A',"01"); code.put('C',"001"); code.put('T',"000"); break;
-            case 67:  code.put('G',"1"); code.put('A',"01"); code.put('C',"001"); code.put('N',"000"); break;
-            case 68:  code.put('G',"1"); code.put('C',"01"); code.put('A',"001"); code.put('T',"000"); break;
-            case 69:  code.put('G',"1"); code.put('C',"01"); code.put('A',"001"); code.put('N',"000"); break;
-            case 70:  code.put('G',"1"); code.put('T',"01"); code.put('A',"001"); code.put('C',"000"); break;
-            case 71:  code.put('G',"1"); code.put('T',"01"); code.put('A',"001"); code.put('N',"000"); break;
-            case 72:  code.put('G',"1"); code.put('N',"01"); code.put('A',"001"); code.put('C',"000"); break;
-            case 73:  code.put('G',"1"); code.put('N',"01"); code.put('A',"001"); code.put('T',"000"); break;
-            case 74:  code.put('T',"1"); code.put('A',"01"); code.put('C',"001"); code.put('G',"000"); break;
-            case 75:  code.put('T',"1"); code.put('A',"01"); code.put('C',"001"); code.put('N',"000"); break;
-            case 76:  code.put('T',"1"); code.put('C',"01"); code.put('A',"001"); code.put('G',"000"); break;
-            case 77:  code.put('T',"1"); code.put('C',"01"); code.put('A',"001"); code.put('N',"000"); break;
-            case 78:  code.put('T',"1"); code.put('G',"01"); code.put('A',"001"); code.put('C',"000"); break;
-            case 79:  code.put('T',"1"); code.put('G',"01"); code.put('A',"001"); code.put('N',"000"); break;
-            case 80:  code.put('T',"1"); code.put('N',"01"); code.put('A',"001"); code.put('C',"000"); break;
-            case 81:  code.put('T',"1"); code.put('N',"01"); code.put('A',"001"); code.put('G',"000"); break;
-            case 82:  code.put('N',"1"); code.put('A',"01"); code.put('C',"001"); code.put('G',"000"); break;
-            case 83:  code.put('N',"1"); code.put('A',"01"); code.put('C',"001"); code.put('T',"000"); break;
-            case 84:  code.put('N',"1"); code.put('C',"01"); code.put('A',"001"); code.put('G',"000"); break;
-            case 85:  code.put('N',"1"); code.put('C',"01"); code.put('A',"001"); code.put('T',"000"); break;
-            case 86:  code.put('N',"1"); code.put('G',"01"); code.put('A',"001"); code.put('C',"000"); break;
-            case 87:  code.put('N',"1"); code.put('G',"01"); code.put('A',"001"); code.put('T',"000"); break;
-            case 88:  code.put('N',"1"); code.put('T',"01"); code.put('A',"001"); code.put('C',"000"); break;
-            case 89:  code.put('N',"1"); code.put('T',"01"); code.put('A',"001"); code.put('G',"000"); break;
-            
-            // 5 Unique Characters (Line)
-            case 90:  code.put('A',"1"); code.put('C',"01"); code.put('G',"001"); code.put('T',"0001"); code.put('N',"0000"); break;
-            case 91:  code.put('A',"1"); code.put('C',"01"); code.put('T',"001"); code.put('G',"0001"); code.put('N',"0000"); break;
-            case 92:  code.put('A',"1"); code.put('C',"01"); code.put('N',"001"); code.put('G',"0001"); code.put('T',"0000"); break;
-            case 93:  code.put('A',"1"); code.put('G',"01"); code.put('C',"001"); code.put('T',"0001"); code.put('N',"0000"); break;
-            case 94:  code.put('A',"1"); code.put('G',"01"); code.put('T',"001"); code.put('C',"0001"); code.put('N',"0000"); break;
-            case 95:  code.put('A',"1"); code.put('G',"01"); code.put('N',"001"); code.put('C',"0001"); code.put('T',"0000"); break;
-            case 96:  code.put('A',"1"); code.put('T',"01"); code.put('C',"001"); code.put('G',"0001"); code.put('N',"0000"); break;
-            case 97:  code.put('A',"1"); code.put('T',"01"); code.put('G',"001"); code.put('C',"0001"); code.put('N',"0000"); break;
-            case 98:  code.put('A',"1"); code.put('T',"01"); code.put('N',"001"); code.put('C',"0001"); code.put('G',"0000"); break;
-            case 99:  code.put('A',"1"); code.put('N',"01"); code.put('C',"001"); code.put('G',"0001"); code.put('T',"0000"); break;
-            case 100: code.put('A',"1"); code.put('N',"01"); code.put('G',"001"); code.put('C',"0001"); code.put('T',"0000"); break;
-            case 101: code.put('A',"1"); code.put('N',"01"); code.put('T',"001"); code.put('C',"0001"); code.put('G',"0000"); break;
-            case 102: code.put('C',"1"); code.put('A',"01"); code.put('G',"001"); code.put('T',"0001"); code.put('N',"0000"); break;
-            case 103: code.put('C',"1"); code.put('A',"01"); code.put('T',"001"); code.put('G',"0001"); code.put('N',"0000"); break;
-            case 104: code.put('C',"1"); code.put('A',"01"); code.put('N',"001"); code.put('G',"0001"); code.put('T',"0000"); break;
-            case 105: code.put('C',"1"); code.put('G',"01"); code.put('A',"001"); code.put('T',"0001"); code.put('N',"0000"); break;
-            case 106: code.put('C',"1"); code.put('G',"01"); code.put('T',"001"); code.put('A',"0001"); code.put('N',"0000"); break;
-            case 107: code.put('C',"1"); code.put('G',"01"); code.put('N',"001"); code.put('A',"0001"); code.put('T',"0000"); break;
-            case 108: code.put('C',"1"); code.put('T',"01"); code.put('A',"001"); code.put('G',"0001"); code.put('N',"0000"); break;
-            case 109: code.put('C',"1"); code.put('T',"01"); code.put('G',"001"); code.put('A',"0001"); code.put('N',"0000"); break;
-            case 110: code.put('C',"1"); code.put('T',"01"); code.put('N',"001"); code.put('A',"0001"); code.put('G',"0000"); break;
-            case 111: code.put('C',"1"); code.put('N',"01"); code.put('A',"001"); code.put('G',"0001"); code.put('T',"0000"); break;
-            case 112: code.put('C',"1"); code.put('N',"01"); code.put('G',"001"); code.put('A',"0001"); code.put('T',"0000"); break;
-            case 113: code.put('C',"1"); code.put('N',"01"); code.put('T',"001"); code.put('A',"0001"); code.put('G',"0000"); break;
-            case 114: code.put('G',"1"); code.put('A',"01"); code.put('C',"001"); code.put('T',"0001"); code.put('N',"0000"); break;
-            case 115: code.put('G',"1"); code.put('A',"01"); code.put('T',"001"); code.put('C',"0001"); code.put('N',"0000"); break;
-            case 116: code.put('G',"1"); code.put('A',"01"); code.put('N',"001"); code.put('C',"0001"); code.put('T',"0000"); break;
-            case 117: code.put('G',"1"); code.put('C',"01"); code.put('A',"001"); code.put('T',"0001"); code.put('N',"0000"); break;
-            case 118: code.put('G',"1"); code.put('C',"01"); code.put('T',"001"); code.put('A',"0001"); code.put('N',"0000"); break;
-            case 119: code.put('G',"1"); code.put('C',"01"); code.put('N',"001"); code.put('A',"0001"); code.put('T',"0000"); break;
-            case 120: code.put('G',"1"); code.put('T',"01"); code.put('A',"001"); code.put('C',"0001"); code.put('N',"0000"); break;
-            case 121: code.put('G',"1"); code.put('T',"01"); code.put('C',"001"); code.put('A',"0001"); code.put('N',"0000"); break;
-            case 122: code.put('G',"1"); code.put('T',"01"); code.put('N',"001"); code.put('A',"0001"); code.put('C',"0000"); break;
-            case 123: code.put('G',"1"); code.put('N',"01"); code.put('A',"001"); code.put('C',"0001"); code.put('T',"0000"); break;
-            case 124: code.put('G',"1"); code.put('N',"01"); code.put('C',"001"); code.put('A',"0001"); code.put('T',"0000"); break;
-            case 125: code.put('G',"1"); code.put('N',"01"); code.put('T',"001"); code.put('A',"0001"); code.put('C',"0000"); break;
-            case 126: code.put('T',"1"); code.put('A',"01"); code.put('C',"001"); code.put('G',"0001"); code.put('N',"0000"); break;
-            case 127: code.put('T',"1"); code.put('A',"01"); code.put('G',"001"); code.put('C',"0001"); code.put('N',"0000"); break;
-            case 128: code.put('T',"1"); code.put('A',"01"); code.put('N',"001"); code.put('C',"0001"); code.put('G',"0000"); break;
-            case 129: code.put('T',"1"); code.put('C',"01"); code.put('A',"001"); code.put('G',"0001"); code.put('N',"0000"); break;
-            case 130: code.put('T',"1"); code.put('C',"01"); code.put('G',"001"); code.put('A',"0001"); code.put('N',"0000"); break;
-            case 131: code.put('T',"1"); code.put('C',"01"); code.put('N',"001"); code.put('A',"0001"); code.put('G',"0000"); break;
-            case 132: code.put('T',"1"); code.put('G',"01"); code.put('A',"001"); code.put('C',"0001"); code.put('N',"0000"); break;
-            case 133: code.put('T',"1"); code.put('G',"01"); code.put('C',"001"); code.put('A',"0001"); code.put('N',"0000"); break;
-            case 134: code.put('T',"1"); code.put('G',"01"); code.put('N',"001"); code.put('A',"0001"); code.put('C',"0000"); break;
-            case 135: code.put('T',"1"); code.put('N',"01"); code.put('A',"001"); code.put('C',"0001"); code.put('G',"0000"); break;
-            case 136: code.put('T',"1"); code.put('N',"01"); code.put('C',"001"); code.put('A',"0001"); code.put('G',"0000"); break;
-            case 137: code.put('T',"1"); code.put('N',"01"); code.put('G',"001"); code.put('A',"0001"); code.put('C',"0000"); break;
-            case 138: code.put('N',"1"); code.put('A',"01"); code.put('C',"001"); code.put('G',"0001"); code.put('T',"0000"); break;
-            case 139: code.put('N',"1"); code.put('A',"01"); code.put('G',"001"); code.put('C',"0001"); code.put('T',"0000"); break;
-            case 140: code.put('N',"1"); code.put('A',"01"); code.put('T',"001"); code.put('C',"0001"); code.put('G',"0000"); break;
-            case 141: code.put('N',"1"); code.put('C',"01"); code.put('A',"001"); code.put('G',"0001"); code.put('T',"0000"); break;
-            case 142: code.put('N',"1"); code.put('C',"01"); code.put('G',"001"); code.put('A',"0001"); code.put('T',"0000"); break;
-            case 143: code.put('N',"1"); code.put('C',"01"); code.put('T',"001"); code.put('A',"0001"); code.put('G',"0000"); break;
-            case 144: code.put('N',"1"); code.put('G',"01"); code.put('A',"001"); code.put('C',"0001"); code.put('T',"0000"); break;
-            case 145: code.put('N',"1"); code.put('G',"01"); code.put('C',"001"); code.put('A',"0001"); code.put('T',"0000"); break;
-            case 146: code.put('N',"1"); code.put('G',"01"); code.put('T',"001"); code.put('A',"0001"); code.put('C',"0000"); break;
-            case 147: code.put('N',"1"); code.put('T',"01"); code.put('A',"001"); code.put('C',"0001"); code.put('G',"0000"); break;
-            case 148: code.put('N',"1"); code.put('T',"01"); code.put('C',"001"); code.put('A',"0001"); code.put('G',"0000"); break;
-            case 149: code.put('N',"1"); code.put('T',"01"); code.put('G',"001"); code.put('A',"0001"); code.put('C',"0000"); break;
-            
-            // 5 Unique Characters (Bend 1)
-            case 150: code.put('A',"11"); code.put('C',"10"); code.put('G',"01"); code.put('T',"001"); code.put('N',"000"); break;
-            case 151: code.put('A',"11"); code.put('C',"10"); code.put('T',"01"); code.put('G',"001"); code.put('N',"000"); break;
-            case 152: code.put('A',"11"); code.put('G',"10"); code.put('T',"01"); code.put('C',"001"); code.put('N',"000"); break;
-            case 153: code.put('C',"11"); code.put('G',"10"); code.put('T',"01"); code.put('A',"001"); code.put('N',"000"); break;
-            case 154: code.put('A',"11"); code.put('C',"10"); code.put('N',"01"); code.put('G',"001"); code.put('T',"000"); break;
-            case 155: code.put('A',"11"); code.put('G',"10"); code.put('N',"01"); code.put('C',"001"); code.put('T',"000"); break;
-            case 156: code.put('C',"11"); code.put('G',"10"); code.put('N',"01"); code.put('A',"001"); code.put('T',"000"); break;
-            case 157: code.put('A',"11"); code.put('T',"10"); code.put('N',"01"); code.put('C',"001"); code.put('G',"000"); break;
-            case 158: code.put('C',"11"); code.put('T',"10"); code.put('N',"01"); code.put('A',"001"); code.put('G',"000"); break;
-            case 159: code.put('G',"11"); code.put('T',"10"); code.put('N',"01"); code.put('A',"001"); code.put('C',"000"); break;
-            
-            // 5 Unique Characters (Bend 2)
-            case 160: code.put('A',"1"); code.put('C',"011"); code.put('G',"010"); code.put('T',"001"); code.put('N',"000"); break;
-            case 161: code.put('C',"1"); code.put('A',"011"); code.put('G',"010"); code.put('T',"001"); code.put('N',"000"); break;
-            case 162: code.put('G',"1"); code.put('A',"011"); code.put('C',"010"); code.put('T',"001"); code.put('N',"000"); break;
-            case 163: code.put('T',"1"); code.put('A',"011"); code.put('C',"010"); code.put('G',"001"); code.put('N',"000"); break;
-            case 164: code.put('N',"1"); code.put('A',"011"); code.put('C',"010"); code.put('G',"001"); code.put('T',"000"); break;
-            
-            // Out of Bounds
-            default: System.err.println("INVALID TREE TOPOLOGY"); System.exit(-1);
+    public static void decodeSegment( DataInput in, int top, int numChars, byte[] dest ) throws IOException {
+        if(top < 5) {
+            Arrays.fill(dest,0,numChars,(byte)SYMBOLS[top]);
+            return;
+        }
+        if(top >= NUMTOPS) {
+            throw new CorruptStreamException("Unrecognized topology: " + top);
+        }
+        // look up the next MAX_LEN bits, refilling the bit buffer only when the code is longer than what it holds (so we
+        // never read past the segment's last byte)
+        int buf = 0;
+        int nbits = 0;
+        for(int printed = 0; printed < numChars; ++printed) {
+            while(true) {
+                int window = (nbits >= Topologies.MAX_LEN) ? (buf >>> (nbits-Topologies.MAX_LEN)) : (buf << (Topologies.MAX_LEN-nbits));
+                window &= (1 << Topologies.MAX_LEN) - 1;
+                int len = Topologies.decodeLength(top,window);
+                if(len <= nbits) {
+                    dest[printed] = (byte)SYMBOLS[Topologies.decodeSymbol(top,window)];
+                    nbits -= len;
+                    buf &= (1 << nbits) - 1;
+                    break;
+                }
+                buf = (buf << 8) | (in.readByte() & 0xFF);
+                nbits += 8;
+            }
         }
-        return code;
     }
-}
-
-/* Helper Class: Node
- */
-class Node {
-    public char symbol;
-    public Node c0;
-    public Node c1;
-    public Node(char s) {
-        symbol = s; c0 = null; c1 = null;
+    
+    /* Given a symbol, return its position in SYMBOLS
+     * INPUT:  A symbol ('A', 'C', 'G', 'T', or 'N')
+     * OUTPUT: Its index in SYMBOLS, or -1 if it is not a valid symbol
+     */
+    public static int symbolIndex( char c ) {
+        return (c < 256) ? SymbolScan.INDEX[c] : -1; // a table lookup instead of a chain of compares (see SymbolScan.java)
     }
 }
@@ -0,0 +1,157 @@
+/* AUTHOR: Niema Moshiri
+ * Embeddable HuffSplit Codec
+ *
+ * In-process API for compressing and decompressing DNA (A, C, G, T, and N) without launching a JVM per call:
+ *
+ *     HuffSplitCodec codec = new HuffSplitCodec();
+ *     byte[] hsf = codec.compress(dna);
+ *     byte[] dna2 = codec.decompress(hsf);
+ *
+ * The output is the same as "java HuffSplit compress" (or "compress <in_file> --bwt" for new HuffSplitCodec(true)), and
+ * decompress reads both. Errors never exit the JVM: bad input throws an InvalidSymbolException, and a malformed or
+ * truncated HuffSplit stream throws a CorruptStreamException (both are HuffSplitExceptions, which are IOExceptions).
+ * The byte[] and ByteBuffer decompress methods check every segment length against the rest of the input and cap the
+ * output (see DecodeGuard.java), so a corrupt length throws instead of running out of memory. The default cap is a
+ * quarter of the maximum heap (the output buffer grows by doubling and is copied at the end); pass a larger one to the
+ * constructor, or use the stream methods, for bigger messages.
+ *
+ * A codec has no mutable state, and the topology tables it uses (see Topologies.java) are immutable, so one codec can
+ * be shared by any number of threads. Each thread's buffers are reused across calls (see CodecWorkspace.java), so the
+ * byte[] and ByteBuffer methods only allocate their result once warmed up. Empty input gives empty output in both
+ * directions.
+ *
+ * After each call, a thread keeps at most ~21 MB of buffers (CodecWorkspace.RETAIN_BLOCKS backtrack blocks, and
+ * CodecWorkspace.RETAIN_BUFFER bytes of each other buffer), however big the message was; larger messages allocate
+ * what they need above that on every call. A thread that is done with the codec, e.g. a pool thread at the end of a
+ * task, should call CodecWorkspace.release() to drop its buffers altogether:
+ *
+ *     try {
+ *         out = codec.compress(dna);
+ *     } finally {
+ *         CodecWorkspace.release();
+ *     }
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+
+public final class HuffSplitCodec {
+    // instance variables
+    private final boolean bwt;      // apply the Burrows-Wheeler transform before compressing
+    private final long maxOutput;   // cap on the output of the byte[] and ByteBuffer decompress methods
+    
+    /* Constructors
+     */
+    public HuffSplitCodec() {
+        this(false);
+    }
+    public HuffSplitCodec( boolean useBWT ) {
+        this(useBWT,Runtime.getRuntime().maxMemory() / 4);
+    }
+    public HuffSplitCodec( boolean useBWT, long maxDecompressed ) {
+        bwt = useBWT;
+        maxOutput = Math.min(maxDecompressed,DecodeGuard.MAX_ARRAY);
+    }
+    
+    /* Compress a DNA message
+     * INPUT:  The message (one byte per symbol)
+     * OUTPUT: The HuffSplit stream
+     */
+    public byte[] compress( byte[] in ) throws HuffSplitException {
+        return compress(in,0,in.length);
+    }
+    
+    /* Compress the len symbols of a DNA message starting at off
+     */
+    public byte[] compress( byte[] in, int off, int len ) throws HuffSplitException {
+        if(len == 0) {
+            return new byte[0];
+        }
+        CodecWorkspace ws = CodecWorkspace.get();
+        CodecWorkspace.Sink out = ws.sink();
+        try {
+            HuffSplit.compress(in,off,len,out,false,bwt);
+            return out.toByteArray();
+        } catch(HuffSplitException e) {
+            throw e;
+        } catch(IOException e) { // can't happen when writing to memory
+            throw new HuffSplitException("Compression failed",e);
+        } finally {
+            ws.trim();
+        }
+    }
+    
+    /* Compress the remaining bytes of a buffer (its position is moved to its limit)
+     * OUTPUT: A new buffer holding the HuffSplit stream (ready to be read)
+     */
+    public ByteBuffer compress( ByteBuffer in ) throws HuffSplitException {
+        return ByteBuffer.wrap(compress(remaining(in)));
+    }
+    
+    /* Compress everything left in a stream (the DP needs the whole message, so it is read into memory first)
+     * INPUT:  The stream to read the message from, and the stream to write the HuffSplit stream to (neither is closed)
+     */
+    public void compress( InputStream in, OutputStream out ) throws IOException {
+        out.write(compress(in.readAllBytes()));
+    }
+    
+    /* Decompress a HuffSplit stream
+     * INPUT:  The HuffSplit stream
+     * OUTPUT: The DNA message (one byte per symbol)
+     */
+    public byte[] decompress( byte[] in ) throws HuffSplitException {
+        return decompress(in,0,in.length);
+    }
+    
+    /* Decompress the len bytes of a HuffSplit stream starting at off
+     */
+    public byte[] decompress( byte[] in, int off, int len ) throws HuffSplitException {
+        CodecWorkspace ws = CodecWorkspace.get();
+        CodecWorkspace.Sink out = ws.sink();
+        try {
+            HuffSplit.decompress(new DataInputStream(new ByteArrayInputStream(in,off,len)),out,null,new DecodeGuard(true,maxOutput));
+            return out.toByteArray();
+        } catch(EOFException e) {
+            throw new CorruptStreamException("Truncated HuffSplit stream",e);
+        } catch(HuffSplitException e) {
+            throw e;
+        } catch(IOException e) { // can't happen when reading from and writing to memory
+            throw new HuffSplitException("Decompression failed",e);
+        } finally {
+            ws.trim();
+        }
+    }
+    
+    /* Decompress the remaining bytes of a buffer (its position is moved to its limit)
+     * OUTPUT: A new buffer holding the DNA message (ready to be read)
+     */
+    public ByteBuffer decompress( ByteBuffer in ) throws HuffSplitException {
+        return ByteBuffer.wrap(decompress(remaining(in)));
+    }
+    
+    /* Decompress everything left in a stream (segments are decoded and written one at a time, except for BWT streams)
+     * INPUT:  The stream to read the HuffSplit stream from, and the stream to write the message to (neither is closed)
+     */
+    public void decompress( InputStream in, OutputStream out ) throws IOException {
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out,1 << 16));
+        try {
+            HuffSplit.decompress(new DataInputStream(new BufferedInputStream(in,1 << 16)),dout);
+        } catch(EOFException e) {
+            throw new CorruptStreamException("Truncated HuffSplit stream",e);
+        } finally {
+            CodecWorkspace.get().trim();
+        }
+        dout.flush();
+    }
+    
+    /* The remaining bytes of a buffer (without a copy if it is a whole heap array)
+     */
+    private static byte[] remaining( ByteBuffer in ) {
+        if(in.hasArray() && in.arrayOffset() == 0 && in.position() == 0 && in.remaining() == in.array().length) {
+            in.position(in.limit());
+            return in.array();
+        }
+        byte[] b = new byte[in.remaining()];
+        in.get(b);
+        return b;
+    }
+}
@@ -0,0 +1,213 @@
+/* AUTHOR: Niema Moshiri
+ * Java Flight Recorder Events
+ *
+ * USAGE:
+ * -Record:     java -XX:StartFlightRecording=filename=huffsplit.jfr HuffSplit compress <in_file>
+ * -Inspect:    jfr print --categories HuffSplit huffsplit.jfr
+ *
+ * compress and decompress emit these events (category "HuffSplit"), so their work lines up with GC, I/O, and safepoints
+ * on the same timeline:
+ * -huffsplit.Phase:          one per phase (read (compress), bwt, forward_dp, backtrack, encode, decode, inverse_bwt), from its
+ *                            start to its end
+ * -huffsplit.DpProgress:     one per PROGRESS_INTERVAL positions of the forward DP: positions per second, and how many
+ *                            topologies are still alive (cost within a segment header of the cheapest one, so they can
+ *                            still be on the optimal path)
+ * -huffsplit.SegmentEncoded: one per encoded segment: topology, length (symbols), and bytes written
+ * -huffsplit.SegmentDecoded: one per decoded segment: topology and length (symbols)
+ *
+ * Loading the first JFR event class initializes the JVM's event machinery, which costs ~0.4 s, more than a whole run on
+ * a small file. So callers only ever see Span, a plain class whose methods do nothing, and the event classes are only
+ * loaded (through Recorder) once the flight recorder has been initialized (by -XX:StartFlightRecording, jcmd JFR.start,
+ * or the API), or right away if the huffsplit.jfr system property is true. Until then, each event costs one check of a
+ * flag. Once they are loaded, events are created, begun, and committed the usual JFR way (shouldCommit is checked before
+ * computing any expensive field), and stack traces are off, since they are the expensive part of a recorded event.
+ */
+import jdk.jfr.*;
+
+public final class HuffSplitEvents {
+    // instance variables
+    public static final int PROGRESS_INTERVAL = 1 << 20; // DP positions per DpProgress event
+    private static final boolean FORCED = Boolean.getBoolean("huffsplit.jfr"); // load the event classes up front
+    private static final Span OFF = new Span();          // what every event is while nothing is recording
+    
+    private HuffSplitEvents() {}
+    
+    /* Whether events should be created (FlightRecorder.isInitialized only reads a flag, and doesn't load any events)
+     */
+    private static boolean enabled() {
+        return FORCED || FlightRecorder.isInitialized();
+    }
+    
+    /* Start a phase event (commit it when the phase is done)
+     */
+    public static Span phase( String command, String name ) {
+        return enabled() ? Recorder.phase(command,name) : OFF;
+    }
+    
+    /* Start a segment event (commit it with the segment's topology and length when it is done)
+     */
+    public static Span segmentEncoded() {
+        return enabled() ? Recorder.segmentEncoded() : OFF;
+    }
+    public static Span segmentDecoded() {
+        return enabled() ? Recorder.segmentDecoded() : OFF;
+    }
+    
+    /* Commit a DP progress event (if it is being recorded) and start the next one
+     * INPUT:  The event of the interval that just ended (or null for the first one), the DP position, and its cost
+     *         column and cheapest topology
+     * OUTPUT: The event of the next interval
+     */
+    public static Span progress( Span prev, long position, int[] cost, int best ) {
+        if(prev != null) {
+            prev.commit(position,cost,best);
+        }
+        return enabled() ? Recorder.progress(position) : OFF;
+    }
+    
+    /* A started event (the methods that don't apply to its kind of event, and all of them while nothing is recording,
+     * do nothing)
+     */
+    public static class Span {
+        /* Commit a phase event
+         */
+        public void commit() {}
+        
+        /* Commit a segment event
+         * INPUT:  The segment's topology, its length (symbols), and the bytes written (encoded segments only)
+         */
+        public void commit( int topology, int length ) {}
+        public void commit( int topology, int length, int bytes ) {}
+        
+        /* Commit a DP progress event
+         * INPUT:  The DP position, and its cost column and cheapest topology
+         */
+        void commit( long position, int[] cost, int best ) {}
+    }
+    
+    /* Creates the JFR events (the only code that touches an event class, so none is loaded until it is first called)
+     */
+    private static final class Recorder {
+        static Span phase( String command, String name ) {
+            Phase e = new Phase();
+            e.command = command;
+            e.phase = name;
+            e.begin();
+            return new Span() {
+                public void commit() {
+                    e.commit();
+                }
+            };
+        }
+        
+        static Span segmentEncoded() {
+            SegmentEncoded e = new SegmentEncoded();
+            e.begin();
+            return new Span() {
+                public void commit( int topology, int length, int bytes ) {
+                    e.end();
+                    if(e.shouldCommit()) {
+                        e.topology = topology;
+                        e.length = length;
+                        e.bytes = bytes;
+                        e.commit();
+                    }
+                }
+            };
+        }
+        
+        static Span segmentDecoded() {
+            SegmentDecoded e = new SegmentDecoded();
+            e.begin();
+            return new Span() {
+                public void commit( int topology, int length ) {
+                    e.end();
+                    if(e.shouldCommit()) {
+                        e.topology = topology;
+                        e.length = length;
+                        e.commit();
+                    }
+                }
+            };
+        }
+        
+        static Span progress( long start ) {
+            DpProgress e = new DpProgress();
+            long startNanos = System.nanoTime();
+            e.begin();
+            return new Span() {
+                void commit( long position, int[] cost, int best ) {
+                    e.end();
+                    if(e.shouldCommit()) {
+                        e.position = position;
+                        e.positionsPerSecond = (position - start) / ((System.nanoTime() - startNanos) / 1e9);
+                        int switchCost = cost[best] + (8 - cost[best] % 8) % 8 + 72; // what switching from the cheapest costs
+                        for(int t = 0; t < cost.length; ++t) {
+                            if(cost[t] != -1 && cost[t] < switchCost) {
+                                ++e.liveTopologies;
+                            }
+                        }
+                        e.commit();
+                    }
+                }
+            };
+        }
+    }
+    
+    /* A phase of compress or decompress
+     */
+    @Name("huffsplit.Phase")
+    @Label("HuffSplit Phase")
+    @Category("HuffSplit")
+    @StackTrace(false)
+    public static final class Phase extends Event {
+        @Label("Command")
+        public String command;
+        @Label("Phase")
+        public String phase;
+    }
+    
+    /* Progress of the forward DP over the last PROGRESS_INTERVAL positions
+     */
+    @Name("huffsplit.DpProgress")
+    @Label("HuffSplit DP Progress")
+    @Category("HuffSplit")
+    @StackTrace(false)
+    public static final class DpProgress extends Event {
+        @Label("Position")
+        public long position;
+        @Label("Positions per Second")
+        public double positionsPerSecond;
+        @Label("Live Topologies")
+        public int liveTopologies;
+    }
+    
+    /* An encoded segment
+     */
+    @Name("huffsplit.SegmentEncoded")
+    @Label("HuffSplit Segment Encoded")
+    @Category("HuffSplit")
+    @StackTrace(false)
+    public static final class SegmentEncoded extends Event {
+        @Label("Topology")
+        public int topology;
+        @Label("Length")
+        public int length;
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+    }
+    
+    /* A decoded segment
+     */
+    @Name("huffsplit.SegmentDecoded")
+    @Label("HuffSplit Segment Decoded")
+    @Category("HuffSplit")
+    @StackTrace(false)
+    public static final class SegmentDecoded extends Event {
+        @Label("Topology")
+        public int topology;
+        @Label("Length")
+        public int length;
+    }
+}
@@ -0,0 +1,21 @@
+/* AUTHOR: Niema Moshiri
+ * Base Exception of the HuffSplit Codec
+ *
+ * Thrown instead of exiting the JVM by the stream-based compress/decompress (and so by HuffSplitCodec). It is an
+ * IOException, so callers that already handle I/O errors don't need another catch block.
+ */
+import java.io.IOException;
+
+public class HuffSplitException extends IOException {
+    // instance variables
+    private static final long serialVersionUID = 1L;
+    
+    /* Constructors
+     */
+    public HuffSplitException( String message ) {
+        super(message);
+    }
+    public HuffSplitException( String message, Throwable cause ) {
+        super(message,cause);
+    }
+}
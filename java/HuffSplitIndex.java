@@ -0,0 +1,384 @@
+/* AUTHOR: Niema Moshiri
+ * Segment Index for HuffSplit Files
+ *
+ * USAGE:
+ * -Build:      java HuffSplit index <huffsplit_file>
+ * -Stats:      java HuffSplit stats <huffsplit_file> [start-end]
+ *
+ * INDEX FILE OUTPUT FORMAT (<huffsplit_file>.hsi):
+ * -4 bytes: MAGIC ("HSI1")
+ * -8 bytes: the size of the HuffSplit file when the index was built
+ * -8 bytes: the modification time of the HuffSplit file when the index was built (milliseconds since the epoch)
+ * -4 bytes: an int telling us how many segments are in the HuffSplit file
+ * -Each segment then has 33 bytes:
+ * --1 byte: the topology of the segment (same as its InfoByte)
+ * --4 bytes: the number of symbols in the segment (same as its numChars)
+ * --8 bytes: the byte offset of the segment's InfoByte in the HuffSplit file
+ * --5 x 4 bytes: the number of A, C, G, T, and N in the segment (in that order, see HuffSplit.SYMBOLS)
+ *
+ * Regions are 0-based and half-open ("100-200" is the 100 symbols starting at position 100).
+ * Stats only decode the (at most 2) segments that are partially covered by the region.
+ *
+ * An index is only used if the size and modification time it was built for still match the HuffSplit file (the same
+ * stamp guards the FM-index, see FMIndex.java); otherwise, e.g., after the file is compressed again, it is ignored with
+ * a warning, as if it didn't exist.
+ */
+import java.io.*;
+import java.util.*;
+
+public class HuffSplitIndex {
+    // instance variables
+    public static final int MAGIC = 0x48534931; // "HSI1"
+    public int numSegs;      // number of segments
+    public int[] top;        // top[s] is the topology of segment s
+    public int[] numChars;   // numChars[s] is the number of symbols in segment s
+    public long[] start;     // start[s] is the position (in the uncompressed message) of the first symbol of segment s
+    public long[] offset;    // offset[s] is the byte offset of segment s in the HuffSplit file
+    public int[][] counts;   // counts[s][i] is the number of SYMBOLS[i] in segment s
+    
+    /* Constructor: an index with room for n segments
+     */
+    public HuffSplitIndex( int n ) {
+        numSegs = n;
+        top = new int[n];
+        numChars = new int[n];
+        start = new long[n+1];
+        offset = new long[n];
+        counts = new int[n][HuffSplit.SYMBOLS.length];
+    }
+    
+    /* Set the header fields of segment s (segments must be set in order)
+     */
+    public void set( int s, int t, int n, long off ) {
+        top[s] = t;
+        numChars[s] = n;
+        offset[s] = off;
+        start[s+1] = start[s] + n;
+    }
+    
+    /* Name the format of a HuffSplit file that doesn't start with a topology
+     * INPUT:  Its first byte (at least NUMTOPS)
+     * OUTPUT: The name of its format (or null if it isn't one)
+     */
+    static String format( int marker ) {
+        switch(marker) {
+            case BWT.BWT_MARKER:                return "BWT-transformed";
+            case Order1Coder.ORDER1_MARKER:     return "an order-1 file";
+            case RansCoder.RANS_MARKER:         return "a rANS file";
+            case AlphabetCoder.GENERAL_MARKER:  return "a general-alphabet file";
+            case AdaptiveCoder.ADAPTIVE_MARKER: return "an adaptive Huffman file";
+            default:                            return null;
+        }
+    }
+    
+    /* The error for a byte that should be a segment's topology but isn't one
+     * INPUT:  The HuffSplit file, the byte (at least NUMTOPS), and whether it is the first byte of the file
+     * OUTPUT: The error message (the file is in another format if the byte is its first one and a known marker)
+     */
+    static String notTopology( String HSFFILE, int t, boolean first ) {
+        if(first && format(t) != null) {
+            return "\"" + HSFFILE + "\" is " + format(t) + ", which isn't supported here (decompress it first)";
+        }
+        return "\"" + HSFFILE + "\" is corrupt (invalid topology " + t + ")";
+    }
+    
+    /* Build the index of a HuffSplit file by decoding it once
+     * INPUT:  The HuffSplit file
+     * OUTPUT: Its segment index
+     */
+    public static HuffSplitIndex build( String INFILE ) {
+        ArrayList<int[]> segs = new ArrayList<int[]>();
+        ArrayList<Long> offs = new ArrayList<Long>();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(INFILE))));
+            long off = 0;
+            byte[] buf = new byte[0];
+            while(true) {
+                int t;
+                try {
+                    t = (in.readByte() & 0xFF);
+                } catch(EOFException e) {
+                    break;
+                }
+                if(t >= HuffSplit.NUMTOPS) { // only files of topology segments can be indexed
+                    if(off != 0 || format(t) == null) { // the markers are only first bytes
+                        System.err.println("ERROR: \"" + INFILE + "\" is corrupt (invalid topology " + t + " at byte " + off + ")"); System.exit(-1);
+                    }
+                    System.err.println("ERROR: \"" + INFILE + "\" is " + format(t) + ", so it can't be indexed (decompress it first)"); System.exit(-1);
+                }
+                int n = in.readInt();
+                int[] seg = new int[2+HuffSplit.SYMBOLS.length];
+                seg[0] = t;
+                seg[1] = n;
+                if(t >= 5) {
+                    if(buf.length < n) {
+                        buf = new byte[n];
+                    }
+                    CountingStream cin = new CountingStream(in);
+                    HuffSplit.decodeSegment(new DataInputStream(cin),t,n,buf);
+                    for(int i = 0; i < n; ++i) {
+                        ++seg[2+HuffSplit.symbolIndex((char)buf[i])];
+                    }
+                    offs.add(off);
+                    off += 5 + cin.count;
+                }
+                else {
+                    seg[2+t] = n;
+                    offs.add(off);
+                    off += 5;
+                }
+                segs.add(seg);
+            }
+            in.close();
+        } catch(FileNotFoundException e) {
+            System.err.println("ERROR: File \"" + INFILE + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while reading \"" + INFILE + "\"!"); System.exit(-1);
+        }
+        HuffSplitIndex index = new HuffSplitIndex(segs.size());
+        for(int s = 0; s < segs.size(); ++s) {
+            int[] seg = segs.get(s);
+            index.set(s,seg[0],seg[1],offs.get(s));
+            for(int i = 0; i < HuffSplit.SYMBOLS.length; ++i) {
+                index.counts[s][i] = seg[2+i];
+            }
+        }
+        return index;
+    }
+    
+    /* Write the stamp of a HuffSplit file (its size and modification time) to the header of one of its index files
+     */
+    static void writeStamp( DataOutputStream out, String HSFFILE ) throws IOException {
+        File hsf = new File(HSFFILE);
+        out.writeLong(hsf.length());
+        out.writeLong(hsf.lastModified());
+    }
+    
+    /* Check whether an index file was built from a HuffSplit file as it is now
+     * INPUT:  The index file, its magic number, and the HuffSplit file
+     * OUTPUT: true if the index file exists, starts with the magic number, and has the HuffSplit file's stamp
+     */
+    static boolean isCurrent( String INDEXFILE, int magic, String HSFFILE ) {
+        File index = new File(INDEXFILE);
+        if(!index.exists()) {
+            return false;
+        }
+        File hsf = new File(HSFFILE);
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index),20))) {
+            return in.readInt() == magic && in.readLong() == hsf.length() && in.readLong() == hsf.lastModified();
+        } catch(IOException e) {
+            return false;
+        }
+    }
+    
+    /* Check for an index file of a HuffSplit file, and warn if it is out of date
+     * INPUT:  The index file, its magic number, its kind (for the warning), and the HuffSplit file
+     * OUTPUT: true if it can be used (see isCurrent)
+     */
+    static boolean usable( String INDEXFILE, int magic, String kind, String HSFFILE ) {
+        if(isCurrent(INDEXFILE,magic,HSFFILE)) {
+            return true;
+        }
+        if(new File(INDEXFILE).exists()) {
+            System.err.println("WARNING: \"" + INDEXFILE + "\" is out of date (\"" + HSFFILE + "\" changed since the " + kind + " was built)");
+        }
+        return false;
+    }
+    
+    /* Write the index to a file (see file header for format)
+     * INPUT:  The index file, and the HuffSplit file it indexes (which must be complete)
+     */
+    public void write( String OUTFILE, String HSFFILE ) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(OUTFILE))));
+            out.writeInt(MAGIC);
+            writeStamp(out,HSFFILE);
+            out.writeInt(numSegs);
+            for(int s = 0; s < numSegs; ++s) {
+                out.writeByte(top[s]);
+                out.writeInt(numChars[s]);
+                out.writeLong(offset[s]);
+                for(int i = 0; i < HuffSplit.SYMBOLS.length; ++i) {
+                    out.writeInt(counts[s][i]);
+                }
+            }
+            out.close();
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while writing \"" + OUTFILE + "\"!"); System.exit(-1);
+        }
+    }
+    
+    /* Read an index file (see file header for format)
+     */
+    public static HuffSplitIndex read( String INFILE ) {
+        HuffSplitIndex index = null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(INFILE))));
+            if(in.readInt() != MAGIC) {
+                System.err.println("ERROR: \"" + INFILE + "\" isn't a segment index (or is from an older version; run \"index\" to rebuild it)"); System.exit(-1);
+            }
+            in.readLong(); // stamp (checked by isCurrent)
+            in.readLong();
+            index = new HuffSplitIndex(in.readInt());
+            for(int s = 0; s < index.numSegs; ++s) {
+                int t = (in.readByte() & 0xFF);
+                int n = in.readInt();
+                index.set(s,t,n,in.readLong());
+                for(int i = 0; i < HuffSplit.SYMBOLS.length; ++i) {
+                    index.counts[s][i] = in.readInt();
+                }
+            }
+            in.close();
+        } catch(FileNotFoundException e) {
+            System.err.println("ERROR: File \"" + INFILE + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while reading \"" + INFILE + "\"!"); System.exit(-1);
+        }
+        return index;
+    }
+    
+    /* Load the index of a HuffSplit file (from <huffsplit_file>.hsi if it is up to date, otherwise by decoding the file)
+     */
+    public static HuffSplitIndex load( String HSFFILE ) {
+        if(usable(HSFFILE + ".hsi",MAGIC,"index",HSFFILE)) {
+            return read(HSFFILE + ".hsi");
+        }
+        System.err.println("WARNING: No up-to-date index found for \"" + HSFFILE + "\", so decoding the whole file (run \"index\" to build one)");
+        return build(HSFFILE);
+    }
+    
+    /* Return the segment containing position pos of the uncompressed message (binary search over start)
+     */
+    public int segmentAt( long pos ) {
+        int lo = 0;
+        int hi = numSegs-1;
+        while(lo < hi) {
+            int mid = (lo+hi+1) >>> 1;
+            if(start[mid] <= pos) {
+                lo = mid;
+            }
+            else {
+                hi = mid-1;
+            }
+        }
+        return lo;
+    }
+    
+    /* Decode a single segment of a HuffSplit file using the index
+     * INPUT:  The opened HuffSplit file, the segment number, and a buffer with room for its symbols
+     * OUTPUT: The first numChars[s] bytes of dest hold the decoded symbols
+     */
+    public void decodeSegment( RandomAccessFile hsf, int s, byte[] dest ) throws IOException {
+        long end = (s+1 < numSegs) ? offset[s+1] : hsf.length();
+        byte[] data = new byte[(int)(end-offset[s])];
+        hsf.seek(offset[s]);
+        hsf.readFully(data);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data,5,data.length-5));
+        HuffSplit.decodeSegment(in,top[s],numChars[s],dest);
+    }
+    
+    /* Count the symbols of the region [from,to) of the uncompressed message
+     * INPUT:  The HuffSplit file and the region
+     * OUTPUT: The number of each symbol of HuffSplit.SYMBOLS in the region
+     */
+    public long[] composition( String HSFFILE, long from, long to ) {
+        long[] total = new long[HuffSplit.SYMBOLS.length];
+        if(from >= to) {
+            return total;
+        }
+        int first = segmentAt(from);
+        int last = segmentAt(to-1);
+        RandomAccessFile hsf = null;
+        try {
+            for(int s = first; s <= last; ++s) {
+                // fully covered segments are answered from the index
+                if(start[s] >= from && start[s+1] <= to) {
+                    for(int i = 0; i < total.length; ++i) {
+                        total[i] += counts[s][i];
+                    }
+                }
+                
+                // partially covered single-symbol segments are answered from the topology
+                else if(top[s] < 5) {
+                    total[top[s]] += Math.min(to,start[s+1]) - Math.max(from,start[s]);
+                }
+                
+                // partially covered boundary segments need to be decoded
+                else {
+                    if(hsf == null) {
+                        hsf = new RandomAccessFile(HSFFILE,"r");
+                    }
+                    byte[] buf = new byte[numChars[s]];
+                    decodeSegment(hsf,s,buf);
+                    int lo = (int)(Math.max(from,start[s]) - start[s]);
+                    int hi = (int)(Math.min(to,start[s+1]) - start[s]);
+                    for(int i = lo; i < hi; ++i) {
+                        ++total[HuffSplit.symbolIndex((char)buf[i])];
+                    }
+                }
+            }
+            if(hsf != null) {
+                hsf.close();
+            }
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while reading \"" + HSFFILE + "\"!"); System.exit(-1);
+        }
+        return total;
+    }
+    
+    /* Print the base composition of a region of a HuffSplit file
+     * INPUT:  The HuffSplit file and the region ("start-end", or null for the whole message)
+     * OUTPUT: The symbol counts, GC content (of non-N symbols), and N fraction of the region
+     */
+    public static void stats( String HSFFILE, String REGION ) {
+        HuffSplitIndex index = load(HSFFILE);
+        long from = 0;
+        long to = index.start[index.numSegs];
+        if(REGION != null) {
+            try {
+                int dash = REGION.indexOf('-');
+                from = Long.parseLong(REGION.substring(0,dash));
+                to = Long.parseLong(REGION.substring(dash+1));
+            } catch(Exception e) {
+                System.err.println("ERROR: Invalid region: " + REGION + " (must be \"start-end\")"); System.exit(-1);
+            }
+            if(from < 0 || to > index.start[index.numSegs] || from > to) {
+                System.err.println("ERROR: Region " + REGION + " is out of bounds (message length is " + index.start[index.numSegs] + ")"); System.exit(-1);
+            }
+        }
+        long[] total = index.composition(HSFFILE,from,to);
+        long acgt = total[0] + total[1] + total[2] + total[3];
+        System.out.println("Region: " + from + "-" + to);
+        System.out.println("Length: " + (to-from));
+        for(int i = 0; i < HuffSplit.SYMBOLS.length; ++i) {
+            System.out.println(HuffSplit.SYMBOLS[i] + ": " + total[i]);
+        }
+        System.out.println("GC: " + ((acgt == 0) ? 0.0 : (double)(total[1]+total[2])/acgt));
+        System.out.println("N fraction: " + ((to == from) ? 0.0 : (double)total[4]/(to-from)));
+    }
+}
+
+/* Helper Class: CountingStream (an InputStream that counts the bytes read through it)
+ */
+class CountingStream extends FilterInputStream {
+    public long count;
+    public CountingStream(InputStream in) {
+        super(in); count = 0;
+    }
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if(b != -1) {
+            ++count;
+        }
+        return b;
+    }
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b,off,len);
+        if(n > 0) {
+            count += n;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,194 @@
+/* AUTHOR: Niema Moshiri
+ * Long-Running HuffSplit Compression Daemon
+ *
+ * USAGE:
+ * -Serve:      java HuffSplit serve <port> [num_dp_threads]
+ *
+ * ENDPOINTS (bound to 127.0.0.1 only):
+ * -POST /compress[?bwt]  body: the DNA string, response: the HuffSplit file
+ * -POST /decompress      body: the HuffSplit file, response: the DNA string
+ * -GET  /metrics         plain-text queue depth, request counts, and per-endpoint latency histograms
+ *
+ * Each request is handled on its own virtual thread (Java 21+; older JVMs fall back to a cached thread pool), which
+ * only does I/O: the CPU-heavy work (the DP, encoding, and decoding) runs on a bounded pool of platform threads
+ * (default: one per core), so a burst of requests queues up instead of oversubscribing the CPU. That work goes through
+ * HuffSplitCodec, so bad input gets a 400 response instead of stopping the daemon. A DP thread releases its workspace
+ * (see CodecWorkspace.java) after each request, so an idle daemon doesn't hold a backtrack matrix per thread.
+ */
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class HuffSplitServer {
+    // instance variables
+    public static final long[] BUCKETS_MS = {1,2,5,10,20,50,100,200,500,1000,2000,5000,10000,30000,60000}; // histogram upper bounds
+    public static final HuffSplitCodec CODEC = new HuffSplitCodec();         // shared by all requests
+    public static final HuffSplitCodec BWT_CODEC = new HuffSplitCodec(true); // shared by all "?bwt" requests
+    public final ThreadPoolExecutor cpu;                  // bounded pool for the CPU-heavy work
+    public final ConcurrentHashMap<String,AtomicLongArray> latency = new ConcurrentHashMap<String,AtomicLongArray>(); // per-endpoint histogram (last bucket is +Inf)
+    public final AtomicLong errors = new AtomicLong();
+    
+    /* Constructor
+     */
+    public HuffSplitServer( int DP_THREADS ) {
+        cpu = new ThreadPoolExecutor(DP_THREADS,DP_THREADS,0L,TimeUnit.MILLISECONDS,new LinkedBlockingQueue<Runnable>());
+        for(String e : new String[]{"compress","decompress"}) {
+            latency.put(e,new AtomicLongArray(BUCKETS_MS.length+1));
+        }
+    }
+    
+    /* Start the daemon (runs until the JVM is killed)
+     * INPUT:  The port to listen on (on localhost) and the number of DP threads
+     */
+    public static void serve( int PORT, int DP_THREADS ) {
+        if(DP_THREADS < 1) {
+            System.err.println("ERROR: Number of threads must be positive"); System.exit(-1);
+        }
+        HuffSplitServer server = new HuffSplitServer(DP_THREADS);
+        try {
+            HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1",PORT),0);
+            http.createContext("/compress",ex -> server.handle(ex,"compress"));
+            http.createContext("/decompress",ex -> server.handle(ex,"decompress"));
+            http.createContext("/metrics",server::metrics);
+            http.setExecutor(requestExecutor());
+            http.start();
+            System.err.println("Listening on 127.0.0.1:" + http.getAddress().getPort() + " with " + DP_THREADS + " DP thread(s)");
+        } catch(IOException e) {
+            System.err.println("ERROR: Could not listen on port " + PORT + "!"); e.printStackTrace(); System.exit(-1);
+        }
+    }
+    
+    /* Return a virtual-thread-per-task executor if the JVM has one, otherwise a cached thread pool
+     */
+    public static ExecutorService requestExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)m.invoke(null);
+        } catch(ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+    
+    /* Handle a compress or decompress request
+     */
+    public void handle( HttpExchange ex, String endpoint ) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            if(!ex.getRequestMethod().equals("POST")) {
+                respond(ex,405,("ERROR: Use POST for /" + endpoint + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            byte[] body = ex.getRequestBody().readAllBytes();
+            boolean useBWT = flag(ex.getRequestURI().getRawQuery(),"bwt");
+            Future<byte[]> result;
+            if(endpoint.equals("compress")) {
+                if(body.length == 0) {
+                    respond(ex,400,"ERROR: Empty input\n".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                HuffSplitCodec codec = useBWT ? BWT_CODEC : CODEC;
+                result = cpu.submit(() -> {
+                    try {
+                        return codec.compress(body);
+                    } finally {
+                        CodecWorkspace.release();
+                    }
+                });
+            }
+            else {
+                result = cpu.submit(() -> {
+                    try {
+                        return CODEC.decompress(body);
+                    } finally {
+                        CodecWorkspace.release();
+                    }
+                });
+            }
+            byte[] response;
+            try {
+                response = result.get();
+            } catch(ExecutionException e) {
+                errors.incrementAndGet();
+                int code = (e.getCause() instanceof HuffSplitException) ? 400 : 500;
+                respond(ex,code,("ERROR: " + e.getCause().getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            } catch(InterruptedException e) {
+                errors.incrementAndGet();
+                respond(ex,500,"ERROR: Interrupted\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            respond(ex,200,response);
+        } finally {
+            record(endpoint,(System.nanoTime()-t0)/1000000);
+            ex.close();
+        }
+    }
+    
+    /* Check whether a query string sets a flag ("?bwt", "?bwt=1", or "?bwt=true", but not "?bwt=0", "?nobwt", etc.)
+     * INPUT:  The raw query string (or null) and the name of the flag
+     * OUTPUT: true if the flag is set, otherwise false
+     */
+    public static boolean flag( String query, String name ) {
+        if(query == null) {
+            return false;
+        }
+        boolean set = false;
+        for(String param : query.split("&")) {
+            int eq = param.indexOf('=');
+            String key = URLDecoder.decode((eq == -1) ? param : param.substring(0,eq),StandardCharsets.UTF_8);
+            if(key.equals(name)) {
+                String value = (eq == -1) ? "" : URLDecoder.decode(param.substring(eq+1),StandardCharsets.UTF_8);
+                set = !(value.equals("0") || value.equalsIgnoreCase("false"));
+            }
+        }
+        return set;
+    }
+    
+    /* Add a request's latency to its endpoint's histogram
+     */
+    public void record( String endpoint, long ms ) {
+        int b = 0;
+        while(b < BUCKETS_MS.length && ms > BUCKETS_MS[b]) {
+            ++b;
+        }
+        latency.get(endpoint).incrementAndGet(b);
+    }
+    
+    /* Handle a metrics request
+     */
+    public void metrics( HttpExchange ex ) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("queue_depth ").append(cpu.getQueue().size()).append('\n');
+        sb.append("active_dp_threads ").append(cpu.getActiveCount()).append('\n');
+        sb.append("completed_tasks ").append(cpu.getCompletedTaskCount()).append('\n');
+        sb.append("errors ").append(errors.get()).append('\n');
+        for(String e : new String[]{"compress","decompress"}) {
+            AtomicLongArray h = latency.get(e);
+            long cumulative = 0;
+            for(int b = 0; b <= BUCKETS_MS.length; ++b) {
+                cumulative += h.get(b);
+                String le = (b < BUCKETS_MS.length) ? String.valueOf(BUCKETS_MS[b]) : "+Inf";
+                sb.append("latency_ms_bucket{endpoint=\"").append(e).append("\",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append("requests{endpoint=\"").append(e).append("\"} ").append(cumulative).append('\n');
+        }
+        respond(ex,200,sb.toString().getBytes(StandardCharsets.UTF_8));
+        ex.close();
+    }
+    
+    /* Send a response
+     */
+    public static void respond( HttpExchange ex, int code, byte[] body ) throws IOException {
+        ex.sendResponseHeaders(code,(body.length == 0) ? -1 : body.length);
+        if(body.length != 0) {
+            OutputStream os = ex.getResponseBody();
+            os.write(body);
+            os.close();
+        }
+    }
+}
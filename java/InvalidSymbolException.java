@@ -0,0 +1,17 @@
+/* AUTHOR: Niema Moshiri
+ * Exception: the message to compress has a symbol other than A, C, G, T, or N
+ */
+public class InvalidSymbolException extends HuffSplitException {
+    // instance variables
+    private static final long serialVersionUID = 1L;
+    public final long position; // position of the first invalid symbol in the message
+    public final char symbol;   // the invalid symbol
+    
+    /* Constructor
+     */
+    public InvalidSymbolException( long pos, char c ) {
+        super("Invalid symbol at position " + pos + ": " + c);
+        position = pos;
+        symbol = c;
+    }
+}
@@ -0,0 +1,368 @@
+/* AUTHOR: Niema Moshiri
+ * Fused Decode-and-Count k-mer Counter for HuffSplit Files
+ *
+ * USAGE:
+ * -Count:      java HuffSplit kmers <huffsplit_file> <k> [num_threads]
+ *
+ * Each k-mer (1 <= k <= 31) is packed into a long using 2 bits per symbol (A = 00, C = 01, G = 10, T = 11), and k-mers
+ * containing N are skipped. Segments are decoded straight into the rolling k-mer (nothing is written to disk), and
+ * single-symbol segments are counted analytically (a run of n copies of X adds n-k+1 copies of X^k after the first k).
+ *
+ * If the segment index (<huffsplit_file>.hsi) exists (and is up to date, see HuffSplitIndex.java), the segments are split into num_threads contiguous chunks, and
+ * each thread counts into its own table, striped by hash so the final merge can also run one thread per stripe.
+ * Without the index, the file is streamed through a single thread.
+ *
+ * OUTPUT: One "kmer<TAB>count" line per distinct k-mer (in no particular order) on standard output
+ */
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class KmerCounter {
+    // instance variables
+    public static final int STRIPES = 64;   // number of stripes per table (must be a power of 2)
+    public final int k;                     // k-mer length
+    public final long mask;                 // mask of the low 2k bits
+    public LongIntMap[] stripes;            // stripes[j] holds the k-mers whose hash maps to stripe j
+    public long kmer;                       // current rolling k-mer
+    public int valid;                       // number of symbols (since the last N) in the rolling k-mer, capped at k
+    public boolean counting;                // false while only filling in context from previous segments
+    
+    /* Constructor
+     */
+    public KmerCounter( int K ) {
+        k = K;
+        mask = (1L << (2*K)) - 1;
+        stripes = new LongIntMap[STRIPES];
+        for(int j = 0; j < STRIPES; ++j) {
+            stripes[j] = new LongIntMap();
+        }
+        kmer = 0;
+        valid = 0;
+        counting = true;
+    }
+    
+    /* Count the k-mers of a HuffSplit file and print them
+     * INPUT:  The HuffSplit file, k, and the number of threads
+     * OUTPUT: One "kmer<TAB>count" line per distinct k-mer on standard output
+     */
+    public static void count( String HSFFILE, int K, int THREADS ) {
+        if(K < 1 || K > 31) {
+            System.err.println("ERROR: k must be between 1 and 31 (inclusive)"); System.exit(-1);
+        }
+        if(THREADS < 1) {
+            System.err.println("ERROR: Number of threads must be positive"); System.exit(-1);
+        }
+        LongIntMap[] merged;
+        if(HuffSplitIndex.usable(HSFFILE + ".hsi",HuffSplitIndex.MAGIC,"index",HSFFILE)) {
+            merged = countParallel(HSFFILE,HuffSplitIndex.read(HSFFILE + ".hsi"),K,THREADS);
+        }
+        else {
+            System.err.println("WARNING: No up-to-date index found for \"" + HSFFILE + "\", so counting with a single thread (run \"index\" to build one)");
+            merged = countStream(HSFFILE,K).stripes;
+        }
+        
+        // print k-mers
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out),1 << 16),false);
+        char[] str = new char[K];
+        long distinct = 0;
+        long total = 0;
+        for(LongIntMap m : merged) {
+            for(int i = 0; i < m.keys.length; ++i) {
+                if(m.keys[i] != LongIntMap.EMPTY) {
+                    long x = m.keys[i];
+                    for(int j = K-1; j >= 0; --j) {
+                        str[j] = HuffSplit.SYMBOLS[(int)(x & 3)];
+                        x >>>= 2;
+                    }
+                    out.print(str);
+                    out.print('\t');
+                    out.println(m.vals[i]);
+                    ++distinct;
+                    total += m.vals[i];
+                }
+            }
+        }
+        out.flush();
+        System.err.println("Distinct " + K + "-mers: " + distinct);
+        System.err.println("Total " + K + "-mers: " + total);
+    }
+    
+    /* Count the k-mers of a HuffSplit file with a single thread, streaming it without the index
+     */
+    public static KmerCounter countStream( String HSFFILE, int K ) {
+        KmerCounter counter = new KmerCounter(K);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(HSFFILE))));
+            byte[] buf = new byte[0];
+            boolean first = true;
+            while(true) {
+                int top;
+                try {
+                    top = (in.readByte() & 0xFF);
+                } catch(EOFException e) {
+                    break;
+                }
+                if(top >= HuffSplit.NUMTOPS) { // only files of topology segments are supported
+                    System.err.println("ERROR: " + HuffSplitIndex.notTopology(HSFFILE,top,first)); System.exit(-1);
+                }
+                first = false;
+                int numChars = in.readInt();
+                if(top < 5) {
+                    counter.run(top,numChars);
+                }
+                else {
+                    if(buf.length < numChars) {
+                        buf = new byte[numChars];
+                    }
+                    HuffSplit.decodeSegment(in,top,numChars,buf);
+                    counter.add(buf,0,numChars);
+                }
+            }
+            in.close();
+        } catch(FileNotFoundException e) {
+            System.err.println("ERROR: File \"" + HSFFILE + "\" not found!"); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while reading \"" + HSFFILE + "\"!"); System.exit(-1);
+        }
+        return counter;
+    }
+    
+    /* Count the k-mers of a HuffSplit file with multiple threads using its segment index
+     * INPUT:  The HuffSplit file, its index, k, and the number of threads
+     * OUTPUT: The merged tables (one per stripe)
+     */
+    public static LongIntMap[] countParallel( String HSFFILE, HuffSplitIndex index, int K, int THREADS ) {
+        // split segments into contiguous chunks of roughly equal decoding work (single-symbol segments are ~free)
+        long work = 0;
+        for(int s = 0; s < index.numSegs; ++s) {
+            work += (index.top[s] < 5) ? 1 : index.numChars[s];
+        }
+        int[] bounds = new int[THREADS+1];
+        long acc = 0;
+        int chunk = 1;
+        for(int s = 0; s < index.numSegs && chunk < THREADS; ++s) {
+            acc += (index.top[s] < 5) ? 1 : index.numChars[s];
+            if(acc * THREADS >= work * chunk) {
+                bounds[chunk++] = s+1;
+            }
+        }
+        while(chunk <= THREADS) {
+            bounds[chunk++] = index.numSegs;
+        }
+        
+        // count each chunk in its own table
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        KmerCounter[] counters = new KmerCounter[THREADS];
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for(int w = 0; w < THREADS; ++w) {
+            final int W = w;
+            final int FROM = bounds[w];
+            final int TO = bounds[w+1];
+            futures.add(pool.submit(() -> {
+                counters[W] = countSegments(HSFFILE,index,K,FROM,TO);
+                return null;
+            }));
+        }
+        waitAll(futures);
+        
+        // merge stripe j of every table (one task per stripe)
+        LongIntMap[] merged = new LongIntMap[STRIPES];
+        futures.clear();
+        for(int j = 0; j < STRIPES; ++j) {
+            final int J = j;
+            futures.add(pool.submit(() -> {
+                LongIntMap m = counters[0].stripes[J];
+                for(int w = 1; w < THREADS; ++w) {
+                    m.addAll(counters[w].stripes[J]);
+                    counters[w].stripes[J] = null;
+                }
+                merged[J] = m;
+                return null;
+            }));
+        }
+        waitAll(futures);
+        pool.shutdown();
+        return merged;
+    }
+    
+    /* Count the k-mers ending in segments [FROM,TO) of a HuffSplit file
+     */
+    public static KmerCounter countSegments( String HSFFILE, HuffSplitIndex index, int K, int FROM, int TO ) throws IOException {
+        KmerCounter counter = new KmerCounter(K);
+        if(FROM >= TO) {
+            return counter;
+        }
+        RandomAccessFile hsf = new RandomAccessFile(HSFFILE,"r");
+        byte[] buf = new byte[0];
+        
+        // fill in the rolling k-mer with the (up to) k-1 symbols before segment FROM
+        int first = FROM;
+        long need = K-1;
+        while(first > 0 && need > 0) {
+            --first;
+            need -= index.numChars[first];
+        }
+        counter.counting = false;
+        for(int s = first; s < FROM; ++s) {
+            long skip = (s == first && need < 0) ? -need : 0; // symbols of the first context segment that are too far back
+            if(index.top[s] < 5) {
+                counter.run(index.top[s],index.numChars[s]-skip);
+            }
+            else {
+                if(buf.length < index.numChars[s]) {
+                    buf = new byte[index.numChars[s]];
+                }
+                index.decodeSegment(hsf,s,buf);
+                counter.add(buf,(int)skip,index.numChars[s]);
+            }
+        }
+        counter.counting = true;
+        
+        // count
+        for(int s = FROM; s < TO; ++s) {
+            if(index.top[s] < 5) {
+                counter.run(index.top[s],index.numChars[s]);
+            }
+            else {
+                if(buf.length < index.numChars[s]) {
+                    buf = new byte[index.numChars[s]];
+                }
+                index.decodeSegment(hsf,s,buf);
+                counter.add(buf,0,index.numChars[s]);
+            }
+        }
+        hsf.close();
+        return counter;
+    }
+    
+    /* Roll the symbols buf[from,to) into the k-mer
+     */
+    public void add( byte[] buf, int from, int to ) {
+        for(int i = from; i < to; ++i) {
+            int code;
+            switch(buf[i]) {
+                case 'A': code = 0; break;
+                case 'C': code = 1; break;
+                case 'G': code = 2; break;
+                case 'T': code = 3; break;
+                default:  valid = 0; continue;
+            }
+            kmer = ((kmer << 2) | code) & mask;
+            if(valid < k) {
+                ++valid;
+            }
+            if(valid == k && counting) {
+                stripe(kmer).add(kmer,1);
+            }
+        }
+    }
+    
+    /* Roll a run of n copies of SYMBOLS[sym] into the k-mer (analytically after the first k)
+     */
+    public void run( int sym, long n ) {
+        if(sym == 4) { // N
+            if(n > 0) {
+                valid = 0;
+            }
+            return;
+        }
+        long rolled = Math.min(n,k);
+        for(long i = 0; i < rolled; ++i) {
+            kmer = ((kmer << 2) | sym) & mask;
+            if(valid < k) {
+                ++valid;
+            }
+            if(valid == k && counting) {
+                stripe(kmer).add(kmer,1);
+            }
+        }
+        if(n > rolled && counting) { // the k-mer is now sym^k and stays that way for the rest of the run
+            long rest = n - rolled;
+            stripe(kmer).add(kmer,(int)Math.min(rest,Integer.MAX_VALUE));
+        }
+    }
+    
+    /* Return the stripe of a k-mer
+     */
+    public LongIntMap stripe( long x ) {
+        return stripes[(int)(LongIntMap.mix(x) >>> 58) & (STRIPES-1)];
+    }
+    
+    /* Wait for all tasks to finish (exiting if any of them failed)
+     */
+    public static void waitAll( List<Future<?>> futures ) {
+        try {
+            for(Future<?> f : futures) {
+                f.get();
+            }
+        } catch(ExecutionException e) {
+            System.err.println("ERROR: k-mer counting failed!"); e.getCause().printStackTrace(); System.exit(-1);
+        } catch(InterruptedException e) {
+            System.err.println("ERROR: Interrupted while counting k-mers!"); System.exit(-1);
+        }
+    }
+}
+
+/* Helper Class: LongIntMap (open-addressing long -> int hash table with linear probing)
+ */
+class LongIntMap {
+    public static final long EMPTY = -1L; // never a valid key (k-mers use at most 62 bits)
+    public long[] keys;
+    public int[] vals;
+    public int size;
+    public LongIntMap() {
+        keys = new long[1 << 10]; vals = new int[1 << 10]; size = 0;
+        Arrays.fill(keys,EMPTY);
+    }
+    public static long mix( long x ) {
+        x ^= x >>> 33; x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33; x *= 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+    public void add( long key, int delta ) {
+        int m = keys.length-1;
+        int i = (int)mix(key) & m;
+        while(keys[i] != EMPTY && keys[i] != key) {
+            i = (i+1) & m;
+        }
+        if(keys[i] == EMPTY) {
+            keys[i] = key;
+            if(++size * 2 > keys.length) {
+                vals[i] = delta;
+                grow();
+                return;
+            }
+        }
+        vals[i] += delta;
+    }
+    public int get( long key ) {
+        int m = keys.length-1;
+        int i = (int)mix(key) & m;
+        while(keys[i] != EMPTY) {
+            if(keys[i] == key) {
+                return vals[i];
+            }
+            i = (i+1) & m;
+        }
+        return 0;
+    }
+    public void addAll( LongIntMap other ) {
+        for(int i = 0; i < other.keys.length; ++i) {
+            if(other.keys[i] != EMPTY) {
+                add(other.keys[i],other.vals[i]);
+            }
+        }
+    }
+    private void grow() {
+        long[] oldK = keys;
+        int[] oldV = vals;
+        keys = new long[oldK.length << 1]; vals = new int[oldK.length << 1]; size = 0;
+        Arrays.fill(keys,EMPTY);
+        for(int i = 0; i < oldK.length; ++i) {
+            if(oldK[i] != EMPTY) {
+                add(oldK[i],oldV[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/* AUTHOR: Niema Moshiri
+ * Order-1 (Context-Conditioned) Split Huffman Coding
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> --order1
+ * -Decompress: java HuffSplit decompress <huffsplit_file> (order-1 files are detected automatically)
+ *
+ * DNA has strong dinucleotide structure (e.g. CpG depletion: G is rare after C), which a single topology per segment
+ * can't exploit. In an order-1 segment, every symbol is coded with the topology of its context (the symbol before it in
+ * the message, or A for the first symbol), so a segment carries one topology per context.
+ *
+ * Choosing the segments and their context-topology tuples exactly would mean a DP over 165^5 tuples, so the DP runs over
+ * candidate cuts instead: the cuts of the optimal order-0 path (HuffSplit.forwardDP), which are where the composition
+ * changes. Given a segment, the best tuple is just the best topology of each context on its own (the contexts' codes
+ * are independent), which prefix counts of (context, symbol) pairs at the candidates give in O(NUMTOPS) per context.
+ * The DP then merges runs of up to WINDOW consecutive order-0 segments into one segment wherever that makes the output
+ * smaller, and writes each segment with an order-1 header (5 bytes longer than an order-0 one) only where the context
+ * codes save more than that, so an order-1 file is never more than a byte bigger than the order-0 file.
+ *
+ * COMPRESSED FILE OUTPUT FORMAT (order-1):
+ * -1 byte: ORDER1_MARKER (254, never a valid topology)
+ * -Then, per segment, either an order-0 header (1 byte: the topology of every context, as in HuffSplit.java) or an
+ *  order-1 header (1 byte: CONTEXT_SEGMENT (253), then 5 bytes: the topology of each context, in the order of SYMBOLS, 0
+ *  for contexts that don't occur in the segment), 4 bytes (an int telling us how many symbols are in the segment), and
+ *  the codes of its symbols (most significant bit first, zero-padded to a whole byte)
+ *
+ * Order-1 files can't be BWT-transformed, indexed, or queried (index, stats, search, etc. only read order-0 segments).
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class Order1Coder {
+    // instance variables
+    public static final int ORDER1_MARKER = 254;          // first byte of an order-1 HuffSplit file
+    public static final int CONTEXT_SEGMENT = 253;        // first byte of an order-1 segment header
+    public static final int CONTEXTS = 5;                 // one context per symbol of SYMBOLS
+    public static final int HEADER_BITS = 8*(1+4);        // order-0 header: topology and numChars
+    public static final int CONTEXT_HEADER_BITS = 8*(1+CONTEXTS+4); // order-1 header: marker, topology tuple, and numChars
+    public static final int WINDOW = 16;                  // most order-0 segments merged into one order-1 segment
+    private static final int[][] CANDIDATES = new int[32][]; // CANDIDATES[mask]: topologies covering the symbols in mask
+    static {
+        for(int mask = 0; mask < 32; ++mask) {
+            ArrayList<Integer> tops = new ArrayList<Integer>();
+            HashSet<String> seen = new HashSet<String>(); // skip topologies with the same code lengths as an earlier one
+            for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+                if((Topologies.alphabet(t) & mask) != mask) {
+                    continue;
+                }
+                StringBuilder lens = new StringBuilder();
+                for(int s = 0; s < CONTEXTS; ++s) {
+                    lens.append(((mask >>> s) & 1) == 0 ? 0 : Topologies.length(t,s)).append(',');
+                }
+                if(seen.add(lens.toString())) {
+                    tops.add(t);
+                }
+            }
+            CANDIDATES[mask] = new int[tops.size()];
+            for(int i = 0; i < tops.size(); ++i) {
+                CANDIDATES[mask][i] = tops.get(i);
+            }
+        }
+    }
+    
+    /* Find the best topology for the symbols of one context
+     * INPUT:  The number of times each symbol occurs (n[o...o+4])
+     * OUTPUT: The number of code bits (high bits) and the topology (low 8 bits); topology 0 if there are no symbols
+     */
+    static long bestTopology( int[] n, int o ) {
+        int mask = 0;
+        for(int s = 0; s < CONTEXTS; ++s) {
+            if(n[o+s] != 0) {
+                mask |= 1 << s;
+            }
+        }
+        if(mask == 0) {
+            return 0;
+        }
+        long best = Long.MAX_VALUE;
+        for(int t : CANDIDATES[mask]) {
+            long bits = 0;
+            for(int s = 0; s < CONTEXTS; ++s) {
+                if(n[o+s] != 0) {
+                    bits += (long)n[o+s] * Topologies.length(t,s);
+                }
+            }
+            if(bits < (best >>> 8)) {
+                best = (bits << 8) | t;
+            }
+        }
+        return best;
+    }
+    
+    /* Find the best topology tuple of a segment
+     * INPUT:  The (context, symbol) counts of the segment (n[ctx*5 + sym]) and the array to put the tuple in (or null)
+     * OUTPUT: The number of code bits of the segment
+     */
+    static long bestTuple( int[] n, int[] tops ) {
+        long bits = 0;
+        for(int ctx = 0; ctx < CONTEXTS; ++ctx) {
+            long b = bestTopology(n,ctx*CONTEXTS);
+            bits += b >>> 8;
+            if(tops != null) {
+                tops[ctx] = (int)(b & 0xFF);
+            }
+        }
+        return bits;
+    }
+    
+    /* Find the cheapest way to write a segment
+     * INPUT:  The (context, symbol) counts of the segment (n[ctx*5 + sym], with room for 5 more counts at the end) and the
+     *         array to put the topology of each context in
+     * OUTPUT: The size of the segment in bits (header, codes, and padding); tops are all the same if an order-0 header
+     *         is cheaper
+     */
+    static long segmentBits( int[] n, int[] tops ) {
+        final int P = CONTEXTS*CONTEXTS;
+        for(int s = 0; s < CONTEXTS; ++s) {
+            n[P+s] = 0;
+            for(int ctx = 0; ctx < CONTEXTS; ++ctx) {
+                n[P+s] += n[ctx*CONTEXTS + s];
+            }
+        }
+        long order0 = bestTopology(n,P);
+        long bits0 = HEADER_BITS + ((order0 >>> 8) + 7) / 8 * 8;
+        long bits1 = CONTEXT_HEADER_BITS + (bestTuple(n,tops) + 7) / 8 * 8;
+        if(bits0 <= bits1) {
+            Arrays.fill(tops,(int)(order0 & 0xFF));
+            return bits0;
+        }
+        return bits1;
+    }
+    
+    /* Compress a DNA message with order-1 segments
+     * INPUT:  The message (L symbols starting at off), the stream to write to, and whether to find the candidate cuts
+     *         with the compact backtrack matrix (see CompactDP.java)
+     * OUTPUT: The order-1 HuffSplit stream; an InvalidSymbolException is thrown if the message isn't DNA
+     */
+    public static void compress( byte[] msg, int off, int L, DataOutputStream out, boolean COMPACT ) throws IOException {
+        if(L == 0) {
+            throw new HuffSplitException("Empty input");
+        }
+        SymbolScan.validate(msg,off,L);
+        CodecWorkspace ws = CodecWorkspace.get();
+        try {
+            // candidate cuts: the cuts of the optimal order-0 path
+            int[] cut = HuffSplit.optimalCuts(msg,off,L,ws,COMPACT);
+            int K = cut.length-1;
+            HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","backtrack");
+            
+            // prefix counts of (context, symbol) pairs at the candidate cuts
+            final int P = CONTEXTS*CONTEXTS;
+            int[] prefix = new int[(K+1)*P];
+            int[] n = new int[P+CONTEXTS];
+            int[] tops = new int[CONTEXTS];
+            int ctx = 0;
+            for(int k = 0; k < K; ++k) {
+                for(int i = cut[k]; i < cut[k+1]; ++i) {
+                    int s = HuffSplit.symbolIndex((char)(msg[off+i] & 0xFF));
+                    ++n[ctx*CONTEXTS + s];
+                    ctx = s;
+                }
+                System.arraycopy(n,0,prefix,(k+1)*P,P);
+            }
+            
+            // DP over the candidate cuts: bits[k] is the size of the best encoding of the first cut[k] symbols
+            long[] bits = new long[K+1];
+            int[] from = new int[K+1];
+            for(int k = 1; k <= K; ++k) {
+                bits[k] = Long.MAX_VALUE;
+                for(int j = k-1; j >= Math.max(0,k-WINDOW); --j) {
+                    for(int p = 0; p < P; ++p) {
+                        n[p] = prefix[k*P+p] - prefix[j*P+p];
+                    }
+                    long b = bits[j] + segmentBits(n,tops);
+                    if(b < bits[k]) {
+                        bits[k] = b;
+                        from[k] = j;
+                    }
+                }
+            }
+            phase.commit();
+            
+            // encode the chosen segments (first to last)
+            phase = HuffSplitEvents.phase("compress","encode");
+            ArrayList<Integer> chosen = new ArrayList<Integer>();
+            for(int k = K; k > 0; k = from[k]) {
+                chosen.add(k);
+            }
+            out.writeByte(ORDER1_MARKER);
+            int j = 0;
+            ctx = 0;
+            for(int c = chosen.size()-1; c >= 0; --c) {
+                int k = chosen.get(c);
+                for(int p = 0; p < P; ++p) {
+                    n[p] = prefix[k*P+p] - prefix[j*P+p];
+                }
+                segmentBits(n,tops);
+                boolean order0 = true;
+                for(int t : tops) {
+                    order0 &= (t == tops[0]);
+                }
+                if(order0) {
+                    out.writeByte(tops[0]);
+                }
+                else {
+                    out.writeByte(CONTEXT_SEGMENT);
+                    for(int t : tops) {
+                        out.writeByte(t);
+                    }
+                }
+                out.writeInt(cut[k]-cut[j]);
+                int buf = 0;
+                int nbits = 0;
+                for(int i = cut[j]; i < cut[k]; ++i) {
+                    int s = HuffSplit.symbolIndex((char)(msg[off+i] & 0xFF));
+                    int t = tops[ctx];
+                    buf = (buf << Topologies.length(t,s)) | Topologies.code(t,s);
+                    nbits += Topologies.length(t,s);
+                    if(nbits >= 8) {
+                        nbits -= 8;
+                        out.writeByte(buf >>> nbits);
+                        buf &= (1 << nbits) - 1;
+                    }
+                    ctx = s;
+                }
+                if(nbits > 0) {
+                    out.writeByte(buf << (8-nbits));
+                }
+                j = k;
+            }
+            phase.commit();
+        } finally {
+            ws.trim();
+        }
+    }
+    
+    /* Compress a file with order-1 segments
+     * INPUT:  The input file, the output file, and whether to use the compact backtrack matrix
+     * OUTPUT: The compressed file
+     */
+    public static void compress( String INFILE, String OUTFILE, boolean COMPACT ) {
+        byte[] in = null;
+        try {
+            in = Files.readAllBytes(Paths.get(INFILE));
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while reading \"" + INFILE + "\"!"); System.exit(-1);
+        }
+        if(in.length == 0) {
+            System.err.println("ERROR: Empty file!"); System.exit(-1);
+        }
+        int bad = SymbolScan.scan(in,0,in.length,null); // before any output exists
+        if(bad != -1) {
+            System.err.println("ERROR: Invalid symbol: " + (char)(in[bad] & 0xFF)); System.exit(-1);
+        }
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(OUTFILE),1 << 16))) {
+            compress(in,0,in.length,out,COMPACT);
+        } catch(InvalidSymbolException e) {
+            System.err.println("ERROR: Invalid symbol: " + e.symbol); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while writing \"" + OUTFILE + "\"!"); System.exit(-1);
+        }
+    }
+    
+    /* Decompress the order-1 segments of a stream (ORDER1_MARKER has already been read)
+     * INPUT:  The stream of segments and the stream to write the message to
+     * OUTPUT: The uncompressed message (a CorruptStreamException is thrown if the input is malformed, or an EOFException if
+     *         it is truncated)
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out ) throws IOException {
+        decompress(in,out,DecodeGuard.unbounded());
+    }
+    
+    /* Decompress an order-1 HuffSplit stream, checking every segment length before decoding it (see DecodeGuard.java)
+     * INPUT:  The stream of segments, the stream to write the message to, and the guard
+     * OUTPUT: The uncompressed message
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out, DecodeGuard guard ) throws IOException {
+        int[] tops = new int[CONTEXTS];
+        int ctx = 0;
+        while(true) {
+            int first;
+            try {
+                first = in.readByte() & 0xFF;
+            } catch(EOFException e) {
+                break;
+            }
+            if(first == CONTEXT_SEGMENT) {
+                for(int c = 0; c < CONTEXTS; ++c) {
+                    tops[c] = in.readByte() & 0xFF;
+                }
+            }
+            else {
+                Arrays.fill(tops,first);
+            }
+            for(int t : tops) {
+                if(t >= HuffSplit.NUMTOPS) {
+                    throw new CorruptStreamException("Unrecognized topology: " + t);
+                }
+            }
+            int numChars = in.readInt();
+            int minBits = 1; // a context with a single-symbol topology codes its next symbol with no bits
+            for(int t : tops) {
+                if(t < 5) {
+                    minBits = 0;
+                }
+            }
+            guard.segment(numChars,minBits,in);
+            HuffSplitEvents.Span event = HuffSplitEvents.segmentDecoded();
+            byte[] dest = CodecWorkspace.get().decodeBuffer(numChars);
+            
+            // as HuffSplit.decodeSegment, but the topology changes with the context
+            int buf = 0;
+            int nbits = 0;
+            for(int printed = 0; printed < numChars; ++printed) {
+                int t = tops[ctx];
+                if(t < 5) { // single-symbol topology: no bits
+                    ctx = t;
+                    dest[printed] = (byte)HuffSplit.SYMBOLS[t];
+                    continue;
+                }
+                while(true) {
+                    int window = (nbits >= Topologies.MAX_LEN) ? (buf >>> (nbits-Topologies.MAX_LEN)) : (buf << (Topologies.MAX_LEN-nbits));
+                    window &= (1 << Topologies.MAX_LEN) - 1;
+                    int len = Topologies.decodeLength(t,window);
+                    if(len <= nbits) {
+                        ctx = Topologies.decodeSymbol(t,window);
+                        dest[printed] = (byte)HuffSplit.SYMBOLS[ctx];
+                        nbits -= len;
+                        buf &= (1 << nbits) - 1;
+                        break;
+                    }
+                    buf = (buf << 8) | (in.readByte() & 0xFF);
+                    nbits += 8;
+                }
+            }
+            out.write(dest,0,numChars);
+            event.commit(tops[0],numChars);
+        }
+    }
+}
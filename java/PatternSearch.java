@@ -0,0 +1,281 @@
+/* AUTHOR: Niema Moshiri
+ * Pattern Search with Topology-Based Segment Skipping
+ *
+ * USAGE:
+ * -Search:     java HuffSplit search <huffsplit_file> <pattern> [pattern ...]
+ *
+ * The topology of a segment tells us which symbols it can contain, so we only decode the parts of the message that
+ * can hold a match of some pattern P:
+ * -A segment whose topology contains every symbol of P (and that is at least |P| long) can hold a whole match
+ * -A match crossing the boundary at position b lies in [b-|P|+1, b+|P|-1), so that window is only scanned if the
+ *  segments it overlaps can together contain every symbol of P
+ * The surviving ranges are merged, split into pieces of whole segments, and decoded and scanned (Aho-Corasick) in
+ * parallel. Single-symbol segments are never decoded (their symbols are filled in from the topology).
+ *
+ * The segment index (<huffsplit_file>.hsi) is used to find segments (it is built in memory if it doesn't exist or is out
+ * of date).
+ *
+ * OUTPUT: One "position<TAB>pattern" line per match (0-based position of the first symbol) on standard output
+ */
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class PatternSearch {
+    // instance variables
+    public static final int CHUNK = 1 << 22; // target number of symbols per piece
+    public static final int[] ALPHABET = new int[HuffSplit.NUMTOPS]; // ALPHABET[t] has bit i set if SYMBOLS[i] appears in topology t
+    static {
+        for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+            ALPHABET[t] = Topologies.alphabet(t);
+        }
+    }
+    
+    /* Search a HuffSplit file for one or more patterns and print the matches
+     * INPUT:  The HuffSplit file and the patterns
+     * OUTPUT: One "position<TAB>pattern" line per match on standard output
+     */
+    public static void search( String HSFFILE, String[] PATTERNS ) {
+        if(PATTERNS.length == 0) {
+            System.err.println("ERROR: No pattern given"); System.exit(-1);
+        }
+        for(String p : PATTERNS) {
+            if(p.length() == 0) {
+                System.err.println("ERROR: Empty pattern"); System.exit(-1);
+            }
+            for(int i = 0; i < p.length(); ++i) {
+                if(HuffSplit.symbolIndex(p.charAt(i)) == -1) {
+                    System.err.println("ERROR: Invalid symbol in pattern \"" + p + "\": " + p.charAt(i)); System.exit(-1);
+                }
+            }
+        }
+        HuffSplitIndex index = HuffSplitIndex.load(HSFFILE);
+        long[] ranges = candidateRanges(index,PATTERNS);
+        AhoCorasick ac = new AhoCorasick(PATTERNS);
+        int maxLen = 0;
+        for(String p : PATTERNS) {
+            maxLen = Math.max(maxLen,p.length());
+        }
+        
+        // split the ranges into pieces of whole segments
+        ArrayList<long[]> pieces = new ArrayList<long[]>();
+        long scanned = 0;
+        for(int r = 0; r < ranges.length; r += 2) {
+            long cur = ranges[r];
+            long b = ranges[r+1];
+            scanned += b - cur;
+            while(cur < b) {
+                int s = index.segmentAt(cur);
+                while(s+1 < index.numSegs && index.start[s+1] - cur < CHUNK && index.start[s+1] < b) {
+                    ++s;
+                }
+                long end = Math.min(b,index.start[s+1]);
+                pieces.add(new long[]{cur,end,Math.min(b,end+maxLen-1)});
+                cur = end;
+            }
+        }
+        
+        // decode and scan the pieces in parallel
+        int threads = Math.max(1,Math.min(pieces.size(),Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<ArrayList<long[]>>> futures = new ArrayList<Future<ArrayList<long[]>>>();
+        for(long[] piece : pieces) {
+            futures.add(pool.submit(() -> scan(HSFFILE,index,ac,piece[0],piece[1],piece[2])));
+        }
+        ArrayList<long[]> matches = new ArrayList<long[]>();
+        try {
+            for(Future<ArrayList<long[]>> f : futures) {
+                matches.addAll(f.get());
+            }
+        } catch(ExecutionException e) {
+            System.err.println("ERROR: Search failed!"); e.getCause().printStackTrace(); System.exit(-1);
+        } catch(InterruptedException e) {
+            System.err.println("ERROR: Interrupted while searching!"); System.exit(-1);
+        }
+        pool.shutdown();
+        
+        // print matches in order of position
+        matches.sort((x,y) -> (x[0] != y[0]) ? Long.compare(x[0],y[0]) : Long.compare(x[1],y[1]));
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out),1 << 16),false);
+        for(long[] m : matches) {
+            out.print(m[0]);
+            out.print('\t');
+            out.println(PATTERNS[(int)m[1]]);
+        }
+        out.flush();
+        System.err.println("Matches: " + matches.size());
+        System.err.println("Symbols scanned: " + scanned + " of " + index.start[index.numSegs]);
+    }
+    
+    /* Find the ranges of the message that can contain a match of some pattern
+     * INPUT:  The segment index and the patterns
+     * OUTPUT: Sorted, disjoint ranges as {start0,end0,start1,end1,...}
+     */
+    public static long[] candidateRanges( HuffSplitIndex index, String[] PATTERNS ) {
+        long total = index.start[index.numSegs];
+        ArrayList<long[]> ranges = new ArrayList<long[]>();
+        for(String p : PATTERNS) {
+            int need = 0;
+            for(int i = 0; i < p.length(); ++i) {
+                need |= 1 << HuffSplit.symbolIndex(p.charAt(i));
+            }
+            int m = p.length();
+            for(int s = 0; s < index.numSegs; ++s) {
+                // matches inside segment s
+                if((ALPHABET[index.top[s]] & need) == need && index.numChars[s] >= m) {
+                    ranges.add(new long[]{index.start[s],index.start[s+1]});
+                }
+                
+                // matches crossing the boundary between segments s-1 and s
+                if(s > 0 && m > 1) {
+                    long lo = Math.max(0,index.start[s]-m+1);
+                    long hi = Math.min(total,index.start[s]+m-1);
+                    int have = 0;
+                    for(int t = index.segmentAt(lo); t < index.numSegs && index.start[t] < hi; ++t) {
+                        have |= ALPHABET[index.top[t]];
+                    }
+                    if((have & need) == need) {
+                        ranges.add(new long[]{lo,hi});
+                    }
+                }
+            }
+        }
+        
+        // merge overlapping ranges
+        ranges.sort((x,y) -> Long.compare(x[0],y[0]));
+        ArrayList<Long> merged = new ArrayList<Long>();
+        for(long[] r : ranges) {
+            int last = merged.size()-1;
+            if(last > 0 && r[0] <= merged.get(last)) {
+                merged.set(last,Math.max(merged.get(last),r[1]));
+            }
+            else {
+                merged.add(r[0]);
+                merged.add(r[1]);
+            }
+        }
+        long[] out = new long[merged.size()];
+        for(int i = 0; i < out.length; ++i) {
+            out[i] = merged.get(i);
+        }
+        return out;
+    }
+    
+    /* Decode [from,to) of the message and report the matches that start before end
+     * INPUT:  The HuffSplit file, its index, the matcher, and the piece
+     * OUTPUT: The matches as {position,pattern} pairs
+     */
+    public static ArrayList<long[]> scan( String HSFFILE, HuffSplitIndex index, AhoCorasick ac, long from, long end, long to ) throws IOException {
+        byte[] text = new byte[(int)(to-from)];
+        byte[] buf = new byte[0];
+        RandomAccessFile hsf = null;
+        for(int s = index.segmentAt(from); s < index.numSegs && index.start[s] < to; ++s) {
+            long lo = Math.max(from,index.start[s]);
+            long hi = Math.min(to,index.start[s+1]);
+            if(index.top[s] < 5) {
+                Arrays.fill(text,(int)(lo-from),(int)(hi-from),(byte)HuffSplit.SYMBOLS[index.top[s]]);
+            }
+            else {
+                if(hsf == null) {
+                    hsf = new RandomAccessFile(HSFFILE,"r");
+                }
+                if(buf.length < index.numChars[s]) {
+                    buf = new byte[index.numChars[s]];
+                }
+                index.decodeSegment(hsf,s,buf);
+                System.arraycopy(buf,(int)(lo-index.start[s]),text,(int)(lo-from),(int)(hi-lo));
+            }
+        }
+        if(hsf != null) {
+            hsf.close();
+        }
+        ArrayList<long[]> matches = new ArrayList<long[]>();
+        int state = 0;
+        for(int i = 0; i < text.length; ++i) {
+            state = ac.next[state][HuffSplit.symbolIndex((char)text[i])];
+            for(int o = ac.out[state]; o != -1; o = ac.outNext[o]) {
+                long pos = from + i - ac.lengths[o] + 1;
+                if(pos < end) {
+                    matches.add(new long[]{pos,o});
+                }
+            }
+        }
+        return matches;
+    }
+}
+
+/* Helper Class: AhoCorasick (multi-pattern matcher over HuffSplit.SYMBOLS with a full transition table)
+ */
+class AhoCorasick {
+    public int[][] next;   // next[state][symbol] is the state after reading symbol
+    public int[] out;      // out[state] is the first pattern that ends at state (or -1)
+    public int[] outNext;  // outNext[pattern] is the next pattern that ends at the same state (or -1)
+    public int[] lengths;  // lengths[pattern] is the length of the pattern
+    public AhoCorasick(String[] patterns) {
+        int maxStates = 1;
+        for(String p : patterns) {
+            maxStates += p.length();
+        }
+        int sigma = HuffSplit.SYMBOLS.length;
+        next = new int[maxStates][sigma];
+        for(int[] row : next) {
+            Arrays.fill(row,-1);
+        }
+        int[] patOut = new int[maxStates];
+        Arrays.fill(patOut,-1);
+        lengths = new int[patterns.length];
+        int numStates = 1;
+        for(int p = 0; p < patterns.length; ++p) {
+            int s = 0;
+            for(int i = 0; i < patterns[p].length(); ++i) {
+                int c = HuffSplit.symbolIndex(patterns[p].charAt(i));
+                if(next[s][c] == -1) {
+                    next[s][c] = numStates++;
+                }
+                s = next[s][c];
+            }
+            patOut[s] = (patOut[s] == -1) ? p : patOut[s]; // duplicate patterns are reported once
+            lengths[p] = patterns[p].length();
+        }
+        
+        // breadth-first: fill in failure transitions and chain each state's output to its failure state's output
+        int[] fail = new int[numStates];
+        out = new int[numStates];
+        outNext = new int[patterns.length];
+        Arrays.fill(outNext,-1);
+        out[0] = -1;
+        int[] queue = new int[numStates];
+        int head = 0;
+        int tail = 0;
+        for(int c = 0; c < sigma; ++c) {
+            if(next[0][c] == -1) {
+                next[0][c] = 0;
+            }
+            else {
+                fail[next[0][c]] = 0;
+                queue[tail++] = next[0][c];
+            }
+        }
+        while(head < tail) {
+            int s = queue[head++];
+            if(patOut[s] != -1) {
+                out[s] = patOut[s];
+                outNext[patOut[s]] = out[fail[s]];
+            }
+            else {
+                out[s] = out[fail[s]];
+            }
+            for(int c = 0; c < sigma; ++c) {
+                int t = next[s][c];
+                if(t == -1) {
+                    next[s][c] = next[fail[s]][c];
+                }
+                else {
+                    fail[t] = next[fail[s]][c];
+                    queue[tail++] = t;
+                }
+            }
+        }
+        next = Arrays.copyOf(next,numStates);
+    }
+}
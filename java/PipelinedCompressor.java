@@ -0,0 +1,364 @@
+/* AUTHOR: Niema Moshiri
+ * Pipelined Compression
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> --pipeline [--index]
+ *
+ * Gives exactly the same output as "compress", but reading, the DP, encoding, and writing run concurrently on 4 threads
+ * connected by bounded queues:
+ * -reader:  reads the input file in blocks, and validates them (see SymbolScan.java)
+ * -DP:      runs the forward DP on each block, and then finds the prefix of the optimal path that is already final (the
+ *           backtrack chains of all topologies that are still alive have merged there, so nothing that comes later can
+ *           change it)
+ * -encoder: encodes the final symbols as soon as they arrive (a segment is only handed on once it is closed, because
+ *           its header holds its length)
+ * -writer:  writes the closed segments to a temporary file next to the output file, which only replaces the output
+ *           file once every stage has succeeded (so a failed run leaves no partial output)
+ *
+ * Backtrack rows and input blocks are dropped as soon as their positions are final, so the DP only keeps the unsettled
+ * part of the message in memory (instead of a backtrack row per symbol of the whole message). When it is done, the
+ * busy, starved (waiting for input), and blocked (waiting for room downstream) time of each stage is printed to
+ * standard error, so the bottleneck is the stage that is busy the most.
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class PipelinedCompressor {
+    // instance variables
+    public static final int BLOCK = 1 << 16;  // symbols per input block
+    public static final int QUEUE = 8;        // capacity of each queue between stages
+    private static final byte[] END = new byte[0];                // end of the reader and writer queues
+    private static final Piece END_PIECE = new Piece(0);          // end of the encoder queue
+    
+    /* A final piece of the optimal path: symbols and their topologies
+     */
+    static class Piece {
+        public final byte[] sym;  // sym[k] is the index (in SYMBOLS) of the k-th symbol of the piece
+        public final byte[] top;  // top[k] is its topology
+        public Piece( int len ) {
+            sym = new byte[len];
+            top = new byte[len];
+        }
+    }
+    
+    /* Time spent by a stage working, waiting for input, and waiting for room in the next queue
+     */
+    static class Stage {
+        public final String name;
+        public long start, end, starved, blocked; // nanoseconds
+        public Stage( String n ) {
+            name = n;
+        }
+        public <T> T take( BlockingQueue<T> q ) throws InterruptedException {
+            long t = System.nanoTime();
+            T x = q.take();
+            starved += System.nanoTime() - t;
+            return x;
+        }
+        public <T> void put( BlockingQueue<T> q, T x ) throws InterruptedException {
+            long t = System.nanoTime();
+            q.put(x);
+            blocked += System.nanoTime() - t;
+        }
+    }
+    
+    /* Compress a file with the pipelined stages
+     * INPUT:  The input file, the output file, and the index file to write (or null for no index)
+     * OUTPUT: The compressed file (identical to HuffSplit.compress), and the stage utilization on standard error
+     */
+    public static void compress( String INFILE, String OUTFILE, String INDEXFILE ) {
+        final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(QUEUE);
+        final BlockingQueue<Piece> pieces = new ArrayBlockingQueue<Piece>(QUEUE);
+        final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(QUEUE);
+        final Stage[] stages = {new Stage("reader"),new Stage("dp"),new Stage("encoder"),new Stage("writer")};
+        final ArrayList<long[]> segs = new ArrayList<long[]>(); // top, numChars, offset, and counts of each segment
+        final File tmp = tempFile(OUTFILE); // the writer writes here, and it only replaces OUTFILE once every stage has succeeded
+        ExecutorService pool = Executors.newFixedThreadPool(stages.length);
+        ExecutorCompletionService<Void> done = new ExecutorCompletionService<Void>(pool);
+        long t0 = System.nanoTime();
+        done.submit(() -> { read(INFILE,blocks,stages[0]); return null; });
+        done.submit(() -> { dp(blocks,pieces,stages[1]); return null; });
+        done.submit(() -> { encode(pieces,chunks,(INDEXFILE != null) ? segs : null,stages[2]); return null; });
+        done.submit(() -> { write(tmp.getPath(),chunks,stages[3]); return null; });
+        try {
+            for(int i = 0; i < stages.length; ++i) {
+                done.take().get();
+            }
+            Files.move(tmp.toPath(),Paths.get(OUTFILE),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        } catch(ExecutionException e) { // a failed stage would leave its neighbors waiting forever, so stop them all
+            abort(pool,tmp);
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                System.err.println("ERROR: " + cause.getMessage());
+            }
+            else {
+                cause.printStackTrace();
+            }
+            System.exit(-1);
+        } catch(IOException e) {
+            abort(pool,tmp);
+            System.err.println("ERROR: Unable to write \"" + OUTFILE + "\": " + e.getMessage()); System.exit(-1);
+        } catch(InterruptedException e) {
+            abort(pool,tmp);
+            System.err.println("ERROR: Interrupted while compressing \"" + INFILE + "\"!"); System.exit(-1);
+        }
+        pool.shutdown();
+        long t1 = System.nanoTime();
+        
+        // write the index
+        if(INDEXFILE != null) {
+            HuffSplitIndex index = new HuffSplitIndex(segs.size());
+            for(int s = 0; s < segs.size(); ++s) {
+                long[] seg = segs.get(s);
+                index.set(s,(int)seg[0],(int)seg[1],seg[2]);
+                for(int i = 0; i < HuffSplit.SYMBOLS.length; ++i) {
+                    index.counts[s][i] = (int)seg[3+i];
+                }
+            }
+            index.write(INDEXFILE,OUTFILE);
+        }
+        
+        // report stage utilization
+        System.err.println("Stage\tBusy (s)\tStarved (s)\tBlocked (s)\tBusy (%)");
+        for(Stage s : stages) {
+            long busy = (s.end - s.start) - s.starved - s.blocked;
+            System.err.println(s.name + "\t" + String.format("%.3f\t%.3f\t%.3f\t%.1f",busy/1e9,s.starved/1e9,s.blocked/1e9,100.0*busy/(t1-t0)));
+        }
+        System.err.println("Total\t" + String.format("%.3f",(t1-t0)/1e9));
+    }
+    
+    /* Create the temporary file that the writer writes to (in the output file's directory, so it can be renamed)
+     */
+    static File tempFile( String OUTFILE ) {
+        File out = new File(OUTFILE).getAbsoluteFile();
+        try {
+            return File.createTempFile(out.getName() + ".",".tmp",out.getParentFile());
+        } catch(IOException e) {
+            System.err.println("ERROR: Unable to create a temporary file next to \"" + OUTFILE + "\": " + e.getMessage()); System.exit(-1);
+            return null;
+        }
+    }
+    
+    /* Stop every stage of a failed run, and delete its partial output (so no truncated but valid .hsf is left behind)
+     */
+    static void abort( ExecutorService pool, File tmp ) {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(10,TimeUnit.SECONDS); // let the writer close the file before it is deleted
+        } catch(InterruptedException e) {}
+        tmp.delete();
+    }
+    
+    /* Reader stage: read the input file in blocks (an InvalidSymbolException is thrown if it isn't DNA)
+     */
+    static void read( String INFILE, BlockingQueue<byte[]> blocks, Stage stage ) throws IOException, InterruptedException {
+        stage.start = System.nanoTime();
+        try(InputStream in = new FileInputStream(INFILE)) {
+            for(long pos = 0;; pos += BLOCK) {
+                byte[] b = new byte[BLOCK];
+                int n = in.readNBytes(b,0,BLOCK);
+                if(n == 0) {
+                    break;
+                }
+                int bad = SymbolScan.scan(b,0,n,null);
+                if(bad != -1) {
+                    throw new InvalidSymbolException(pos+bad,(char)(b[bad] & 0xFF));
+                }
+                stage.put(blocks,(n == BLOCK) ? b : Arrays.copyOf(b,n));
+            }
+        } catch(FileNotFoundException e) {
+            throw new IOException("File \"" + INFILE + "\" not found!");
+        }
+        stage.put(blocks,END);
+        stage.end = System.nanoTime();
+    }
+    
+    /* DP stage: run the DP (see HuffSplit.dpStep) on each block, and pass on the final prefix of the path
+     */
+    static void dp( BlockingQueue<byte[]> blocks, BlockingQueue<Piece> pieces, Stage stage ) throws IOException, InterruptedException {
+        stage.start = System.nanoTime();
+        final int T = HuffSplit.NUMTOPS;
+        ArrayList<byte[]> syms = new ArrayList<byte[]>(); // symbols of each block (null once final)
+        ArrayList<byte[]> rows = new ArrayList<byte[]>(); // backtrack rows of each block (null once final)
+        int[] prev = new int[T];
+        int[] cur = new int[T];
+        int bestT = -1;
+        long pos = 0;        // number of symbols seen so far
+        long fin = -1;       // last final position
+        int checkEvery = 1;  // blocks between checks for a new final prefix (doubles while the path stays unsettled)
+        int sinceCheck = 0;
+        int[] live = new int[T];
+        boolean[] seen = new boolean[T];
+        while(true) {
+            byte[] b = stage.take(blocks);
+            if(b == END) {
+                break;
+            }
+            
+            // forward DP over the block
+            byte[] sym = new byte[b.length];
+            byte[] row = new byte[b.length * T];
+            syms.add(sym);
+            rows.add(row);
+            for(int k = 0; k < b.length; ++k, ++pos) {
+                int c = SymbolScan.INDEX[b[k] & 0xFF]; // validated by the reader
+                sym[k] = (byte)c;
+                int[] tmp = prev; prev = cur; cur = tmp;
+                bestT = (pos == 0) ? HuffSplit.dpFirst(c,cur,row,k*T) : HuffSplit.dpStep(prev,bestT,c,cur,row,k*T);
+            }
+            if(++sinceCheck < checkEvery) {
+                continue;
+            }
+            sinceCheck = 0;
+            
+            // follow the backtrack chains of all live topologies until they merge (or we reach the final prefix)
+            int n = 0;
+            for(int t = 0; t < T; ++t) {
+                if(cur[t] != -1) {
+                    live[n++] = t;
+                }
+            }
+            long q = pos-1;
+            while(n > 1 && q > fin+1) {
+                byte[] r = rows.get((int)(q / BLOCK));
+                int off = (int)(q % BLOCK) * T;
+                int m = 0;
+                for(int k = 0; k < n; ++k) {
+                    int p = r[off + live[k]] & 0xFF;
+                    if(!seen[p]) {
+                        seen[p] = true;
+                        live[m++] = p;
+                    }
+                }
+                for(int k = 0; k < m; ++k) {
+                    seen[live[k]] = false;
+                }
+                n = m;
+                --q;
+            }
+            if(n == 1 && q > fin) {
+                fin = emit(syms,rows,fin,q,live[0],pieces,stage);
+                checkEvery = 1;
+            }
+            else {
+                checkEvery *= 2;
+            }
+        }
+        if(pos == 0) {
+            throw new IOException("Empty file!");
+        }
+        
+        // the rest of the path ends in the cheapest topology of the last symbol
+        emit(syms,rows,fin,pos-1,HuffSplit.dpLast(cur),pieces,stage);
+        stage.put(pieces,END_PIECE);
+        stage.end = System.nanoTime();
+    }
+    
+    /* Pass on the path from fin+1 to q (which ends in topology top), and drop the blocks that are now final
+     * OUTPUT: The new last final position (q)
+     */
+    static long emit( ArrayList<byte[]> syms, ArrayList<byte[]> rows, long fin, long q, int top, BlockingQueue<Piece> pieces, Stage stage ) throws InterruptedException {
+        final int T = HuffSplit.NUMTOPS;
+        Piece piece = new Piece((int)(q-fin));
+        for(long k = q; k > fin; --k) {
+            int i = (int)(k-fin-1);
+            piece.sym[i] = syms.get((int)(k / BLOCK))[(int)(k % BLOCK)];
+            piece.top[i] = (byte)top;
+            top = rows.get((int)(k / BLOCK))[(int)(k % BLOCK) * T + top] & 0xFF;
+        }
+        for(int b = (int)((fin+1) / BLOCK); b < (q+1) / BLOCK; ++b) { // backtrack rows are needed from q+1 on
+            syms.set(b,null);
+            rows.set(b,null);
+        }
+        stage.put(pieces,piece);
+        return q;
+    }
+    
+    /* Encoder stage: encode the final symbols, and pass on each segment once it is closed
+     */
+    static void encode( BlockingQueue<Piece> pieces, BlockingQueue<byte[]> chunks, ArrayList<long[]> segs, Stage stage ) throws IOException, InterruptedException {
+        stage.start = System.nanoTime();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();  // encoded data of the open segment
+        ByteArrayOutputStream closed = new ByteArrayOutputStream(); // closed segments that haven't been passed on yet
+        DataOutputStream out = new DataOutputStream(closed);
+        int top = -1;
+        int len = 0;
+        int buf = 0;
+        int nbits = 0;
+        long offset = 0;
+        long[] counts = new long[HuffSplit.SYMBOLS.length];
+        while(true) {
+            Piece piece = stage.take(pieces);
+            for(int k = 0; k < piece.sym.length || (piece == END_PIECE && top != -1); ++k) {
+                int t = (k < piece.sym.length) ? piece.top[k] & 0xFF : -1;
+                if(t != top) { // close the open segment
+                    if(top != -1) {
+                        if(nbits > 0) {
+                            data.write(buf << (8-nbits));
+                        }
+                        out.writeByte(top);
+                        out.writeInt(len);
+                        data.writeTo(out);
+                        if(segs != null) {
+                            long[] seg = new long[3+counts.length];
+                            seg[0] = top;
+                            seg[1] = len;
+                            seg[2] = offset;
+                            System.arraycopy(counts,0,seg,3,counts.length);
+                            segs.add(seg);
+                            Arrays.fill(counts,0);
+                        }
+                        offset += 5 + data.size();
+                        data.reset();
+                    }
+                    top = t;
+                    len = 0;
+                    buf = 0;
+                    nbits = 0;
+                    if(t == -1) {
+                        break;
+                    }
+                }
+                int s = piece.sym[k];
+                ++len;
+                ++counts[s];
+                if(top >= 5) {
+                    buf = (buf << Topologies.length(top,s)) | Topologies.code(top,s);
+                    nbits += Topologies.length(top,s);
+                    if(nbits >= 8) {
+                        nbits -= 8;
+                        data.write(buf >>> nbits);
+                        buf &= (1 << nbits) - 1;
+                    }
+                }
+            }
+            if(closed.size() > 0) {
+                stage.put(chunks,closed.toByteArray());
+                closed.reset();
+            }
+            if(piece == END_PIECE) {
+                break;
+            }
+        }
+        stage.put(chunks,END);
+        stage.end = System.nanoTime();
+    }
+    
+    /* Writer stage: write the closed segments to the output file
+     */
+    static void write( String OUTFILE, BlockingQueue<byte[]> chunks, Stage stage ) throws IOException, InterruptedException {
+        stage.start = System.nanoTime();
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(OUTFILE),1 << 16)) {
+            while(true) {
+                byte[] chunk = stage.take(chunks);
+                if(chunk == END) {
+                    break;
+                }
+                out.write(chunk);
+            }
+        }
+        stage.end = System.nanoTime();
+    }
+}
@@ -0,0 +1,430 @@
+/* AUTHOR: Niema Moshiri
+ * Split rANS Coding (Interleaved Range Asymmetric Numeral Systems Segments)
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> --rans
+ * -Decompress: java HuffSplit decompress <huffsplit_file> (rANS files are detected automatically)
+ *
+ * A Huffman topology spends a whole number of bits on every symbol, so a segment costs up to ~1 bit per symbol more
+ * than its entropy (e.g. 2 bits per symbol for a uniform 4-symbol segment is exact, but a skewed one like 70/10/10/10
+ * still needs 1.6 bits per symbol instead of 1.36). In a rANS segment, every symbol costs log2(M/freq) bits of its
+ * quantized frequency (M = 2^SCALE_BITS), which is within a fraction of a percent of the entropy.
+ *
+ * The codes of a segment are split round-robin over WAYS independent rANS states (symbol i goes to state i % WAYS) that
+ * share one byte stream, so the decoder's dependency chains are WAYS times shorter and it decodes WAYS symbols per loop
+ * iteration with a single table lookup each (no bit-by-bit tree walk).
+ *
+ * A rANS segment carries a bigger header than a Huffman one (its frequencies and final states), so short segments are
+ * still better off with a topology: every segment is written as whichever of the two is smaller. The segments are chosen
+ * by a DP over candidate cuts, as in Order1Coder.java: the cuts of the optimal order-0 path (HuffSplit.forwardDP), plus
+ * a cut every GRID symbols inside longer segments (where the composition can drift without the topology changing). The
+ * size of a segment either way follows from prefix counts at the candidates (the rANS size is estimated from the code
+ * lengths of its quantized frequencies), and the DP merges runs of up to WINDOW consecutive candidates (or a whole
+ * order-0 segment) into one segment wherever that makes the output smaller, so a rANS file is never bigger than the
+ * order-0 file plus its marker byte.
+ *
+ * COMPRESSED FILE OUTPUT FORMAT (rANS):
+ * -1 byte: RANS_MARKER (252, never a valid topology)
+ * -Then, per segment, either a Huffman segment (exactly as in HuffSplit.java: 1 byte for the topology, 4 bytes for the
+ *  number of symbols, and the codes) or a rANS segment: 1 byte (RANS_SEGMENT (224) plus the symbols that occur in the
+ *  segment: bit s is set if SYMBOLS[s] occurs, at least 2 of them), 4 bytes (an int telling us how many symbols are in
+ *  the segment), 2 bytes per occurring symbol (its quantized frequency; they add up to 2^SCALE_BITS), 4 bytes (an int
+ *  telling us the length of the payload), and the payload (the final value of each of the WAYS states, 4 bytes each,
+ *  followed by the renormalization bytes)
+ *
+ * rANS files can't be BWT-transformed, indexed, or queried (index, stats, search, etc. only read Huffman segments).
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class RansCoder {
+    // instance variables
+    public static final int RANS_MARKER = 252;            // first byte of a rANS HuffSplit file
+    public static final int RANS_SEGMENT = 224;           // first byte of a rANS segment (plus its symbol set)
+    public static final int SCALE_BITS = 12;              // frequencies are quantized to add up to M = 2^SCALE_BITS
+    public static final int M = 1 << SCALE_BITS;
+    public static final int RANS_L = 1 << 23;             // lower bound of a normalized state (states are in [L, 256L))
+    public static final int WAYS = 4;                     // interleaved states per segment
+    public static final int SYMS = 5;                     // one frequency per symbol of SYMBOLS
+    public static final int GRID = 1 << 14;               // longest candidate segment
+    public static final int WINDOW = 32;                  // most candidate segments merged into one segment
+    private static final double[] LOG2 = new double[M+1]; // LOG2[f] = log2(f)
+    static {
+        for(int f = 1; f <= M; ++f) {
+            LOG2[f] = Math.log(f) / Math.log(2);
+        }
+    }
+    
+    /* Quantize the symbol counts of a segment
+     * INPUT:  The number of times each symbol occurs (n[o...o+4]) and the array to put the frequencies in
+     * OUTPUT: The number of occurring symbols; freq holds frequencies that add up to M (at least 1 for every occurring
+     *         symbol, 0 for the others)
+     */
+    static int quantize( int[] n, int o, int[] freq ) {
+        long N = 0;
+        int k = 0;
+        int most = -1;
+        for(int s = 0; s < SYMS; ++s) {
+            N += n[o+s];
+            if(n[o+s] != 0) {
+                ++k;
+                if(most == -1 || n[o+s] > n[o+most]) {
+                    most = s;
+                }
+            }
+        }
+        int total = 0;
+        for(int s = 0; s < SYMS; ++s) {
+            freq[s] = (n[o+s] == 0) ? 0 : Math.max(1,(int)((long)n[o+s] * M / N));
+            total += freq[s];
+        }
+        freq[most] += M - total; // the most common symbol has at least M/5 - 4, so it stays positive
+        return k;
+    }
+    
+    /* Find the cheapest way to write a segment
+     * INPUT:  The number of times each symbol occurs (n[0...4]) and the array to put the quantized frequencies in
+     * OUTPUT: The size of the segment in bits (high bits; header, codes, and padding) and how to write it (low 8 bits):
+     *         RANS_SEGMENT if a rANS segment is smaller (freq then holds its frequencies), else the best topology
+     */
+    static long segmentBits( int[] n, int[] freq ) {
+        long order0 = Order1Coder.bestTopology(n,0);
+        long huffman = 8*(1+4) + ((order0 >>> 8) + 7) / 8 * 8;
+        int k = quantize(n,0,freq);
+        if(k <= 1) {
+            return (huffman << 8) | (order0 & 0xFF);
+        }
+        double codes = 0;
+        for(int s = 0; s < SYMS; ++s) {
+            if(n[s] != 0) {
+                codes += n[s] * (SCALE_BITS - LOG2[freq[s]]);
+            }
+        }
+        long rans = 8*(1 + 4 + 2*k + 4 + 4*WAYS) + ((long)Math.ceil(codes) + 7) / 8 * 8;
+        return (rans < huffman) ? ((rans << 8) | RANS_SEGMENT) : ((huffman << 8) | (order0 & 0xFF));
+    }
+    
+    /* rANS-encode the symbols of a segment
+     * INPUT:  The message (len symbols starting at off), the quantized frequency of each symbol, and the buffer to encode
+     *         into (the payload ends at buf[end-1], and may start as early as end-maxPayload(len))
+     * OUTPUT: The start of the payload
+     */
+    static int encodeSegment( byte[] msg, int off, int len, int[] freq, byte[] buf, int end ) {
+        int[] start = new int[SYMS];
+        for(int s = 1; s < SYMS; ++s) {
+            start[s] = start[s-1] + freq[s-1];
+        }
+        int[] x = new int[WAYS];
+        Arrays.fill(x,RANS_L);
+        int p = end;
+        for(int i = len-1; i >= 0; --i) { // rANS is last-in first-out, so encode backwards
+            int s = HuffSplit.symbolIndex((char)(msg[off+i] & 0xFF));
+            int f = freq[s];
+            int xs = x[i & (WAYS-1)];
+            int xmax = ((RANS_L >>> SCALE_BITS) << 8) * f;
+            while(xs >= xmax) {
+                buf[--p] = (byte)xs;
+                xs >>>= 8;
+            }
+            x[i & (WAYS-1)] = ((xs / f) << SCALE_BITS) + (xs % f) + start[s];
+        }
+        for(int j = WAYS-1; j >= 0; --j) {
+            p -= 4;
+            buf[p] = (byte)(x[j] >>> 24);
+            buf[p+1] = (byte)(x[j] >>> 16);
+            buf[p+2] = (byte)(x[j] >>> 8);
+            buf[p+3] = (byte)x[j];
+        }
+        return p;
+    }
+    
+    /* Upper bound on the payload of a segment
+     * INPUT:  The number of symbols in the segment
+     * OUTPUT: The most bytes encodeSegment can write (at most SCALE_BITS bits per symbol, plus the states)
+     */
+    static int maxPayload( int len ) {
+        return (int)(((long)len * SCALE_BITS + 7) / 8) + 4*WAYS + 8;
+    }
+    
+    /* Build the decoding table of a segment
+     * INPUT:  The quantized frequency of each symbol and the table to fill (M entries)
+     * OUTPUT: table[slot] holds the frequency (bits 20-31), the offset of the slot in its symbol's range (bits 8-19), and
+     *         the symbol itself (bits 0-7)
+     */
+    static void buildTable( int[] freq, int[] table ) {
+        int slot = 0;
+        for(int s = 0; s < SYMS; ++s) {
+            for(int b = 0; b < freq[s]; ++b, ++slot) {
+                table[slot] = (freq[s] << 20) | (b << 8) | HuffSplit.SYMBOLS[s];
+            }
+        }
+    }
+    
+    /* rANS-decode the symbols of a segment
+     * INPUT:  The payload (src[0...srcLen-1]), the decoding table (see buildTable), and the array to decode n symbols into
+     * OUTPUT: The decoded symbols (a CorruptStreamException is thrown if the payload doesn't decode to exactly n symbols)
+     */
+    static void decodeSegment( byte[] src, int srcLen, int[] table, byte[] dest, int n ) throws CorruptStreamException {
+        if(srcLen < 4*WAYS) {
+            throw new CorruptStreamException("Truncated rANS payload");
+        }
+        int x0 = readInt(src,0), x1 = readInt(src,4), x2 = readInt(src,8), x3 = readInt(src,12);
+        if(x0 < RANS_L || x1 < RANS_L || x2 < RANS_L || x3 < RANS_L) { // also catches states >= 2^31 (negative)
+            throw new CorruptStreamException("Invalid rANS state");
+        }
+        int p = 4*WAYS;
+        int i = 0;
+        final int mask = M-1;
+        try {
+            // WAYS symbols per iteration: the four states are independent until their renormalization
+            for(; i+WAYS <= n; i += WAYS) {
+                int e0 = table[x0 & mask], e1 = table[x1 & mask], e2 = table[x2 & mask], e3 = table[x3 & mask];
+                dest[i] = (byte)e0; dest[i+1] = (byte)e1; dest[i+2] = (byte)e2; dest[i+3] = (byte)e3;
+                x0 = (e0 >>> 20) * (x0 >>> SCALE_BITS) + ((e0 >>> 8) & mask);
+                x1 = (e1 >>> 20) * (x1 >>> SCALE_BITS) + ((e1 >>> 8) & mask);
+                x2 = (e2 >>> 20) * (x2 >>> SCALE_BITS) + ((e2 >>> 8) & mask);
+                x3 = (e3 >>> 20) * (x3 >>> SCALE_BITS) + ((e3 >>> 8) & mask);
+                while(x0 < RANS_L) { x0 = (x0 << 8) | (src[p++] & 0xFF); }
+                while(x1 < RANS_L) { x1 = (x1 << 8) | (src[p++] & 0xFF); }
+                while(x2 < RANS_L) { x2 = (x2 << 8) | (src[p++] & 0xFF); }
+                while(x3 < RANS_L) { x3 = (x3 << 8) | (src[p++] & 0xFF); }
+            }
+            
+            // the last n % WAYS symbols
+            int[] x = {x0,x1,x2,x3};
+            for(; i < n; ++i) {
+                int xs = x[i & (WAYS-1)];
+                int e = table[xs & mask];
+                dest[i] = (byte)e;
+                xs = (e >>> 20) * (xs >>> SCALE_BITS) + ((e >>> 8) & mask);
+                while(xs < RANS_L) {
+                    xs = (xs << 8) | (src[p++] & 0xFF);
+                }
+                x[i & (WAYS-1)] = xs;
+            }
+            x0 = x[0]; x1 = x[1]; x2 = x[2]; x3 = x[3];
+        } catch(ArrayIndexOutOfBoundsException e) {
+            throw new CorruptStreamException("Truncated rANS payload");
+        }
+        if(p > srcLen || x0 != RANS_L || x1 != RANS_L || x2 != RANS_L || x3 != RANS_L) { // every state ends where it started
+            throw new CorruptStreamException("Corrupt rANS payload");
+        }
+    }
+    
+    /* Read a big-endian int
+     */
+    private static int readInt( byte[] b, int p ) {
+        return ((b[p] & 0xFF) << 24) | ((b[p+1] & 0xFF) << 16) | ((b[p+2] & 0xFF) << 8) | (b[p+3] & 0xFF);
+    }
+    
+    /* Compress a DNA message with rANS segments
+     * INPUT:  The message (L symbols starting at off), the stream to write to, and whether to find the candidate cuts
+     *         with the compact backtrack matrix (see CompactDP.java)
+     * OUTPUT: The rANS HuffSplit stream; an InvalidSymbolException is thrown if the message isn't DNA
+     */
+    public static void compress( byte[] msg, int off, int L, DataOutputStream out, boolean COMPACT ) throws IOException {
+        if(L == 0) {
+            throw new HuffSplitException("Empty input");
+        }
+        SymbolScan.validate(msg,off,L);
+        CodecWorkspace ws = CodecWorkspace.get();
+        try {
+            // candidate cuts: the cuts of the optimal order-0 path, and every GRID symbols in between (whole[k] is the
+            // candidate that starts the order-0 segment of the symbols before cut[k])
+            int[] cut0 = HuffSplit.optimalCuts(msg,off,L,ws,COMPACT);
+            int K = 0;
+            for(int k = 0; k < cut0.length-1; ++k) {
+                K += (cut0[k+1] - cut0[k] + GRID - 1) / GRID;
+            }
+            int[] cut = new int[K+1];
+            int[] whole = new int[K+1];
+            int numCuts = 0;
+            for(int k = 0; k < cut0.length-1; ++k) {
+                int first = numCuts;
+                for(int start = cut0[k]; start < cut0[k+1]; start += GRID) {
+                    cut[numCuts] = start;
+                    whole[++numCuts] = first;
+                }
+            }
+            cut[K] = L;
+            HuffSplitEvents.Span phase = HuffSplitEvents.phase("compress","backtrack");
+            
+            // prefix counts of the symbols at the candidate cuts
+            int[] prefix = new int[(K+1)*SYMS];
+            int[] n = new int[SYMS];
+            for(int k = 0; k < K; ++k) {
+                SymbolScan.scan(msg,off+cut[k],cut[k+1]-cut[k],n);
+                System.arraycopy(n,0,prefix,(k+1)*SYMS,SYMS);
+            }
+            
+            // DP over the candidate cuts: bits[k] is the size of the best encoding of the first cut[k] symbols
+            int[] freq = new int[SYMS];
+            long[] bits = new long[K+1];
+            int[] from = new int[K+1];
+            for(int k = 1; k <= K; ++k) {
+                bits[k] = Long.MAX_VALUE;
+                // the last WINDOW candidates, then the start of the order-0 segment (if it is further back)
+                for(int j = k-1; j >= 0; j = (j > k-WINDOW) ? j-1 : (j > whole[k]) ? whole[k] : -1) {
+                    for(int s = 0; s < SYMS; ++s) {
+                        n[s] = prefix[k*SYMS+s] - prefix[j*SYMS+s];
+                    }
+                    long b = bits[j] + (segmentBits(n,freq) >>> 8);
+                    if(b < bits[k]) {
+                        bits[k] = b;
+                        from[k] = j;
+                    }
+                }
+            }
+            phase.commit();
+            
+            // encode the chosen segments (first to last)
+            phase = HuffSplitEvents.phase("compress","encode");
+            ArrayList<Integer> chosen = new ArrayList<Integer>();
+            for(int k = K; k > 0; k = from[k]) {
+                chosen.add(k);
+            }
+            out.writeByte(RANS_MARKER);
+            int j = 0;
+            for(int c = chosen.size()-1; c >= 0; --c) {
+                int k = chosen.get(c);
+                int len = cut[k]-cut[j];
+                int mask = 0;
+                for(int s = 0; s < SYMS; ++s) {
+                    n[s] = prefix[k*SYMS+s] - prefix[j*SYMS+s];
+                    if(n[s] != 0) {
+                        mask |= 1 << s;
+                    }
+                }
+                int top = (int)(segmentBits(n,freq) & 0xFF);
+                if(top != RANS_SEGMENT) { // Huffman segment
+                    out.writeByte(top);
+                    out.writeInt(len);
+                    if(top >= 5) { // if only 1 unique symbol, only need first 5 bytes
+                        int buf = 0;
+                        int nbits = 0;
+                        for(int i = cut[j]; i < cut[k]; ++i) {
+                            int s = HuffSplit.symbolIndex((char)(msg[off+i] & 0xFF));
+                            buf = (buf << Topologies.length(top,s)) | Topologies.code(top,s);
+                            nbits += Topologies.length(top,s);
+                            if(nbits >= 8) {
+                                nbits -= 8;
+                                out.writeByte(buf >>> nbits);
+                                buf &= (1 << nbits) - 1;
+                            }
+                        }
+                        if(nbits > 0) {
+                            out.writeByte(buf << (8-nbits));
+                        }
+                    }
+                }
+                else {
+                    out.writeByte(RANS_SEGMENT | mask);
+                    out.writeInt(len);
+                    for(int s = 0; s < SYMS; ++s) {
+                        if(freq[s] != 0) {
+                            out.writeShort(freq[s]);
+                        }
+                    }
+                    int end = maxPayload(len);
+                    byte[] buf = ws.payloadBuffer(end);
+                    int p = encodeSegment(msg,off+cut[j],len,freq,buf,end);
+                    out.writeInt(end-p);
+                    out.write(buf,p,end-p);
+                }
+                j = k;
+            }
+            phase.commit();
+        } finally {
+            ws.trim();
+        }
+    }
+    
+    /* Compress a file with rANS segments
+     * INPUT:  The input file, the output file, and whether to use the compact backtrack matrix
+     * OUTPUT: The compressed file
+     */
+    public static void compress( String INFILE, String OUTFILE, boolean COMPACT ) {
+        byte[] in = null;
+        try {
+            in = Files.readAllBytes(Paths.get(INFILE));
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while reading \"" + INFILE + "\"!"); System.exit(-1);
+        }
+        if(in.length == 0) {
+            System.err.println("ERROR: Empty file!"); System.exit(-1);
+        }
+        int bad = SymbolScan.scan(in,0,in.length,null); // before any output exists
+        if(bad != -1) {
+            System.err.println("ERROR: Invalid symbol: " + (char)(in[bad] & 0xFF)); System.exit(-1);
+        }
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(OUTFILE),1 << 16))) {
+            compress(in,0,in.length,out,COMPACT);
+        } catch(InvalidSymbolException e) {
+            System.err.println("ERROR: Invalid symbol: " + e.symbol); System.exit(-1);
+        } catch(IOException e) {
+            System.err.println("ERROR: IOException while writing \"" + OUTFILE + "\"!"); System.exit(-1);
+        }
+    }
+    
+    /* Decompress the rANS segments of a stream (RANS_MARKER has already been read)
+     * INPUT:  The stream of segments and the stream to write the message to
+     * OUTPUT: The uncompressed message (a CorruptStreamException is thrown if the input is malformed, or an EOFException if
+     *         it is truncated)
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out ) throws IOException {
+        decompress(in,out,DecodeGuard.unbounded());
+    }
+    
+    /* Decompress a rANS HuffSplit stream, checking every segment length before decoding it (see DecodeGuard.java)
+     * INPUT:  The stream of segments, the stream to write the message to, and the guard
+     * OUTPUT: The uncompressed message
+     */
+    public static void decompress( DataInputStream in, DataOutputStream out, DecodeGuard guard ) throws IOException {
+        CodecWorkspace ws = CodecWorkspace.get();
+        int[] freq = new int[SYMS];
+        int[] table = new int[M];
+        while(true) {
+            int first;
+            try {
+                first = in.readByte() & 0xFF;
+            } catch(EOFException e) {
+                break;
+            }
+            int mask = first - RANS_SEGMENT;
+            if(first >= HuffSplit.NUMTOPS && (mask < 0 || mask >= (1 << SYMS) || Integer.bitCount(mask) < 2)) {
+                throw new CorruptStreamException("Unrecognized segment header: " + first);
+            }
+            int numChars = in.readInt();
+            guard.segment(numChars,(first >= 5 && first < HuffSplit.NUMTOPS) ? 1 : 0,in); // rANS symbols can take less than a bit
+            HuffSplitEvents.Span event = HuffSplitEvents.segmentDecoded();
+            byte[] dest = ws.decodeBuffer(numChars);
+            if(first < HuffSplit.NUMTOPS) {
+                HuffSplit.decodeSegment(in,first,numChars,dest);
+            }
+            else {
+                int total = 0;
+                for(int s = 0; s < SYMS; ++s) {
+                    freq[s] = (((mask >>> s) & 1) == 0) ? 0 : in.readUnsignedShort();
+                    if(((mask >>> s) & 1) != 0 && freq[s] == 0) {
+                        throw new CorruptStreamException("Zero frequency for an occurring symbol");
+                    }
+                    total += freq[s];
+                }
+                if(total != M) {
+                    throw new CorruptStreamException("Frequencies add up to " + total + " (expected " + M + ")");
+                }
+                int payload = in.readInt();
+                if(payload < 0 || payload > maxPayload(numChars)) {
+                    throw new CorruptStreamException("Invalid payload length: " + payload);
+                }
+                byte[] src = ws.payloadBuffer(payload);
+                in.readFully(src,0,payload);
+                buildTable(freq,table);
+                decodeSegment(src,payload,table,dest,numChars);
+            }
+            out.write(dest,0,numChars);
+            event.commit(first,numChars);
+        }
+    }
+}
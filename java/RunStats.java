@@ -0,0 +1,217 @@
+/* AUTHOR: Niema Moshiri
+ * Per-Phase Timing and Counters of a Compress or Decompress Run
+ *
+ * USAGE:
+ * -Compress:   java HuffSplit compress <in_file> --stats[=json] [--index] [--bwt]
+ * -Decompress: java HuffSplit decompress <huffsplit_file> --stats[=json]
+ *
+ * Reports (on standard error, as a table or as one JSON object) the wall and CPU time of each phase, bases per second,
+ * peak heap, the number of segments, their mean length, how many segments and bases each topology got, and how the
+ * output bits split into segment headers (InfoByte + numChars, plus the BWT header), code bits (payload), and padding
+ * at the end of each segment. The phases are:
+ * -read:        reading the input file
+ * -bwt:         the Burrows-Wheeler transform (compress --bwt only)
+ * -forward_dp:  the forward pass of the DP
+ * -backtrack:   walking the backtrack matrix, which yields the cuts (segment boundaries) in the same pass
+ * -encode:      encoding the segments into memory (compress) / decode: decoding them into memory (decompress)
+ * -inverse_bwt: the inverse Burrows-Wheeler transform (BWT files only)
+ * -write:       writing the output file
+ *
+ * With --stats, the output is built in memory before it is written, so that encoding/decoding and writing are timed
+ * separately. CPU time is that of the thread running the phase (compress and decompress are single-threaded), and the
+ * peak heap is the sum of the peaks of the heap memory pools since the run started (an upper bound).
+ */
+import java.lang.management.*;
+import java.util.*;
+
+public class RunStats {
+    // instance variables
+    public static final String[] PHASES = {"read","bwt","forward_dp","backtrack","encode","decode","inverse_bwt","write"};
+    public static final int READ = 0, BWT = 1, FORWARD_DP = 2, BACKTRACK = 3, ENCODE = 4, DECODE = 5, INVERSE_BWT = 6, WRITE = 7;
+    public final String command;                 // "compress" or "decompress"
+    public final boolean json;                   // report as JSON instead of a table
+    private final long[] wall = new long[PHASES.length];
+    private final long[] cpu = new long[PHASES.length];
+    private final boolean[] used = new boolean[PHASES.length];
+    private int phase = -1;                      // running phase (-1 if none)
+    private long wall0, cpu0;                    // when the running phase started
+    private final long start = System.nanoTime();
+    public long bases;                           // symbols of the (uncompressed) message
+    public long segments;
+    public final long[] topSegments = new long[HuffSplit.NUMTOPS]; // segments of each topology
+    public final long[] topBases = new long[HuffSplit.NUMTOPS];    // bases of each topology
+    public long headerBits;                      // InfoByte + numChars of each segment, plus the BWT header
+    public long payloadBits;                     // code bits
+    public long paddingBits;                     // zero bits filling the last byte of each segment
+    
+    /* Constructor (resets the peak usage of the heap pools)
+     */
+    public RunStats( String command, boolean json ) {
+        this.command = command;
+        this.json = json;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+    
+    /* Parse the --stats option of a command
+     * INPUT:  The arguments
+     * OUTPUT: A RunStats for args[0] if "--stats" or "--stats=json" was given, otherwise null
+     */
+    public static RunStats fromArgs( String[] args ) {
+        String v = HuffSplit.optionValue(args,"--stats");
+        if(v == null && !HuffSplit.hasOption(args,"--stats")) {
+            return null;
+        }
+        if(v != null && !v.equals("json")) {
+            System.err.println("ERROR: Unknown stats format: " + v); System.exit(-1);
+        }
+        return new RunStats(args[0],v != null);
+    }
+    
+    /* End the running phase (if any) and start another
+     */
+    public void begin( int p ) {
+        end();
+        phase = p;
+        used[p] = true;
+        wall0 = System.nanoTime();
+        cpu0 = cpuTime();
+    }
+    
+    /* End the running phase (if any)
+     */
+    public void end() {
+        if(phase != -1) {
+            wall[phase] += System.nanoTime() - wall0;
+            cpu[phase] += cpuTime() - cpu0;
+            phase = -1;
+        }
+    }
+    
+    /* CPU time of the calling thread (0 if the JVM can't measure it)
+     */
+    private static long cpuTime() {
+        return Threads.BEAN.isCurrentThreadCpuTimeSupported() ? Threads.BEAN.getCurrentThreadCpuTime() : 0;
+    }
+    
+    /* Holder of the thread MXBean: fetching it loads ~50 java.management classes (~30-40 ms), so it is only fetched once
+     * a phase is timed, and runs without --stats (which load RunStats for fromArgs) never pay for it
+     */
+    private static final class Threads {
+        static final ThreadMXBean BEAN = ManagementFactory.getThreadMXBean();
+    }
+    
+    /* Count a segment
+     * INPUT:  Its topology, its length, and the number of code bits in it
+     */
+    public void segment( int top, int len, long bits ) {
+        ++segments;
+        ++topSegments[top];
+        topBases[top] += len;
+        bases += len;
+        headerBits += 40;
+        payloadBits += bits;
+        paddingBits += (8 - bits % 8) % 8;
+    }
+    
+    /* Count the segments of an encoded message
+     * INPUT:  The message (L symbols starting at off) and the workspace (after findSegments)
+     */
+    public void segments( byte[] msg, int off, int L, CodecWorkspace ws ) {
+        for(int seg = ws.numSegs-1; seg >= 0; --seg) {
+            int start = ws.segStart[seg];
+            int end = (seg > 0) ? ws.segStart[seg-1] : L;
+            segment(ws.segTop[seg],end-start,codeBits(ws.segTop[seg],msg,off+start,end-start));
+        }
+    }
+    
+    /* Number of code bits of some symbols in a topology
+     */
+    public static long codeBits( int top, byte[] msg, int off, int len ) {
+        long bits = 0;
+        for(int i = off; i < off+len; ++i) {
+            bits += Topologies.length(top,HuffSplit.symbolIndex((char)(msg[i] & 0xFF)));
+        }
+        return bits;
+    }
+    
+    /* Peak heap usage since the run started (sum of the peaks of the heap pools)
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+    
+    /* Print the report to standard error (ends the running phase)
+     */
+    public void report() {
+        end();
+        long total = System.nanoTime() - start;
+        double basesPerSec = bases / (total/1e9);
+        double meanSeg = (segments == 0) ? 0 : (double)bases / segments;
+        long peak = peakHeap();
+        long bits = headerBits + payloadBits + paddingBits;
+        if(json) {
+            StringBuilder s = new StringBuilder();
+            s.append("{\"command\":\"").append(command).append("\",\"phases\":{");
+            String sep = "";
+            for(int p = 0; p < PHASES.length; ++p) {
+                if(used[p]) {
+                    s.append(sep).append('"').append(PHASES[p]).append("\":{\"wall_s\":").append(String.format(Locale.ROOT,"%.6f",wall[p]/1e9));
+                    s.append(",\"cpu_s\":").append(String.format(Locale.ROOT,"%.6f",cpu[p]/1e9)).append('}');
+                    sep = ",";
+                }
+            }
+            s.append("},\"total_s\":").append(String.format(Locale.ROOT,"%.6f",total/1e9));
+            s.append(",\"bases\":").append(bases);
+            s.append(",\"bases_per_s\":").append(String.format(Locale.ROOT,"%.1f",basesPerSec));
+            s.append(",\"peak_heap_bytes\":").append(peak);
+            s.append(",\"segments\":").append(segments);
+            s.append(",\"mean_segment_length\":").append(String.format(Locale.ROOT,"%.3f",meanSeg));
+            s.append(",\"header_bits\":").append(headerBits);
+            s.append(",\"payload_bits\":").append(payloadBits);
+            s.append(",\"padding_bits\":").append(paddingBits);
+            s.append(",\"topologies\":{");
+            sep = "";
+            for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+                if(topSegments[t] > 0) {
+                    s.append(sep).append('"').append(t).append("\":{\"segments\":").append(topSegments[t]);
+                    s.append(",\"bases\":").append(topBases[t]).append('}');
+                    sep = ",";
+                }
+            }
+            s.append("}}");
+            System.err.println(s);
+            return;
+        }
+        System.err.println("Phase\tWall (s)\tCPU (s)");
+        for(int p = 0; p < PHASES.length; ++p) {
+            if(used[p]) {
+                System.err.println(PHASES[p] + "\t" + String.format("%.3f\t%.3f",wall[p]/1e9,cpu[p]/1e9));
+            }
+        }
+        System.err.println("Total\t" + String.format("%.3f",total/1e9));
+        System.err.println("Bases: " + bases);
+        System.err.println("Bases/s: " + String.format("%.0f",basesPerSec));
+        System.err.println("Peak heap: " + String.format("%.1f",peak/1048576.0) + " MB");
+        System.err.println("Segments: " + segments);
+        System.err.println("Mean segment length: " + String.format("%.1f",meanSeg));
+        System.err.println("Header bits: " + headerBits + String.format(" (%.2f%%)",100.0*headerBits/Math.max(1,bits)));
+        System.err.println("Payload bits: " + payloadBits + String.format(" (%.2f%%)",100.0*payloadBits/Math.max(1,bits)));
+        System.err.println("Padding bits: " + paddingBits + String.format(" (%.2f%%)",100.0*paddingBits/Math.max(1,bits)));
+        System.err.println("Topology\tSegments\tBases");
+        for(int t = 0; t < HuffSplit.NUMTOPS; ++t) {
+            if(topSegments[t] > 0) {
+                System.err.println(t + "\t" + topSegments[t] + "\t" + topBases[t]);
+            }
+        }
+    }
+}
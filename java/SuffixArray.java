@@ -0,0 +1,188 @@
+/* AUTHOR: Niema Moshiri
+ * Suffix Array Construction (SA-IS)
+ *
+ * Linear-time suffix array construction by induced sorting (Nong, Zhang, and Chan, 2009), the same algorithm as
+ * c++/sais.c. The text is an int array whose last symbol is a unique sentinel 0, and all other symbols are in [1,K).
+ *
+ * The symbols of each recursion level's text are counted once, and every bucket boundary of that level is derived from
+ * the counts. Induced sorting is inherently sequential, so only that count is split across threads (for large texts).
+ * Texts are limited to Integer.MAX_VALUE - 8 symbols (the size limit of a Java array, and of the int suffix array), so
+ * messages of more than ~2 Gb can't be indexed.
+ */
+import java.util.*;
+import java.util.stream.*;
+
+public class SuffixArray {
+    // instance variables
+    public static final int PARALLEL_MIN = 1 << 20; // minimum text length for counting symbols in parallel
+    
+    /* Build the suffix array of a text
+     * INPUT:  The text (ending in a unique sentinel 0) and the alphabet size K
+     * OUTPUT: The suffix array of the text
+     */
+    public static int[] build( int[] T, int K ) {
+        int n = T.length;
+        if(n == 0 || T[n-1] != 0) {
+            System.err.println("ERROR: Text for suffix array must end with the sentinel 0"); System.exit(-1);
+        }
+        int[] SA = new int[n];
+        sais(T,SA,n,K);
+        return SA;
+    }
+    
+    /* Is position i of the text a leftmost S-type (LMS) position?
+     */
+    private static boolean isLMS( boolean[] t, int i ) {
+        return i > 0 && t[i] && !t[i-1];
+    }
+    
+    /* Count the symbols of a text
+     * INPUT:  The text T[0,n) and the alphabet size K
+     * OUTPUT: count[c] is the number of c in the text
+     */
+    private static int[] count( int[] T, int n, int K ) {
+        if(n < PARALLEL_MIN) {
+            int[] count = new int[K];
+            for(int i = 0; i < n; ++i) {
+                ++count[T[i]];
+            }
+            return count;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        int block = (n + threads - 1) / threads;
+        return IntStream.range(0,threads).parallel().mapToObj(b -> {
+            int[] c = new int[K];
+            for(int i = b*block; i < Math.min(n,(b+1)*block); ++i) {
+                ++c[T[i]];
+            }
+            return c;
+        }).reduce(new int[K],(x,y) -> {
+            int[] z = new int[K];
+            for(int i = 0; i < K; ++i) {
+                z[i] = x[i] + y[i];
+            }
+            return z;
+        });
+    }
+    
+    /* Compute the start (end == false) or end (end == true) of each symbol's bucket from the symbol counts
+     */
+    private static void getBuckets( int[] count, int[] bkt, int K, boolean end ) {
+        int sum = 0;
+        for(int i = 0; i < K; ++i) {
+            sum += count[i];
+            bkt[i] = end ? sum : sum - count[i];
+        }
+    }
+    
+    /* Induce the order of the L-type suffixes from the sorted LMS suffixes
+     */
+    private static void induceL( int[] T, int[] SA, boolean[] t, int[] count, int[] bkt, int n, int K ) {
+        getBuckets(count,bkt,K,false);
+        for(int i = 0; i < n; ++i) {
+            int j = SA[i] - 1;
+            if(j >= 0 && !t[j]) {
+                SA[bkt[T[j]]++] = j;
+            }
+        }
+    }
+    
+    /* Induce the order of the S-type suffixes from the sorted L-type suffixes
+     */
+    private static void induceS( int[] T, int[] SA, boolean[] t, int[] count, int[] bkt, int n, int K ) {
+        getBuckets(count,bkt,K,true);
+        for(int i = n-1; i >= 0; --i) {
+            int j = SA[i] - 1;
+            if(j >= 0 && t[j]) {
+                SA[--bkt[T[j]]] = j;
+            }
+        }
+    }
+    
+    /* SA-IS on T[0,n) with symbols in [0,K), writing the suffix array into SA[0,n)
+     */
+    private static void sais( int[] T, int[] SA, int n, int K ) {
+        // classify suffixes as S-type (true) or L-type (false)
+        boolean[] t = new boolean[n];
+        t[n-1] = true;
+        for(int i = n-2; i >= 0; --i) {
+            t[i] = T[i] < T[i+1] || (T[i] == T[i+1] && t[i+1]);
+        }
+        
+        // stage 1: sort the LMS substrings
+        int[] count = count(T,n,K);
+        int[] bkt = new int[K];
+        getBuckets(count,bkt,K,true);
+        Arrays.fill(SA,0,n,-1);
+        for(int i = 1; i < n; ++i) {
+            if(isLMS(t,i)) {
+                SA[--bkt[T[i]]] = i;
+            }
+        }
+        induceL(T,SA,t,count,bkt,n,K);
+        induceS(T,SA,t,count,bkt,n,K);
+        
+        // compact the sorted LMS substrings into the first n1 positions of SA
+        int n1 = 0;
+        for(int i = 0; i < n; ++i) {
+            if(isLMS(t,SA[i])) {
+                SA[n1++] = SA[i];
+            }
+        }
+        
+        // name the LMS substrings (equal substrings get equal names)
+        Arrays.fill(SA,n1,n,-1);
+        int name = 0;
+        int prev = -1;
+        for(int i = 0; i < n1; ++i) {
+            int pos = SA[i];
+            boolean diff = false;
+            for(int d = 0; d < n; ++d) {
+                if(prev == -1 || T[pos+d] != T[prev+d] || t[pos+d] != t[prev+d]) {
+                    diff = true;
+                    break;
+                }
+                else if(d > 0 && (isLMS(t,pos+d) || isLMS(t,prev+d))) {
+                    break;
+                }
+            }
+            if(diff) {
+                ++name;
+                prev = pos;
+            }
+            SA[n1 + pos/2] = name - 1;
+        }
+        int[] s1 = new int[n1];
+        for(int i = n-1, j = n1-1; i >= n1; --i) {
+            if(SA[i] >= 0) {
+                s1[j--] = SA[i];
+            }
+        }
+        
+        // stage 2: sort the reduced string (recursing if the names aren't unique yet)
+        int[] SA1 = new int[n1];
+        if(name < n1) {
+            sais(s1,SA1,n1,name);
+        }
+        else {
+            for(int i = 0; i < n1; ++i) {
+                SA1[s1[i]] = i;
+            }
+        }
+        
+        // stage 3: induce the full suffix array from the sorted LMS suffixes
+        for(int i = 1, j = 0; i < n; ++i) {
+            if(isLMS(t,i)) {
+                s1[j++] = i;
+            }
+        }
+        getBuckets(count,bkt,K,true);
+        Arrays.fill(SA,0,n,-1);
+        for(int i = n1-1; i >= 0; --i) {
+            int j = s1[SA1[i]];
+            SA[--bkt[T[j]]] = j;
+        }
+        induceL(T,SA,t,count,bkt,n,K);
+        induceS(T,SA,t,count,bkt,n,K);
+    }
+}
@@ -0,0 +1,105 @@
+/* AUTHOR: Niema Moshiri
+ * Validation and Symbol Histogram Kernel (SWAR over 8-Byte Words)
+ *
+ * Every compress path first has to check that the message only has the symbols of HuffSplit.SYMBOLS (and most of them
+ * also count them). Doing that a byte at a time costs a chain of compares and a hard-to-predict branch per symbol, so
+ * scan reads the message 8 bytes at a time as a long and tests all 8 bytes at once ("SIMD within a register"): XOR with
+ * a symbol repeated 8 times zeroes the bytes equal to it, and an exact zero-byte test turns those into a mask with the
+ * high bit of each such byte set. The OR of the masks of all symbols must then have all 8 high bits set, the first
+ * missing one gives the offset of the first invalid byte, and the bit count of each mask is the number of that symbol in
+ * the word. The few bytes after the last whole word go through INDEX, a byte-to-symbol table (which is also what
+ * HuffSplit.symbolIndex uses, instead of a switch).
+ */
+import java.lang.invoke.*;
+import java.nio.ByteOrder;
+
+public class SymbolScan {
+    // instance variables
+    public static final byte[] INDEX = new byte[256]; // INDEX[b] is the index of byte b in HuffSplit.SYMBOLS (or -1)
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long[] PATTERN = new long[HuffSplit.SYMBOLS.length]; // each symbol, repeated in all 8 bytes
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class,ByteOrder.LITTLE_ENDIAN);
+    
+    static {
+        java.util.Arrays.fill(INDEX,(byte)-1);
+        for(int s = 0; s < HuffSplit.SYMBOLS.length; ++s) {
+            INDEX[HuffSplit.SYMBOLS[s]] = (byte)s;
+            PATTERN[s] = HuffSplit.SYMBOLS[s] * ONES;
+        }
+    }
+    
+    /* Mark the zero bytes of a word (exactly: unlike the usual (x-ONES) & ~x & HIGH, no false positives above a zero byte)
+     * INPUT:  A word
+     * OUTPUT: The word with the high bit of each zero byte set, and every other bit clear
+     */
+    private static long zeroBytes( long x ) {
+        return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+    
+    /* Validate a block of a message and add up its symbols
+     * INPUT:  The block (len bytes starting at off) and the counts to add to (counts[s] for HuffSplit.SYMBOLS[s]), or
+     *         null to only validate
+     * OUTPUT: The offset (from off) of the first byte that isn't a symbol, or -1 if there is none; counts gets the
+     *         symbols before that byte
+     */
+    public static int scan( byte[] b, int off, int len, int[] counts ) {
+        final int S = PATTERN.length;
+        int i = 0;
+        if(counts == null) {
+            for(; i+8 <= len; i += 8) {
+                long w = (long)WORD.get(b,off+i);
+                long valid = 0;
+                for(int s = 0; s < S; ++s) {
+                    valid |= zeroBytes(w ^ PATTERN[s]);
+                }
+                if(valid != HIGH) {
+                    return i + (Long.numberOfTrailingZeros(~valid & HIGH) >>> 3);
+                }
+            }
+        }
+        else {
+            int[] n = new int[S];
+            for(; i+8 <= len; i += 8) {
+                long w = (long)WORD.get(b,off+i);
+                long valid = 0;
+                for(int s = 0; s < S; ++s) {
+                    long z = zeroBytes(w ^ PATTERN[s]);
+                    n[s] += Long.bitCount(z);
+                    valid |= z;
+                }
+                if(valid != HIGH) { // uncount this word, and redo it below a byte at a time
+                    for(int s = 0; s < S; ++s) {
+                        n[s] -= Long.bitCount(zeroBytes(w ^ PATTERN[s]));
+                    }
+                    break;
+                }
+            }
+            for(int s = 0; s < S; ++s) {
+                counts[s] += n[s];
+            }
+        }
+        for(; i < len; ++i) {
+            int s = INDEX[b[off+i] & 0xFF];
+            if(s == -1) {
+                return i;
+            }
+            if(counts != null) {
+                ++counts[s];
+            }
+        }
+        return -1;
+    }
+    
+    /* Validate a whole message
+     * INPUT:  The message (L symbols starting at off)
+     * OUTPUT: Nothing; an InvalidSymbolException (with the position from off) is thrown if it isn't DNA
+     */
+    public static void validate( byte[] msg, int off, int L ) throws InvalidSymbolException {
+        int bad = scan(msg,off,L,null);
+        if(bad != -1) {
+            throw new InvalidSymbolException(bad,(char)(msg[off+bad] & 0xFF));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/* AUTHOR: Niema Moshiri
+ * Topology Tables
+ *
+ * The codes of all 165 topologies (see Topologies.pptx), as flat primitive tables indexed by topology*5 + symbol
+ * (symbols in HuffSplit.SYMBOLS order), so nothing has to be built per run or per segment. The tables are generated
+ * once, at class initialization, from the eight tree shapes (build() walks each shape's symbol assignments in topology
+ * order), rather than typed out by hand, so there is a single definition of the topologies:
+ *
+ * -LEN:  the length of the symbol's code (0 for single-symbol topologies, -1 if the symbol isn't in the topology)
+ * -CODE: the code itself (its LEN bits, most significant bit first)
+ *
+ * Codes are at most 4 bits, so decoding is a table lookup on the next 4 bits: DECODE_SYM and DECODE_LEN are indexed by
+ * topology*16 + window (the decoded symbol's index and the number of bits it used). All topologies are full binary
+ * trees, so every window decodes to some symbol. The tables are private, and read through the accessors below.
+ */
+import java.util.*;
+
+public final class Topologies {
+    // instance variables
+    public static final int MAX_LEN = 4;           // length of the longest code
+    private static final byte[] LEN = new byte[HuffSplit.NUMTOPS*5];
+    private static final byte[] CODE = new byte[HuffSplit.NUMTOPS*5];
+    private static final byte[] DECODE_SYM = new byte[HuffSplit.NUMTOPS << MAX_LEN];
+    private static final byte[] DECODE_LEN = new byte[HuffSplit.NUMTOPS << MAX_LEN];
+    static {
+        build(LEN,CODE,DECODE_SYM,DECODE_LEN);
+    }
+    
+    private Topologies() {}
+    
+    /* Fill the topology tables (what class initialization runs; public so the benchmarks can time it)
+     * INPUT:  The LEN and CODE tables (NUMTOPS*5 each), and the DECODE_SYM and DECODE_LEN tables (NUMTOPS << MAX_LEN
+     *         each)
+     */
+    public static void build( byte[] len, byte[] code, byte[] decodeSym, byte[] decodeLen ) {
+        Arrays.fill(len,(byte)-1);
+        int t = 0;
+        
+        // 1 symbol: a
+        for(int a = 0; a < 5; ++a) {
+            t = define(len,code,t,new int[]{a},"");
+        }
+        
+        // 2 symbols (a < b): a = 1, b = 0
+        for(int a = 0; a < 5; ++a) {
+            for(int b = a+1; b < 5; ++b) {
+                t = define(len,code,t,new int[]{a,b},"1","0");
+            }
+        }
+        
+        // 3 symbols: a = 1, then the pair b < c (of the others) = 01, 00
+        for(int a = 0; a < 5; ++a) {
+            int[] o = others(a);
+            for(int i = 0; i < 4; ++i) {
+                for(int j = i+1; j < 4; ++j) {
+                    t = define(len,code,t,new int[]{a,o[i],o[j]},"1","01","00");
+                }
+            }
+        }
+        
+        // 4 symbols, balanced: the four (lexicographic order of the sets) = 11, 10, 01, 00
+        for(int x = 4; x >= 0; --x) {
+            t = define(len,code,t,others(x),"11","10","01","00");
+        }
+        
+        // 4 symbols, unbalanced: a = 1, b = 01, then the smallest remaining symbol and one of the other two (as a
+        // sorted pair) = 001, 000
+        for(int a = 0; a < 5; ++a) {
+            for(int b = 0; b < 5; ++b) {
+                if(b != a) {
+                    int[] r = others(a,b);
+                    for(int k = 1; k < 3; ++k) {
+                        t = define(len,code,t,new int[]{a,b,r[0],r[k]},"1","01","001","000");
+                    }
+                }
+            }
+        }
+        
+        // 5 symbols, a path: a = 1, b = 01, c = 001, then the sorted remaining pair = 0001, 0000
+        for(int a = 0; a < 5; ++a) {
+            for(int b = 0; b < 5; ++b) {
+                for(int c = 0; c < 5; ++c) {
+                    if(b != a && c != a && c != b) {
+                        int[] r = others(a,b,c);
+                        t = define(len,code,t,new int[]{a,b,c,r[0],r[1]},"1","01","001","0001","0000");
+                    }
+                }
+            }
+        }
+        
+        // 5 symbols, three at depth 2: the three (colexicographic order of the sets) = 11, 10, 01, then the sorted
+        // remaining pair = 001, 000
+        for(int z = 2; z < 5; ++z) {
+            for(int y = 1; y < z; ++y) {
+                for(int x = 0; x < y; ++x) {
+                    int[] r = others(x,y,z);
+                    t = define(len,code,t,new int[]{x,y,z,r[0],r[1]},"11","10","01","001","000");
+                }
+            }
+        }
+        
+        // 5 symbols, four at depth 3: a = 1, then the other four = 011, 010, 001, 000
+        for(int a = 0; a < 5; ++a) {
+            int[] o = others(a);
+            t = define(len,code,t,new int[]{a,o[0],o[1],o[2],o[3]},"1","011","010","001","000");
+        }
+        
+        // decoding tables: every MAX_LEN-bit window that starts with a code decodes to its symbol
+        for(int top = 0; top < t; ++top) {
+            for(int s = 0; s < 5; ++s) {
+                int l = len[top*5+s];
+                if(l > 0) {
+                    int first = code[top*5+s] << (MAX_LEN-l);
+                    for(int w = first; w < first + (1 << (MAX_LEN-l)); ++w) {
+                        decodeSym[(top << MAX_LEN) | w] = (byte)s;
+                        decodeLen[(top << MAX_LEN) | w] = (byte)l;
+                    }
+                }
+            }
+        }
+    }
+    
+    /* Set the codes of one topology
+     * INPUT:  The LEN and CODE tables, the topology, its symbols, and their codes (as strings of bits)
+     * OUTPUT: The next topology
+     */
+    private static int define( byte[] len, byte[] code, int top, int[] syms, String... codes ) {
+        for(int i = 0; i < syms.length; ++i) {
+            len[top*5+syms[i]] = (byte)codes[i].length();
+            code[top*5+syms[i]] = (byte)(codes[i].isEmpty() ? 0 : Integer.parseInt(codes[i],2));
+        }
+        return top + 1;
+    }
+    
+    /* The symbols that aren't excluded, in increasing order
+     */
+    private static int[] others( int... excluded ) {
+        int[] out = new int[5 - excluded.length];
+        int n = 0;
+        for(int s = 0; s < 5; ++s) {
+            boolean in = false;
+            for(int x : excluded) {
+                in |= x == s;
+            }
+            if(!in) {
+                out[n++] = s;
+            }
+        }
+        return out;
+    }
+    
+    /* Length of a symbol's code in a topology
+     * INPUT:  The topology and the symbol's index in SYMBOLS
+     * OUTPUT: The number of bits of its code (0 for single-symbol topologies), or -1 if the symbol isn't in the topology
+     */
+    public static int length( int top, int sym ) {
+        return LEN[top*5+sym];
+    }
+    
+    /* A symbol's code in a topology
+     * INPUT:  The topology and the symbol's index in SYMBOLS (which must be in the topology)
+     * OUTPUT: The code's bits (the low length(top,sym) bits, most significant bit first)
+     */
+    public static int code( int top, int sym ) {
+        return CODE[top*5+sym];
+    }
+    
+    /* Bitmask of the symbols of a topology
+     * INPUT:  The topology
+     * OUTPUT: An int with bit i set if SYMBOLS[i] is in the topology
+     */
+    public static int alphabet( int top ) {
+        int mask = 0;
+        for(int s = 0; s < 5; ++s) {
+            if(LEN[top*5+s] != -1) {
+                mask |= 1 << s;
+            }
+        }
+        return mask;
+    }
+    
+    /* Decode the next symbol of a multi-symbol topology
+     * INPUT:  The topology and the next MAX_LEN bits of the stream (most significant bit first, zero-padded at the end)
+     * OUTPUT: The symbol's index in SYMBOLS
+     */
+    public static int decodeSymbol( int top, int window ) {
+        return DECODE_SYM[(top << MAX_LEN) | window];
+    }
+    
+    /* Number of bits used by the next symbol of a multi-symbol topology
+     * INPUT:  The topology and the next MAX_LEN bits of the stream (as in decodeSymbol)
+     * OUTPUT: The length of the symbol's code
+     */
+    public static int decodeLength( int top, int window ) {
+        return DECODE_LEN[(top << MAX_LEN) | window];
+    }
+}
@@ -0,0 +1,79 @@
+/* AUTHOR: Niema Moshiri
+ * JMH Benchmarks of One-Pass Adaptive vs. Split Compression
+ *
+ * Compresses the same message with the split DP (HuffSplit.compress) and with the one-pass adaptive Huffman coder
+ * (AdaptiveCoder), and decompresses the adaptive stream; the "bases" counter reports throughput in bases per second. The
+ * compressed sizes of both (the ratio) are printed when each trial is set up. The default inputs are the hg19 chr1 test
+ * string from Project Files (repeated to the length; run from the java directory) and a synthetic message with shifting
+ * composition, with the default symbol set (ACGTN) and ACGT.
+ */
+package huffsplit.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class AdaptiveBenchmark {
+    // instance variables
+    @Param({"1000000"})
+    public int length;
+    @Param({"file:../Project Files/Tests/hg19 chr1 (no N)/TEST.TXT.gz","shifting"})
+    public String composition;
+    @Param({"ACGTN","ACGT"})
+    public String symbols;
+    @Param({"65536"})
+    public int reset;
+    private byte[] msg;
+    private byte[] set;
+    private byte[] adaptive;
+    private Object ws;
+    
+    /* Generate the message, compress it both ways, and print the compressed sizes
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        msg = Inputs.generate(length,composition,0,42);
+        set = symbols.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Core.compressAdaptive(msg,out,set,reset);
+        adaptive = out.toByteArray();
+        int split = Core.compress(msg).length;
+        ws = Core.workspace();
+        System.out.println();
+        System.out.println("split:    " + split + " bytes (" + String.format("%.4f",8.0*split/length) + " bits/base)");
+        System.out.println("adaptive: " + adaptive.length + " bytes (" + String.format("%.4f",8.0*adaptive.length/length) + " bits/base)");
+    }
+    
+    @Benchmark
+    public DataOutputStream split( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        int last = Core.forwardDP(msg,length,ws);
+        Core.findSegments(length,last,ws);
+        DataOutputStream out = Core.sink(ws);
+        Core.encodeSegments(msg,length,ws,out);
+        return out;
+    }
+    
+    @Benchmark
+    public DataOutputStream adaptiveCompress( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        DataOutputStream out = Core.sink(ws);
+        Core.compressAdaptive(msg,out,set,reset);
+        return out;
+    }
+    
+    @Benchmark
+    public DataOutputStream adaptiveDecode( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        DataOutputStream out = Core.sink(ws);
+        Core.decompress(adaptive,out);
+        return out;
+    }
+}
@@ -0,0 +1,24 @@
+/* AUTHOR: Niema Moshiri
+ * Benchmark Runner
+ *
+ * USAGE:
+ * -Run:        java -jar bench/target/benchmarks.jar [JMH options]
+ *
+ * Same as JMH's own runner, except that results are written as JSON to jmh-result.json unless -rf/-rff are given, so
+ * every run leaves a machine-readable record that can be compared across versions.
+ */
+package huffsplit.bench;
+
+import java.util.*;
+
+public final class BenchMain {
+    /* Main Method
+     */
+    public static void main( String[] args ) throws Exception {
+        List<String> opts = new ArrayList<String>(Arrays.asList(args));
+        if(!opts.contains("-rf") && !opts.contains("-rff")) {
+            opts.addAll(0,Arrays.asList("-rf","json","-rff","jmh-result.json"));
+        }
+        org.openjdk.jmh.Main.main(opts.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,82 @@
+/* AUTHOR: Niema Moshiri
+ * JMH Benchmarks of the Compress and Decompress Phases
+ *
+ * Each benchmark runs one phase over a whole message (see Inputs.java for the parameters), and the "bases" counter
+ * reports throughput in bases per second:
+ * -forwardDP:  the forward DP (HuffSplit.forwardDP)
+ * -backtrack:  reconstructing the segments from the backtrack matrix (HuffSplit.findSegments)
+ * -encode:     encoding the segments (HuffSplit.encodeSegments)
+ * -decode:     decompressing the HuffSplit stream (HuffSplit.decompress)
+ */
+package huffsplit.bench;
+
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class CodecBenchmark {
+    // instance variables
+    @Param({"100000","1000000"})
+    public int length;
+    @Param({"uniform","skewed","shifting"})
+    public String composition;
+    @Param({"0","0.05"})
+    public double nContent;
+    private byte[] msg;
+    private byte[] hsf;
+    private Object ws;
+    private int last;
+    
+    /* Bases processed (reported by JMH as a rate)
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bases {
+        public long bases;
+    }
+    
+    /* Generate the message, and run every phase once so each benchmark finds the state it needs
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        msg = Inputs.generate(length,composition,nContent,42);
+        hsf = Core.compress(msg);
+        ws = Core.workspace();
+        last = Core.forwardDP(msg,length,ws);
+        Core.findSegments(length,last,ws);
+    }
+    
+    @Benchmark
+    public int forwardDP( Bases b ) {
+        b.bases += length;
+        return Core.forwardDP(msg,length,ws);
+    }
+    
+    @Benchmark
+    public int backtrack( Bases b ) {
+        b.bases += length;
+        return Core.findSegments(length,last,ws);
+    }
+    
+    @Benchmark
+    public DataOutputStream encode( Bases b ) {
+        b.bases += length;
+        DataOutputStream out = Core.sink(ws);
+        Core.encodeSegments(msg,length,ws,out);
+        return out;
+    }
+    
+    @Benchmark
+    public DataOutputStream decode( Bases b ) {
+        b.bases += length;
+        DataOutputStream out = Core.sink(ws);
+        Core.decompress(hsf,out);
+        return out;
+    }
+}
@@ -0,0 +1,236 @@
+/* AUTHOR: Niema Moshiri
+ * Bridge from the Benchmarks to the HuffSplit Classes
+ *
+ * The HuffSplit classes live in the unnamed package (so "javac *.java" works), which named packages can't import, and
+ * JMH refuses benchmarks in the unnamed package. So the benchmarks call HuffSplit through method handles, which are
+ * looked up once and stored in static final fields: the JIT treats those as constants and inlines their targets, so a
+ * call costs the same as a direct one. Types from the unnamed package (CodecWorkspace, etc.) are passed as Object.
+ */
+package huffsplit.bench;
+
+import java.io.*;
+import java.lang.invoke.*;
+
+public final class Core {
+    // instance variables
+    private static final MethodHandle WORKSPACE;      // () -> CodecWorkspace
+    private static final MethodHandle SINK;           // (CodecWorkspace) -> CodecWorkspace.Sink
+    private static final MethodHandle FORWARD_DP;     // (byte[],int,int,CodecWorkspace) -> int
+    private static final MethodHandle FIND_SEGMENTS;  // (int,int,CodecWorkspace) -> void
+    private static final MethodHandle NUM_SEGS;       // (CodecWorkspace) -> int
+    private static final MethodHandle ENCODE;         // (byte[],int,int,CodecWorkspace,DataOutputStream,HuffSplitIndex) -> void
+    private static final MethodHandle DECOMPRESS;     // (DataInputStream,DataOutputStream) -> void
+    private static final MethodHandle TOPOLOGIES;     // (byte[],byte[],byte[],byte[]) -> void
+    private static final MethodHandle ORDER1;         // (byte[],int,int,DataOutputStream,boolean) -> void
+    private static final MethodHandle RANS;           // (byte[],int,int,DataOutputStream,boolean) -> void
+    private static final MethodHandle ADAPTIVE;       // (InputStream,OutputStream,byte[],int) -> void
+    private static final MethodHandle EVENT_DP;       // (byte[],int,int) -> EventDP
+    private static final MethodHandle EVENT_FORWARD;  // (EventDP) -> int
+    private static final MethodHandle EVENT_SEGMENTS; // (EventDP,int,CodecWorkspace) -> void
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> hs = Class.forName("HuffSplit");
+            Class<?> ws = Class.forName("CodecWorkspace");
+            Class<?> sink = Class.forName("CodecWorkspace$Sink");
+            Class<?> index = Class.forName("HuffSplitIndex");
+            WORKSPACE = lookup.findStatic(ws,"get",MethodType.methodType(ws))
+                .asType(MethodType.methodType(Object.class));
+            SINK = lookup.findVirtual(ws,"sink",MethodType.methodType(sink))
+                .asType(MethodType.methodType(DataOutputStream.class,Object.class));
+            FORWARD_DP = lookup.findStatic(hs,"forwardDP",MethodType.methodType(int.class,byte[].class,int.class,int.class,ws))
+                .asType(MethodType.methodType(int.class,byte[].class,int.class,int.class,Object.class));
+            FIND_SEGMENTS = lookup.findStatic(hs,"findSegments",MethodType.methodType(void.class,int.class,int.class,ws))
+                .asType(MethodType.methodType(void.class,int.class,int.class,Object.class));
+            NUM_SEGS = lookup.findGetter(ws,"numSegs",int.class)
+                .asType(MethodType.methodType(int.class,Object.class));
+            ENCODE = lookup.findStatic(hs,"encodeSegments",MethodType.methodType(void.class,byte[].class,int.class,int.class,ws,DataOutputStream.class,index))
+                .asType(MethodType.methodType(void.class,byte[].class,int.class,int.class,Object.class,DataOutputStream.class,Object.class));
+            DECOMPRESS = lookup.findStatic(hs,"decompress",MethodType.methodType(void.class,DataInputStream.class,DataOutputStream.class));
+            TOPOLOGIES = lookup.findStatic(Class.forName("Topologies"),"build",MethodType.methodType(void.class,byte[].class,byte[].class,byte[].class,byte[].class));
+            ORDER1 = lookup.findStatic(Class.forName("Order1Coder"),"compress",MethodType.methodType(void.class,byte[].class,int.class,int.class,DataOutputStream.class,boolean.class));
+            RANS = lookup.findStatic(Class.forName("RansCoder"),"compress",MethodType.methodType(void.class,byte[].class,int.class,int.class,DataOutputStream.class,boolean.class));
+            ADAPTIVE = lookup.findStatic(Class.forName("AdaptiveCoder"),"compress",MethodType.methodType(void.class,InputStream.class,OutputStream.class,byte[].class,int.class));
+            Class<?> event = Class.forName("EventDP");
+            EVENT_DP = lookup.findConstructor(event,MethodType.methodType(void.class,byte[].class,int.class,int.class))
+                .asType(MethodType.methodType(Object.class,byte[].class,int.class,int.class));
+            EVENT_FORWARD = lookup.findVirtual(event,"forward",MethodType.methodType(int.class))
+                .asType(MethodType.methodType(int.class,Object.class));
+            EVENT_SEGMENTS = lookup.findVirtual(event,"findSegments",MethodType.methodType(void.class,int.class,ws))
+                .asType(MethodType.methodType(void.class,Object.class,int.class,Object.class));
+        } catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private Core() {}
+    
+    /* The calling thread's CodecWorkspace
+     */
+    public static Object workspace() {
+        try {
+            return (Object)WORKSPACE.invokeExact();
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* The (emptied) output buffer of a workspace
+     */
+    public static DataOutputStream sink( Object ws ) {
+        try {
+            return (DataOutputStream)SINK.invokeExact(ws);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* HuffSplit.forwardDP
+     */
+    public static int forwardDP( byte[] msg, int L, Object ws ) {
+        try {
+            return (int)FORWARD_DP.invokeExact(msg,0,L,ws);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* HuffSplit.findSegments (returns the number of segments)
+     */
+    public static int findSegments( int L, int last, Object ws ) {
+        try {
+            FIND_SEGMENTS.invokeExact(L,last,ws);
+            return (int)NUM_SEGS.invokeExact(ws);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* EventDP: prefix counts, forward pass, and backtrack (returns the number of segments)
+     */
+    public static int eventDP( byte[] msg, int L, Object ws ) {
+        try {
+            Object dp = (Object)EVENT_DP.invokeExact(msg,0,L);
+            int last = (int)EVENT_FORWARD.invokeExact(dp);
+            EVENT_SEGMENTS.invokeExact(dp,last,ws);
+            return (int)NUM_SEGS.invokeExact(ws);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* HuffSplit.encodeSegments (without an index)
+     */
+    public static void encodeSegments( byte[] msg, int L, Object ws, DataOutputStream out ) {
+        try {
+            ENCODE.invokeExact(msg,0,L,ws,out,(Object)null);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* HuffSplit.decompress of an in-memory HuffSplit stream
+     */
+    public static void decompress( byte[] hsf, DataOutputStream out ) {
+        try {
+            DECOMPRESS.invokeExact(new DataInputStream(new ByteArrayInputStream(hsf)),out);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* Topologies.build
+     */
+    public static void buildTopologies( byte[] len, byte[] code, byte[] decodeSym, byte[] decodeLen ) {
+        try {
+            TOPOLOGIES.invokeExact(len,code,decodeSym,decodeLen);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* Order1Coder.compress (with the full backtrack matrix)
+     */
+    public static void compressOrder1( byte[] msg, DataOutputStream out ) {
+        try {
+            ORDER1.invokeExact(msg,0,msg.length,out,false);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* RansCoder.compress (with the full backtrack matrix)
+     */
+    public static void compressRans( byte[] msg, DataOutputStream out ) {
+        try {
+            RANS.invokeExact(msg,0,msg.length,out,false);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* AdaptiveCoder.compress of an in-memory message
+     */
+    public static void compressAdaptive( byte[] msg, OutputStream out, byte[] symbols, int reset ) {
+        try {
+            ADAPTIVE.invokeExact((InputStream)new ByteArrayInputStream(msg),out,symbols,reset);
+        } catch(Throwable t) {
+            throw unchecked(t);
+        }
+    }
+    
+    /* Compress a message (for setting up the decoder benchmark)
+     */
+    public static byte[] compress( byte[] msg ) {
+        Object ws = workspace();
+        int L = msg.length;
+        findSegments(L,forwardDP(msg,L,ws),ws);
+        DataOutputStream out = sink(ws);
+        encodeSegments(msg,L,ws,out);
+        return toByteArray(out);
+    }
+    
+    /* Compress a message with rANS segments (for setting up the decoder benchmark)
+     */
+    public static byte[] compressRans( byte[] msg ) {
+        DataOutputStream out = sink(workspace());
+        compressRans(msg,out);
+        return toByteArray(out);
+    }
+    
+    /* The contents of a workspace's output buffer (setup only, so plain reflection is fine)
+     */
+    private static byte[] toByteArray( DataOutputStream out ) {
+        try {
+            return (byte[])out.getClass().getMethod("toByteArray").invoke(out);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /* A message from DnaGenerator with uniform regime lengths of the given mean (setup only, so plain reflection is fine)
+     */
+    public static byte[] synthetic( int length, double segmentMean, long seed ) {
+        try {
+            Class<?> gen = Class.forName("DnaGenerator");
+            Object g = gen.getConstructor(long.class).newInstance(seed);
+            gen.getField("segmentDist").set(g,"uniform");
+            gen.getField("segmentMean").set(g,segmentMean);
+            return (byte[])gen.getMethod("generate",int.class).invoke(g,length);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /* Rethrow anything a method handle threw as an unchecked exception
+     */
+    private static RuntimeException unchecked( Throwable t ) {
+        if(t instanceof RuntimeException) {
+            return (RuntimeException)t;
+        }
+        if(t instanceof Error) {
+            throw (Error)t;
+        }
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,50 @@
+/* AUTHOR: Niema Moshiri
+ * JMH Benchmarks of the Event-Driven vs. the Per-Symbol DP
+ *
+ * Finds the optimal cuts of the same message with the full-matrix DP (HuffSplit.forwardDP and findSegments) and with
+ * the event-driven DP (EventDP, which jumps over runs of one symbol); the "bases" counter reports throughput in bases
+ * per second. Both give the same segments. The N content is the fraction of the message replaced by N blocks (runs of
+ * 100-2000 symbols, see Inputs), which is where the event-driven DP jumps.
+ */
+package huffsplit.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class EventBenchmark {
+    // instance variables
+    @Param({"1000000"})
+    public int length;
+    @Param({"uniform","shifting"})
+    public String composition;
+    @Param({"0","0.5","0.9"})
+    public double nContent;
+    private byte[] msg;
+    private Object ws;
+    
+    /* Generate the message
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        msg = Inputs.generate(length,composition,nContent,42);
+        ws = Core.workspace();
+    }
+    
+    @Benchmark
+    public int fullDP( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        return Core.findSegments(length,Core.forwardDP(msg,length,ws),ws);
+    }
+    
+    @Benchmark
+    public int eventDP( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        return Core.eventDP(msg,length,ws);
+    }
+}
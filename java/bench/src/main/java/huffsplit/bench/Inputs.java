@@ -0,0 +1,87 @@
+/* AUTHOR: Niema Moshiri
+ * Benchmark Inputs
+ *
+ * Reproducible synthetic messages, parameterized by composition and N content:
+ * -uniform:  i.i.d. A, C, G, and T (few segments: one topology fits everything)
+ * -skewed:   i.i.d. with A/C/G/T probabilities 0.6/0.2/0.15/0.05
+ * -shifting: piecewise regimes of 1-11k symbols over random 1-4 symbol subsets with random skew (many segments), from
+ *            DnaGenerator (see Core.synthetic)
+ * -file:PATH: the symbols of a file (gzipped if PATH ends in .gz), repeated as needed to fill the length
+ * N content is the fraction of the message replaced by N blocks (of 100-2000 symbols).
+ */
+package huffsplit.bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+public final class Inputs {
+    // instance variables
+    private static final byte[] ACGT = {'A','C','G','T'};
+    
+    private Inputs() {}
+    
+    /* Generate a message
+     * INPUT:  The length, the composition ("uniform", "skewed", "shifting", or "file:PATH"), the N content, and the seed
+     * OUTPUT: The message (one byte per symbol)
+     */
+    public static byte[] generate( int length, String composition, double nContent, long seed ) {
+        Random rng = new Random(seed);
+        byte[] msg = new byte[length];
+        if(composition.startsWith("file:")) {
+            byte[] data = read(composition.substring(5));
+            for(int i = 0; i < length; i += data.length) {
+                System.arraycopy(data,0,msg,i,Math.min(data.length,length-i));
+            }
+            composition = "file";
+        }
+        switch(composition) {
+            case "file":
+                break;
+            case "uniform":
+                for(int i = 0; i < length; ++i) {
+                    msg[i] = ACGT[rng.nextInt(4)];
+                }
+                break;
+            case "skewed":
+                for(int i = 0; i < length; ++i) {
+                    double r = rng.nextDouble();
+                    msg[i] = ACGT[(r < 0.6) ? 0 : (r < 0.8) ? 1 : (r < 0.95) ? 2 : 3];
+                }
+                break;
+            case "shifting":
+                System.arraycopy(Core.synthetic(length,5500,seed),0,msg,0,length);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown composition: " + composition);
+        }
+        long ns = (long)(nContent * length);
+        while(ns > 0) {
+            int len = (int)Math.min(ns,100 + rng.nextInt(1901));
+            int start = rng.nextInt(Math.max(1,length-len+1));
+            Arrays.fill(msg,start,Math.min(length,start+len),(byte)'N');
+            ns -= len;
+        }
+        return msg;
+    }
+    
+    /* Read the symbols of a (possibly gzipped) file, without line breaks
+     */
+    private static byte[] read( String path ) {
+        try(InputStream in = path.endsWith(".gz") ? new GZIPInputStream(Files.newInputStream(Paths.get(path))) : Files.newInputStream(Paths.get(path))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for(byte b : in.readAllBytes()) {
+                if(b != '\n' && b != '\r') {
+                    out.write(b);
+                }
+            }
+            if(out.size() == 0) {
+                throw new IllegalArgumentException("Empty input file: " + path);
+            }
+            return out.toByteArray();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
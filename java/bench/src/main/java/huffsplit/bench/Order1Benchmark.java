@@ -0,0 +1,60 @@
+/* AUTHOR: Niema Moshiri
+ * JMH Benchmarks of Order-1 vs. Order-0 Compression
+ *
+ * Compresses the same message with order-0 segments (HuffSplit.compress) and with order-1 segments (Order1Coder), and
+ * the "bases" counter reports throughput in bases per second. The compressed sizes of both (the ratio) are printed when
+ * each trial is set up. The default inputs are the hg19 chr1 test string from Project Files (repeated to the length;
+ * run from the java directory) and a synthetic message with shifting composition.
+ */
+package huffsplit.bench;
+
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class Order1Benchmark {
+    // instance variables
+    @Param({"1000000"})
+    public int length;
+    @Param({"file:../Project Files/Tests/hg19 chr1 (no N)/TEST.TXT.gz","shifting"})
+    public String composition;
+    private byte[] msg;
+    private Object ws;
+    
+    /* Generate the message and print the compressed size of both coders
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        msg = Inputs.generate(length,composition,0,42);
+        ws = Core.workspace();
+        int order0 = order0(new CodecBenchmark.Bases()).size();
+        int order1 = order1(new CodecBenchmark.Bases()).size();
+        System.out.println();
+        System.out.println("order-0: " + order0 + " bytes (" + String.format("%.4f",8.0*order0/length) + " bits/base)");
+        System.out.println("order-1: " + order1 + " bytes (" + String.format("%.4f",8.0*order1/length) + " bits/base)");
+    }
+    
+    @Benchmark
+    public DataOutputStream order0( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        int last = Core.forwardDP(msg,length,ws);
+        Core.findSegments(length,last,ws);
+        DataOutputStream out = Core.sink(ws);
+        Core.encodeSegments(msg,length,ws,out);
+        return out;
+    }
+    
+    @Benchmark
+    public DataOutputStream order1( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        DataOutputStream out = Core.sink(ws);
+        Core.compressOrder1(msg,out);
+        return out;
+    }
+}
@@ -0,0 +1,69 @@
+/* AUTHOR: Niema Moshiri
+ * JMH Benchmarks of rANS vs. Huffman Segments
+ *
+ * Compresses the same message with Huffman segments (HuffSplit.compress) and with rANS segments (RansCoder), and times
+ * compressing and decompressing each; the "bases" counter reports throughput in bases per second. The compressed sizes
+ * of both (the ratio) are printed when each trial is set up. The default inputs are the hg19 chr1 test string from
+ * Project Files (repeated to the length; run from the java directory), a synthetic message with shifting composition,
+ * and a skewed one.
+ */
+package huffsplit.bench;
+
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class RansBenchmark {
+    // instance variables
+    @Param({"1000000"})
+    public int length;
+    @Param({"file:../Project Files/Tests/hg19 chr1 (no N)/TEST.TXT.gz","shifting","skewed"})
+    public String composition;
+    private byte[] msg;
+    private byte[] huffman;
+    private byte[] rans;
+    private Object ws;
+    
+    /* Generate the message, compress it both ways, and print the compressed sizes
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        msg = Inputs.generate(length,composition,0,42);
+        huffman = Core.compress(msg);
+        rans = Core.compressRans(msg);
+        ws = Core.workspace();
+        System.out.println();
+        System.out.println("Huffman: " + huffman.length + " bytes (" + String.format("%.4f",8.0*huffman.length/length) + " bits/base)");
+        System.out.println("rANS:    " + rans.length + " bytes (" + String.format("%.4f",8.0*rans.length/length) + " bits/base)");
+    }
+    
+    @Benchmark
+    public DataOutputStream ransCompress( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        DataOutputStream out = Core.sink(ws);
+        Core.compressRans(msg,out);
+        return out;
+    }
+    
+    @Benchmark
+    public DataOutputStream huffmanDecode( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        DataOutputStream out = Core.sink(ws);
+        Core.decompress(huffman,out);
+        return out;
+    }
+    
+    @Benchmark
+    public DataOutputStream ransDecode( CodecBenchmark.Bases b ) {
+        b.bases += length;
+        DataOutputStream out = Core.sink(ws);
+        Core.decompress(rans,out);
+        return out;
+    }
+}
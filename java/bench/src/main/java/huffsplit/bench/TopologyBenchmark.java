@@ -0,0 +1,34 @@
+/* AUTHOR: Niema Moshiri
+ * JMH Benchmark of the Topology Setup
+ *
+ * The cost of generating the code and decoding tables of all 165 topologies (Topologies.build), which is what the
+ * initialization of the Topologies class runs once per JVM.
+ */
+package huffsplit.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopologyBenchmark {
+    public static final int NUMTOPS = 165;
+    public static final int MAX_LEN = 4;
+    
+    @Benchmark
+    public void build( Blackhole bh ) {
+        byte[] len = new byte[NUMTOPS*5];
+        byte[] code = new byte[NUMTOPS*5];
+        byte[] decodeSym = new byte[NUMTOPS << MAX_LEN];
+        byte[] decodeLen = new byte[NUMTOPS << MAX_LEN];
+        Core.buildTopologies(len,code,decodeSym,decodeLen);
+        bh.consume(len);
+        bh.consume(code);
+        bh.consume(decodeSym);
+        bh.consume(decodeLen);
+    }
+}
@@ -0,0 +1,89 @@
+/* AUTHOR: Niema Moshiri
+ * Allocation Regression Check for the Codec Hot Paths
+ *
+ * USAGE:
+ * -Check:      mvn test (runs it from core/pom.xml, after compiling it from core/src/test/java)
+ * -Check:      java -cp core/target/classes:core/target/test-classes AllocationCheck [length] [iterations]
+ *
+ * Compresses and decompresses the same synthetic message (shifting composition, homopolymer runs, and N gaps, so it has
+ * plenty of segments) over and over on one thread with HuffSplitCodec, and measures the bytes allocated per call with
+ * the JVM's per-thread allocation counter. The result arrays are expected; anything beyond them is overhead, and the
+ * check fails (exit status 1) if the overhead of a call exceeds MAX_BYTES_PER_CALL + MAX_BYTES_PER_BASE * length, i.e.,
+ * if something on the hot path starts allocating per base (or per segment) again. The default length is the longest
+ * message whose backtrack matrix CodecWorkspace keeps between calls. It is a test class, so it isn't in huffsplit.jar.
+ */
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+public class AllocationCheck {
+    // instance variables
+    public static final double MAX_BYTES_PER_BASE = 0.01;  // allowed overhead per base (after warm-up)
+    public static final long MAX_BYTES_PER_CALL = 1 << 13;  // allowed fixed overhead per call (streams, exceptions, etc.)
+    public static final int WARMUP = 5;                     // calls before measuring (buffers grow, JIT compiles)
+    
+    /* Main Method
+     */
+    public static void main( String[] args ) throws Exception {
+        int L = (args.length > 0) ? Integer.parseInt(args[0]) : CodecWorkspace.RETAIN_BLOCKS << CodecWorkspace.BLOCK_SHIFT;
+        if(L > CodecWorkspace.RETAIN_BLOCKS << CodecWorkspace.BLOCK_SHIFT) {
+            System.err.println("WARNING: Length is above what CodecWorkspace retains between calls, so compress will reallocate its backtrack");
+        }
+        int ITERS = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if(!mx.isThreadAllocatedMemorySupported()) {
+            System.err.println("ERROR: This JVM can't measure per-thread allocation"); System.exit(-1);
+        }
+        mx.setThreadAllocatedMemoryEnabled(true);
+        byte[] msg = message(L,42);
+        HuffSplitCodec codec = new HuffSplitCodec();
+        long tid = Thread.currentThread().getId();
+        
+        // warm up
+        byte[] hsf = null;
+        for(int i = 0; i < WARMUP; ++i) {
+            hsf = codec.compress(msg);
+            if(!Arrays.equals(codec.decompress(hsf),msg)) {
+                System.err.println("ERROR: Roundtrip failed"); System.exit(-1);
+            }
+        }
+        
+        // measure
+        long compressBytes = 0;
+        long decompressBytes = 0;
+        for(int i = 0; i < ITERS; ++i) {
+            long a0 = mx.getThreadAllocatedBytes(tid);
+            hsf = codec.compress(msg);
+            long a1 = mx.getThreadAllocatedBytes(tid);
+            byte[] out = codec.decompress(hsf);
+            long a2 = mx.getThreadAllocatedBytes(tid);
+            compressBytes += (a1 - a0) - hsf.length;
+            decompressBytes += (a2 - a1) - out.length;
+        }
+        boolean ok = report("compress",compressBytes/ITERS,L);
+        ok &= report("decompress",decompressBytes/ITERS,L);
+        System.exit(ok ? 0 : 1);
+    }
+    
+    /* Print the overhead of one path and check it against the limits
+     * OUTPUT: true if it is within the limits
+     */
+    static boolean report( String name, long overhead, int L ) {
+        double perBase = (double)overhead / L;
+        boolean ok = overhead <= MAX_BYTES_PER_CALL + MAX_BYTES_PER_BASE * L;
+        System.out.println(name + "\t" + overhead + " bytes/call\t" + String.format("%.5f",perBase) + " bytes/base\t" + (ok ? "OK" : "REGRESSION"));
+        return ok;
+    }
+    
+    /* A reproducible synthetic message with composition shifts, homopolymer runs, and N gaps
+     */
+    static byte[] message( int L, long seed ) {
+        DnaGenerator gen = new DnaGenerator(seed);
+        gen.segmentDist = "uniform";
+        gen.segmentMean = 2500;
+        gen.homopolymerRate = 1e-4;
+        gen.homopolymerMean = 200;
+        gen.gapRate = 2e-5;
+        gen.gapMean = 2500;
+        return gen.generate(L);
+    }
+}